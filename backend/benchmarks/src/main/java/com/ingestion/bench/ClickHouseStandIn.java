@@ -0,0 +1,1085 @@
+package com.ingestion.bench;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import ru.yandex.clickhouse.response.ClickHouseLZ4Stream;
+import ru.yandex.clickhouse.util.ClickHouseLZ4OutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// In-process stand-in for ClickHouse's HTTP interface, so the service can be load-tested
+// without a cluster. It answers the statements the service sends: the driver's handshake,
+// SHOW TABLES, system.columns/tables/parts, CREATE/DROP/TRUNCATE TABLE, INSERT in
+// TabSeparated or RowBinary, EXPLAIN, and single-table SELECTs of columns, count(), sum(),
+// min() and max() with GROUP BY, LIMIT and OFFSET. WHERE takes an AND chain of `col = 'x'`,
+// `col IN (...)` and bare UInt8 column terms, plus `database = currentDatabase()` and `1`;
+// any other term fails the query rather than returning unfiltered rows. Joins, ORDER BY,
+// SAMPLE and SETTINGS are accepted and ignored, so results have the right shape but not
+// necessarily the right order or join matches. Each table
+// keeps its first maxStoredRows rows for SELECTs and only counts the rest.
+public final class ClickHouseStandIn implements Closeable {
+    public static final String VERSION = "22.8.1.1";
+
+    private static final Pattern FORMAT = Pattern.compile("(?is)^(.*?)\\s+FORMAT\\s+(\\w+)\\s*;?\\s*$");
+    private static final Pattern CREATE = Pattern.compile(
+            "(?is)^CREATE\\s+TABLE\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?(\\S+?)\\s*\\((.*)\\)\\s*ENGINE\\b.*$");
+    private static final Pattern DROP = Pattern.compile(
+            "(?is)^(DROP|TRUNCATE)\\s+TABLE\\s+(?:IF\\s+EXISTS\\s+)?(\\S+)\\s*$");
+    private static final Pattern INSERT = Pattern.compile(
+            "(?is)^INSERT\\s+INTO\\s+(\\S+?)\\s*(?:\\((.*?)\\))?\\s*FORMAT\\s+(\\w+)\\s*$");
+    private static final Pattern SELECT = Pattern.compile("(?is)^SELECT\\s+(?:DISTINCT\\s+)?(.+?)\\s+FROM\\s+(\\S+)(.*)$");
+    private static final Pattern LIMIT = Pattern.compile(
+            "(?i)\\bLIMIT\\s+(\\d+)(?:\\s*,\\s*(\\d+))?(?:\\s+OFFSET\\s+(\\d+))?");
+    private static final Pattern AGGREGATE = Pattern.compile("(?i)^(count|sum|min|max)\\((.*)\\)$");
+    private static final Pattern EQUALS = Pattern.compile("(?s)^(\\S+)\\s*=\\s*('(?:[^'\\\\]|\\\\.)*'|-?[0-9.]+)$");
+    private static final Pattern REFERENCE = Pattern.compile("^(`(?:[^`]|``)*`|\\w+)(\\.(`(?:[^`]|``)*`|\\w+))*$");
+    private static final Pattern IN = Pattern.compile("(?is)^(\\S+)\\s+IN\\s*\\((.*)\\)$");
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
+            .withZone(ZoneOffset.UTC);
+
+    private static final class Table {
+        final String name;
+        final List<String> columns;
+        final List<String> types;
+        // Values of the columns an insert leaves out
+        final String[] defaults;
+        final List<String[]> rows = new ArrayList<>();
+        long rowCount;
+        long bytes;
+
+        Table(String name, List<String> columns, List<String> types) {
+            this.name = name;
+            this.columns = columns;
+            this.types = types;
+            defaults = new String[types.size()];
+            for (int i = 0; i < defaults.length; i++) {
+                defaults[i] = defaultValue(types.get(i));
+            }
+        }
+
+        synchronized void append(List<String[]> batch, long batchBytes, int maxStoredRows) {
+            for (String[] row : batch) {
+                if (rows.size() < maxStoredRows) {
+                    rows.add(row);
+                }
+            }
+            rowCount += batch.size();
+            bytes += batchBytes;
+        }
+
+        synchronized List<String[]> snapshot() {
+            return new ArrayList<>(rows);
+        }
+    }
+
+    // A query result: column names and types, and rows with null for NULL
+    private static final class Result {
+        final List<String> names = new ArrayList<>();
+        final List<String> types = new ArrayList<>();
+        final List<String[]> rows = new ArrayList<>();
+    }
+
+    // The error text ClickHouse would send; the driver maps the code to an exception
+    private static final class QueryException extends Exception {
+        final int code;
+
+        QueryException(int code, String message) {
+            super(message);
+            this.code = code;
+        }
+    }
+
+    private final int maxStoredRows;
+    private final Map<String, Table> tables = Collections.synchronizedMap(new TreeMap<>());
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "clickhouse-stand-in");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong insertedRows = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    // Port 0 picks a free port
+    public ClickHouseStandIn(int port, int maxStoredRows) throws IOException {
+        this.maxStoredRows = maxStoredRows;
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public String getJdbcUrl() {
+        return "jdbc:clickhouse://localhost:" + getPort() + "/default";
+    }
+
+    // Creates the table with the dataset's columns and types and stores `rows` generated rows
+    public void seed(String tableName, SyntheticData data, int rows) {
+        Table table = new Table(tableName, data.getHeader(), Arrays.asList(data.getTypes()));
+        Random random = new Random(rows);
+        List<String[]> batch = new ArrayList<>(rows);
+        for (int i = 1; i <= rows; i++) {
+            batch.add(data.row(i, random));
+        }
+        table.append(batch, 0, maxStoredRows);
+        tables.put(tableName, table);
+    }
+
+    public long getQueries() {
+        return queries.get();
+    }
+
+    public long getInsertedRows() {
+        return insertedRows.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        queries.incrementAndGet();
+        try {
+            Map<String, String> params = parseParams(exchange.getRequestURI().getRawQuery());
+            InputStream body = exchange.getRequestBody();
+            if ("1".equals(params.get("decompress"))) {
+                body = new ClickHouseLZ4Stream(body);
+            }
+            body = new BufferedInputStream(body, 1 << 16);
+            // The statement is the query parameter followed by the body, except that an INSERT's
+            // data starts after the first line
+            String sql = params.getOrDefault("query", "");
+            if (!startsWith(sql, "INSERT")) {
+                String firstLine = readLine(body);
+                sql = sql + firstLine;
+                if (!startsWith(sql, "INSERT")) {
+                    sql = sql + "\n" + new String(readAll(body), StandardCharsets.UTF_8);
+                }
+            }
+            sql = sql.trim();
+            Result result;
+            String format = "TabSeparated";
+            if (startsWith(sql, "INSERT")) {
+                insert(sql, body);
+                result = null;
+            } else {
+                Matcher matcher = FORMAT.matcher(sql);
+                if (matcher.matches()) {
+                    sql = matcher.group(1).trim();
+                    format = matcher.group(2);
+                }
+                result = execute(sql);
+                if (result != null) {
+                    checkOutputFormat(format);
+                }
+            }
+            exchange.getResponseHeaders().set("X-ClickHouse-Server-Display-Name", "stand-in");
+            exchange.sendResponseHeaders(200, result == null ? -1 : 0);
+            if (result != null) {
+                OutputStream out = exchange.getResponseBody();
+                if ("1".equals(params.get("compress"))) {
+                    out = new ClickHouseLZ4OutputStream(out, 1 << 20);
+                }
+                writeResult(result, format, out);
+                out.flush();
+            }
+        } catch (QueryException e) {
+            failures.incrementAndGet();
+            byte[] message = ("Code: " + e.code + ". DB::Exception: " + e.getMessage()
+                    + " (version " + VERSION + " (stand-in))\n").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(500, message.length);
+            exchange.getResponseBody().write(message);
+        } catch (IOException | RuntimeException e) {
+            failures.incrementAndGet();
+            throw e;
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private Result execute(String sql) throws QueryException {
+        String normalized = sql.replaceAll("\\s+", " ");
+        if (normalized.matches("(?i)^select timezone\\(\\), ?version\\(\\)$")) {
+            return constant(Arrays.asList("timezone()", "version()"), "UTC", VERSION);
+        }
+        if (normalized.matches("(?i)^select 1$")) {
+            Result result = constant(Collections.singletonList("1"), "1");
+            result.types.set(0, "UInt8");
+            return result;
+        }
+        if (normalized.matches("(?i)^show tables$")) {
+            List<String> names;
+            synchronized (tables) {
+                names = new ArrayList<>(tables.keySet());
+            }
+            Result result = new Result();
+            result.names.add("name");
+            result.types.add("String");
+            for (String name : names) {
+                result.rows.add(new String[]{name});
+            }
+            return result;
+        }
+        if (startsWith(normalized, "EXPLAIN")) {
+            return constant(Collections.singletonList("explain"), "ReadFromStandIn");
+        }
+        Matcher matcher = CREATE.matcher(sql);
+        if (matcher.matches()) {
+            createTable(unquote(matcher.group(1)), matcher.group(2));
+            return null;
+        }
+        matcher = DROP.matcher(normalized);
+        if (matcher.matches()) {
+            String name = unquote(matcher.group(2));
+            if (matcher.group(1).equalsIgnoreCase("DROP")) {
+                tables.remove(name);
+            } else {
+                Table table = tables.get(name);
+                if (table != null) {
+                    tables.put(name, new Table(name, table.columns, table.types));
+                }
+            }
+            return null;
+        }
+        matcher = SELECT.matcher(normalized);
+        if (matcher.matches()) {
+            return select(matcher.group(1), unquote(matcher.group(2)), matcher.group(3));
+        }
+        throw new QueryException(62, "Syntax error: statement not supported by the stand-in: " + abbreviate(sql));
+    }
+
+    private void createTable(String name, String definitions) throws QueryException {
+        List<String> columns = new ArrayList<>();
+        List<String> types = new ArrayList<>();
+        for (String definition : splitTopLevel(definitions, ',')) {
+            definition = definition.trim();
+            int end;
+            if (definition.startsWith("`")) {
+                end = definition.indexOf('`', 1);
+                while (end > 0 && end + 1 < definition.length() && definition.charAt(end + 1) == '`') {
+                    end = definition.indexOf('`', end + 2);
+                }
+                end++;
+            } else {
+                end = definition.indexOf(' ');
+            }
+            if (end <= 0 || end >= definition.length()) {
+                throw new QueryException(62, "Syntax error: column definition " + definition);
+            }
+            columns.add(unquote(definition.substring(0, end)));
+            types.add(definition.substring(end).trim());
+        }
+        synchronized (tables) {
+            tables.putIfAbsent(name, new Table(name, columns, types));
+        }
+    }
+
+    private void insert(String sql, InputStream data) throws IOException, QueryException {
+        Matcher matcher = INSERT.matcher(sql.replaceAll("\\s+", " "));
+        if (!matcher.matches()) {
+            throw new QueryException(62, "Syntax error: insert not supported by the stand-in: " + abbreviate(sql));
+        }
+        Table table = table(unquote(matcher.group(1)));
+        int[] positions;
+        if (matcher.group(2) == null) {
+            positions = new int[table.columns.size()];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = i;
+            }
+        } else {
+            List<String> names = splitTopLevel(matcher.group(2), ',');
+            positions = new int[names.size()];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = table.columns.indexOf(unquote(names.get(i).trim()));
+                if (positions[i] < 0) {
+                    throw new QueryException(16, "No such column " + names.get(i).trim() + " in table " + table.name);
+                }
+            }
+        }
+        String format = matcher.group(3);
+        List<String[]> rows = new ArrayList<>();
+        CountingInput counting = new CountingInput(data);
+        String[] types = new String[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            types[i] = table.types.get(positions[i]);
+        }
+        if (format.equalsIgnoreCase("TabSeparated") || format.equalsIgnoreCase("TSV")) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(counting, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() && positions.length > 1) {
+                    continue;
+                }
+                List<String> fields = splitTsv(line);
+                if (fields.size() != positions.length) {
+                    throw new QueryException(27, "Expected " + positions.length + " values, got " + fields.size());
+                }
+                rows.add(place(table, positions, fields));
+            }
+        } else if (format.equalsIgnoreCase("RowBinary")) {
+            while (counting.peek() >= 0) {
+                List<String> fields = new ArrayList<>(positions.length);
+                for (String type : types) {
+                    fields.add(readBinary(counting, type));
+                }
+                rows.add(place(table, positions, fields));
+            }
+        } else {
+            throw new QueryException(73, "Unknown input format " + format);
+        }
+        table.append(rows, counting.count, maxStoredRows);
+        insertedRows.addAndGet(rows.size());
+    }
+
+    // A full-width row with defaults in the columns the insert leaves out
+    private static String[] place(Table table, int[] positions, List<String> fields) {
+        String[] row = table.defaults.clone();
+        for (int i = 0; i < positions.length; i++) {
+            row[positions[i]] = fields.get(i);
+        }
+        return row;
+    }
+
+    private Result select(String selectList, String tableName, String rest) throws QueryException {
+        Table table = tableName.equalsIgnoreCase("system.columns") ? systemColumns()
+                : tableName.equalsIgnoreCase("system.tables") ? systemTables()
+                : tableName.equalsIgnoreCase("system.parts") ? new Table("parts",
+                        Arrays.asList("database", "table", "partition_id", "rows", "data_uncompressed_bytes", "active"),
+                        Arrays.asList("String", "String", "String", "UInt64", "UInt64", "UInt8"))
+                : table(tableName);
+        // Subqueries of joins are blanked out so their clauses are not taken for the outer ones
+        String clauses = blankParentheses(rest);
+        List<String[]> rows = filter(table, table.snapshot(), clause(rest, clauses, "WHERE"));
+        long offset = 0;
+        long count = Long.MAX_VALUE;
+        Matcher limit = LIMIT.matcher(clauses);
+        if (limit.find()) {
+            count = Long.parseLong(limit.group(2) != null ? limit.group(2) : limit.group(1));
+            offset = limit.group(2) != null ? Long.parseLong(limit.group(1))
+                    : limit.group(3) != null ? Long.parseLong(limit.group(3)) : 0;
+        }
+
+        List<String> items = splitTopLevel(selectList, ',');
+        List<String> groupBy = new ArrayList<>();
+        String groupClause = clause(rest, clauses, "GROUP BY");
+        if (groupClause != null) {
+            for (String item : splitTopLevel(groupClause, ',')) {
+                groupBy.add(item.trim());
+            }
+        }
+        Result result = new Result();
+        boolean aggregate = !groupBy.isEmpty();
+        List<String> expressions = new ArrayList<>();
+        for (String item : items) {
+            String expression = item.trim();
+            String alias = null;
+            Matcher as = Pattern.compile("(?is)^(.*)\\s+AS\\s+(\\S+)$").matcher(expression);
+            if (as.matches()) {
+                expression = as.group(1).trim();
+                alias = unquote(as.group(2));
+            }
+            if (expression.equals("*")) {
+                for (int i = 0; i < table.columns.size(); i++) {
+                    expressions.add(quote(table.columns.get(i)));
+                    result.names.add(table.columns.get(i));
+                    result.types.add(table.types.get(i));
+                }
+                continue;
+            }
+            Matcher function = AGGREGATE.matcher(expression);
+            if (function.matches()) {
+                aggregate = true;
+                String name = function.group(1).toLowerCase(Locale.ROOT);
+                int column = name.equals("count") ? -1 : column(table, function.group(2).trim());
+                if (column < 0 && !name.equals("count")) {
+                    throw new QueryException(47, "Unknown identifier " + function.group(2).trim());
+                }
+                result.types.add(name.equals("count") ? "UInt64" : name.equals("sum")
+                        ? (isInteger(table.types.get(column)) ? "Int64" : "Float64") : table.types.get(column));
+            } else if (REFERENCE.matcher(expression).matches()) {
+                // A column of a joined table comes back as NULL
+                int column = column(table, expression);
+                result.types.add(column < 0 ? "Nullable(String)" : table.types.get(column));
+            } else {
+                throw new QueryException(48, "Expression " + abbreviate(expression)
+                        + " is not supported by the stand-in");
+            }
+            expressions.add(expression);
+            result.names.add(alias != null ? alias : expression.replace("`", ""));
+        }
+
+        if (!aggregate) {
+            rows = page(rows, offset, count);
+        }
+        if (aggregate) {
+            Map<List<String>, List<String[]>> groups = new LinkedHashMap<>();
+            int[] groupColumns = new int[groupBy.size()];
+            for (int i = 0; i < groupColumns.length; i++) {
+                groupColumns[i] = column(table, groupBy.get(i));
+            }
+            if (groupColumns.length == 0) {
+                groups.put(Collections.emptyList(), rows);
+            }
+            for (String[] row : groupColumns.length == 0 ? Collections.<String[]>emptyList() : rows) {
+                List<String> key = new ArrayList<>();
+                for (int column : groupColumns) {
+                    key.add(column < 0 ? null : row[column]);
+                }
+                groups.computeIfAbsent(key, k -> new ArrayList<>()).add(row);
+            }
+            for (List<String[]> group : groups.values()) {
+                String[] out = new String[expressions.size()];
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = evaluateAggregate(table, expressions.get(i), group, result.types.get(i));
+                }
+                result.rows.add(out);
+            }
+            List<String[]> page = page(result.rows, offset, count);
+            result.rows.clear();
+            result.rows.addAll(page);
+        } else {
+            int[] columns = new int[expressions.size()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = column(table, expressions.get(i));
+            }
+            for (String[] row : rows) {
+                String[] out = new String[columns.length];
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = columns[i] < 0 ? null : row[columns[i]];
+                }
+                result.rows.add(out);
+            }
+        }
+        return result;
+    }
+
+    private static List<String[]> page(List<String[]> rows, long offset, long count) {
+        int from = (int) Math.min(offset, rows.size());
+        int to = (int) Math.min(from + count, rows.size());
+        return new ArrayList<>(rows.subList(from, to));
+    }
+
+    // Applies the `col = literal`, `col IN (literals)` and `flag_col` terms of an AND chain
+    private static List<String[]> filter(Table table, List<String[]> rows, String where) throws QueryException {
+        if (where == null) {
+            return rows;
+        }
+        for (String term : where.split("(?i)\\s+AND\\s+")) {
+            term = stripParentheses(term.trim());
+            int column;
+            List<String> values = new ArrayList<>();
+            Matcher equals = EQUALS.matcher(term);
+            Matcher in = IN.matcher(term);
+            if (equals.matches()) {
+                column = column(table, equals.group(1));
+                values.add(literal(equals.group(2)));
+            } else if (in.matches()) {
+                column = column(table, in.group(1));
+                for (String value : splitTopLevel(in.group(2), ',')) {
+                    values.add(literal(value.trim()));
+                }
+            } else if (term.equals("1") || term.matches("(?i)database\\s*=\\s*currentDatabase\\(\\)")) {
+                // There is only one database, so these hold for every row
+                continue;
+            } else if (REFERENCE.matcher(term).matches()) {
+                column = column(table, term);
+                values.add("1");
+            } else {
+                throw new QueryException(48, "Not implemented: WHERE term not supported by the stand-in: "
+                        + abbreviate(term));
+            }
+            if (column < 0) {
+                throw new QueryException(47, "Missing columns: " + abbreviate(term) + " in table " + table.name);
+            }
+            if (values.contains(null)) {
+                throw new QueryException(48, "Not implemented: literal not supported by the stand-in: "
+                        + abbreviate(term));
+            }
+            List<String[]> kept = new ArrayList<>();
+            for (String[] row : rows) {
+                if (values.contains(row[column])) {
+                    kept.add(row);
+                }
+            }
+            rows = kept;
+        }
+        return rows;
+    }
+
+    private static String evaluateAggregate(Table table, String expression, List<String[]> rows, String type)
+            throws QueryException {
+        Matcher function = AGGREGATE.matcher(expression);
+        if (!function.matches()) {
+            int column = column(table, expression);
+            return column < 0 || rows.isEmpty() ? null : rows.get(0)[column];
+        }
+        String name = function.group(1).toLowerCase(Locale.ROOT);
+        if (name.equals("count")) {
+            return Long.toString(rows.size());
+        }
+        int column = column(table, function.group(2).trim());
+        boolean numeric = isNumeric(table.types.get(column));
+        String best = null;
+        double sum = 0;
+        for (String[] row : rows) {
+            String value = row[column];
+            if (value == null) {
+                continue;
+            }
+            if (name.equals("sum")) {
+                sum += parseNumber(value);
+            } else if (best == null) {
+                best = value;
+            } else {
+                int cmp = numeric ? Double.compare(parseNumber(value), parseNumber(best)) : value.compareTo(best);
+                if (name.equals("min") ? cmp < 0 : cmp > 0) {
+                    best = value;
+                }
+            }
+        }
+        if (name.equals("sum")) {
+            return type.equals("Int64") ? Long.toString((long) sum) : Double.toString(sum);
+        }
+        return best != null ? best : defaultValue(type);
+    }
+
+    private Table systemColumns() {
+        Table columns = new Table("columns", Arrays.asList("database", "table", "name", "type", "position"),
+                Arrays.asList("String", "String", "String", "String", "UInt64"));
+        List<String[]> rows = new ArrayList<>();
+        for (Table table : tablesSnapshot()) {
+            for (int i = 0; i < table.columns.size(); i++) {
+                rows.add(new String[]{"default", table.name, table.columns.get(i), table.types.get(i),
+                        Integer.toString(i + 1)});
+            }
+        }
+        columns.append(rows, 0, Integer.MAX_VALUE);
+        return columns;
+    }
+
+    private Table systemTables() {
+        Table system = new Table("tables", Arrays.asList("database", "name", "engine", "total_rows",
+                "total_bytes", "sorting_key", "sampling_key", "partition_key"),
+                Arrays.asList("String", "String", "String", "Nullable(UInt64)", "Nullable(UInt64)", "String",
+                        "String", "String"));
+        List<String[]> rows = new ArrayList<>();
+        for (Table table : tablesSnapshot()) {
+            synchronized (table) {
+                rows.add(new String[]{"default", table.name, "MergeTree", Long.toString(table.rowCount),
+                        Long.toString(table.bytes), "", "", ""});
+            }
+        }
+        system.append(rows, 0, Integer.MAX_VALUE);
+        return system;
+    }
+
+    private List<Table> tablesSnapshot() {
+        synchronized (tables) {
+            return new ArrayList<>(tables.values());
+        }
+    }
+
+    private Table table(String name) throws QueryException {
+        if (name.startsWith("default.")) {
+            name = name.substring("default.".length());
+        }
+        Table table = tables.get(unquote(name));
+        if (table == null) {
+            throw new QueryException(60, "Table default." + name + " doesn't exist");
+        }
+        return table;
+    }
+
+    // Index of a column reference such as col, `c d` or t.col, or -1 when it names none
+    private static int column(Table table, String reference) {
+        String name = reference.trim();
+        if (name.startsWith("`") && name.endsWith("`") && name.length() > 1 && !name.contains("`.`")) {
+            return table.columns.indexOf(unquote(name));
+        }
+        List<String> parts = splitTopLevel(name, '.');
+        return table.columns.indexOf(unquote(parts.get(parts.size() - 1).trim()));
+    }
+
+    private static Result constant(List<String> names, String... values) {
+        Result result = new Result();
+        result.names.addAll(names);
+        for (int i = 0; i < names.size(); i++) {
+            result.types.add("String");
+        }
+        result.rows.add(values);
+        return result;
+    }
+
+    private static void checkOutputFormat(String format) throws QueryException {
+        if (!format.startsWith("TabSeparated") && !format.startsWith("TSV") && !format.startsWith("CSV")) {
+            throw new QueryException(73, "Output format " + format + " is not supported by the stand-in");
+        }
+    }
+
+    private static void writeResult(Result result, String format, OutputStream out) throws IOException {
+        boolean csv = format.startsWith("CSV");
+        boolean names = format.endsWith("WithNames") || format.endsWith("WithNamesAndTypes");
+        boolean types = format.endsWith("WithNamesAndTypes");
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        if (names) {
+            writeLine(writer, result.names, csv, null);
+        }
+        if (types) {
+            writeLine(writer, result.types, csv, null);
+        }
+        for (String[] row : result.rows) {
+            writeLine(writer, Arrays.asList(row), csv, result.types);
+        }
+        writer.flush();
+    }
+
+    private static void writeLine(Writer writer, List<String> values, boolean csv, List<String> types)
+            throws IOException {
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                writer.write(csv ? ',' : '\t');
+            }
+            String value = values.get(i);
+            if (value == null) {
+                writer.write("\\N");
+            } else if (csv) {
+                if (types != null && isNumeric(types.get(i))) {
+                    writer.write(value);
+                } else {
+                    writer.write('"');
+                    writer.write(value.replace("\"", "\"\""));
+                    writer.write('"');
+                }
+            } else {
+                writer.write(escapeTsv(value));
+            }
+        }
+        writer.write('\n');
+    }
+
+    // RowBinary value of the given type as text, or null for NULL
+    private static String readBinary(CountingInput in, String type) throws IOException, QueryException {
+        String base = type;
+        if (base.startsWith("LowCardinality(")) {
+            base = base.substring(15, base.length() - 1);
+        }
+        if (base.startsWith("Nullable(")) {
+            if (in.readByte() != 0) {
+                return null;
+            }
+            base = base.substring(9, base.length() - 1);
+        }
+        switch (base) {
+            case "String":
+                byte[] bytes = new byte[(int) in.readVarInt()];
+                in.readFully(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            case "Int8":
+                return Byte.toString((byte) in.readLittleEndian(1));
+            case "Int16":
+                return Short.toString((short) in.readLittleEndian(2));
+            case "Int32":
+                return Integer.toString((int) in.readLittleEndian(4));
+            case "Int64":
+                return Long.toString(in.readLittleEndian(8));
+            case "UInt8":
+            case "Bool":
+                return Long.toString(in.readLittleEndian(1));
+            case "UInt16":
+                return Long.toString(in.readLittleEndian(2));
+            case "UInt32":
+                return Long.toString(in.readLittleEndian(4));
+            case "UInt64":
+                return Long.toUnsignedString(in.readLittleEndian(8));
+            case "Float32":
+                return Float.toString(Float.intBitsToFloat((int) in.readLittleEndian(4)));
+            case "Float64":
+                return Double.toString(Double.longBitsToDouble(in.readLittleEndian(8)));
+            case "Date":
+                return LocalDate.ofEpochDay(in.readLittleEndian(2)).toString();
+            case "Date32":
+                return LocalDate.ofEpochDay((int) in.readLittleEndian(4)).toString();
+            default:
+                if (base.equals("DateTime") || base.startsWith("DateTime(")) {
+                    return DATE_TIME.format(Instant.ofEpochSecond(in.readLittleEndian(4)));
+                }
+                throw new QueryException(50, "RowBinary type " + type + " is not supported by the stand-in");
+        }
+    }
+
+    private static List<String> splitTsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean rawNull = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\t') {
+                fields.add(rawNull && field.length() == 0 ? null : field.toString());
+                field.setLength(0);
+                rawNull = false;
+            } else if (c == '\\' && i + 1 < line.length()) {
+                char next = line.charAt(++i);
+                switch (next) {
+                    case 'N':
+                        rawNull = field.length() == 0;
+                        break;
+                    case 't':
+                        field.append('\t');
+                        break;
+                    case 'n':
+                        field.append('\n');
+                        break;
+                    case 'r':
+                        field.append('\r');
+                        break;
+                    case '0':
+                        field.append('\0');
+                        break;
+                    case 'b':
+                        field.append('\b');
+                        break;
+                    case 'f':
+                        field.append('\f');
+                        break;
+                    default:
+                        field.append(next);
+                }
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(rawNull && field.length() == 0 ? null : field.toString());
+        return fields;
+    }
+
+    private static String escapeTsv(String value) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String replacement = c == '\\' ? "\\\\" : c == '\t' ? "\\t" : c == '\n' ? "\\n" : c == '\r' ? "\\r"
+                    : c == '\0' ? "\\0" : null;
+            if (replacement != null && escaped == null) {
+                escaped = new StringBuilder(value.substring(0, i));
+            }
+            if (escaped != null) {
+                if (replacement != null) {
+                    escaped.append(replacement);
+                } else {
+                    escaped.append(c);
+                }
+            }
+        }
+        return escaped == null ? value : escaped.toString();
+    }
+
+    // Text of the clause that starts with keyword, up to the next clause, or null
+    private static String clause(String rest, String blanked, String keyword) {
+        Matcher start = Pattern.compile("(?i)\\b" + keyword.replace(" ", "\\s+") + "\\b").matcher(blanked);
+        if (!start.find()) {
+            return null;
+        }
+        Matcher end = Pattern.compile("(?i)\\b(WHERE|GROUP\\s+BY|HAVING|ORDER\\s+BY|LIMIT|SETTINGS)\\b")
+                .matcher(blanked);
+        int stop = blanked.length();
+        if (end.find(start.end())) {
+            stop = end.start();
+        }
+        return rest.substring(start.end(), stop).trim();
+    }
+
+    private static String blankParentheses(String text) {
+        StringBuilder blanked = new StringBuilder(text);
+        int depth = 0;
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\'' && (i == 0 || text.charAt(i - 1) != '\\')) {
+                quoted = !quoted;
+            } else if (!quoted && c == '(') {
+                depth++;
+            } else if (!quoted && c == ')') {
+                depth--;
+                continue;
+            }
+            if (depth > 0 || quoted) {
+                blanked.setCharAt(i, ' ');
+            }
+        }
+        return blanked.toString();
+    }
+
+    private static String stripParentheses(String term) {
+        while (term.startsWith("(") && term.endsWith(")")) {
+            term = term.substring(1, term.length() - 1).trim();
+        }
+        return term;
+    }
+
+    // Splits at separators outside parentheses, quotes and backquotes
+    private static List<String> splitTopLevel(String text, char separator) {
+        List<String> parts = new ArrayList<>();
+        int depth = 0;
+        char quote = 0;
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quote != 0) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '`' || c == '"') {
+                quote = c;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == separator && depth == 0) {
+                parts.add(text.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(text.substring(start));
+        return parts;
+    }
+
+    // A quoted string or number literal, or null for anything else
+    private static String literal(String text) {
+        if (text.length() >= 2 && text.startsWith("'") && text.endsWith("'")) {
+            StringBuilder value = new StringBuilder();
+            for (int i = 1; i < text.length() - 1; i++) {
+                char c = text.charAt(i);
+                if (c == '\\' && i + 2 < text.length()) {
+                    c = text.charAt(++i);
+                }
+                value.append(c);
+            }
+            return value.toString();
+        }
+        return text.matches("-?[0-9.]+") ? text : null;
+    }
+
+    private static String unquote(String identifier) {
+        if (identifier.length() >= 2 && identifier.startsWith("`") && identifier.endsWith("`")) {
+            return identifier.substring(1, identifier.length() - 1).replace("``", "`");
+        }
+        return identifier;
+    }
+
+    private static String quote(String identifier) {
+        return "`" + identifier.replace("`", "``") + "`";
+    }
+
+    private static String defaultValue(String type) {
+        if (type.contains("Nullable(")) {
+            return null;
+        }
+        if (isNumeric(type)) {
+            return "0";
+        }
+        if (type.contains("DateTime")) {
+            return "1970-01-01 00:00:00";
+        }
+        if (type.contains("Date")) {
+            return "1970-01-01";
+        }
+        return "";
+    }
+
+    private static boolean isInteger(String type) {
+        return type.matches("(Nullable\\()?U?Int\\d+\\)?");
+    }
+
+    private static boolean isNumeric(String type) {
+        return isInteger(type) || type.matches("(Nullable\\()?(Float\\d+|Decimal.*|Bool)\\)?");
+    }
+
+    private static double parseNumber(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static boolean startsWith(String sql, String keyword) {
+        return sql.trim().regionMatches(true, 0, keyword, 0, keyword.length());
+    }
+
+    private static String abbreviate(String sql) {
+        return sql.length() > 200 ? sql.substring(0, 200) + "..." : sql;
+    }
+
+    private static Map<String, String> parseParams(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                        URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) >= 0 && b != '\n') {
+            line.write(b);
+        }
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            all.write(buffer, 0, n);
+        }
+        return all.toByteArray();
+    }
+
+    // Unsynchronized buffered reader of insert data, with a byte count and the little-endian
+    // reads RowBinary needs
+    private static final class CountingInput extends InputStream {
+        private final InputStream in;
+        private final byte[] buffer = new byte[1 << 16];
+        private int position;
+        private int limit;
+        long count;
+
+        CountingInput(InputStream in) {
+            this.in = in;
+        }
+
+        int peek() throws IOException {
+            return fill() ? buffer[position] & 0xff : -1;
+        }
+
+        private boolean fill() throws IOException {
+            if (position < limit) {
+                return true;
+            }
+            int n = in.read(buffer);
+            if (n <= 0) {
+                return false;
+            }
+            position = 0;
+            limit = n;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            count++;
+            return buffer[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(length, limit - position);
+            System.arraycopy(buffer, position, target, offset, n);
+            position += n;
+            count += n;
+            return n;
+        }
+
+        int readByte() throws IOException {
+            int b = read();
+            if (b < 0) {
+                throw new EOFException("RowBinary data ends inside a row");
+            }
+            return b;
+        }
+
+        long readLittleEndian(int bytes) throws IOException {
+            long value = 0;
+            for (int i = 0; i < bytes; i++) {
+                value |= (long) readByte() << (8 * i);
+            }
+            // Narrower signed types are sign-extended by the caller's cast
+            return value;
+        }
+
+        long readVarInt() throws IOException {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7f) << shift;
+                if (b < 0x80) {
+                    return value;
+                }
+            }
+        }
+
+        void readFully(byte[] target) throws IOException {
+            int done = 0;
+            while (done < target.length) {
+                int n = read(target, done, target.length - done);
+                if (n < 0) {
+                    throw new EOFException("RowBinary data ends inside a row");
+                }
+                done += n;
+            }
+        }
+    }
+}
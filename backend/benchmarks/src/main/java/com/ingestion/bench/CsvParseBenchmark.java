@@ -0,0 +1,88 @@
+package com.ingestion.bench;
+
+import com.ingestion.io.Compression;
+import com.ingestion.io.CsvRecordSource;
+import com.ingestion.service.FlatFileService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+// Header discovery and full-row parsing through FlatFileService, with either CSV parser or
+// from the same rows in Parquet, plus reading the first column alone to show what column
+// projection saves
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CsvParseBenchmark {
+    @Param({"CUSTOMERS", "ACCOUNT"})
+    public SyntheticData shape;
+    @Param({"1000000"})
+    public long rows;
+    @Param({"true", "false"})
+    public boolean fastParser;
+    @Param({"csv", "parquet"})
+    public String source;
+
+    private FlatFileService service;
+    private File file;
+    private int[] allColumns;
+
+    @Setup
+    public void setUp() throws IOException {
+        service = Services.flatFileService(fastParser);
+        file = source.equals("parquet") ? shape.parquetFile(rows) : shape.file(rows);
+        allColumns = new int[shape.getHeader().size()];
+        for (int i = 0; i < allColumns.length; i++) {
+            allColumns[i] = i;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.shutdown();
+    }
+
+    @Benchmark
+    public List<String> headerParse() throws IOException {
+        return service.getColumns(file.getPath(), Compression.NONE);
+    }
+
+    @Benchmark
+    public void fullRowParse(RowCounter counter, Blackhole blackhole) throws IOException {
+        try (CsvRecordSource records = service.openRecords(file, Compression.NONE)) {
+            records.project(allColumns);
+            while (records.next()) {
+                for (int i = 0; i < allColumns.length; i++) {
+                    blackhole.consume(records.get(i));
+                }
+                counter.rows++;
+            }
+        }
+    }
+
+    @Benchmark
+    public void firstColumnParse(RowCounter counter, Blackhole blackhole) throws IOException {
+        try (CsvRecordSource records = service.openRecords(file, Compression.NONE)) {
+            records.project(new int[] {0});
+            while (records.next()) {
+                blackhole.consume(records.get(0));
+                counter.rows++;
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.ingestion.bench;
+
+import com.ingestion.io.DelimitedRowWriter;
+import com.ingestion.io.ExportFormat;
+import com.ingestion.io.ParquetRowWriter;
+import com.ingestion.io.ResultWriter;
+import org.apache.parquet.format.CompressionCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.ZoneOffset;
+
+// The escaping and writing loop of executeIngestion: DelimitedRowWriter, or ParquetRowWriter
+// with uncompressed pages, fed from a pool of in-memory rows into a sink that only counts
+// bytes, so no disk, driver or codec time is measured
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ExportWriterBenchmark {
+    private static final int DISTINCT_ROWS = 4096;
+
+    @Param({"CUSTOMERS", "ACCOUNT"})
+    public SyntheticData shape;
+    @Param({"CSV", "TSV", "PARQUET"})
+    public ExportFormat format;
+    @Param({"1000000"})
+    public long rows;
+
+    private String[][] pool;
+    private String[] types;
+
+    @Setup
+    public void setUp() {
+        pool = shape.rows(DISTINCT_ROWS);
+        types = shape.getTypes();
+    }
+
+    @Benchmark
+    public long writeRows(RowCounter counter) throws IOException {
+        ResultWriter writer = format == ExportFormat.PARQUET
+                ? new ParquetRowWriter(new CountingSink(), CompressionCodec.UNCOMPRESSED, ZoneOffset.UTC,
+                        ParquetRowWriter.DEFAULT_ROW_GROUP_BYTES)
+                : new DelimitedRowWriter(new CountingSink(), format.getWriterFormat());
+        writer.writeHeader(shape.getHeader(), types);
+        for (long i = 0; i < rows; i++) {
+            writer.writeRow(pool[(int) (i % DISTINCT_ROWS)]);
+        }
+        writer.close();
+        counter.rows += rows;
+        return writer.getBytesWritten();
+    }
+
+    private static final class CountingSink extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.ingestion.bench;
+
+import com.ingestion.io.Compression;
+import com.ingestion.model.IngestionJob;
+import com.ingestion.model.SchemaReport;
+import com.ingestion.service.FlatFileService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+// A whole flat-file ingest (parse, bind, batch) against the in-memory JDBC stub, with all
+// columns as String or with the types the inference service picks for the file
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class InsertBatchBenchmark {
+    @Param({"CUSTOMERS", "ACCOUNT"})
+    public SyntheticData shape;
+    @Param({"1000000"})
+    public long rows;
+    @Param({"true", "false"})
+    public boolean inferTypes;
+    @Param({"true", "false"})
+    public boolean fastParser;
+
+    private FlatFileService service;
+    private File file;
+    private List<String> columns;
+    private SchemaReport schema;
+    private JdbcStub jdbc;
+    private Connection connection;
+
+    @Setup
+    public void setUp() throws IOException {
+        service = Services.flatFileService(fastParser);
+        file = shape.file(rows);
+        columns = shape.getHeader();
+        schema = inferTypes
+                ? Services.typeInferenceService(service).infer(file.getPath(), columns, Compression.NONE)
+                : null;
+        jdbc = new JdbcStub();
+        connection = jdbc.connection();
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.shutdown();
+    }
+
+    @Benchmark
+    public long ingest(RowCounter counter) throws IOException, SQLException {
+        IngestionJob job = new IngestionJob("flatfile", "bench", file.getPath());
+        long inserted = service.ingestToClickHouse(file.getPath(), columns, "bench", connection,
+                Compression.NONE, schema, null, job, null);
+        counter.rows += inserted;
+        return inserted + jdbc.getBatchesExecuted();
+    }
+}
@@ -0,0 +1,70 @@
+package com.ingestion.bench;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+
+// In-memory stand-in for a ClickHouse connection. Statements keep the last bound value of
+// every parameter so binding cannot be optimised away, count batched rows and discard them
+// on executeBatch. Every call goes through a dynamic proxy, which adds a constant per-call
+// cost (including boxing of the index argument) to the numbers.
+public final class JdbcStub {
+    private static final int[] NO_COUNTS = new int[0];
+
+    private long rowsBatched;
+    private long batchesExecuted;
+    private Object lastValue;
+
+    public Connection connection() {
+        return (Connection) Proxy.newProxyInstance(JdbcStub.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "prepareStatement":
+                            return statement();
+                        case "isClosed":
+                        case "isReadOnly":
+                            return false;
+                        case "isValid":
+                            return true;
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    private PreparedStatement statement() {
+        return (PreparedStatement) Proxy.newProxyInstance(JdbcStub.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                    String name = method.getName();
+                    if (name.startsWith("set")) {
+                        lastValue = args.length > 1 ? args[1] : null;
+                        return null;
+                    }
+                    switch (name) {
+                        case "addBatch":
+                            rowsBatched++;
+                            return null;
+                        case "executeBatch":
+                            batchesExecuted++;
+                            return NO_COUNTS;
+                        case "execute":
+                        case "isClosed":
+                            return false;
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    public long getRowsBatched() {
+        return rowsBatched;
+    }
+
+    public long getBatchesExecuted() {
+        return batchesExecuted;
+    }
+
+    public Object getLastValue() {
+        return lastValue;
+    }
+}
@@ -0,0 +1,364 @@
+package com.ingestion.bench;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ingestion.IngestionApplication;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+// End-to-end load test of the service. Each worker repeatedly uploads a synthetic CSV file
+// through /ingestion/upload, imports it with /ingestion/start and waits for the job, then
+// pages through the file and the table with /ingestion/preview. Reports p50/p99 latency per
+// operation and imported rows/s, and exits with status 1 if any operation failed.
+// Without --target the service runs in this JVM against a ClickHouseStandIn, so it needs no
+// cluster; options containing a dot are passed to it as Spring properties.
+// Usage: java -cp target/benchmarks.jar com.ingestion.bench.LoadDriver [--option=value ...]
+//   --target=http://host:8080  drive a running service instead
+//   --concurrency=4 --iterations=5 --rows=10000 --dataset=customers|account
+//   --previews=5 --parallelism=1 --infer-types=true --stored-rows=100000
+//   e.g. --ingestion.insert.row-binary=false to compare insert paths
+public final class LoadDriver {
+    private static final String[] OPERATIONS = {"upload", "start", "import", "preview-file", "preview-table"};
+    private static final int PREVIEW_ROWS = 100;
+    private static final long POLL_MILLIS = 20;
+
+    private final ObjectMapper json = new ObjectMapper();
+    private final Map<String, Stats> stats = new LinkedHashMap<>();
+    private final AtomicLong importedRows = new AtomicLong();
+    private final ConcurrentLinkedQueue<Double> jobRowsPerSecond = new ConcurrentLinkedQueue<>();
+
+    private final String target;
+    private final int concurrency;
+    private final int iterations;
+    private final int rows;
+    private final SyntheticData dataset;
+    private final int previews;
+    private final int parallelism;
+    private final boolean inferTypes;
+
+    private static final class Stats {
+        final ConcurrentLinkedQueue<Long> nanos = new ConcurrentLinkedQueue<>();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicReference<String> firstError = new AtomicReference<>();
+
+        void fail(String message) {
+            errors.incrementAndGet();
+            firstError.compareAndSet(null, message);
+        }
+    }
+
+    private static final class Response {
+        final int status;
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    private LoadDriver(String target, Map<String, String> options) {
+        this.target = target;
+        this.concurrency = Integer.parseInt(options.getOrDefault("concurrency", "4"));
+        this.iterations = Integer.parseInt(options.getOrDefault("iterations", "5"));
+        this.rows = Integer.parseInt(options.getOrDefault("rows", "10000"));
+        this.dataset = SyntheticData.valueOf(options.getOrDefault("dataset", "customers").toUpperCase(Locale.ROOT));
+        this.previews = Integer.parseInt(options.getOrDefault("previews", "5"));
+        this.parallelism = Integer.parseInt(options.getOrDefault("parallelism", "1"));
+        this.inferTypes = Boolean.parseBoolean(options.getOrDefault("infer-types", "true"));
+        for (String operation : OPERATIONS) {
+            stats.put(operation, new Stats());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        List<String> appArgs = new ArrayList<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                System.err.println("Options take the form --name=value: " + arg);
+                System.exit(2);
+            }
+            String name = arg.substring(2, eq);
+            if (name.contains(".")) {
+                appArgs.add(arg);
+            } else {
+                options.put(name, arg.substring(eq + 1));
+            }
+        }
+
+        String target = options.get("target");
+        ClickHouseStandIn standIn = null;
+        ConfigurableApplicationContext app = null;
+        Path workDir = null;
+        boolean failed;
+        try {
+            if (target == null) {
+                standIn = new ClickHouseStandIn(0, Integer.parseInt(options.getOrDefault("stored-rows", "100000")));
+                workDir = Files.createTempDirectory("ingestion-load");
+                List<String> springArgs = new ArrayList<>();
+                springArgs.add("--server.port=0");
+                springArgs.add("--clickhouse.url=" + standIn.getJdbcUrl());
+                // Checkpoints and dedup spill files go under the upload directory
+                springArgs.add("--ingestion.upload-dir=" + workDir);
+                springArgs.add("--spring.servlet.multipart.max-file-size=-1");
+                springArgs.add("--spring.servlet.multipart.max-request-size=-1");
+                springArgs.add("--logging.level.root=WARN");
+                springArgs.addAll(appArgs);
+                app = SpringApplication.run(IngestionApplication.class, springArgs.toArray(new String[0]));
+                target = "http://localhost:" + app.getEnvironment().getProperty("local.server.port");
+            } else if (!appArgs.isEmpty()) {
+                System.err.println("Ignoring service properties with --target: " + appArgs);
+            }
+            LoadDriver driver = new LoadDriver(target, options);
+            System.out.printf("Driving %s%s: %d workers x %d iterations, %s files of %d rows%n", target,
+                    standIn == null ? "" : " (in-process, ClickHouse stand-in on port " + standIn.getPort() + ")",
+                    driver.concurrency, driver.iterations, driver.dataset.name().toLowerCase(Locale.ROOT),
+                    driver.rows);
+            failed = driver.run();
+            if (standIn != null) {
+                System.out.printf("Stand-in: %d requests, %d rows inserted, %d failed requests%n",
+                        standIn.getQueries(), standIn.getInsertedRows(), standIn.getFailures());
+            }
+        } finally {
+            if (app != null) {
+                app.close();
+            }
+            if (standIn != null) {
+                standIn.close();
+            }
+            if (workDir != null) {
+                try (Stream<Path> paths = Files.walk(workDir)) {
+                    paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+                }
+            }
+        }
+        // Pool and driver threads of the stopped service may still be winding down
+        System.exit(failed ? 1 : 0);
+    }
+
+    // Returns true when any operation failed
+    private boolean run() throws Exception {
+        File file = dataset.file(rows);
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int w = 0; w < concurrency; w++) {
+                int worker = w;
+                futures.add(workers.submit(() -> {
+                    Random random = new Random(worker);
+                    for (int i = 0; i < iterations; i++) {
+                        iteration(file, worker, i, random);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        boolean failed = false;
+        System.out.printf("%-14s %7s %7s %10s %10s %10s%n", "operation", "count", "errors", "p50 ms", "p99 ms",
+                "max ms");
+        for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+            List<Long> sorted = new ArrayList<>(entry.getValue().nanos);
+            Collections.sort(sorted);
+            long errors = entry.getValue().errors.get();
+            System.out.printf("%-14s %7d %7d %10.1f %10.1f %10.1f%n", entry.getKey(), sorted.size(), errors,
+                    percentile(sorted, 0.50), percentile(sorted, 0.99), percentile(sorted, 1.0));
+            if (errors > 0) {
+                failed = true;
+                System.out.printf("  first %s error: %s%n", entry.getKey(), entry.getValue().firstError.get());
+            }
+        }
+        List<Double> perJob = new ArrayList<>(jobRowsPerSecond);
+        Collections.sort(perJob);
+        System.out.printf("Imported %d rows in %.1f s: %.0f rows/s overall, %.0f rows/s per job (median)%n",
+                importedRows.get(), seconds, importedRows.get() / seconds,
+                perJob.isEmpty() ? 0.0 : perJob.get(perJob.size() / 2));
+        return failed;
+    }
+
+    private void iteration(File file, int worker, int iteration, Random random) {
+        String tableName = "load_" + dataset.name().toLowerCase(Locale.ROOT) + "_" + worker;
+        String fileName = "load-" + worker + "-" + iteration + "-" + UUID.randomUUID() + ".csv";
+        Response upload = timed("upload", () -> upload(file, fileName));
+        if (upload == null) {
+            return;
+        }
+        String filePath = upload.body.trim();
+
+        Map<String, Object> request = new LinkedHashMap<>();
+        request.put("source", "flatfile");
+        request.put("filePath", filePath);
+        request.put("tableName", tableName);
+        request.put("columns", dataset.getHeader());
+        request.put("parallelism", parallelism);
+        request.put("inferTypes", inferTypes);
+        long importStart = System.nanoTime();
+        Response started = timed("start", () -> post("/ingestion/start", request));
+        if (started != null) {
+            awaitJob(started.body, importStart);
+        }
+
+        for (int p = 0; p < previews; p++) {
+            long offset = random.nextInt(Math.max(1, rows - PREVIEW_ROWS));
+            Map<String, Object> filePreview = new LinkedHashMap<>();
+            filePreview.put("source", "flatfile");
+            filePreview.put("filePath", filePath);
+            filePreview.put("columns", dataset.getHeader());
+            filePreview.put("offset", offset);
+            filePreview.put("limit", PREVIEW_ROWS);
+            timed("preview-file", () -> post("/ingestion/preview", filePreview));
+
+            Map<String, Object> tablePreview = new LinkedHashMap<>();
+            tablePreview.put("source", "clickhouse");
+            tablePreview.put("tableName", tableName);
+            tablePreview.put("columns", dataset.getHeader());
+            tablePreview.put("offset", offset);
+            tablePreview.put("limit", PREVIEW_ROWS);
+            timed("preview-table", () -> post("/ingestion/preview", tablePreview));
+        }
+    }
+
+    // Polls the job until it finishes and records the time from the start request
+    private void awaitJob(String startBody, long importStart) {
+        Stats importStats = stats.get("import");
+        try {
+            String id = json.readTree(startBody).path("id").asText();
+            while (true) {
+                Response response = request("GET", "/ingestion/jobs/" + id, null, null);
+                if (response.status != 200) {
+                    importStats.fail("HTTP " + response.status + ": " + response.body);
+                    return;
+                }
+                JsonNode job = json.readTree(response.body);
+                String status = job.path("status").asText();
+                if (status.equals("COMPLETED")) {
+                    importStats.nanos.add(System.nanoTime() - importStart);
+                    importedRows.addAndGet(job.path("rows").asLong());
+                    jobRowsPerSecond.add(job.path("rowsPerSecond").asDouble());
+                    return;
+                }
+                if (status.equals("FAILED") || status.equals("CANCELLED")) {
+                    importStats.fail(status + ": " + job.path("error").asText());
+                    return;
+                }
+                Thread.sleep(POLL_MILLIS);
+            }
+        } catch (IOException e) {
+            importStats.fail(e.toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private interface Call {
+        Response call() throws IOException;
+    }
+
+    // Runs the call, records its latency, and returns the response if it succeeded
+    private Response timed(String operation, Call call) {
+        Stats operationStats = stats.get(operation);
+        long start = System.nanoTime();
+        try {
+            Response response = call.call();
+            operationStats.nanos.add(System.nanoTime() - start);
+            if (response.status / 100 != 2) {
+                operationStats.fail("HTTP " + response.status + ": " + response.body);
+                return null;
+            }
+            return response;
+        } catch (IOException e) {
+            operationStats.fail(e.toString());
+            return null;
+        }
+    }
+
+    private Response upload(File file, String fileName) throws IOException {
+        String boundary = "----load" + UUID.randomUUID();
+        return request("POST", "/ingestion/upload", "multipart/form-data; boundary=" + boundary, out -> {
+            out.write(("--" + boundary + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\""
+                    + fileName + "\"\r\nContent-Type: text/csv\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            Files.copy(file.toPath(), out);
+            out.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        });
+    }
+
+    private Response post(String path, Object body) throws IOException {
+        byte[] bytes = json.writeValueAsBytes(body);
+        return request("POST", path, "application/json", out -> out.write(bytes));
+    }
+
+    private interface BodyWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    private Response request(String method, String path, String contentType, BodyWriter body) throws IOException {
+        // Reading each response to the end lets the connection be reused
+        HttpURLConnection http = (HttpURLConnection) new URL(target + path).openConnection();
+        http.setRequestMethod(method);
+        if (body != null) {
+            http.setDoOutput(true);
+            http.setChunkedStreamingMode(1 << 16);
+            http.setRequestProperty("Content-Type", contentType);
+            try (OutputStream out = http.getOutputStream()) {
+                body.write(out);
+            }
+        }
+        int status = http.getResponseCode();
+        InputStream in = status >= 400 ? http.getErrorStream() : http.getInputStream();
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        if (in != null) {
+            try (InputStream stream = in) {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = stream.read(buffer)) > 0) {
+                    response.write(buffer, 0, n);
+                }
+            }
+        }
+        return new Response(status, new String(response.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private static double percentile(List<Long> sorted, double fraction) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.ceil(fraction * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1))) / 1e6;
+    }
+}
@@ -0,0 +1,54 @@
+package com.ingestion.bench;
+
+import com.ingestion.model.JoinCondition;
+import com.ingestion.service.ClickHouseService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// ClickHouseService.buildQuery over wide selections and long join chains. Every fourth
+// identifier needs quoting so both sanitize paths are exercised.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBuildBenchmark {
+    @Param({"1", "8", "32"})
+    public int joins;
+    @Param({"10", "100", "500"})
+    public int columns;
+
+    private final ClickHouseService service = new ClickHouseService(1);
+    private List<String> selected;
+    private List<JoinCondition> conditions;
+
+    @Setup
+    public void setUp() {
+        selected = new ArrayList<>();
+        for (int i = 0; i < columns; i++) {
+            String column = i % 4 == 0 ? "Column " + i : "column_" + i;
+            selected.add(i % 3 == 0 ? "joined_" + (i % joins) + "." + column : column);
+        }
+        conditions = new ArrayList<>();
+        for (int i = 0; i < joins; i++) {
+            conditions.add(new JoinCondition(i % 2 == 0 ? "INNER" : "LEFT", "main_table",
+                    "key_" + i, "joined_" + i, i % 4 == 0 ? "Key " + i : "key_" + i));
+        }
+    }
+
+    @Benchmark
+    public String buildQuery() {
+        return service.buildQuery("main_table", selected, conditions);
+    }
+}
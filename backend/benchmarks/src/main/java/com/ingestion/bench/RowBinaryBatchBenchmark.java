@@ -0,0 +1,78 @@
+package com.ingestion.bench;
+
+import com.ingestion.io.ColumnarBatch;
+import com.ingestion.io.Compression;
+import com.ingestion.io.CsvRecordSource;
+import com.ingestion.service.FlatFileService;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.TimeZone;
+
+// Filling a ColumnarBatch from parsed records and encoding it as RowBinary, the client-side
+// work of a RowBinary insert without the network
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RowBinaryBatchBenchmark {
+    @Param({"CUSTOMERS", "ACCOUNT"})
+    public SyntheticData shape;
+    @Param({"1000000"})
+    public long rows;
+    @Param({"50000"})
+    public int batchRows;
+
+    private FlatFileService service;
+    private File file;
+    private int[] allColumns;
+    private ColumnarBatch batch;
+
+    @Setup
+    public void setUp() throws IOException {
+        service = Services.flatFileService(true);
+        file = shape.file(rows);
+        allColumns = new int[shape.getHeader().size()];
+        for (int i = 0; i < allColumns.length; i++) {
+            allColumns[i] = i;
+        }
+        batch = ColumnarBatch.forTypes(Arrays.asList(shape.getTypes()), TimeZone.getTimeZone("UTC"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.shutdown();
+    }
+
+    @Benchmark
+    public void fillAndEncode(RowCounter counter) throws IOException, SQLException {
+        try (CsvRecordSource records = service.openRecords(file, Compression.NONE)) {
+            records.project(allColumns);
+            while (records.next()) {
+                batch.addRow(records, allColumns);
+                if (batch.getRows() == batchRows) {
+                    batch.writeRowBinary(NullOutputStream.NULL_OUTPUT_STREAM);
+                    batch.clear();
+                }
+                counter.rows++;
+            }
+            batch.writeRowBinary(NullOutputStream.NULL_OUTPUT_STREAM);
+            batch.clear();
+        }
+    }
+}
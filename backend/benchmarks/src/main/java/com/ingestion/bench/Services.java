@@ -0,0 +1,38 @@
+package com.ingestion.bench;
+
+import com.ingestion.service.ClickHouseService;
+import com.ingestion.service.FlatFileService;
+import com.ingestion.service.IngestionMetrics;
+import com.ingestion.service.TypeInferenceService;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Builds the services without a Spring context through their setters, using the defaults
+// from application.properties
+final class Services {
+    private Services() {
+    }
+
+    static FlatFileService flatFileService(boolean fastParser) {
+        FlatFileService service = new FlatFileService(1);
+        service.setBatchLimits(50000, 8388608L);
+        service.setFastParser(fastParser);
+        // JdbcStub connections are not ClickHouse connections, so inserts go through JDBC batches
+        service.setRowBinary(false);
+        service.setMetrics(new IngestionMetrics(new SimpleMeterRegistry()));
+        service.setClickHouseService(new ClickHouseService(1) {
+            @Override
+            public void invalidateTable(String tableName) {
+                // no metadata cache outside Spring
+            }
+        });
+        return service;
+    }
+
+    static TypeInferenceService typeInferenceService(FlatFileService flatFileService) {
+        TypeInferenceService service = new TypeInferenceService();
+        service.setFlatFileService(flatFileService);
+        service.setSampling(1000, 8, 100, 1000);
+        return service;
+    }
+}
@@ -0,0 +1,176 @@
+package com.ingestion.bench;
+
+import com.ingestion.io.Compression;
+import com.ingestion.io.ParquetRowWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// Deterministic CSV or Parquet data shaped like the samples in Uploads/, scaled to any row count.
+// Generated files are cached under java.io.tmpdir/ingestion-bench so a 100M-row file is
+// only written once per machine.
+public enum SyntheticData {
+    // Uploads/customers-*.csv: twelve mostly short string columns, ~10% quoted fields
+    CUSTOMERS(new String[]{"Index", "Customer Id", "First Name", "Last Name", "Company", "City", "Country",
+            "Phone 1", "Phone 2", "Email", "Subscription Date", "Website"},
+            new String[]{"Int64", "String", "String", "String", "String", "String", "LowCardinality(String)",
+                    "String", "String", "String", "Date", "String"}),
+    // Uploads/account.csv: narrow integer-heavy rows
+    ACCOUNT(new String[]{"emp_id", "name", "dept_id"}, new String[]{"Int64", "String", "Int32"});
+
+    private static final String[] FIRST = {"Andrew", "Alvin", "Jenna", "Hazel", "Preston", "Sheryl", "Roy", "Linda",
+            "Élodie", "Tomás"};
+    private static final String[] LAST = {"Goodman", "Lane", "Robbins", "Carter", "Lozano", "Baxter", "Berry",
+            "Gross", "Müller", "O'Neil"};
+    private static final String[] COUNTRY = {"Chile", "Djibouti", "Macao", "Papua New Guinea", "Norway",
+            "Sri Lanka", "Peru", "Côte d'Ivoire", "Bahrain", "Vanuatu"};
+    private static final String HEX = "0123456789abcdefABCDEF";
+
+    private final String[] header;
+    private final String[] types;
+
+    SyntheticData(String[] header, String[] types) {
+        this.header = header;
+        this.types = types;
+    }
+
+    public List<String> getHeader() {
+        return Arrays.asList(header);
+    }
+
+    // ClickHouse types of the columns, as type inference would report them
+    public String[] getTypes() {
+        return types.clone();
+    }
+
+    // Returns the cached file with `rows` data rows, generating it on first use
+    public File file(long rows) throws IOException {
+        File dir = cacheDir();
+        File file = new File(dir, name().toLowerCase() + "-" + rows + ".csv");
+        if (file.isFile()) {
+            return file;
+        }
+        File tmp = File.createTempFile(name().toLowerCase(), ".tmp", dir);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                Files.newOutputStream(tmp.toPath()), StandardCharsets.UTF_8), 1 << 20)) {
+            out.write(String.join(",", header));
+            out.write('\n');
+            Random random = new Random(rows);
+            StringBuilder line = new StringBuilder(256);
+            for (long i = 1; i <= rows; i++) {
+                String[] row = row(i, random);
+                line.setLength(0);
+                for (int c = 0; c < row.length; c++) {
+                    if (c > 0) {
+                        line.append(',');
+                    }
+                    appendCsv(line, row[c]);
+                }
+                line.append('\n');
+                out.append(line);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        return file;
+    }
+
+    // The rows of file(rows) as a zstd-compressed Parquet file with columns of getTypes()
+    public File parquetFile(long rows) throws IOException {
+        File dir = cacheDir();
+        File file = new File(dir, name().toLowerCase() + "-" + rows + ".parquet");
+        if (file.isFile()) {
+            return file;
+        }
+        File tmp = File.createTempFile(name().toLowerCase(), ".tmp", dir);
+        try (ParquetRowWriter writer = new ParquetRowWriter(new BufferedOutputStream(
+                Files.newOutputStream(tmp.toPath()), 1 << 20), Compression.ZSTD, ZoneOffset.UTC)) {
+            writer.writeHeader(getHeader(), types);
+            Random random = new Random(rows);
+            for (long i = 1; i <= rows; i++) {
+                writer.writeRow(row(i, random));
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        return file;
+    }
+
+    private static File cacheDir() throws IOException {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "ingestion-bench");
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        return dir;
+    }
+
+    // Builds `count` distinct in-memory rows for benchmarks that do not read files
+    public String[][] rows(int count) {
+        Random random = new Random(count);
+        String[][] rows = new String[count][];
+        for (int i = 0; i < count; i++) {
+            rows[i] = row(i + 1, random);
+        }
+        return rows;
+    }
+
+    String[] row(long index, Random random) {
+        String first = FIRST[random.nextInt(FIRST.length)];
+        String last = LAST[random.nextInt(LAST.length)];
+        if (this == ACCOUNT) {
+            return new String[]{Long.toString(100 + index), first, Integer.toString(1 + random.nextInt(20))};
+        }
+        String company = random.nextInt(10) == 0
+                ? last + ", " + LAST[random.nextInt(LAST.length)] + " and " + FIRST[random.nextInt(FIRST.length)]
+                : last + "-" + LAST[random.nextInt(LAST.length)];
+        return new String[]{
+                Long.toString(index),
+                hex(random, 15),
+                first,
+                last,
+                company,
+                "East " + FIRST[random.nextInt(FIRST.length)] + "ville",
+                COUNTRY[random.nextInt(COUNTRY.length)],
+                phone(random),
+                phone(random) + "x" + random.nextInt(100000),
+                first.toLowerCase() + random.nextInt(100) + "@" + last.toLowerCase() + ".com",
+                String.format("20%02d-%02d-%02d", 20 + random.nextInt(3), 1 + random.nextInt(12), 1 + random.nextInt(28)),
+                "http://www." + last.toLowerCase() + ".biz/"
+        };
+    }
+
+    private static String hex(Random random, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = HEX.charAt(random.nextInt(HEX.length()));
+        }
+        return new String(chars);
+    }
+
+    private static String phone(Random random) {
+        return String.format("%03d-%03d-%04d", random.nextInt(1000), random.nextInt(1000), random.nextInt(10000));
+    }
+
+    private static void appendCsv(StringBuilder line, String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0) {
+            line.append(value);
+            return;
+        }
+        line.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+}
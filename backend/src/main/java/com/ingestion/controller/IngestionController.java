@@ -1,28 +1,74 @@
 package com.ingestion.controller;
 
+import com.ingestion.io.Compression;
+import com.ingestion.io.ExportFormat;
+import com.ingestion.io.ParquetFiles;
+import com.ingestion.model.ExportWatermark;
+import com.ingestion.model.IngestionCheckpoint;
+import com.ingestion.model.IngestionJob;
 import com.ingestion.model.IngestionRequest;
 import com.ingestion.model.JoinCondition;
+import com.ingestion.model.QueryPlan;
+import com.ingestion.model.SchemaReport;
+import com.ingestion.service.AdmissionService;
+import com.ingestion.service.CheckpointService;
 import com.ingestion.service.ClickHouseService;
 import com.ingestion.service.FlatFileService;
+import com.ingestion.service.IngestionJobService;
+import com.ingestion.service.IngestionMetrics;
+import com.ingestion.service.PreviewService;
+import com.ingestion.service.TypeInferenceService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.sql.ResultSet;
+import java.io.OutputStream;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/ingestion")
 public class IngestionController {
+    private static final int DEFAULT_PREVIEW_ROWS = 100;
+    private static final int MAX_PREVIEW_ROWS = 1000;
+    // A preview page holds little more than its rows
+    private static final long PREVIEW_MEMORY = 4 << 20;
+
+    // Uploads, stream copies and export output go here
+    @Value("${ingestion.upload-dir:/app/uploads}")
+    private String uploadDir;
+    // Page codec of Parquet output when the request names no compression
+    @Value("${ingestion.parquet.compression:zstd}")
+    private String parquetCompression;
+
     @Autowired
     private ClickHouseService clickHouseService;
     @Autowired
     private FlatFileService flatFileService;
+    @Autowired
+    private IngestionJobService jobService;
+    @Autowired
+    private TypeInferenceService typeInferenceService;
+    @Autowired
+    private IngestionMetrics metrics;
+    @Autowired
+    private CheckpointService checkpointService;
+    @Autowired
+    private AdmissionService admission;
+    @Autowired
+    private PreviewService previewService;
 
     @GetMapping("/tables")
     public ResponseEntity<?> getTables() {
@@ -68,10 +114,28 @@ public class IngestionController {
         }
     }
 
+    @PostMapping("/metadata/refresh")
+    public ResponseEntity<?> refreshMetadata() {
+        clickHouseService.invalidateMetadata();
+        previewService.invalidateAll();
+        return ResponseEntity.ok("Metadata cache cleared");
+    }
+
+    @GetMapping("/pool/metrics")
+    public ResponseEntity<?> getPoolMetrics() {
+        return ResponseEntity.ok(clickHouseService.getPoolMetrics());
+    }
+
+    @GetMapping("/admission")
+    public ResponseEntity<?> getAdmissionMetrics() {
+        return ResponseEntity.ok(admission.getMetrics());
+    }
+
     @PostMapping("/start")
     public ResponseEntity<?> startIngestion(@RequestBody IngestionRequest request) {
         try {
-            long recordCount;
+            IngestionJobService.JobTask task;
+            long memoryBytes;
             if ("clickhouse".equals(request.getSource())) {
                 if (request.getTableName() == null || request.getTableName().isEmpty()) {
                     return ResponseEntity.badRequest().body("Table name is required");
@@ -80,12 +144,58 @@ public class IngestionController {
                     return ResponseEntity.badRequest().body("Output file path is required");
                 }
                 String outputFileName = new File(request.getFilePath()).getName();
-                String outputPath = "/app/uploads/" + outputFileName;
+                ExportFormat format;
+                try {
+                    format = ExportFormat.resolve(request.getFormat(), outputFileName);
+                } catch (IllegalArgumentException e) {
+                    return ResponseEntity.badRequest().body("Unsupported output format: " + request.getFormat());
+                }
+                if (!format.isWritable()) {
+                    return ResponseEntity.badRequest().body("Unsupported output format: " + request.getFormat());
+                }
+                // Parquet compresses its pages, so the file name keeps its extension
+                boolean parquet = format == ExportFormat.PARQUET;
+                Compression compression = parquet ? resolveParquetCompression(request)
+                        : resolveCompression(request, outputFileName);
+                if (compression == null) {
+                    return ResponseEntity.badRequest().body("Unsupported compression: " + request.getCompression());
+                }
+                String outputPath = uploadDir + "/"
+                        + (parquet ? outputFileName : compression.applyExtension(outputFileName));
                 // Convert List<Map<String, String>> to List<JoinCondition>
                 List<JoinCondition> joinConditions = convertToJoinConditions(request.getJoinConditions());
-                recordCount = clickHouseService.executeIngestion(
-                        request.getTableName(), request.getColumns(),
-                        outputPath, joinConditions);
+                int parallelism = request.getParallelism() == null ? 1 : request.getParallelism();
+                if (parallelism < 1) {
+                    return ResponseEntity.badRequest().body("Parallelism must be at least 1");
+                }
+                String partitionBy = request.getPartitionBy() == null ? "auto" : request.getPartitionBy();
+                if (!ClickHouseService.PARTITION_STRATEGIES.contains(partitionBy)) {
+                    return ResponseEntity.badRequest().body("Unsupported partition strategy: " + partitionBy);
+                }
+                boolean mergeParts = !Boolean.FALSE.equals(request.getMergeParts());
+                memoryBytes = clickHouseService.estimateExportMemory(parallelism, format);
+                String watermarkColumn = request.getWatermarkColumn();
+                if (watermarkColumn != null && !watermarkColumn.isEmpty()) {
+                    if (parallelism > 1) {
+                        return ResponseEntity.badRequest().body("Incremental export requires parallelism 1");
+                    }
+                    boolean append = Boolean.TRUE.equals(request.getAppendOutput());
+                    if (append && parquet) {
+                        return ResponseEntity.badRequest().body("Parquet output cannot be appended to");
+                    }
+                    task = job -> clickHouseService.executeIncrementalIngestion(
+                            request.getTableName(), request.getColumns(), outputPath, joinConditions, format,
+                            compression, checkpointService.loadWatermark(request.getTableName(), watermarkColumn,
+                                    outputPath), append, request.getJwtToken(), job);
+                } else if (parallelism > 1) {
+                    task = job -> clickHouseService.executePartitionedIngestion(
+                            request.getTableName(), request.getColumns(), outputPath, joinConditions, format,
+                            compression, parallelism, partitionBy, mergeParts, request.getJwtToken(), job);
+                } else {
+                    task = job -> clickHouseService.executeIngestion(
+                            request.getTableName(), request.getColumns(),
+                            outputPath, joinConditions, format, compression, job);
+                }
             } else if ("flatfile".equals(request.getSource())) {
                 if (request.getFilePath() == null || request.getFilePath().isEmpty()) {
                     return ResponseEntity.badRequest().body("Input file path is required");
@@ -97,28 +207,310 @@ public class IngestionController {
                 if (!file.exists()) {
                     return ResponseEntity.badRequest().body("Input file does not exist: " + request.getFilePath());
                 }
-                try (java.sql.Connection conn = clickHouseService.getConnection(request.getJwtToken())) {
-                    recordCount = flatFileService.ingestToClickHouse(
-                            request.getFilePath(), request.getColumns(), request.getTableName(), conn);
+                int parallelism = request.getParallelism() == null ? 1 : request.getParallelism();
+                if (parallelism < 1) {
+                    return ResponseEntity.badRequest().body("Parallelism must be at least 1");
+                }
+                Compression compression = resolveCompression(request, request.getFilePath());
+                if (compression == null) {
+                    return ResponseEntity.badRequest().body("Unsupported compression: " + request.getCompression());
+                }
+                boolean inferTypes = Boolean.TRUE.equals(request.getInferTypes());
+                boolean resume = Boolean.TRUE.equals(request.getResume());
+                boolean checkpointing = resume || Boolean.TRUE.equals(request.getCheckpoint());
+                if (checkpointing && parallelism > 1) {
+                    return ResponseEntity.badRequest().body("Checkpointed ingestion requires parallelism 1");
+                }
+                List<String> dedupKeys = request.getDedupKeys();
+                if (dedupKeys != null && !dedupKeys.isEmpty()
+                        && (request.getColumns() == null || !request.getColumns().containsAll(dedupKeys))) {
+                    return ResponseEntity.badRequest().body("Dedup keys must be among the selected columns");
                 }
+                Map<String, String> columnTypes = request.getColumnTypes();
+                if (columnTypes != null) {
+                    for (Map.Entry<String, String> entry : columnTypes.entrySet()) {
+                        if (request.getColumns() == null || !request.getColumns().contains(entry.getKey())) {
+                            return ResponseEntity.badRequest()
+                                    .body("Column type given for a column not selected: " + entry.getKey());
+                        }
+                        if (!TypeInferenceService.isSupportedType(entry.getValue())) {
+                            return ResponseEntity.badRequest().body("Unsupported column type for "
+                                    + entry.getKey() + ": " + entry.getValue());
+                        }
+                    }
+                }
+                memoryBytes = flatFileService.estimateMemory(file, parallelism, compression,
+                        dedupKeys != null && !dedupKeys.isEmpty());
+                // Parquet columns are typed, so their tables always get those types
+                boolean typed = inferTypes || columnTypes != null && !columnTypes.isEmpty()
+                        || compression == Compression.NONE && ParquetFiles.isParquet(file);
+                task = job -> {
+                    SchemaReport schema = null;
+                    if (typed) {
+                        long start = System.nanoTime();
+                        schema = TypeInferenceService.withTypes(typeInferenceService.infer(
+                                request.getFilePath(), request.getColumns(), compression), columnTypes);
+                        metrics.recordPhase(job, "infer_schema", System.nanoTime() - start);
+                        job.setSchemaReport(schema);
+                    }
+                    if (parallelism > 1) {
+                        return flatFileService.ingestToClickHouseParallel(
+                                request.getFilePath(), request.getColumns(), request.getTableName(),
+                                request.getJwtToken(), parallelism, compression, schema, dedupKeys, job);
+                    }
+                    IngestionCheckpoint checkpoint = checkpointing ? checkpointService.begin(
+                            request.getFilePath(), request.getTableName(), request.getColumns(), resume) : null;
+                    try (java.sql.Connection conn = clickHouseService.getConnection(request.getJwtToken())) {
+                        return flatFileService.ingestToClickHouse(request.getFilePath(), request.getColumns(),
+                                request.getTableName(), conn, compression, schema, dedupKeys, job, checkpoint);
+                    }
+                };
             } else {
                 return ResponseEntity.badRequest().body("Invalid source");
             }
-            return ResponseEntity.ok("Ingestion completed. Records processed: " + recordCount);
+            IngestionJob job = jobService.submit(
+                    new IngestionJob(request.getSource(), request.getTableName(), request.getFilePath()),
+                    memoryBytes, task);
+            return ResponseEntity.accepted().body(job);
+        } catch (RejectedExecutionException e) {
+            metrics.recordError(request.getSource(), request.getTableName(), e);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body("Ingestion queue is full, try again later");
         } catch (Exception e) {
+            metrics.recordError(request.getSource(), request.getTableName(), e);
             return ResponseEntity.badRequest().body("Ingestion failed: " + e.getMessage());
         }
     }
 
+    // Streams a raw or chunked CSV request body straight into ClickHouse, e.g.
+    // curl -T data.csv.gz 'host/ingestion/stream?tableName=t&compression=gzip&saveAs=data.csv.gz'
+    // No multipart limits apply and nothing is staged on disk unless saveAs asks for a copy
+    // in /app/uploads. Parameters must be in the query string: a form-encoded body would be
+    // consumed as parameters, so that content type is rejected.
+    @PostMapping("/stream")
+    public ResponseEntity<?> streamIngestion(HttpServletRequest httpRequest,
+            @RequestParam String tableName,
+            @RequestParam(required = false) List<String> columns,
+            @RequestParam(required = false) String compression,
+            @RequestParam(required = false) String saveAs,
+            @RequestParam(required = false) String jwtToken) {
+        String contentType = httpRequest.getContentType();
+        if (contentType != null && (contentType.startsWith(MediaType.APPLICATION_FORM_URLENCODED_VALUE)
+                || contentType.startsWith(MediaType.MULTIPART_FORM_DATA_VALUE))) {
+            return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE)
+                    .body("Send the CSV as the raw request body, e.g. Content-Type: text/csv");
+        }
+        if (tableName.isEmpty()) {
+            return ResponseEntity.badRequest().body("Target table name is required");
+        }
+        Compression codec;
+        try {
+            codec = Compression.resolve(compression, saveAs);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("Unsupported compression: " + compression);
+        }
+        File copyFile = null;
+        if (saveAs != null && !saveAs.isEmpty()) {
+            File uploadDirectory = new File(uploadDir);
+            if (!uploadDirectory.exists() && !uploadDirectory.mkdirs()) {
+                return ResponseEntity.badRequest().body("Failed to create uploads directory");
+            }
+            copyFile = new File(uploadDir, new File(saveAs).getName());
+        }
+        File savedFile = copyFile;
+        IngestionJob job = new IngestionJob("flatfile", tableName,
+                savedFile == null ? null : savedFile.getAbsolutePath());
+        job.setTotalBytes(httpRequest.getContentLengthLong());
+        try {
+            jobService.run(job, AdmissionService.Priority.STREAMING, flatFileService.estimateMemory(1, codec),
+                    running -> {
+                        try (OutputStream copy = savedFile == null ? null : new FileOutputStream(savedFile);
+                             java.sql.Connection conn = clickHouseService.getConnection(jwtToken)) {
+                            return flatFileService.ingestStream(httpRequest.getInputStream(), columns, tableName,
+                                    conn, codec, copy, running);
+                        } catch (Exception e) {
+                            if (savedFile != null) {
+                                savedFile.delete();
+                            }
+                            throw e;
+                        }
+                    });
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(e.getMessage() + ", try again later");
+        }
+        if (job.getStatus() != IngestionJob.Status.COMPLETED) {
+            return ResponseEntity.badRequest().body(job.getError() != null ? job.getError() : job.getStatus().name());
+        }
+        return ResponseEntity.ok(job);
+    }
+
+    // Streams a ClickHouse query result straight to the client with chunked encoding instead
+    // of writing /app/uploads first. csv, tsv and parquet go through the JDBC driver and the
+    // file export writers; rowbinary and native, or any format with passthrough, are relayed from
+    // ClickHouse's HTTP interface as is. Writes block while the client reads slowly, which
+    // stops reading from ClickHouse in turn, and a client that disconnects cancels the query.
+    @PostMapping("/export")
+    public ResponseEntity<?> streamExport(@RequestBody IngestionRequest request, HttpServletResponse response)
+            throws IOException {
+        if (request.getTableName() == null || request.getTableName().isEmpty()) {
+            return ResponseEntity.badRequest().body("Table name is required");
+        }
+        if (request.getColumns() == null || request.getColumns().isEmpty()) {
+            return ResponseEntity.badRequest().body("At least one column is required");
+        }
+        ExportFormat format;
+        try {
+            format = ExportFormat.resolve(request.getFormat());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("Unsupported output format: " + request.getFormat());
+        }
+        boolean passthrough = !format.isWritable() || Boolean.TRUE.equals(request.getPassthrough());
+        Compression pageCompression = format == ExportFormat.PARQUET ? resolveParquetCompression(request)
+                : Compression.NONE;
+        if (pageCompression == null) {
+            return ResponseEntity.badRequest().body("Unsupported compression: " + request.getCompression());
+        }
+        String query;
+        try {
+            query = clickHouseService.planQuery(request.getTableName(), request.getColumns(),
+                    convertToJoinConditions(request.getJoinConditions()), request.getJwtToken()).getSql();
+        } catch (SQLException e) {
+            return ResponseEntity.badRequest().body("Export failed: " + e.getMessage());
+        }
+        ClickHouseService.ExportTarget target = () -> {
+            response.setContentType(format.getContentType());
+            // Only name-safe characters reach the header, so a table name cannot end it or add another
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                    .filename(request.getTableName().replaceAll("[^A-Za-z0-9._-]", "_") + format.getExtension())
+                    .build().toString());
+            return response.getOutputStream();
+        };
+
+        IngestionJob job;
+        try {
+            job = jobService.run(new IngestionJob("clickhouse", request.getTableName(), null),
+                    AdmissionService.Priority.STREAMING, clickHouseService.estimateExportMemory(1, format),
+                    running -> passthrough
+                            ? clickHouseService.exportNative(query, format.getClickHouseFormat(),
+                                    request.getJwtToken(), target, running)
+                            : clickHouseService.exportRows(query, request.getJwtToken(),
+                                    format, pageCompression, target, running));
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(e.getMessage() + ", try again later");
+        }
+        if (job.getStatus() == IngestionJob.Status.COMPLETED) {
+            return null;
+        }
+        if (response.isCommitted()) {
+            // Part of the body is already out; fail the response so the client sees a broken transfer
+            throw new IOException("Export of " + request.getTableName() + " aborted: " + job.getError());
+        }
+        return ResponseEntity.badRequest().body(job.getError());
+    }
+
+    // Shows how an export query would run: join order, columns read into each hash table,
+    // join settings, and ClickHouse's EXPLAIN of the final query
+    @PostMapping("/explain")
+    public ResponseEntity<?> explainQuery(@RequestBody IngestionRequest request) {
+        if (request.getTableName() == null || request.getTableName().isEmpty()) {
+            return ResponseEntity.badRequest().body("Table name is required");
+        }
+        if (request.getColumns() == null || request.getColumns().isEmpty()) {
+            return ResponseEntity.badRequest().body("At least one column is required");
+        }
+        try {
+            QueryPlan plan = clickHouseService.planQuery(request.getTableName(), request.getColumns(),
+                    convertToJoinConditions(request.getJoinConditions()), request.getJwtToken());
+            plan.setExplain(clickHouseService.explain(plan.getSql(), request.getJwtToken()));
+            return ResponseEntity.ok(plan);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("Explain failed: " + e.getMessage());
+        }
+    }
+
+    @PostMapping("/schema/infer")
+    public ResponseEntity<?> inferSchema(@RequestBody IngestionRequest request) {
+        try {
+            if (request.getFilePath() == null || request.getFilePath().isEmpty()) {
+                return ResponseEntity.badRequest().body("File path is required");
+            }
+            if (!new File(request.getFilePath()).exists()) {
+                return ResponseEntity.badRequest().body("File does not exist: " + request.getFilePath());
+            }
+            Compression compression = resolveCompression(request, request.getFilePath());
+            if (compression == null) {
+                return ResponseEntity.badRequest().body("Unsupported compression: " + request.getCompression());
+            }
+            List<String> columns = request.getColumns() == null || request.getColumns().isEmpty()
+                    ? flatFileService.getColumns(request.getFilePath(), compression)
+                    : request.getColumns();
+            return ResponseEntity.ok(typeInferenceService.infer(request.getFilePath(), columns, compression));
+        } catch (Exception e) {
+            metrics.recordError("flatfile", null, e);
+            return ResponseEntity.badRequest().body("Schema inference failed: " + e.getMessage());
+        }
+    }
+
+    // filePath is the export's output as written, e.g. /app/uploads/orders.csv.gz
+    @GetMapping("/watermark")
+    public ResponseEntity<?> getWatermark(@RequestParam String tableName, @RequestParam String column,
+                                          @RequestParam String filePath) {
+        try {
+            ExportWatermark watermark = checkpointService.loadWatermark(tableName, column, filePath);
+            if (watermark.getValue() == null) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body("No watermark for " + filePath);
+            }
+            return ResponseEntity.ok(watermark);
+        } catch (IOException e) {
+            return ResponseEntity.badRequest().body("Error reading watermark: " + e.getMessage());
+        }
+    }
+
+    @GetMapping("/checkpoint")
+    public ResponseEntity<?> getCheckpoint(@RequestParam String filePath, @RequestParam String tableName) {
+        try {
+            IngestionCheckpoint checkpoint = checkpointService.load(filePath, tableName);
+            if (checkpoint == null) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body("No checkpoint for " + filePath);
+            }
+            return ResponseEntity.ok(checkpoint);
+        } catch (IOException e) {
+            return ResponseEntity.badRequest().body("Error reading checkpoint: " + e.getMessage());
+        }
+    }
+
+    @GetMapping("/jobs")
+    public ResponseEntity<?> listJobs() {
+        return ResponseEntity.ok(jobService.list());
+    }
+
+    @GetMapping("/jobs/{id}")
+    public ResponseEntity<?> getJob(@PathVariable String id) {
+        IngestionJob job = jobService.get(id);
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Job not found: " + id);
+        }
+        return ResponseEntity.ok(job);
+    }
+
+    @PostMapping("/jobs/{id}/cancel")
+    public ResponseEntity<?> cancelJob(@PathVariable String id) {
+        IngestionJob job = jobService.cancel(id);
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Job not found: " + id);
+        }
+        return ResponseEntity.ok(job);
+    }
+
     @PostMapping("/upload")
     public ResponseEntity<?> uploadFile(@RequestParam("file") MultipartFile file) {
         try {
             if (file == null || file.isEmpty()) {
                 return ResponseEntity.badRequest().body("No file uploaded");
             }
-            File uploadDir = new File("/app/uploads");
-            if (!uploadDir.exists()) {
-                if (!uploadDir.mkdirs()) {
+            File uploadDirectory = new File(uploadDir);
+            if (!uploadDirectory.exists()) {
+                if (!uploadDirectory.mkdirs()) {
                     return ResponseEntity.badRequest().body("Failed to create uploads directory");
                 }
             }
@@ -130,31 +522,29 @@ public class IngestionController {
             file.transferTo(destFile);
             return ResponseEntity.ok(destFile.getAbsolutePath());
         } catch (IOException e) {
+            metrics.recordError("upload", null, e);
             return ResponseEntity.badRequest().body("File upload failed: " + e.getMessage());
         }
     }
 
+    // Previews are admitted ahead of queued bulk jobs, but within their own concurrency limit
     @PostMapping("/preview")
     public ResponseEntity<?> previewData(@RequestBody IngestionRequest request) {
-        try {
+        long offset = request.getOffset() == null ? 0 : request.getOffset();
+        int limit = request.getLimit() == null ? DEFAULT_PREVIEW_ROWS : request.getLimit();
+        if (offset < 0) {
+            return ResponseEntity.badRequest().body("Offset must not be negative");
+        }
+        if (limit < 1 || limit > MAX_PREVIEW_ROWS) {
+            return ResponseEntity.badRequest().body("Limit must be between 1 and " + MAX_PREVIEW_ROWS);
+        }
+        try (AdmissionService.Permit permit = admission.acquire(
+                "preview", AdmissionService.Priority.INTERACTIVE, PREVIEW_MEMORY)) {
             if ("clickhouse".equals(request.getSource())) {
                 // Convert List<Map<String, String>> to List<JoinCondition>
                 List<JoinCondition> joinConditions = convertToJoinConditions(request.getJoinConditions());
-                String query = clickHouseService.buildQuery(
-                        request.getTableName(), request.getColumns(), joinConditions) + " LIMIT 100";
-                try (java.sql.Connection conn = clickHouseService.getConnection(request.getJwtToken());
-                        Statement stmt = conn.createStatement();
-                        ResultSet rs = stmt.executeQuery(query)) {
-                    List<Map<String, Object>> rows = new ArrayList<>();
-                    while (rs.next()) {
-                        Map<String, Object> row = new HashMap<>();
-                        for (String col : request.getColumns()) {
-                            row.put(col, rs.getObject(col));
-                        }
-                        rows.add(row);
-                    }
-                    return ResponseEntity.ok(rows);
-                }
+                return ResponseEntity.ok(previewService.previewTable(request.getTableName(), request.getColumns(),
+                        joinConditions, offset, limit, request.getJwtToken()));
             } else if ("flatfile".equals(request.getSource())) {
                 if (request.getFilePath() == null || request.getFilePath().isEmpty()) {
                     return ResponseEntity.badRequest().body("File path is required");
@@ -163,31 +553,41 @@ public class IngestionController {
                 if (!file.exists()) {
                     return ResponseEntity.badRequest().body("File does not exist: " + request.getFilePath());
                 }
-                List<Map<String, String>> rows = new ArrayList<>();
-                try (org.apache.commons.csv.CSVParser parser = org.apache.commons.csv.CSVParser.parse(
-                        file, java.nio.charset.StandardCharsets.UTF_8,
-                        org.apache.commons.csv.CSVFormat.DEFAULT.withFirstRecordAsHeader())) {
-                    int count = 0;
-                    for (org.apache.commons.csv.CSVRecord record : parser) {
-                        if (count >= 100)
-                            break;
-                        Map<String, String> row = new HashMap<>();
-                        for (String col : request.getColumns()) {
-                            row.put(col, record.get(col));
-                        }
-                        rows.add(row);
-                        count++;
-                    }
-                    return ResponseEntity.ok(rows);
+                Compression compression = resolveCompression(request, request.getFilePath());
+                if (compression == null) {
+                    return ResponseEntity.badRequest().body("Unsupported compression: " + request.getCompression());
                 }
+                return ResponseEntity.ok(previewService.previewFile(
+                        request.getFilePath(), request.getColumns(), compression, offset, limit));
             } else {
                 return ResponseEntity.badRequest().body("Invalid source");
             }
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(e.getMessage() + ", try again later");
         } catch (Exception e) {
+            metrics.recordError(request.getSource(), request.getTableName(), e);
             return ResponseEntity.badRequest().body("Preview failed: " + e.getMessage());
         }
     }
 
+    // Returns null when the requested codec is unknown
+    private Compression resolveCompression(IngestionRequest request, String path) {
+        try {
+            return Compression.resolve(request.getCompression(), path);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private Compression resolveParquetCompression(IngestionRequest request) {
+        try {
+            String name = request.getCompression();
+            return Compression.resolve(name == null || name.isEmpty() ? parquetCompression : name, null);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
     // Helper method to convert List<Map<String, String>> to List<JoinCondition>
     // Updated helper method in IngestionController.java
     private List<JoinCondition> convertToJoinConditions(List<Map<String, String>> joinConditionsMap) {
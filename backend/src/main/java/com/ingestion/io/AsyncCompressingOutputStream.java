@@ -0,0 +1,145 @@
+package com.ingestion.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Hands written chunks to a background thread that pushes them through the compressing
+// target stream, so compression overlaps with producing the data. A small fixed set of
+// chunk buffers is recycled between the two threads, which also bounds memory.
+public final class AsyncCompressingOutputStream extends OutputStream {
+    private static final int CHUNK_COUNT = 4;
+
+    private static final class Chunk {
+        byte[] data = new byte[0];
+        int length;
+    }
+
+    private static final Chunk END = new Chunk();
+
+    private final OutputStream target;
+    private final BlockingQueue<Chunk> filled = new ArrayBlockingQueue<>(CHUNK_COUNT + 1);
+    private final BlockingQueue<Chunk> free = new ArrayBlockingQueue<>(CHUNK_COUNT);
+    private final Thread worker;
+    private volatile Throwable failure;
+    private boolean closed;
+
+    public AsyncCompressingOutputStream(OutputStream target, String threadName) {
+        this.target = target;
+        for (int i = 0; i < CHUNK_COUNT; i++) {
+            free.add(new Chunk());
+        }
+        this.worker = new Thread(this::drain, threadName);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len == 0) {
+            return;
+        }
+        Chunk chunk = take(free);
+        if (chunk.data.length < len) {
+            chunk.data = new byte[len];
+        }
+        System.arraycopy(b, off, chunk.data, 0, len);
+        chunk.length = len;
+        put(chunk);
+    }
+
+    // Data is compressed as it arrives; only close() guarantees it has reached the target
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (failure == null) {
+                put(END);
+            }
+            worker.join();
+        } catch (InterruptedException e) {
+            worker.interrupt();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while finishing compression");
+        } finally {
+            if (failure != null) {
+                target.close();
+            }
+        }
+        rethrowFailure();
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                Chunk chunk = filled.take();
+                if (chunk == END) {
+                    break;
+                }
+                target.write(chunk.data, 0, chunk.length);
+                free.put(chunk);
+            }
+            target.close();
+        } catch (Throwable t) {
+            failure = t;
+        }
+    }
+
+    private Chunk take(BlockingQueue<Chunk> queue) throws IOException {
+        try {
+            Chunk chunk;
+            while ((chunk = queue.poll(100, TimeUnit.MILLISECONDS)) == null) {
+                rethrowFailure();
+            }
+            return chunk;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for compressor");
+        }
+    }
+
+    private void put(Chunk chunk) throws IOException {
+        try {
+            while (!filled.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                rethrowFailure();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for compressor");
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        rethrowFailure();
+    }
+
+    private void rethrowFailure() throws IOException {
+        Throwable t = failure;
+        if (t instanceof IOException) {
+            throw new IOException("Compression failed: " + t.getMessage(), t);
+        }
+        if (t != null) {
+            throw new IOException("Compression failed: " + t, t);
+        }
+    }
+}
@@ -0,0 +1,673 @@
+package com.ingestion.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.UUID;
+
+// Column-oriented buffer for one insert batch, written out as ClickHouse RowBinary. Integer,
+// decimal, date, time and UUID columns are parsed into long[], floats into double[], and
+// strings are kept as UTF-8 bytes in one slab per column with end offsets, so a batch holds
+// no per-cell objects.
+// String columns start dictionary-encoded: each distinct value is stored once and rows keep an
+// int code, which suits repeated values such as countries or cities. A column that turns out
+// to have too many distinct values switches to plain storage for the rest of the batch.
+// RowBinary carries no type information, so the types must be the target table's.
+public final class ColumnarBatch {
+    private static final int INITIAL_ROWS = 1024;
+
+    private final Column[] columns;
+    private int rows;
+
+    private ColumnarBatch(Column[] columns) {
+        this.columns = columns;
+    }
+
+    // Returns null when a type has no RowBinary encoding here; such tables are inserted over JDBC
+    public static ColumnarBatch forTypes(List<String> clickHouseTypes, TimeZone timeZone) {
+        Column[] columns = new Column[clickHouseTypes.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = columnFor(clickHouseTypes.get(i), timeZone.toZoneId());
+            if (columns[i] == null) {
+                return null;
+            }
+        }
+        return new ColumnarBatch(columns);
+    }
+
+    private static Column columnFor(String clickHouseType, ZoneId serverZone) {
+        String base = clickHouseType;
+        if (base.startsWith("LowCardinality(")) {
+            base = base.substring(15, base.length() - 1);
+        }
+        boolean nullable = base.startsWith("Nullable(");
+        if (nullable) {
+            base = base.substring(9, base.length() - 1);
+        }
+        switch (base) {
+            case "String":
+                return new StringColumn(clickHouseType, nullable);
+            case "Int8":
+            case "Int16":
+            case "Int32":
+            case "Int64":
+                return new IntColumn(clickHouseType, nullable, Integer.parseInt(base.substring(3)) / 8, true);
+            case "UInt8":
+            case "UInt16":
+            case "UInt32":
+            case "UInt64":
+                return new IntColumn(clickHouseType, nullable, Integer.parseInt(base.substring(4)) / 8, false);
+            case "Bool":
+                return new BoolColumn(clickHouseType, nullable);
+            case "UUID":
+                return new UuidColumn(clickHouseType, nullable);
+            case "Float32":
+                return new FloatColumn(clickHouseType, nullable, 4);
+            case "Float64":
+                return new FloatColumn(clickHouseType, nullable, 8);
+            case "Date":
+                return new DateColumn(clickHouseType, nullable, 2, false);
+            case "Date32":
+                return new DateColumn(clickHouseType, nullable, 4, true);
+            case "DateTime":
+                return new DateTimeColumn(clickHouseType, nullable, serverZone);
+            default:
+                if (base.startsWith("DateTime('") && base.endsWith("')")) {
+                    return new DateTimeColumn(clickHouseType, nullable, ZoneId.of(base.substring(10, base.length() - 2)));
+                }
+                if (base.startsWith("DateTime64(") && base.endsWith(")")) {
+                    String[] args = base.substring(11, base.length() - 1).split(",");
+                    int precision = Integer.parseInt(args[0].trim());
+                    ZoneId zone = args.length > 1 ? ZoneId.of(args[1].trim().replace("'", "")) : serverZone;
+                    return precision <= 9 ? new DateTime64Column(clickHouseType, nullable, precision, zone) : null;
+                }
+                if (base.startsWith("Decimal(") && base.endsWith(")")) {
+                    String[] args = base.substring(8, base.length() - 1).split(",");
+                    int precision = Integer.parseInt(args[0].trim());
+                    int scale = args.length > 1 ? Integer.parseInt(args[1].trim()) : 0;
+                    return precision <= 76 ? new DecimalColumn(clickHouseType, nullable, precision, scale) : null;
+                }
+                return null;
+        }
+    }
+
+    // Appends the given fields of the current record, one per column. Empty fields become NULL
+    // for Nullable columns; any other unparsable value is an error.
+    public void addRow(CsvRecordSource record, int[] fields) throws SQLException {
+        for (int i = 0; i < columns.length; i++) {
+            Column column = columns[i];
+            column.ensureCapacity(rows + 1);
+            if (column.nullable && record.isEmpty(fields[i])) {
+                column.nulls[rows] = true;
+                column.addNull(rows);
+            } else {
+                column.nulls[rows] = false;
+                column.add(rows, record, fields[i]);
+            }
+        }
+        rows++;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public void writeRowBinary(OutputStream out) throws IOException {
+        RowBinaryWriter writer = new RowBinaryWriter(out);
+        for (int row = 0; row < rows; row++) {
+            for (Column column : columns) {
+                if (column.nullable) {
+                    writer.writeByte(column.nulls[row] ? 1 : 0);
+                    if (column.nulls[row]) {
+                        continue;
+                    }
+                }
+                column.write(row, writer);
+            }
+        }
+        writer.flush();
+    }
+
+    // Empties the batch but keeps its arrays for the next one
+    public void clear() {
+        for (Column column : columns) {
+            column.clear();
+        }
+        rows = 0;
+    }
+
+    private abstract static class Column {
+        final String type;
+        final boolean nullable;
+        boolean[] nulls = new boolean[INITIAL_ROWS];
+
+        Column(String type, boolean nullable) {
+            this.type = type;
+            this.nullable = nullable;
+        }
+
+        void ensureCapacity(int rowCount) {
+            if (nulls.length < rowCount) {
+                int capacity = Math.max(rowCount, nulls.length * 2);
+                nulls = Arrays.copyOf(nulls, capacity);
+                grow(capacity);
+            }
+        }
+
+        SQLException invalid(CsvRecordSource record, int field) {
+            return new SQLException("Value '" + record.get(field) + "' is not a valid " + type);
+        }
+
+        abstract void grow(int capacity);
+
+        abstract void add(int row, CsvRecordSource record, int field) throws SQLException;
+
+        abstract void addNull(int row);
+
+        abstract void write(int row, RowBinaryWriter out) throws IOException;
+
+        void clear() {
+        }
+    }
+
+    private static class IntColumn extends Column {
+        final int width;
+        final long min;
+        final long max;
+        long[] values = new long[INITIAL_ROWS];
+
+        IntColumn(String type, boolean nullable, int width, boolean signed) {
+            super(type, nullable);
+            this.width = width;
+            if (width == 8) {
+                min = signed ? Long.MIN_VALUE : 0;
+                max = Long.MAX_VALUE;
+            } else {
+                min = signed ? -(1L << (width * 8 - 1)) : 0;
+                max = signed ? (1L << (width * 8 - 1)) - 1 : (1L << (width * 8)) - 1;
+            }
+        }
+
+        long parse(CsvRecordSource record, int field) throws SQLException {
+            try {
+                return record.getLong(field);
+            } catch (NumberFormatException e) {
+                if (width == 8 && min == 0) {
+                    // UInt64 above Long.MAX_VALUE keeps its bits
+                    try {
+                        return Long.parseUnsignedLong(record.get(field));
+                    } catch (NumberFormatException ignored) {
+                        // reported below
+                    }
+                }
+                throw invalid(record, field);
+            }
+        }
+
+        @Override
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        @Override
+        void add(int row, CsvRecordSource record, int field) throws SQLException {
+            long value = parse(record, field);
+            if (width < 8 || min < 0) {
+                if (value < min || value > max) {
+                    throw invalid(record, field);
+                }
+            } else if (value < 0 && record.get(field).startsWith("-")) {
+                throw invalid(record, field);
+            }
+            values[row] = value;
+        }
+
+        @Override
+        void addNull(int row) {
+            values[row] = 0;
+        }
+
+        @Override
+        void write(int row, RowBinaryWriter out) throws IOException {
+            out.writeLittleEndian(values[row], width);
+        }
+    }
+
+    // Days since 1970-01-01
+    private static final class DateColumn extends IntColumn {
+        DateColumn(String type, boolean nullable, int width, boolean signed) {
+            super(type, nullable, width, signed);
+        }
+
+        @Override
+        long parse(CsvRecordSource record, int field) throws SQLException {
+            try {
+                return LocalDate.parse(record.get(field)).toEpochDay();
+            } catch (DateTimeParseException e) {
+                throw invalid(record, field);
+            }
+        }
+    }
+
+    // Seconds since the epoch, with the text read in the column's or else the server's time zone
+    private static final class DateTimeColumn extends IntColumn {
+        private final ZoneId zone;
+
+        DateTimeColumn(String type, boolean nullable, ZoneId zone) {
+            super(type, nullable, 4, false);
+            this.zone = zone;
+        }
+
+        @Override
+        long parse(CsvRecordSource record, int field) throws SQLException {
+            try {
+                return LocalDateTime.parse(record.get(field), ValueBinder.DATE_TIME).atZone(zone).toEpochSecond();
+            } catch (DateTimeParseException e) {
+                throw invalid(record, field);
+            }
+        }
+    }
+
+    // true/false or 1/0, as one byte
+    private static final class BoolColumn extends IntColumn {
+        BoolColumn(String type, boolean nullable) {
+            super(type, nullable, 1, false);
+        }
+
+        @Override
+        long parse(CsvRecordSource record, int field) throws SQLException {
+            switch (record.get(field)) {
+                case "true":
+                case "1":
+                    return 1;
+                case "false":
+                case "0":
+                    return 0;
+                default:
+                    throw invalid(record, field);
+            }
+        }
+    }
+
+    // Ticks of 10^-precision seconds since the epoch; extra fraction digits are truncated
+    private static final class DateTime64Column extends IntColumn {
+        private final ZoneId zone;
+        private final long ticksPerSecond;
+
+        DateTime64Column(String type, boolean nullable, int precision, ZoneId zone) {
+            super(type, nullable, 8, true);
+            this.zone = zone;
+            long ticks = 1;
+            for (int i = 0; i < precision; i++) {
+                ticks *= 10;
+            }
+            this.ticksPerSecond = ticks;
+        }
+
+        @Override
+        long parse(CsvRecordSource record, int field) throws SQLException {
+            String value = record.get(field);
+            int dot = value.indexOf('.');
+            try {
+                long seconds = LocalDateTime.parse(dot < 0 ? value : value.substring(0, dot), ValueBinder.DATE_TIME)
+                        .atZone(zone).toEpochSecond();
+                long fraction = 0;
+                if (dot >= 0) {
+                    long scale = ticksPerSecond;
+                    for (int i = dot + 1; i < value.length(); i++) {
+                        char c = value.charAt(i);
+                        if (c < '0' || c > '9') {
+                            throw invalid(record, field);
+                        }
+                        scale /= 10;
+                        fraction += (c - '0') * scale;
+                    }
+                }
+                return Math.addExact(Math.multiplyExact(seconds, ticksPerSecond), fraction);
+            } catch (DateTimeParseException | ArithmeticException e) {
+                throw invalid(record, field);
+            }
+        }
+    }
+
+    // The unscaled value as a little-endian two's complement integer of the width ClickHouse
+    // uses for the precision, held in one long per row up to 8 bytes and in 64-bit words above
+    private static final class DecimalColumn extends Column {
+        private final int width;
+        private final int words;
+        private final int scale;
+        private final BigInteger limit;
+        private long[] values;
+
+        DecimalColumn(String type, boolean nullable, int precision, int scale) {
+            super(type, nullable);
+            this.width = precision <= 9 ? 4 : precision <= 18 ? 8 : precision <= 38 ? 16 : 32;
+            this.words = Math.max(1, width / 8);
+            this.scale = scale;
+            this.limit = BigInteger.TEN.pow(precision);
+            this.values = new long[INITIAL_ROWS * words];
+        }
+
+        @Override
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity * words);
+        }
+
+        @Override
+        void add(int row, CsvRecordSource record, int field) throws SQLException {
+            BigInteger unscaled;
+            try {
+                unscaled = new BigDecimal(record.get(field)).setScale(scale, RoundingMode.UNNECESSARY).unscaledValue();
+            } catch (NumberFormatException | ArithmeticException e) {
+                throw invalid(record, field);
+            }
+            if (unscaled.abs().compareTo(limit) >= 0) {
+                throw invalid(record, field);
+            }
+            for (int w = 0; w < words; w++) {
+                values[row * words + w] = unscaled.shiftRight(64 * w).longValue();
+            }
+        }
+
+        @Override
+        void addNull(int row) {
+            Arrays.fill(values, row * words, (row + 1) * words, 0);
+        }
+
+        @Override
+        void write(int row, RowBinaryWriter out) throws IOException {
+            if (words == 1) {
+                out.writeLittleEndian(values[row], width);
+                return;
+            }
+            for (int w = 0; w < words; w++) {
+                out.writeLittleEndian(values[row * words + w], 8);
+            }
+        }
+    }
+
+    // RowBinary writes a UUID as its high and then its low 64 bits, each little-endian
+    private static final class UuidColumn extends Column {
+        private long[] values = new long[INITIAL_ROWS * 2];
+
+        UuidColumn(String type, boolean nullable) {
+            super(type, nullable);
+        }
+
+        @Override
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity * 2);
+        }
+
+        @Override
+        void add(int row, CsvRecordSource record, int field) throws SQLException {
+            String value = record.get(field);
+            if (value.length() != 36) {
+                throw invalid(record, field);
+            }
+            try {
+                UUID uuid = UUID.fromString(value);
+                values[row * 2] = uuid.getMostSignificantBits();
+                values[row * 2 + 1] = uuid.getLeastSignificantBits();
+            } catch (IllegalArgumentException e) {
+                throw invalid(record, field);
+            }
+        }
+
+        @Override
+        void addNull(int row) {
+            values[row * 2] = 0;
+            values[row * 2 + 1] = 0;
+        }
+
+        @Override
+        void write(int row, RowBinaryWriter out) throws IOException {
+            out.writeLittleEndian(values[row * 2], 8);
+            out.writeLittleEndian(values[row * 2 + 1], 8);
+        }
+    }
+
+    private static final class FloatColumn extends Column {
+        private final int width;
+        private double[] values = new double[INITIAL_ROWS];
+
+        FloatColumn(String type, boolean nullable, int width) {
+            super(type, nullable);
+            this.width = width;
+        }
+
+        @Override
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        @Override
+        void add(int row, CsvRecordSource record, int field) throws SQLException {
+            try {
+                values[row] = Double.parseDouble(record.get(field));
+            } catch (NumberFormatException e) {
+                throw invalid(record, field);
+            }
+        }
+
+        @Override
+        void addNull(int row) {
+            values[row] = 0;
+        }
+
+        @Override
+        void write(int row, RowBinaryWriter out) throws IOException {
+            if (width == 4) {
+                out.writeLittleEndian(Float.floatToIntBits((float) values[row]), 4);
+            } else {
+                out.writeLittleEndian(Double.doubleToLongBits(values[row]), 8);
+            }
+        }
+    }
+
+    // In dictionary mode `ends` holds the end offset of each distinct value and `codes` the
+    // value of each row; in plain mode `ends` holds the end offset of each row's value
+    private static final class StringColumn extends Column {
+        private static final int MAX_DICTIONARY = 1 << 12;
+
+        private byte[] slab = new byte[1 << 16];
+        private int slabLength;
+        private int[] ends = new int[INITIAL_ROWS];
+        private int[] codes = new int[INITIAL_ROWS];
+        private boolean dictionary = true;
+        private int dictionarySize;
+        // Open-addressing hash of dictionary codes + 1, 0 when empty
+        private final int[] table = new int[MAX_DICTIONARY * 2];
+
+        StringColumn(String type, boolean nullable) {
+            super(type, nullable);
+        }
+
+        @Override
+        void grow(int capacity) {
+            codes = Arrays.copyOf(codes, capacity);
+            if (!dictionary) {
+                ends = Arrays.copyOf(ends, capacity);
+            }
+        }
+
+        @Override
+        void add(int row, CsvRecordSource record, int field) {
+            int maxLength = record.fieldLength(field) * 3;
+            if (slab.length - slabLength < maxLength) {
+                slab = Arrays.copyOf(slab, Math.max(slab.length * 2, slabLength + maxLength));
+            }
+            int length = record.copyBytes(field, slab, slabLength);
+            if (!dictionary) {
+                slabLength += length;
+                ends[row] = slabLength;
+                return;
+            }
+            int hash = hash(slabLength, length);
+            int mask = table.length - 1;
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                int entry = table[slot];
+                if (entry == 0) {
+                    break;
+                }
+                int start = entry == 1 ? 0 : ends[entry - 2];
+                if (ends[entry - 1] - start == length && equal(start, slabLength, length)) {
+                    codes[row] = entry - 1;
+                    return;
+                }
+            }
+            if (dictionarySize == ends.length) {
+                ends = Arrays.copyOf(ends, ends.length * 2);
+            }
+            slabLength += length;
+            ends[dictionarySize] = slabLength;
+            codes[row] = dictionarySize++;
+            if (dictionarySize > MAX_DICTIONARY) {
+                toPlain(row + 1);
+                return;
+            }
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                if (table[slot] == 0) {
+                    table[slot] = dictionarySize;
+                    break;
+                }
+            }
+        }
+
+        @Override
+        void addNull(int row) {
+            if (dictionary) {
+                codes[row] = -1;
+            } else {
+                ends[row] = slabLength;
+            }
+        }
+
+        @Override
+        void write(int row, RowBinaryWriter out) throws IOException {
+            int start;
+            int end;
+            if (dictionary) {
+                int code = codes[row];
+                start = code <= 0 ? 0 : ends[code - 1];
+                end = code < 0 ? 0 : ends[code];
+            } else {
+                start = row == 0 ? 0 : ends[row - 1];
+                end = ends[row];
+            }
+            out.writeVarInt(end - start);
+            out.writeBytes(slab, start, end - start);
+        }
+
+        @Override
+        void clear() {
+            slabLength = 0;
+            dictionarySize = 0;
+            dictionary = true;
+            Arrays.fill(table, 0);
+        }
+
+        // Rewrites the rows added so far as plain values in row order
+        private void toPlain(int rowCount) {
+            byte[] plain = new byte[Math.max(slab.length, 1 << 16)];
+            int[] rowEnds = new int[codes.length];
+            int length = 0;
+            for (int row = 0; row < rowCount; row++) {
+                int code = codes[row];
+                if (code >= 0) {
+                    int start = code == 0 ? 0 : ends[code - 1];
+                    int valueLength = ends[code] - start;
+                    if (plain.length - length < valueLength) {
+                        plain = Arrays.copyOf(plain, Math.max(plain.length * 2, length + valueLength));
+                    }
+                    System.arraycopy(slab, start, plain, length, valueLength);
+                    length += valueLength;
+                }
+                rowEnds[row] = length;
+            }
+            slab = plain;
+            slabLength = length;
+            ends = rowEnds;
+            dictionary = false;
+        }
+
+        private int hash(int offset, int length) {
+            int h = 0x811c9dc5;
+            for (int i = offset; i < offset + length; i++) {
+                h = (h ^ slab[i]) * 0x01000193;
+            }
+            return h ^ (h >>> 16);
+        }
+
+        private boolean equal(int a, int b, int length) {
+            for (int i = 0; i < length; i++) {
+                if (slab[a + i] != slab[b + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class RowBinaryWriter {
+        private final OutputStream out;
+        private final byte[] buffer = new byte[1 << 16];
+        private int pos;
+
+        RowBinaryWriter(OutputStream out) {
+            this.out = out;
+        }
+
+        void writeByte(int b) throws IOException {
+            if (pos == buffer.length) {
+                flush();
+            }
+            buffer[pos++] = (byte) b;
+        }
+
+        void writeLittleEndian(long value, int width) throws IOException {
+            if (buffer.length - pos < width) {
+                flush();
+            }
+            for (int i = 0; i < width; i++) {
+                buffer[pos++] = (byte) (value >>> (i * 8));
+            }
+        }
+
+        // Unsigned LEB128, as RowBinary uses for string lengths
+        void writeVarInt(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            writeByte(value);
+        }
+
+        void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+            if (length > buffer.length - pos) {
+                flush();
+                if (length > buffer.length) {
+                    out.write(bytes, offset, length);
+                    return;
+                }
+            }
+            System.arraycopy(bytes, offset, buffer, pos, length);
+            pos += length;
+        }
+
+        void flush() throws IOException {
+            out.write(buffer, 0, pos);
+            pos = 0;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.ingestion.io;
+
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.commons.io.input.CountingInputStream;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+// Record source over commons-csv, used for compressed and streamed input
+public final class CommonsCsvRecordSource implements CsvRecordSource {
+    private final CSVParser parser;
+    private final Iterator<CSVRecord> records;
+    private final CountingInputStream input;
+    private CSVRecord current;
+
+    public CommonsCsvRecordSource(CSVParser parser, CountingInputStream input) {
+        this.parser = parser;
+        this.records = parser.iterator();
+        this.input = input;
+    }
+
+    @Override
+    public List<String> getHeaderNames() {
+        return parser.getHeaderNames();
+    }
+
+    // CSVParser reports read and syntax errors from the iterator as unchecked exceptions
+    @Override
+    public boolean next() throws IOException {
+        try {
+            if (!records.hasNext()) {
+                return false;
+            }
+            current = records.next();
+            return true;
+        } catch (RuntimeException e) {
+            throw new IOException("Failed to parse CSV data: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public int size() {
+        return current.size();
+    }
+
+    @Override
+    public long recordNumber() {
+        return current.getRecordNumber();
+    }
+
+    @Override
+    public String get(int field) {
+        return current.get(field);
+    }
+
+    @Override
+    public long bytesConsumed() {
+        return input.getByteCount();
+    }
+
+    @Override
+    public void close() throws IOException {
+        parser.close();
+    }
+}
@@ -0,0 +1,94 @@
+package com.ingestion.io;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Stream codecs for flat files, picked by request option or by file extension
+public enum Compression {
+    NONE(""),
+    GZIP(".gz"),
+    ZSTD(".zst"),
+    LZ4(".lz4");
+
+    private static final int STREAM_BUFFER_SIZE = 1 << 16;
+
+    private final String extension;
+
+    Compression(String extension) {
+        this.extension = extension;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    // An explicit option wins; otherwise the extension of the path decides
+    public static Compression resolve(String option, String path) {
+        if (option != null && !option.isEmpty()) {
+            String name = option.toUpperCase(Locale.ROOT);
+            if (name.equals("GZ")) {
+                return GZIP;
+            }
+            if (name.equals("ZSTANDARD") || name.equals("ZST")) {
+                return ZSTD;
+            }
+            return valueOf(name);
+        }
+        return forPath(path);
+    }
+
+    public static Compression forPath(String path) {
+        String lower = path == null ? "" : path.toLowerCase(Locale.ROOT);
+        if (lower.endsWith(".gz") || lower.endsWith(".gzip")) {
+            return GZIP;
+        }
+        if (lower.endsWith(".zst") || lower.endsWith(".zstd")) {
+            return ZSTD;
+        }
+        if (lower.endsWith(".lz4")) {
+            return LZ4;
+        }
+        return NONE;
+    }
+
+    // Appends this codec's extension unless the path already selects it
+    public String applyExtension(String path) {
+        return this == NONE || forPath(path) == this ? path : path + extension;
+    }
+
+    public InputStream wrapInput(InputStream in) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPInputStream(in, STREAM_BUFFER_SIZE);
+            case ZSTD:
+                return new ZstdInputStream(new BufferedInputStream(in, STREAM_BUFFER_SIZE));
+            case LZ4:
+                return new LZ4FrameInputStream(new BufferedInputStream(in, STREAM_BUFFER_SIZE));
+            default:
+                return in;
+        }
+    }
+
+    public OutputStream wrapOutput(OutputStream out) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPOutputStream(out, STREAM_BUFFER_SIZE);
+            case ZSTD:
+                return new ZstdOutputStream(out);
+            case LZ4:
+                return new LZ4FrameOutputStream(out);
+            default:
+                return out;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.ingestion.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// Splits a CSV file into byte ranges that start and end on record boundaries.
+// Boundaries come from one forward scan that tracks RFC 4180 quote state, so a
+// newline inside a quoted field never produces a split. As in the parser, only a
+// quote at the start of a field opens a quoted field; bare quotes are data.
+public final class CsvFileSplitter {
+    private static final int SCAN_BUFFER_SIZE = 1 << 20;
+
+    private CsvFileSplitter() {
+    }
+
+    public static final class Range {
+        private final long start;
+        private final long end;
+
+        Range(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public long getStart() { return start; }
+        public long getEnd() { return end; }
+        public long length() { return end - start; }
+    }
+
+    // Returns up to `parts` non-empty ranges covering every record after the header, in file order
+    public static List<Range> split(File file, int parts) throws IOException {
+        long size = file.length();
+        List<Long> boundaries = new ArrayList<>();
+        long headerEnd = -1;
+        long[] targets = null;
+        int nextTarget = 0;
+        boolean inQuotes = false;
+        boolean quotePending = false;
+        boolean fieldStart = true;
+        long pos = 0;
+        byte[] buffer = new byte[SCAN_BUFFER_SIZE];
+
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            scan:
+            while ((read = in.read(buffer)) > 0) {
+                for (int i = 0; i < read; i++, pos++) {
+                    byte b = buffer[i];
+                    // A quote closes a quoted field unless the next byte doubles it
+                    if (quotePending) {
+                        quotePending = false;
+                        if (b == '"') {
+                            continue;
+                        }
+                        inQuotes = false;
+                    }
+                    if (inQuotes) {
+                        quotePending = b == '"';
+                        continue;
+                    }
+                    // Only a quote at the start of a field opens a quoted field
+                    if (b == '"' && fieldStart) {
+                        inQuotes = true;
+                        fieldStart = false;
+                    } else if (b == ',') {
+                        fieldStart = true;
+                    } else if (b == '\n') {
+                        fieldStart = true;
+                        long boundary = pos + 1;
+                        if (headerEnd < 0) {
+                            headerEnd = boundary;
+                            targets = new long[Math.max(parts, 1) - 1];
+                            for (int k = 0; k < targets.length; k++) {
+                                targets[k] = headerEnd + (size - headerEnd) * (k + 1) / parts;
+                            }
+                        } else if (nextTarget < targets.length && boundary >= targets[nextTarget]) {
+                            boundaries.add(boundary);
+                            while (nextTarget < targets.length && boundary >= targets[nextTarget]) {
+                                nextTarget++;
+                            }
+                        }
+                        if (targets != null && nextTarget >= targets.length) {
+                            break scan;
+                        }
+                    } else {
+                        fieldStart = false;
+                    }
+                }
+            }
+        }
+
+        List<Range> ranges = new ArrayList<>();
+        if (headerEnd < 0 || headerEnd >= size) {
+            return ranges;
+        }
+        long start = headerEnd;
+        for (long boundary : boundaries) {
+            if (boundary > start) {
+                ranges.add(new Range(start, boundary));
+                start = boundary;
+            }
+        }
+        if (size > start) {
+            ranges.add(new Range(start, size));
+        }
+        return ranges;
+    }
+}
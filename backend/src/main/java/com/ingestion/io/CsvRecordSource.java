@@ -0,0 +1,84 @@
+package com.ingestion.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+// Forward-only view over CSV data records shared by the commons-csv and memory-mapped
+// parsers. Field accessors apply to the record most recently returned by next().
+public interface CsvRecordSource extends Closeable {
+
+    // Header names read when the source was opened, or empty for a headerless range
+    List<String> getHeaderNames();
+
+    // Hints which fields will be read so a parser can skip the others
+    default void project(int[] fields) {
+    }
+
+    boolean next() throws IOException;
+
+    // Number of fields in the current record
+    int size();
+
+    // 1-based number of the current data record, for error messages
+    long recordNumber();
+
+    String get(int field);
+
+    // Raw input bytes consumed so far, for progress reporting
+    long bytesConsumed();
+
+    // File offset just past the current record, or -1 when the input cannot be repositioned
+    default long resumeOffset() {
+        return -1;
+    }
+
+    // Moves past the first `records` data records, jumping straight to `offset` (a value
+    // from resumeOffset()) when the source can, and reading through them otherwise
+    default void skip(long records, long offset) throws IOException {
+        long skipped = 0;
+        while (skipped < records && next()) {
+            skipped++;
+        }
+    }
+
+    default boolean isEmpty(int field) {
+        return get(field).isEmpty();
+    }
+
+    default int fieldLength(int field) {
+        return get(field).length();
+    }
+
+    default long getLong(int field) {
+        return Long.parseLong(get(field));
+    }
+
+    // Writes the field as UTF-8 into target at offset and returns the byte count. The target
+    // must have room for 3 * fieldLength(field) bytes.
+    default int copyBytes(int field, byte[] target, int offset) {
+        String value = get(field);
+        int pos = offset;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                target[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                target[pos++] = (byte) (0xC0 | (c >> 6));
+                target[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                target[pos++] = (byte) (0xF0 | (codePoint >> 18));
+                target[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                target[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                target[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else {
+                target[pos++] = (byte) (0xE0 | (c >> 12));
+                target[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                target[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return pos - offset;
+    }
+}
@@ -0,0 +1,302 @@
+package com.ingestion.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+// Writes result rows as RFC 4180 CSV or ClickHouse TabSeparated straight into a reusable
+// byte buffer. Whether a column can ever need escaping is decided once from its ClickHouse
+// type, so numeric and date columns are copied without scanning. NULL is \N in TSV, as
+// ClickHouse writes it; in CSV it is an empty field, the same as an empty string. That is
+// deliberate: it is what the exporter has always written, what most CSV consumers expect, and
+// what the flat-file import reads back as NULL for a Nullable column.
+public final class DelimitedRowWriter implements ResultWriter {
+    public enum Format {
+        CSV, TSV
+    }
+
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+    // A UTF-16 char encodes to at most 3 UTF-8 bytes, and escaping never exceeds that
+    private static final int MAX_BYTES_PER_CHAR = 3;
+    private static final int PLAIN_ASCII = 0;
+    private static final int NON_ASCII = 1;
+    private static final int NEEDS_ESCAPE = 2;
+
+    private final OutputStream out;
+    private final Format format;
+    private final byte delimiter;
+    private final byte[] buffer;
+    private int pos;
+    private long bytesWritten;
+    private long writeNanos;
+    private boolean[] plainColumns = new boolean[0];
+
+    public DelimitedRowWriter(OutputStream out, Format format) {
+        this(out, format, DEFAULT_BUFFER_SIZE);
+    }
+
+    public DelimitedRowWriter(OutputStream out, Format format, int bufferSize) {
+        this.out = out;
+        this.format = format;
+        this.delimiter = (byte) (format == Format.TSV ? '\t' : ',');
+        this.buffer = new byte[Math.max(bufferSize, 64)];
+    }
+
+    // Writes the header from the result metadata and fixes the per-column escaping plan
+    @Override
+    public void writeHeader(ResultSetMetaData metaData) throws SQLException, IOException {
+        int columnCount = metaData.getColumnCount();
+        String[] names = new String[columnCount];
+        String[] types = new String[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            names[i] = metaData.getColumnName(i + 1);
+            types[i] = metaData.getColumnTypeName(i + 1);
+        }
+        writeHeader(Arrays.asList(names), types);
+    }
+
+    @Override
+    public void writeHeader(List<String> names, String[] clickHouseTypes) throws IOException {
+        planColumns(names.size(), clickHouseTypes);
+        for (int i = 0; i < names.size(); i++) {
+            if (i > 0) {
+                writeByte(delimiter);
+            }
+            writeEscaped(names.get(i));
+        }
+        writeByte((byte) '\n');
+    }
+
+    // Fixes the escaping plan without writing a header, for output that continues another part
+    @Override
+    public void planColumns(ResultSetMetaData metaData) throws SQLException {
+        String[] types = new String[metaData.getColumnCount()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = metaData.getColumnTypeName(i + 1);
+        }
+        planColumns(types.length, types);
+    }
+
+    private void planColumns(int columnCount, String[] clickHouseTypes) {
+        plainColumns = new boolean[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            plainColumns[i] = clickHouseTypes != null && isPlainType(clickHouseTypes[i]);
+        }
+    }
+
+    @Override
+    public void writeRow(ResultSet rs) throws SQLException, IOException {
+        for (int i = 0; i < plainColumns.length; i++) {
+            if (i > 0) {
+                writeByte(delimiter);
+            }
+            writeField(i, rs.getString(i + 1));
+        }
+        writeByte((byte) '\n');
+    }
+
+    @Override
+    public void writeRow(String[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                writeByte(delimiter);
+            }
+            writeField(i, values[i]);
+        }
+        writeByte((byte) '\n');
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten + pos;
+    }
+
+    // Time spent handing full buffers to the underlying stream
+    @Override
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        long start = System.nanoTime();
+        if (pos > 0) {
+            out.write(buffer, 0, pos);
+            bytesWritten += pos;
+            pos = 0;
+        }
+        out.flush();
+        writeNanos += System.nanoTime() - start;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeField(int column, String value) throws IOException {
+        if (value == null) {
+            if (format == Format.TSV) {
+                writeByte((byte) '\\');
+                writeByte((byte) 'N');
+            }
+            return;
+        }
+        if (column < plainColumns.length && plainColumns[column]) {
+            writeAscii(value);
+        } else {
+            writeEscaped(value);
+        }
+    }
+
+    private void writeEscaped(String value) throws IOException {
+        int scan = scan(value);
+        if (scan == PLAIN_ASCII) {
+            writeAscii(value);
+        } else if (format == Format.TSV) {
+            writeChars(value, (scan & NEEDS_ESCAPE) != 0);
+        } else if ((scan & NEEDS_ESCAPE) != 0) {
+            writeByte((byte) '"');
+            writeChars(value, true);
+            writeByte((byte) '"');
+        } else {
+            writeChars(value, false);
+        }
+    }
+
+    // One pass over the value: is it pure ASCII, and does it contain anything this format must escape
+    private int scan(String value) {
+        int result = PLAIN_ASCII;
+        boolean csv = format == Format.CSV;
+        for (int i = 0, n = value.length(); i < n; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                result |= NON_ASCII;
+            } else if (c < 0x20 || c == '"' || c == ',' || c == '\\') {
+                if (csv ? (c == '"' || c == ',' || c == '\n' || c == '\r') : tsvEscape(c) != 0) {
+                    result |= NEEDS_ESCAPE;
+                }
+            }
+        }
+        return result;
+    }
+
+    private void writeAscii(String value) throws IOException {
+        int length = value.length();
+        if (length > buffer.length) {
+            writeChars(value, false);
+            return;
+        }
+        if (pos + length > buffer.length) {
+            flushBuffer();
+        }
+        copyAscii(value, length);
+    }
+
+    // String.getBytes(int, int, byte[], int) copies the low byte of each char without allocating,
+    // which is exactly UTF-8 for ASCII and compiles to a bulk copy for compact strings
+    @SuppressWarnings("deprecation")
+    private void copyAscii(String value, int length) {
+        value.getBytes(0, length, buffer, pos);
+        pos += length;
+    }
+
+    // UTF-8 encodes the value into the buffer, applying CSV quote doubling or TSV escapes when asked
+    private void writeChars(String value, boolean escape) throws IOException {
+        int length = value.length();
+        boolean bounded = (long) length * MAX_BYTES_PER_CHAR <= buffer.length;
+        if (bounded && pos + length * MAX_BYTES_PER_CHAR > buffer.length) {
+            flushBuffer();
+        }
+        byte[] buf = buffer;
+        for (int i = 0; i < length; i++) {
+            if (!bounded && pos + 4 > buf.length) {
+                flushBuffer();
+            }
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (escape) {
+                    if (format == Format.CSV) {
+                        if (c == '"') {
+                            buf[pos++] = '"';
+                        }
+                    } else {
+                        byte escaped = tsvEscape(c);
+                        if (escaped != 0) {
+                            buf[pos++] = '\\';
+                            buf[pos++] = escaped;
+                            continue;
+                        }
+                    }
+                }
+                buf[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xC0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                buf[pos++] = (byte) (0xF0 | (cp >> 18));
+                buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buf[pos++] = '?';
+            } else {
+                buf[pos++] = (byte) (0xE0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private static byte tsvEscape(char c) {
+        switch (c) {
+            case '\\': return '\\';
+            case '\t': return 't';
+            case '\n': return 'n';
+            case '\r': return 'r';
+            case '\0': return '0';
+            case '\b': return 'b';
+            case '\f': return 'f';
+            default: return 0;
+        }
+    }
+
+    private void writeByte(byte b) throws IOException {
+        if (pos == buffer.length) {
+            flushBuffer();
+        }
+        buffer[pos++] = b;
+    }
+
+    private void flushBuffer() throws IOException {
+        long start = System.nanoTime();
+        out.write(buffer, 0, pos);
+        writeNanos += System.nanoTime() - start;
+        bytesWritten += pos;
+        pos = 0;
+    }
+
+    // Types whose text form never contains a delimiter, quote, backslash or line break
+    static boolean isPlainType(String type) {
+        if (type == null) {
+            return false;
+        }
+        String t = type;
+        if (t.startsWith("Nullable(")) {
+            t = t.substring("Nullable(".length(), t.length() - 1);
+        }
+        return t.startsWith("Int") || t.startsWith("UInt") || t.startsWith("Float")
+                || t.startsWith("Decimal") || t.startsWith("Date") || t.equals("Bool")
+                || t.equals("UUID") || t.startsWith("IPv");
+    }
+}
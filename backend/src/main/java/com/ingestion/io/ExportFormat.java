@@ -0,0 +1,70 @@
+package com.ingestion.io;
+
+import java.util.Locale;
+
+// Output formats of the streaming export. CSV and TSV can be written by DelimitedRowWriter
+// and Parquet by ParquetRowWriter from a JDBC result, or passed through from ClickHouse;
+// the row-oriented binary formats are passthrough only.
+public enum ExportFormat {
+    CSV("text/csv", ".csv", "CSVWithNames", DelimitedRowWriter.Format.CSV),
+    TSV("text/tab-separated-values", ".tsv", "TabSeparatedWithNames", DelimitedRowWriter.Format.TSV),
+    ROWBINARY("application/octet-stream", ".bin", "RowBinaryWithNamesAndTypes", null),
+    NATIVE("application/octet-stream", ".native", "Native", null),
+    PARQUET("application/vnd.apache.parquet", ".parquet", "Parquet", null);
+
+    private final String contentType;
+    private final String extension;
+    private final String clickHouseFormat;
+    private final DelimitedRowWriter.Format writerFormat;
+
+    ExportFormat(String contentType, String extension, String clickHouseFormat,
+                 DelimitedRowWriter.Format writerFormat) {
+        this.contentType = contentType;
+        this.extension = extension;
+        this.clickHouseFormat = clickHouseFormat;
+        this.writerFormat = writerFormat;
+    }
+
+    // Defaults to CSV; throws IllegalArgumentException for unknown names
+    public static ExportFormat resolve(String name) {
+        if (name == null || name.isEmpty()) {
+            return CSV;
+        }
+        return valueOf(name.toUpperCase(Locale.ROOT));
+    }
+
+    // An explicit name wins; otherwise the file extension picks Parquet or TSV over CSV
+    public static ExportFormat resolve(String name, String path) {
+        if (name != null && !name.isEmpty()) {
+            return resolve(name);
+        }
+        String lower = path == null ? "" : path.toLowerCase(Locale.ROOT);
+        if (lower.endsWith(".parquet")) {
+            return PARQUET;
+        }
+        return lower.contains(".tsv") || lower.contains(".tab") ? TSV : CSV;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    // Name of the format in ClickHouse's FORMAT clause
+    public String getClickHouseFormat() {
+        return clickHouseFormat;
+    }
+
+    // DelimitedRowWriter format, or null for formats it does not write
+    public DelimitedRowWriter.Format getWriterFormat() {
+        return writerFormat;
+    }
+
+    // Whether the JDBC path has a writer for this format
+    public boolean isWritable() {
+        return writerFormat != null || this == PARQUET;
+    }
+}
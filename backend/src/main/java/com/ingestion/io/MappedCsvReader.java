@@ -0,0 +1,421 @@
+package com.ingestion.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// RFC 4180 CSV reader that scans memory-mapped windows of a file directly as bytes.
+// Fields are kept as offsets into the current window and only decoded when asked for,
+// and with a projection set only the needed fields are tracked; the rest of each record
+// is skipped. Handles comma delimiters, double-quote quoting, CRLF/LF and a UTF-8 BOM;
+// anything more exotic goes through commons-csv instead.
+public final class MappedCsvReader implements CsvRecordSource {
+    private static final long DEFAULT_WINDOW_SIZE = 64L << 20;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final long rangeStart;
+    private final long rangeEnd;
+    private long windowSize;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private int windowLimit;
+
+    private long position;
+    private long recordStart;
+    private long recordNumber;
+    private int fieldCount;
+    private boolean firstFieldQuoted;
+    private int trackedFields = Integer.MAX_VALUE;
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private boolean[] escaped = new boolean[16];
+    private byte[] scratch = new byte[256];
+    private List<String> headers = Collections.emptyList();
+
+    // Reads the whole file, skipping a leading UTF-8 byte order mark
+    public static MappedCsvReader open(File file) throws IOException {
+        MappedCsvReader reader = new MappedCsvReader(file, 0, file.length());
+        reader.skipByteOrderMark();
+        return reader;
+    }
+
+    // Reads records in [start, end); both offsets must lie on record boundaries
+    public MappedCsvReader(File file, long start, long end) throws IOException {
+        this(file, start, end, DEFAULT_WINDOW_SIZE);
+    }
+
+    MappedCsvReader(File file, long start, long end, long windowSize) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.fileSize = channel.size();
+        this.rangeStart = start;
+        this.rangeEnd = Math.min(end, fileSize);
+        this.windowSize = windowSize;
+        this.position = start;
+    }
+
+    // Reads the next record as the header and returns its field names
+    public List<String> readHeader() throws IOException {
+        if (!next()) {
+            throw new IOException("CSV file has no headers");
+        }
+        recordNumber = 0;
+        List<String> names = new ArrayList<>(fieldCount);
+        for (int i = 0; i < fieldCount; i++) {
+            names.add(get(i));
+        }
+        headers = Collections.unmodifiableList(names);
+        return headers;
+    }
+
+    @Override
+    public List<String> getHeaderNames() {
+        return headers;
+    }
+
+    // Only fields up to the highest projected index are tracked; later fields are skipped
+    @Override
+    public void project(int[] fields) {
+        int max = -1;
+        for (int field : fields) {
+            max = Math.max(max, field);
+        }
+        trackedFields = Math.max(max + 1, 1);
+    }
+
+    // File offset of the current record and of the record that follows it
+    public long getRecordStart() {
+        return recordStart;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        while (position < rangeEnd) {
+            recordStart = position;
+            if (!parseRecord()) {
+                continue;
+            }
+            recordNumber++;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return fieldCount;
+    }
+
+    @Override
+    public long recordNumber() {
+        return recordNumber;
+    }
+
+    @Override
+    public String get(int field) {
+        checkTracked(field);
+        int start = starts[field];
+        int length = ends[field] - start;
+        if (length == 0) {
+            return "";
+        }
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        ByteBuffer view = window.duplicate();
+        view.position(start);
+        view.get(scratch, 0, length);
+        String value = new String(scratch, 0, length, StandardCharsets.UTF_8);
+        return escaped[field] ? value.replace("\"\"", "\"") : value;
+    }
+
+    @Override
+    public boolean isEmpty(int field) {
+        checkTracked(field);
+        return ends[field] == starts[field];
+    }
+
+    @Override
+    public int fieldLength(int field) {
+        checkTracked(field);
+        return ends[field] - starts[field];
+    }
+
+    // Parses a decimal integer straight from the mapped bytes
+    @Override
+    public long getLong(int field) {
+        checkTracked(field);
+        int i = starts[field];
+        int end = ends[field];
+        if (i == end) {
+            throw new NumberFormatException("Empty value");
+        }
+        boolean negative = window.get(i) == '-';
+        if (negative && ++i == end) {
+            throw new NumberFormatException("Invalid number: -");
+        }
+        long result = 0;
+        for (; i < end; i++) {
+            int digit = window.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Invalid number: " + get(field));
+            }
+            if (result < (Long.MIN_VALUE + digit) / 10) {
+                throw new NumberFormatException("Number out of range: " + get(field));
+            }
+            result = result * 10 - digit;
+        }
+        if (!negative && result == Long.MIN_VALUE) {
+            throw new NumberFormatException("Number out of range: " + get(field));
+        }
+        return negative ? result : -result;
+    }
+
+    // Copies the raw (still escaped when quoted with doubled quotes) bytes of a field
+    public int copyField(int field, byte[] target, int offset) {
+        checkTracked(field);
+        int length = ends[field] - starts[field];
+        ByteBuffer view = window.duplicate();
+        view.position(starts[field]);
+        view.get(target, offset, length);
+        return length;
+    }
+
+    // Unescaped fields are copied straight from the mapped bytes
+    @Override
+    public int copyBytes(int field, byte[] target, int offset) {
+        if (isEscaped(field)) {
+            return CsvRecordSource.super.copyBytes(field, target, offset);
+        }
+        return copyField(field, target, offset);
+    }
+
+    public boolean isEscaped(int field) {
+        checkTracked(field);
+        return escaped[field];
+    }
+
+    @Override
+    public long resumeOffset() {
+        return position;
+    }
+
+    @Override
+    public void skip(long records, long offset) throws IOException {
+        if (offset < rangeStart || offset > rangeEnd) {
+            CsvRecordSource.super.skip(records, offset);
+            return;
+        }
+        position = offset;
+        recordNumber += records;
+    }
+
+    @Override
+    public long bytesConsumed() {
+        return position - rangeStart;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    private void checkTracked(int field) {
+        if (field >= fieldCount || field >= trackedFields) {
+            throw new IndexOutOfBoundsException("Field " + field + " is not available in record " + recordNumber);
+        }
+    }
+
+    private void skipByteOrderMark() throws IOException {
+        if (rangeEnd >= 3) {
+            map(0);
+            if (window.get(0) == (byte) 0xEF && window.get(1) == (byte) 0xBB && window.get(2) == (byte) 0xBF) {
+                position = 3;
+            }
+        }
+    }
+
+    // Maps a window starting at the given file offset
+    private void map(long start) throws IOException {
+        long size = Math.min(Math.min(windowSize, Integer.MAX_VALUE), fileSize - start);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        windowStart = start;
+        windowLimit = (int) size;
+    }
+
+    // Parses the record at `position`. Returns false for a blank line. A record that runs
+    // past the mapped window is parsed again from a window remapped at its start.
+    private boolean parseRecord() throws IOException {
+        while (true) {
+            if (window == null || position < windowStart || position >= windowStart + windowLimit) {
+                map(position);
+            }
+            int result = scanRecord((int) (position - windowStart));
+            if (result >= 0) {
+                position = windowStart + result;
+                // A blank line is a single unquoted empty field and is skipped like commons-csv does
+                return fieldCount > 1 || firstFieldQuoted || ends[0] > starts[0];
+            }
+            if (windowStart == position) {
+                if (windowSize >= Integer.MAX_VALUE) {
+                    throw new IOException("CSV record at byte " + position + " exceeds 2GB");
+                }
+                windowSize = Math.min(windowSize * 2, Integer.MAX_VALUE);
+            }
+            map(position);
+        }
+    }
+
+    // Scans one record from the window offset. Returns the window offset just past the
+    // record, or -1 when the record is not complete inside the window.
+    private int scanRecord(int offset) throws IOException {
+        ByteBuffer buf = window;
+        long available = Math.min(windowLimit, rangeEnd - windowStart);
+        int limit = (int) available;
+        boolean lastWindow = windowStart + limit >= rangeEnd;
+        int i = offset;
+        int field = 0;
+        while (true) {
+            int start;
+            int end;
+            boolean fieldEscaped = false;
+            boolean quoted = i < limit && buf.get(i) == '"';
+            if (field == 0) {
+                firstFieldQuoted = quoted;
+            }
+            if (quoted) {
+                start = ++i;
+                while (true) {
+                    if (i >= limit) {
+                        if (lastWindow) {
+                            throw new IOException("Unterminated quoted field at byte " + (windowStart + start - 1));
+                        }
+                        return -1;
+                    }
+                    if (buf.get(i) == '"') {
+                        if (i + 1 < limit && buf.get(i + 1) == '"') {
+                            fieldEscaped = true;
+                            i += 2;
+                            continue;
+                        }
+                        if (i + 1 >= limit && !lastWindow) {
+                            return -1;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                end = i++;
+                if (i < limit) {
+                    byte b = buf.get(i);
+                    if (b != ',' && b != '\n' && b != '\r') {
+                        throw new IOException("Invalid character after quoted field at byte " + (windowStart + i));
+                    }
+                }
+            } else {
+                start = i;
+                if (field >= trackedFields) {
+                    // Untracked tail of the record: only quoting matters until the newline. As
+                    // in a full parse, a quote opens a quoted field only as the field's first
+                    // byte, and inside one a doubled quote is an escaped quote, not its end.
+                    boolean inQuotes = false;
+                    boolean fieldStart = false;
+                    while (i < limit) {
+                        byte b = buf.get(i);
+                        if (inQuotes) {
+                            if (b == '"') {
+                                if (i + 1 < limit && buf.get(i + 1) == '"') {
+                                    i += 2;
+                                    continue;
+                                }
+                                if (i + 1 >= limit && !lastWindow) {
+                                    return -1;
+                                }
+                                inQuotes = false;
+                            }
+                        } else if (b == '"' && fieldStart) {
+                            inQuotes = true;
+                        } else if (b == '\n') {
+                            break;
+                        } else if (b == ',') {
+                            field++;
+                            fieldStart = true;
+                            i++;
+                            continue;
+                        }
+                        fieldStart = false;
+                        i++;
+                    }
+                    if (i >= limit && !lastWindow) {
+                        return -1;
+                    }
+                    if (inQuotes) {
+                        throw new IOException("Unterminated quoted field in record ending at byte " + (windowStart + i));
+                    }
+                    fieldCount = field + 1;
+                    return i < limit ? i + 1 : i;
+                }
+                while (i < limit) {
+                    byte b = buf.get(i);
+                    if (b == ',' || b == '\n') {
+                        break;
+                    }
+                    i++;
+                }
+                end = i;
+            }
+
+            if (i >= limit && !lastWindow) {
+                return -1;
+            }
+            boolean endOfRecord = i >= limit || buf.get(i) == '\n' || buf.get(i) == '\r';
+            if (endOfRecord && !quoted && end > start && buf.get(end - 1) == '\r') {
+                end--;
+            }
+            if (field < trackedFields) {
+                if (field >= starts.length) {
+                    starts = Arrays.copyOf(starts, starts.length * 2);
+                    ends = Arrays.copyOf(ends, ends.length * 2);
+                    escaped = Arrays.copyOf(escaped, escaped.length * 2);
+                }
+                starts[field] = start;
+                ends[field] = end;
+                escaped[field] = fieldEscaped;
+            }
+            field++;
+            if (i >= limit) {
+                fieldCount = field;
+                return i;
+            }
+            byte b = buf.get(i);
+            if (b == ',') {
+                i++;
+                continue;
+            }
+            if (b == '\r') {
+                // Quoted field followed by CRLF
+                if (i + 1 < limit && buf.get(i + 1) == '\n') {
+                    i++;
+                } else if (i + 1 >= limit && !lastWindow) {
+                    return -1;
+                }
+            }
+            fieldCount = field;
+            return i + 1;
+        }
+    }
+}
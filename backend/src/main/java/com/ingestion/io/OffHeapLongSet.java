@@ -0,0 +1,148 @@
+package com.ingestion.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Set of 64-bit keys in an open-addressing table kept outside the Java heap, so tracking
+// hundreds of millions of record hashes costs 8 bytes a slot and no GC time. The table lives
+// in direct buffers until it would outgrow maxMemoryBytes and then moves to a memory-mapped
+// temp file, which the OS pages to and from disk. The limit covers a resize too, when the old
+// and new tables are both live. Zero marks an empty slot, so a zero key is
+// stored as a fixed substitute. Not thread-safe.
+public final class OffHeapLongSet implements Closeable {
+    private static final int SEGMENT_SHIFT = 24;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+    private static final int INITIAL_CAPACITY = 1 << 16;
+    private static final long ZERO_SUBSTITUTE = 0x9E3779B97F4A7C15L;
+
+    private final long maxMemoryBytes;
+    private final File spillDirectory;
+
+    // Slots in buffers of up to 2^24 longs (128 MB), since one buffer cannot pass 2 GB
+    private ByteBuffer[] segments;
+    private long capacity;
+    private long size;
+    private File spillFile;
+
+    public OffHeapLongSet(long maxMemoryBytes, File spillDirectory) throws IOException {
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.spillDirectory = spillDirectory;
+        allocate(INITIAL_CAPACITY, 0);
+    }
+
+    // Returns false when the key was already present
+    public boolean add(long key) throws IOException {
+        if (segments == null) {
+            throw new IOException("Key set is closed");
+        }
+        if (key == 0) {
+            key = ZERO_SUBSTITUTE;
+        }
+        long mask = capacity - 1;
+        for (long slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+            long current = get(slot);
+            if (current == key) {
+                return false;
+            }
+            if (current == 0) {
+                put(slot, key);
+                // Linear probing slows down quickly past about 70% load
+                if (++size > capacity / 10 * 7) {
+                    grow();
+                }
+                return true;
+            }
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public boolean isSpilled() {
+        return spillFile != null;
+    }
+
+    @Override
+    public void close() {
+        segments = null;
+        if (spillFile != null) {
+            spillFile.delete();
+            spillFile = null;
+        }
+    }
+
+    private void grow() throws IOException {
+        ByteBuffer[] oldSegments = segments;
+        long oldCapacity = capacity;
+        File oldFile = spillFile;
+        allocate(oldCapacity * 2, oldFile == null ? oldCapacity << 3 : 0);
+        long mask = capacity - 1;
+        for (long i = 0; i < oldCapacity; i++) {
+            long key = oldSegments[(int) (i >>> SEGMENT_SHIFT)].getLong((int) (i & SEGMENT_MASK) << 3);
+            if (key != 0) {
+                long slot = mix(key) & mask;
+                while (get(slot) != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                put(slot, key);
+            }
+        }
+        // Direct and mapped buffers are freed once unreachable; a mapped file can be deleted now
+        if (oldFile != null) {
+            oldFile.delete();
+        }
+    }
+
+    // directBytesInUse is what the table being replaced still holds in direct memory
+    private void allocate(long slots, long directBytesInUse) throws IOException {
+        long segmentSlots = Math.min(slots, 1L << SEGMENT_SHIFT);
+        int segmentBytes = (int) (segmentSlots << 3);
+        ByteBuffer[] buffers = new ByteBuffer[(int) (slots / segmentSlots)];
+        if (directBytesInUse + (slots << 3) <= maxMemoryBytes) {
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = ByteBuffer.allocateDirect(segmentBytes);
+            }
+            spillFile = null;
+        } else {
+            File file = File.createTempFile("dedup-keys", ".bin", spillDirectory);
+            // Mappings stay valid after the file is closed
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                // A fresh file reads as zeros, i.e. all slots empty
+                raf.setLength(slots << 3);
+                FileChannel channel = raf.getChannel();
+                for (int i = 0; i < buffers.length; i++) {
+                    buffers[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i * segmentBytes, segmentBytes);
+                }
+            } catch (IOException e) {
+                file.delete();
+                throw e;
+            }
+            spillFile = file;
+        }
+        segments = buffers;
+        capacity = slots;
+    }
+
+    private long get(long slot) {
+        return segments[(int) (slot >>> SEGMENT_SHIFT)].getLong((int) (slot & SEGMENT_MASK) << 3);
+    }
+
+    private void put(long slot, long key) {
+        segments[(int) (slot >>> SEGMENT_SHIFT)].putLong((int) (slot & SEGMENT_MASK) << 3, key);
+    }
+
+    // Murmur3 finalizer, so keys that differ only in high bits still spread over the table
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
@@ -0,0 +1,475 @@
+package com.ingestion.io;
+
+import com.github.luben.zstd.Zstd;
+import net.jpountz.lz4.LZ4Factory;
+import org.apache.parquet.format.ColumnChunk;
+import org.apache.parquet.format.ColumnMetaData;
+import org.apache.parquet.format.CompressionCodec;
+import org.apache.parquet.format.ConvertedType;
+import org.apache.parquet.format.DateType;
+import org.apache.parquet.format.DecimalType;
+import org.apache.parquet.format.FieldRepetitionType;
+import org.apache.parquet.format.FileMetaData;
+import org.apache.parquet.format.IntType;
+import org.apache.parquet.format.LogicalType;
+import org.apache.parquet.format.MicroSeconds;
+import org.apache.parquet.format.MilliSeconds;
+import org.apache.parquet.format.NanoSeconds;
+import org.apache.parquet.format.RowGroup;
+import org.apache.parquet.format.SchemaElement;
+import org.apache.parquet.format.StringType;
+import org.apache.parquet.format.TimestampType;
+import org.apache.parquet.format.UUIDType;
+import org.apache.parquet.format.Util;
+import org.apache.parquet.schema.GroupType;
+import org.apache.parquet.schema.LogicalTypeAnnotation;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType;
+import org.apache.parquet.schema.Type;
+import org.apache.parquet.schema.Types;
+import org.xerial.snappy.Snappy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// File-level Parquet handling: the footer, the schema as stored in it, page codecs and
+// merging part files. Page encodings come from parquet-column; the file layout is simple
+// enough to handle here, which keeps Hadoop off the classpath.
+public final class ParquetFiles {
+    static final byte[] MAGIC = "PAR1".getBytes(StandardCharsets.US_ASCII);
+    static final String CREATED_BY = "ingestion-tool (parquet-column 1.13.1)";
+    // Magic and footer length
+    private static final int TAIL_LENGTH = 8;
+
+    private ParquetFiles() {
+    }
+
+    // True when the file starts and ends with the Parquet magic
+    public static boolean isParquet(File file) {
+        if (!file.isFile() || file.length() < MAGIC.length + TAIL_LENGTH) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(MAGIC.length);
+            ByteBuffer tail = ByteBuffer.allocate(MAGIC.length);
+            readFully(channel, head, 0);
+            readFully(channel, tail, channel.size() - MAGIC.length);
+            return Arrays.equals(MAGIC, head.array()) && Arrays.equals(MAGIC, tail.array());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public static FileMetaData readFooter(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return readFooter(channel);
+        }
+    }
+
+    static FileMetaData readFooter(FileChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer tail = ByteBuffer.allocate(TAIL_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, tail, size - TAIL_LENGTH);
+        int footerLength = tail.getInt(0);
+        if (footerLength <= 0 || footerLength > size - TAIL_LENGTH - MAGIC.length) {
+            throw new IOException("Corrupt Parquet footer length " + footerLength);
+        }
+        ByteBuffer footer = ByteBuffer.allocate(footerLength);
+        readFully(channel, footer, size - TAIL_LENGTH - footerLength);
+        return Util.readFileMetaData(new ByteArrayInputStream(footer.array()));
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of Parquet file");
+            }
+        }
+    }
+
+    // Rebuilds the schema tree from its depth-first element list
+    public static MessageType schema(FileMetaData footer) throws IOException {
+        List<SchemaElement> elements = footer.getSchema();
+        if (elements == null || elements.isEmpty()) {
+            throw new IOException("Parquet file has no schema");
+        }
+        try {
+            int[] next = {1};
+            Types.MessageTypeBuilder builder = Types.buildMessage();
+            for (int i = 0; i < elements.get(0).getNum_children(); i++) {
+                builder.addField(type(elements, next));
+            }
+            return builder.named(elements.get(0).getName());
+        } catch (RuntimeException e) {
+            throw new IOException("Unsupported Parquet schema: " + e.getMessage(), e);
+        }
+    }
+
+    private static Type type(List<SchemaElement> elements, int[] next) {
+        SchemaElement element = elements.get(next[0]++);
+        Type.Repetition repetition = element.isSetRepetition_type()
+                ? Type.Repetition.valueOf(element.getRepetition_type().name()) : Type.Repetition.REQUIRED;
+        if (!element.isSetType()) {
+            Types.GroupBuilder<GroupType> group = Types.buildGroup(repetition);
+            for (int i = 0; i < element.getNum_children(); i++) {
+                group.addField(type(elements, next));
+            }
+            return group.named(element.getName());
+        }
+        PrimitiveType.PrimitiveTypeName typeName = element.getType() == org.apache.parquet.format.Type.BYTE_ARRAY
+                ? PrimitiveType.PrimitiveTypeName.BINARY
+                : PrimitiveType.PrimitiveTypeName.valueOf(element.getType().name());
+        Types.PrimitiveBuilder<PrimitiveType> primitive = Types.primitive(typeName, repetition);
+        if (typeName == PrimitiveType.PrimitiveTypeName.FIXED_LEN_BYTE_ARRAY) {
+            primitive.length(element.getType_length());
+        }
+        return primitive.as(annotation(element)).named(element.getName());
+    }
+
+    private static LogicalTypeAnnotation annotation(SchemaElement element) {
+        if (element.isSetLogicalType()) {
+            LogicalType logical = element.getLogicalType();
+            if (logical.isSetSTRING()) {
+                return LogicalTypeAnnotation.stringType();
+            } else if (logical.isSetENUM()) {
+                return LogicalTypeAnnotation.enumType();
+            } else if (logical.isSetJSON()) {
+                return LogicalTypeAnnotation.jsonType();
+            } else if (logical.isSetDECIMAL()) {
+                return LogicalTypeAnnotation.decimalType(logical.getDECIMAL().getScale(),
+                        logical.getDECIMAL().getPrecision());
+            } else if (logical.isSetDATE()) {
+                return LogicalTypeAnnotation.dateType();
+            } else if (logical.isSetTIMESTAMP()) {
+                return LogicalTypeAnnotation.timestampType(logical.getTIMESTAMP().isIsAdjustedToUTC(),
+                        timeUnit(logical.getTIMESTAMP().getUnit()));
+            } else if (logical.isSetTIME()) {
+                return LogicalTypeAnnotation.timeType(logical.getTIME().isIsAdjustedToUTC(),
+                        timeUnit(logical.getTIME().getUnit()));
+            } else if (logical.isSetINTEGER()) {
+                return LogicalTypeAnnotation.intType(logical.getINTEGER().getBitWidth(),
+                        logical.getINTEGER().isIsSigned());
+            } else if (logical.isSetUUID()) {
+                return LogicalTypeAnnotation.uuidType();
+            }
+        }
+        if (!element.isSetConverted_type()) {
+            return null;
+        }
+        // Files from older writers carry only the converted type
+        switch (element.getConverted_type()) {
+            case UTF8:
+                return LogicalTypeAnnotation.stringType();
+            case ENUM:
+                return LogicalTypeAnnotation.enumType();
+            case JSON:
+                return LogicalTypeAnnotation.jsonType();
+            case DECIMAL:
+                return LogicalTypeAnnotation.decimalType(element.getScale(), element.getPrecision());
+            case DATE:
+                return LogicalTypeAnnotation.dateType();
+            case TIMESTAMP_MILLIS:
+                return LogicalTypeAnnotation.timestampType(true, LogicalTypeAnnotation.TimeUnit.MILLIS);
+            case TIMESTAMP_MICROS:
+                return LogicalTypeAnnotation.timestampType(true, LogicalTypeAnnotation.TimeUnit.MICROS);
+            case TIME_MILLIS:
+                return LogicalTypeAnnotation.timeType(true, LogicalTypeAnnotation.TimeUnit.MILLIS);
+            case TIME_MICROS:
+                return LogicalTypeAnnotation.timeType(true, LogicalTypeAnnotation.TimeUnit.MICROS);
+            case INT_8:
+                return LogicalTypeAnnotation.intType(8, true);
+            case INT_16:
+                return LogicalTypeAnnotation.intType(16, true);
+            case INT_32:
+                return LogicalTypeAnnotation.intType(32, true);
+            case INT_64:
+                return LogicalTypeAnnotation.intType(64, true);
+            case UINT_8:
+                return LogicalTypeAnnotation.intType(8, false);
+            case UINT_16:
+                return LogicalTypeAnnotation.intType(16, false);
+            case UINT_32:
+                return LogicalTypeAnnotation.intType(32, false);
+            case UINT_64:
+                return LogicalTypeAnnotation.intType(64, false);
+            default:
+                return null;
+        }
+    }
+
+    private static LogicalTypeAnnotation.TimeUnit timeUnit(org.apache.parquet.format.TimeUnit unit) {
+        if (unit.isSetMILLIS()) {
+            return LogicalTypeAnnotation.TimeUnit.MILLIS;
+        }
+        return unit.isSetMICROS() ? LogicalTypeAnnotation.TimeUnit.MICROS : LogicalTypeAnnotation.TimeUnit.NANOS;
+    }
+
+    // Element list of a flat schema, with the converted type next to the logical type for
+    // readers that predate logical types
+    static List<SchemaElement> schemaElements(MessageType schema) {
+        List<SchemaElement> elements = new ArrayList<>();
+        SchemaElement root = new SchemaElement(schema.getName());
+        root.setNum_children(schema.getFieldCount());
+        elements.add(root);
+        for (Type field : schema.getFields()) {
+            PrimitiveType primitive = field.asPrimitiveType();
+            SchemaElement element = new SchemaElement(field.getName());
+            element.setRepetition_type(FieldRepetitionType.valueOf(field.getRepetition().name()));
+            element.setType(primitive.getPrimitiveTypeName() == PrimitiveType.PrimitiveTypeName.BINARY
+                    ? org.apache.parquet.format.Type.BYTE_ARRAY
+                    : org.apache.parquet.format.Type.valueOf(primitive.getPrimitiveTypeName().name()));
+            if (primitive.getPrimitiveTypeName() == PrimitiveType.PrimitiveTypeName.FIXED_LEN_BYTE_ARRAY) {
+                element.setType_length(primitive.getTypeLength());
+            }
+            setAnnotation(element, field.getLogicalTypeAnnotation());
+            elements.add(element);
+        }
+        return elements;
+    }
+
+    private static void setAnnotation(SchemaElement element, LogicalTypeAnnotation annotation) {
+        if (annotation instanceof LogicalTypeAnnotation.StringLogicalTypeAnnotation) {
+            element.setLogicalType(LogicalType.STRING(new StringType()));
+            element.setConverted_type(ConvertedType.UTF8);
+        } else if (annotation instanceof LogicalTypeAnnotation.DecimalLogicalTypeAnnotation) {
+            LogicalTypeAnnotation.DecimalLogicalTypeAnnotation decimal =
+                    (LogicalTypeAnnotation.DecimalLogicalTypeAnnotation) annotation;
+            element.setLogicalType(LogicalType.DECIMAL(new DecimalType(decimal.getScale(), decimal.getPrecision())));
+            element.setConverted_type(ConvertedType.DECIMAL);
+            element.setScale(decimal.getScale());
+            element.setPrecision(decimal.getPrecision());
+        } else if (annotation instanceof LogicalTypeAnnotation.DateLogicalTypeAnnotation) {
+            element.setLogicalType(LogicalType.DATE(new DateType()));
+            element.setConverted_type(ConvertedType.DATE);
+        } else if (annotation instanceof LogicalTypeAnnotation.TimestampLogicalTypeAnnotation) {
+            LogicalTypeAnnotation.TimestampLogicalTypeAnnotation timestamp =
+                    (LogicalTypeAnnotation.TimestampLogicalTypeAnnotation) annotation;
+            org.apache.parquet.format.TimeUnit unit;
+            switch (timestamp.getUnit()) {
+                case MILLIS:
+                    unit = org.apache.parquet.format.TimeUnit.MILLIS(new MilliSeconds());
+                    break;
+                case MICROS:
+                    unit = org.apache.parquet.format.TimeUnit.MICROS(new MicroSeconds());
+                    break;
+                default:
+                    unit = org.apache.parquet.format.TimeUnit.NANOS(new NanoSeconds());
+                    break;
+            }
+            element.setLogicalType(LogicalType.TIMESTAMP(new TimestampType(timestamp.isAdjustedToUTC(), unit)));
+            if (timestamp.isAdjustedToUTC() && timestamp.getUnit() != LogicalTypeAnnotation.TimeUnit.NANOS) {
+                element.setConverted_type(timestamp.getUnit() == LogicalTypeAnnotation.TimeUnit.MILLIS
+                        ? ConvertedType.TIMESTAMP_MILLIS : ConvertedType.TIMESTAMP_MICROS);
+            }
+        } else if (annotation instanceof LogicalTypeAnnotation.IntLogicalTypeAnnotation) {
+            LogicalTypeAnnotation.IntLogicalTypeAnnotation integer =
+                    (LogicalTypeAnnotation.IntLogicalTypeAnnotation) annotation;
+            element.setLogicalType(LogicalType.INTEGER(new IntType((byte) integer.getBitWidth(), integer.isSigned())));
+            element.setConverted_type(ConvertedType.valueOf((integer.isSigned() ? "INT_" : "UINT_")
+                    + integer.getBitWidth()));
+        } else if (annotation instanceof LogicalTypeAnnotation.UUIDLogicalTypeAnnotation) {
+            element.setLogicalType(LogicalType.UUID(new UUIDType()));
+        }
+    }
+
+    // Page codec matching a flat file codec; LZ4 is the raw block format, not Hadoop's framing
+    public static CompressionCodec codecFor(Compression compression) {
+        switch (compression) {
+            case GZIP:
+                return CompressionCodec.GZIP;
+            case ZSTD:
+                return CompressionCodec.ZSTD;
+            case LZ4:
+                return CompressionCodec.LZ4_RAW;
+            default:
+                return CompressionCodec.UNCOMPRESSED;
+        }
+    }
+
+    static byte[] compress(CompressionCodec codec, byte[] data) throws IOException {
+        switch (codec) {
+            case UNCOMPRESSED:
+                return data;
+            case SNAPPY:
+                return Snappy.compress(data);
+            case GZIP:
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream(data.length / 2 + 64);
+                try (OutputStream gzip = new GZIPOutputStream(buffer, 1 << 16)) {
+                    gzip.write(data);
+                }
+                return buffer.toByteArray();
+            case ZSTD:
+                return Zstd.compress(data, 3);
+            case LZ4_RAW:
+                return LZ4Factory.fastestInstance().fastCompressor().compress(data);
+            default:
+                throw new IOException("Unsupported Parquet codec " + codec);
+        }
+    }
+
+    static byte[] decompress(CompressionCodec codec, byte[] data, int offset, int length, int uncompressedSize)
+            throws IOException {
+        byte[] out = new byte[uncompressedSize];
+        try {
+            switch (codec) {
+                case UNCOMPRESSED:
+                    System.arraycopy(data, offset, out, 0, Math.min(length, uncompressedSize));
+                    return out;
+                case SNAPPY:
+                    Snappy.uncompress(data, offset, length, out, 0);
+                    return out;
+                case GZIP:
+                    try (InputStream gzip = new GZIPInputStream(new ByteArrayInputStream(data, offset, length))) {
+                        int n = 0;
+                        while (n < out.length) {
+                            int read = gzip.read(out, n, out.length - n);
+                            if (read < 0) {
+                                throw new IOException("Truncated gzip page");
+                            }
+                            n += read;
+                        }
+                    }
+                    return out;
+                case ZSTD:
+                    long size = Zstd.decompressByteArray(out, 0, out.length, data, offset, length);
+                    if (Zstd.isError(size)) {
+                        throw new IOException(Zstd.getErrorName(size));
+                    }
+                    return out;
+                case LZ4_RAW:
+                    LZ4Factory.fastestInstance().safeDecompressor().decompress(data, offset, length, out, 0);
+                    return out;
+                case LZ4:
+                    return decompressHadoopLz4(data, offset, length, out);
+                default:
+                    throw new IOException("Unsupported Parquet codec " + codec);
+            }
+        } catch (IOException e) {
+            throw new IOException("Failed to decompress " + codec + " page: " + e.getMessage(), e);
+        } catch (RuntimeException e) {
+            throw new IOException("Failed to decompress " + codec + " page: " + e, e);
+        }
+    }
+
+    // The old LZ4 codec is Hadoop's framing of raw blocks, each prefixed with its decompressed
+    // and compressed lengths; some writers put a bare raw block there instead
+    private static byte[] decompressHadoopLz4(byte[] data, int offset, int length, byte[] out) {
+        ByteBuffer in = ByteBuffer.wrap(data, offset, length);
+        int written = 0;
+        try {
+            while (in.remaining() >= 8 && written < out.length) {
+                int blockSize = in.getInt();
+                int end = written + blockSize;
+                while (written < end) {
+                    int compressedSize = in.getInt();
+                    written += LZ4Factory.fastestInstance().safeDecompressor().decompress(
+                            data, in.position(), compressedSize, out, written, end - written);
+                    in.position(in.position() + compressedSize);
+                }
+            }
+            if (written == out.length && !in.hasRemaining()) {
+                return out;
+            }
+        } catch (RuntimeException e) {
+            // not framed
+        }
+        LZ4Factory.fastestInstance().safeDecompressor().decompress(data, offset, length, out, 0);
+        return out;
+    }
+
+    // Joins part files that share one schema into a single file: the column data of the parts
+    // is copied in order and their row groups are listed in one footer with shifted offsets
+    public static void merge(List<String> partPaths, String outputPath) throws IOException {
+        FileMetaData merged = null;
+        try (FileChannel out = FileChannel.open(java.nio.file.Paths.get(outputPath), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.write(ByteBuffer.wrap(MAGIC));
+            for (String partPath : partPaths) {
+                try (FileChannel in = FileChannel.open(java.nio.file.Paths.get(partPath), StandardOpenOption.READ)) {
+                    FileMetaData footer = readFooter(in);
+                    if (merged == null) {
+                        merged = new FileMetaData(footer);
+                        merged.setRow_groups(new ArrayList<>());
+                        merged.setNum_rows(0);
+                    } else if (!merged.getSchema().equals(footer.getSchema())) {
+                        throw new IOException("Part " + partPath + " has a different schema");
+                    }
+                    long dataEnd = in.size() - TAIL_LENGTH - footerLength(in);
+                    long shift = out.position() - MAGIC.length;
+                    long position = MAGIC.length;
+                    while (position < dataEnd) {
+                        position += in.transferTo(position, dataEnd - position, out);
+                    }
+                    for (RowGroup rowGroup : footer.getRow_groups()) {
+                        shift(rowGroup, shift);
+                        merged.addToRow_groups(rowGroup);
+                    }
+                    merged.setNum_rows(merged.getNum_rows() + footer.getNum_rows());
+                }
+            }
+            if (merged == null) {
+                throw new IOException("No part files to merge");
+            }
+            writeFooter(merged, Channels.newOutputStream(out));
+        }
+    }
+
+    private static int footerLength(FileChannel channel) throws IOException {
+        ByteBuffer tail = ByteBuffer.allocate(TAIL_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, tail, channel.size() - TAIL_LENGTH);
+        return tail.getInt(0);
+    }
+
+    private static void shift(RowGroup rowGroup, long shift) {
+        if (rowGroup.isSetFile_offset()) {
+            rowGroup.setFile_offset(rowGroup.getFile_offset() + shift);
+        }
+        for (ColumnChunk chunk : rowGroup.getColumns()) {
+            chunk.setFile_offset(chunk.getFile_offset() + shift);
+            ColumnMetaData meta = chunk.getMeta_data();
+            meta.setData_page_offset(meta.getData_page_offset() + shift);
+            if (meta.isSetDictionary_page_offset()) {
+                meta.setDictionary_page_offset(meta.getDictionary_page_offset() + shift);
+            }
+            if (meta.isSetIndex_page_offset()) {
+                meta.setIndex_page_offset(meta.getIndex_page_offset() + shift);
+            }
+            if (chunk.isSetColumn_index_offset()) {
+                chunk.setColumn_index_offset(chunk.getColumn_index_offset() + shift);
+            }
+            if (chunk.isSetOffset_index_offset()) {
+                chunk.setOffset_index_offset(chunk.getOffset_index_offset() + shift);
+            }
+        }
+    }
+
+    // Writes the footer, its length and the closing magic
+    static long writeFooter(FileMetaData footer, OutputStream out) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        Util.writeFileMetaData(footer, buffer);
+        int length = buffer.size();
+        buffer.write(length);
+        buffer.write(length >>> 8);
+        buffer.write(length >>> 16);
+        buffer.write(length >>> 24);
+        buffer.write(MAGIC);
+        buffer.writeTo(out);
+        out.flush();
+        return buffer.size();
+    }
+}
@@ -0,0 +1,740 @@
+package com.ingestion.io;
+
+import org.apache.parquet.bytes.BytesInput;
+import org.apache.parquet.column.ColumnDescriptor;
+import org.apache.parquet.column.ColumnReader;
+import org.apache.parquet.column.Encoding;
+import org.apache.parquet.column.impl.ColumnReadStoreImpl;
+import org.apache.parquet.column.page.DataPage;
+import org.apache.parquet.column.page.DataPageV1;
+import org.apache.parquet.column.page.DataPageV2;
+import org.apache.parquet.column.page.DictionaryPage;
+import org.apache.parquet.column.page.PageReadStore;
+import org.apache.parquet.column.page.PageReader;
+import org.apache.parquet.column.statistics.Statistics;
+import org.apache.parquet.format.ColumnChunk;
+import org.apache.parquet.format.ColumnMetaData;
+import org.apache.parquet.format.CompressionCodec;
+import org.apache.parquet.format.DataPageHeader;
+import org.apache.parquet.format.DataPageHeaderV2;
+import org.apache.parquet.format.FileMetaData;
+import org.apache.parquet.format.PageHeader;
+import org.apache.parquet.format.RowGroup;
+import org.apache.parquet.format.Util;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.Converter;
+import org.apache.parquet.io.api.GroupConverter;
+import org.apache.parquet.io.api.PrimitiveConverter;
+import org.apache.parquet.schema.LogicalTypeAnnotation;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType;
+import org.apache.parquet.schema.Type;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// Record source over a Parquet file, or a contiguous run of its row groups. Only the
+// projected columns are read: per row group their column chunks are loaded and their pages
+// decompressed and decoded one at a time, so other columns cost nothing. Skipping passes
+// whole row groups by their row counts without reading them. Values are kept in their
+// decoded form and only turned into text when asked for; strings are copied as raw UTF-8.
+// Only flat files can be read: a nested or repeated column fails once it is projected.
+public final class ParquetRecordSource implements CsvRecordSource {
+    // Days between the Julian day epoch of INT96 timestamps and 1970-01-01
+    private static final long JULIAN_EPOCH_DAY = 2440588;
+    private static final GroupConverter NO_CONVERTER = new GroupConverter() {
+        @Override
+        public Converter getConverter(int fieldIndex) {
+            return NO_PRIMITIVE_CONVERTER;
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void end() {
+        }
+    };
+    private static final PrimitiveConverter NO_PRIMITIVE_CONVERTER = new PrimitiveConverter() {
+    };
+
+    private enum Kind {
+        BOOLEAN, INT, UNSIGNED_INT, DECIMAL, DATE, TIMESTAMP, INT96, FLOAT, STRING, DECIMAL_BINARY, UUID
+    }
+
+    private final FileChannel channel;
+    private final FileMetaData footer;
+    private final MessageType schema;
+    private final List<String> headers;
+    private final int endGroup;
+    private int nextGroup;
+
+    private int[] projection;
+    // Projected fields by column index, null for the others, and the projected ones alone
+    private Field[] fields;
+    private Field[] projected;
+    private long groupRows;
+    private long groupRowsLeft;
+    private long groupBytes;
+    private long completedBytes;
+    private long recordNumber;
+
+    // One top-level column and its value in the current record
+    private static final class Field {
+        final ColumnDescriptor descriptor;
+        final Kind kind;
+        final boolean wide;
+        final int scale;
+        final LogicalTypeAnnotation.TimeUnit unit;
+        ColumnReader reader;
+        boolean isNull;
+        long longValue;
+        double doubleValue;
+        Binary binaryValue;
+        String text;
+
+        Field(ColumnDescriptor descriptor) {
+            this.descriptor = descriptor;
+            PrimitiveType type = descriptor.getPrimitiveType();
+            LogicalTypeAnnotation annotation = type.getLogicalTypeAnnotation();
+            this.wide = type.getPrimitiveTypeName() == PrimitiveType.PrimitiveTypeName.INT64
+                    || type.getPrimitiveTypeName() == PrimitiveType.PrimitiveTypeName.DOUBLE;
+            this.scale = annotation instanceof LogicalTypeAnnotation.DecimalLogicalTypeAnnotation
+                    ? ((LogicalTypeAnnotation.DecimalLogicalTypeAnnotation) annotation).getScale() : 0;
+            this.unit = annotation instanceof LogicalTypeAnnotation.TimestampLogicalTypeAnnotation
+                    ? ((LogicalTypeAnnotation.TimestampLogicalTypeAnnotation) annotation).getUnit() : null;
+            this.kind = kindOf(type);
+        }
+    }
+
+    // Reads all row groups of the file
+    public static ParquetRecordSource open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            FileMetaData footer = ParquetFiles.readFooter(channel);
+            return new ParquetRecordSource(channel, footer, 0, footer.getRow_groups().size());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Reads row groups [firstGroup, endGroup) of a file whose footer was read before
+    public static ParquetRecordSource open(File file, FileMetaData footer, int firstGroup, int endGroup)
+            throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return new ParquetRecordSource(channel, footer, firstGroup, endGroup);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private ParquetRecordSource(FileChannel channel, FileMetaData footer, int firstGroup, int endGroup)
+            throws IOException {
+        this.channel = channel;
+        this.footer = footer;
+        this.schema = ParquetFiles.schema(footer);
+        this.nextGroup = firstGroup;
+        this.endGroup = endGroup;
+        List<String> names = new ArrayList<>();
+        for (Type field : schema.getFields()) {
+            names.add(field.getName());
+        }
+        this.headers = Collections.unmodifiableList(names);
+        for (int i = 0; i < firstGroup; i++) {
+            recordNumber += footer.getRow_groups().get(i).getNum_rows();
+        }
+    }
+
+    @Override
+    public List<String> getHeaderNames() {
+        return headers;
+    }
+
+    @Override
+    public void project(int[] fields) {
+        this.projection = fields.clone();
+    }
+
+    // Rows in the row groups this source reads
+    public long rowCount() {
+        long rows = 0;
+        for (int i = nextGroup; i < endGroup; i++) {
+            rows += footer.getRow_groups().get(i).getNum_rows();
+        }
+        return rows;
+    }
+
+    // ClickHouse type that holds the column's values as this source formats them, without
+    // any Nullable wrapper
+    public String clickHouseType(int field) throws IOException {
+        Type type = schema.getType(field);
+        if (!type.isPrimitive() || type.isRepetition(Type.Repetition.REPEATED)) {
+            throw new IOException("Column " + type.getName() + " is nested or repeated; only flat Parquet"
+                    + " columns can be imported");
+        }
+        PrimitiveType primitive = type.asPrimitiveType();
+        LogicalTypeAnnotation annotation = primitive.getLogicalTypeAnnotation();
+        switch (kindOf(primitive)) {
+            case BOOLEAN:
+                return "Bool";
+            case INT:
+            case UNSIGNED_INT:
+                return integerType(primitive);
+            case DECIMAL:
+            case DECIMAL_BINARY:
+                LogicalTypeAnnotation.DecimalLogicalTypeAnnotation decimal =
+                        (LogicalTypeAnnotation.DecimalLogicalTypeAnnotation) annotation;
+                return decimal.getPrecision() <= 76
+                        ? "Decimal(" + decimal.getPrecision() + ", " + decimal.getScale() + ")" : "String";
+            case DATE:
+                return "Date32";
+            case TIMESTAMP:
+                LogicalTypeAnnotation.TimestampLogicalTypeAnnotation timestamp =
+                        (LogicalTypeAnnotation.TimestampLogicalTypeAnnotation) annotation;
+                return "DateTime64(" + digits(timestamp.getUnit()) + (timestamp.isAdjustedToUTC() ? ", 'UTC')" : ")");
+            case INT96:
+                return "DateTime64(9, 'UTC')";
+            case FLOAT:
+                return primitive.getPrimitiveTypeName() == PrimitiveType.PrimitiveTypeName.FLOAT
+                        ? "Float32" : "Float64";
+            case UUID:
+                return "UUID";
+            default:
+                return "String";
+        }
+    }
+
+    public boolean isOptional(int field) {
+        return schema.getType(field).isRepetition(Type.Repetition.OPTIONAL);
+    }
+
+    // Nulls in the column according to the footer statistics, or -1 when a row group has none
+    public long nullCount(int field) {
+        String name = headers.get(field);
+        long nulls = 0;
+        for (RowGroup group : footer.getRow_groups()) {
+            ColumnMetaData meta = chunk(group, name);
+            if (meta == null || !meta.isSetStatistics() || !meta.getStatistics().isSetNull_count()) {
+                return -1;
+            }
+            nulls += meta.getStatistics().getNull_count();
+        }
+        return nulls;
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        while (groupRowsLeft == 0) {
+            if (!loadNextGroup()) {
+                return false;
+            }
+        }
+        for (Field field : projected) {
+            ColumnReader reader = field.reader;
+            field.text = null;
+            field.isNull = reader.getCurrentDefinitionLevel() < field.descriptor.getMaxDefinitionLevel();
+            if (!field.isNull) {
+                switch (field.descriptor.getPrimitiveType().getPrimitiveTypeName()) {
+                    case BOOLEAN:
+                        field.longValue = reader.getBoolean() ? 1 : 0;
+                        break;
+                    case INT32:
+                        field.longValue = field.kind == Kind.UNSIGNED_INT
+                                ? Integer.toUnsignedLong(reader.getInteger()) : reader.getInteger();
+                        break;
+                    case INT64:
+                        field.longValue = reader.getLong();
+                        break;
+                    case FLOAT:
+                        field.doubleValue = reader.getFloat();
+                        break;
+                    case DOUBLE:
+                        field.doubleValue = reader.getDouble();
+                        break;
+                    default:
+                        field.binaryValue = reader.getBinary();
+                        break;
+                }
+            }
+            reader.consume();
+        }
+        groupRowsLeft--;
+        recordNumber++;
+        return true;
+    }
+
+    // Passes over whole row groups without reading them and decodes only within the last one
+    @Override
+    public void skip(long records, long offset) throws IOException {
+        while (records > 0) {
+            if (groupRowsLeft == 0) {
+                if (nextGroup >= endGroup) {
+                    return;
+                }
+                RowGroup group = footer.getRow_groups().get(nextGroup);
+                if (group.getNum_rows() <= records) {
+                    nextGroup++;
+                    records -= group.getNum_rows();
+                    recordNumber += group.getNum_rows();
+                    completedBytes += groupBytes(group);
+                    continue;
+                }
+                loadNextGroup();
+            }
+            long rows = Math.min(records, groupRowsLeft);
+            for (Field field : projected) {
+                ColumnReader reader = field.reader;
+                int maxLevel = field.descriptor.getMaxDefinitionLevel();
+                for (long i = 0; i < rows; i++) {
+                    if (reader.getCurrentDefinitionLevel() == maxLevel) {
+                        reader.skip();
+                    }
+                    reader.consume();
+                }
+            }
+            groupRowsLeft -= rows;
+            recordNumber += rows;
+            records -= rows;
+        }
+    }
+
+    @Override
+    public int size() {
+        return headers.size();
+    }
+
+    @Override
+    public long recordNumber() {
+        return recordNumber;
+    }
+
+    @Override
+    public String get(int field) {
+        Field f = field(field);
+        if (f.isNull) {
+            return "";
+        }
+        if (f.text == null) {
+            f.text = format(f);
+        }
+        return f.text;
+    }
+
+    // Progress counts the compressed size of each row group, prorated by its rows read
+    @Override
+    public long bytesConsumed() {
+        return groupRows == 0 ? completedBytes
+                : completedBytes + groupBytes * (groupRows - groupRowsLeft) / groupRows;
+    }
+
+    // Parquet tells NULL apart from an empty string, so only NULL counts as empty
+    @Override
+    public boolean isEmpty(int field) {
+        return field(field).isNull;
+    }
+
+    // Upper bounds on the text length for values that are formatted rather than copied
+    @Override
+    public int fieldLength(int field) {
+        Field f = field(field);
+        if (f.isNull) {
+            return 0;
+        }
+        switch (f.kind) {
+            case BOOLEAN:
+                return 5;
+            case INT:
+            case UNSIGNED_INT:
+                return 20;
+            case DATE:
+                return 12;
+            case STRING:
+                return f.binaryValue.length();
+            case DECIMAL_BINARY:
+                return 2 * f.binaryValue.length() + 4;
+            default:
+                return 48;
+        }
+    }
+
+    @Override
+    public long getLong(int field) {
+        Field f = field(field);
+        if (!f.isNull && (f.kind == Kind.INT || f.kind == Kind.UNSIGNED_INT || f.kind == Kind.BOOLEAN)) {
+            return f.longValue;
+        }
+        return Long.parseLong(get(field));
+    }
+
+    @Override
+    public int copyBytes(int field, byte[] target, int offset) {
+        Field f = field(field);
+        if (f.isNull) {
+            return 0;
+        }
+        if (f.kind != Kind.STRING) {
+            return CsvRecordSource.super.copyBytes(field, target, offset);
+        }
+        ByteBuffer bytes = f.binaryValue.toByteBuffer();
+        int length = bytes.remaining();
+        bytes.get(target, offset, length);
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private Field field(int index) {
+        Field f = fields != null && index < fields.length ? fields[index] : null;
+        if (f == null) {
+            throw new IllegalStateException("Column " + headers.get(index) + " was not projected");
+        }
+        return f;
+    }
+
+    private boolean loadNextGroup() throws IOException {
+        completedBytes += groupBytes;
+        groupBytes = 0;
+        groupRows = 0;
+        if (nextGroup >= endGroup) {
+            return false;
+        }
+        if (fields == null) {
+            fields = projectedFields();
+        }
+        RowGroup group = footer.getRow_groups().get(nextGroup++);
+        Map<ColumnDescriptor, PageReader> pages = new HashMap<>();
+        for (Field field : projected) {
+            pages.put(field.descriptor, readChunk(group, field.descriptor));
+        }
+        long rows = group.getNum_rows();
+        PageReadStore store = new PageReadStore() {
+            @Override
+            public PageReader getPageReader(ColumnDescriptor descriptor) {
+                return pages.get(descriptor);
+            }
+
+            @Override
+            public long getRowCount() {
+                return rows;
+            }
+        };
+        ColumnReadStoreImpl readers = new ColumnReadStoreImpl(store, NO_CONVERTER, schema, footer.getCreated_by());
+        for (Field field : projected) {
+            field.reader = readers.getColumnReader(field.descriptor);
+        }
+        groupRows = rows;
+        groupRowsLeft = rows;
+        groupBytes = groupBytes(group);
+        return true;
+    }
+
+    private Field[] projectedFields() throws IOException {
+        int[] selected = projection;
+        if (selected == null) {
+            selected = new int[headers.size()];
+            for (int i = 0; i < selected.length; i++) {
+                selected[i] = i;
+            }
+        }
+        Field[] result = new Field[headers.size()];
+        for (int index : selected) {
+            if (result[index] != null) {
+                continue;
+            }
+            clickHouseType(index);
+            result[index] = new Field(schema.getColumnDescription(new String[] {headers.get(index)}));
+        }
+        List<Field> loaded = new ArrayList<>();
+        for (Field field : result) {
+            if (field != null) {
+                loaded.add(field);
+            }
+        }
+        projected = loaded.toArray(new Field[0]);
+        return result;
+    }
+
+    private PageReader readChunk(RowGroup group, ColumnDescriptor descriptor) throws IOException {
+        ColumnMetaData meta = chunk(group, descriptor.getPath()[0]);
+        if (meta == null) {
+            throw new IOException("Row group has no data for column " + descriptor.getPath()[0]);
+        }
+        long start = meta.getData_page_offset();
+        if (meta.isSetDictionary_page_offset() && meta.getDictionary_page_offset() > 0
+                && meta.getDictionary_page_offset() < start) {
+            start = meta.getDictionary_page_offset();
+        }
+        long length = meta.getTotal_compressed_size();
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IOException("Column chunk of " + descriptor.getPath()[0] + " is too large");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of Parquet file in column " + descriptor.getPath()[0]);
+            }
+        }
+        return new ChunkPageReader(buffer.array(), meta.getCodec(), meta.getNum_values(),
+                Statistics.getBuilderForReading(descriptor.getPrimitiveType()).build());
+    }
+
+    private static ColumnMetaData chunk(RowGroup group, String name) {
+        for (ColumnChunk chunk : group.getColumns()) {
+            List<String> path = chunk.getMeta_data().getPath_in_schema();
+            if (path.size() == 1 && path.get(0).equals(name)) {
+                return chunk.getMeta_data();
+            }
+        }
+        return null;
+    }
+
+    private static long groupBytes(RowGroup group) {
+        long bytes = 0;
+        for (ColumnChunk chunk : group.getColumns()) {
+            bytes += chunk.getMeta_data().getTotal_compressed_size();
+        }
+        return bytes;
+    }
+
+    // Pages of one column chunk held in memory, decompressed as the column reader asks for them
+    private static final class ChunkPageReader implements PageReader {
+        private final byte[] chunk;
+        private final CompressionCodec codec;
+        private final long valueCount;
+        private final Statistics<?> noStatistics;
+        private final ByteArrayInputStream input;
+        private DictionaryPage dictionary;
+
+        ChunkPageReader(byte[] chunk, CompressionCodec codec, long valueCount, Statistics<?> noStatistics)
+                throws IOException {
+            this.chunk = chunk;
+            this.codec = codec;
+            this.valueCount = valueCount;
+            this.noStatistics = noStatistics;
+            this.input = new ByteArrayInputStream(chunk);
+            // The dictionary, if any, comes first and is needed before the first data page
+            input.mark(0);
+            PageHeader header = Util.readPageHeader(input);
+            if (header.isSetDictionary_page_header()) {
+                dictionary = new DictionaryPage(BytesInput.from(page(header)), header.getUncompressed_page_size(),
+                        header.getDictionary_page_header().getNum_values(),
+                        Encoding.valueOf(header.getDictionary_page_header().getEncoding().name()));
+            } else {
+                input.reset();
+            }
+        }
+
+        @Override
+        public DictionaryPage readDictionaryPage() {
+            return dictionary;
+        }
+
+        @Override
+        public long getTotalValueCount() {
+            return valueCount;
+        }
+
+        @Override
+        public DataPage readPage() {
+            try {
+                while (input.available() > 0) {
+                    PageHeader header = Util.readPageHeader(input);
+                    if (header.isSetData_page_header()) {
+                        DataPageHeader data = header.getData_page_header();
+                        return new DataPageV1(BytesInput.from(page(header)), data.getNum_values(),
+                                header.getUncompressed_page_size(), noStatistics,
+                                Encoding.valueOf(data.getRepetition_level_encoding().name()),
+                                Encoding.valueOf(data.getDefinition_level_encoding().name()),
+                                Encoding.valueOf(data.getEncoding().name()));
+                    }
+                    if (header.isSetData_page_header_v2()) {
+                        return pageV2(header);
+                    }
+                    // Index and stray dictionary pages carry nothing the reader needs
+                    input.skip(header.getCompressed_page_size());
+                }
+                return null;
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to read Parquet page: " + e.getMessage(), e);
+            }
+        }
+
+        // Levels of a V2 page are stored uncompressed in front of the values
+        private DataPage pageV2(PageHeader header) throws IOException {
+            DataPageHeaderV2 data = header.getData_page_header_v2();
+            int levelsLength = data.getRepetition_levels_byte_length() + data.getDefinition_levels_byte_length();
+            int start = chunk.length - input.available();
+            input.skip(header.getCompressed_page_size());
+            BytesInput repetition = BytesInput.from(chunk, start, data.getRepetition_levels_byte_length());
+            BytesInput definition = BytesInput.from(chunk, start + data.getRepetition_levels_byte_length(),
+                    data.getDefinition_levels_byte_length());
+            int valuesLength = header.getCompressed_page_size() - levelsLength;
+            int uncompressedValues = header.getUncompressed_page_size() - levelsLength;
+            byte[] values = !data.isSetIs_compressed() || data.isIs_compressed()
+                    ? ParquetFiles.decompress(codec, chunk, start + levelsLength, valuesLength, uncompressedValues)
+                    : java.util.Arrays.copyOfRange(chunk, start + levelsLength, start + levelsLength + valuesLength);
+            return DataPageV2.uncompressed(data.getNum_rows(), data.getNum_nulls(), data.getNum_values(),
+                    repetition, definition, Encoding.valueOf(data.getEncoding().name()),
+                    BytesInput.from(values), noStatistics);
+        }
+
+        private byte[] page(PageHeader header) throws IOException {
+            int start = chunk.length - input.available();
+            int length = header.getCompressed_page_size();
+            if (length < 0 || length > input.available()) {
+                throw new IOException("Parquet page runs past its column chunk");
+            }
+            input.skip(length);
+            return ParquetFiles.decompress(codec, chunk, start, length, header.getUncompressed_page_size());
+        }
+    }
+
+    private static Kind kindOf(PrimitiveType type) {
+        LogicalTypeAnnotation annotation = type.getLogicalTypeAnnotation();
+        switch (type.getPrimitiveTypeName()) {
+            case BOOLEAN:
+                return Kind.BOOLEAN;
+            case INT32:
+            case INT64:
+                if (annotation instanceof LogicalTypeAnnotation.DecimalLogicalTypeAnnotation) {
+                    return Kind.DECIMAL;
+                }
+                if (annotation instanceof LogicalTypeAnnotation.DateLogicalTypeAnnotation) {
+                    return Kind.DATE;
+                }
+                if (annotation instanceof LogicalTypeAnnotation.TimestampLogicalTypeAnnotation) {
+                    return Kind.TIMESTAMP;
+                }
+                if (annotation instanceof LogicalTypeAnnotation.IntLogicalTypeAnnotation
+                        && !((LogicalTypeAnnotation.IntLogicalTypeAnnotation) annotation).isSigned()) {
+                    return Kind.UNSIGNED_INT;
+                }
+                return Kind.INT;
+            case INT96:
+                return Kind.INT96;
+            case FLOAT:
+            case DOUBLE:
+                return Kind.FLOAT;
+            default:
+                if (annotation instanceof LogicalTypeAnnotation.DecimalLogicalTypeAnnotation) {
+                    return Kind.DECIMAL_BINARY;
+                }
+                if (annotation instanceof LogicalTypeAnnotation.UUIDLogicalTypeAnnotation
+                        && type.getTypeLength() == 16) {
+                    return Kind.UUID;
+                }
+                return Kind.STRING;
+        }
+    }
+
+    private static String integerType(PrimitiveType type) {
+        LogicalTypeAnnotation annotation = type.getLogicalTypeAnnotation();
+        boolean int64 = type.getPrimitiveTypeName() == PrimitiveType.PrimitiveTypeName.INT64;
+        if (annotation instanceof LogicalTypeAnnotation.IntLogicalTypeAnnotation) {
+            LogicalTypeAnnotation.IntLogicalTypeAnnotation integer =
+                    (LogicalTypeAnnotation.IntLogicalTypeAnnotation) annotation;
+            int bits = Math.min(integer.getBitWidth(), int64 ? 64 : 32);
+            return (integer.isSigned() ? "Int" : "UInt") + bits;
+        }
+        return int64 ? "Int64" : "Int32";
+    }
+
+    private static int digits(LogicalTypeAnnotation.TimeUnit unit) {
+        switch (unit) {
+            case MILLIS:
+                return 3;
+            case MICROS:
+                return 6;
+            default:
+                return 9;
+        }
+    }
+
+    private static String format(Field f) {
+        switch (f.kind) {
+            case BOOLEAN:
+                return f.longValue != 0 ? "true" : "false";
+            case INT:
+                return Long.toString(f.longValue);
+            case UNSIGNED_INT:
+                return Long.toUnsignedString(f.longValue);
+            case DECIMAL:
+                return BigDecimal.valueOf(f.longValue, f.scale).toPlainString();
+            case DECIMAL_BINARY:
+                return new BigDecimal(new BigInteger(f.binaryValue.getBytes()), f.scale).toPlainString();
+            case DATE:
+                return LocalDate.ofEpochDay(f.longValue).toString();
+            case TIMESTAMP:
+                return formatTimestamp(f.longValue, f.unit);
+            case INT96:
+                ByteBuffer int96 = f.binaryValue.toByteBuffer().order(ByteOrder.LITTLE_ENDIAN);
+                long nanosOfDay = int96.getLong(int96.position());
+                long epochDay = int96.getInt(int96.position() + 8) - JULIAN_EPOCH_DAY;
+                return formatTimestamp(Math.addExact(Math.multiplyExact(epochDay, 86_400_000_000_000L), nanosOfDay),
+                        LogicalTypeAnnotation.TimeUnit.NANOS);
+            case FLOAT:
+                return formatFloat(f.doubleValue, f.wide);
+            case UUID:
+                ByteBuffer uuid = f.binaryValue.toByteBuffer();
+                return new UUID(uuid.getLong(uuid.position()), uuid.getLong(uuid.position() + 8)).toString();
+            default:
+                return f.binaryValue.toStringUsingUTF8();
+        }
+    }
+
+    // Non-finite values in ClickHouse's spelling, which its text formats parse and Java's do not
+    private static String formatFloat(double value, boolean wide) {
+        if (Double.isNaN(value)) {
+            return "nan";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "inf" : "-inf";
+        }
+        return wide ? Double.toString(value) : Float.toString((float) value);
+    }
+
+    // yyyy-MM-dd HH:mm:ss with the fraction the unit allows, in UTC
+    private static String formatTimestamp(long value, LogicalTypeAnnotation.TimeUnit unit) {
+        int digits = digits(unit);
+        long perSecond = unit == LogicalTypeAnnotation.TimeUnit.MILLIS ? 1_000
+                : unit == LogicalTypeAnnotation.TimeUnit.MICROS ? 1_000_000 : 1_000_000_000;
+        long seconds = Math.floorDiv(value, perSecond);
+        long fraction = Math.floorMod(value, perSecond);
+        long day = Math.floorDiv(seconds, 86_400);
+        int secondOfDay = (int) Math.floorMod(seconds, 86_400);
+        StringBuilder text = new StringBuilder(20 + digits).append(LocalDate.ofEpochDay(day)).append(' ');
+        pad(text, secondOfDay / 3600, 2).append(':');
+        pad(text, secondOfDay / 60 % 60, 2).append(':');
+        pad(text, secondOfDay % 60, 2).append('.');
+        return pad(text, fraction, digits).toString();
+    }
+
+    private static StringBuilder pad(StringBuilder text, long value, int width) {
+        String digits = Long.toString(value);
+        for (int i = digits.length(); i < width; i++) {
+            text.append('0');
+        }
+        return text.append(digits);
+    }
+}
@@ -0,0 +1,710 @@
+package com.ingestion.io;
+
+import org.apache.parquet.bytes.BytesInput;
+import org.apache.parquet.column.ColumnDescriptor;
+import org.apache.parquet.column.ColumnWriteStore;
+import org.apache.parquet.column.ColumnWriter;
+import org.apache.parquet.column.Encoding;
+import org.apache.parquet.column.ParquetProperties;
+import org.apache.parquet.column.impl.ColumnWriteStoreV1;
+import org.apache.parquet.column.impl.ColumnWriteStoreV2;
+import org.apache.parquet.column.page.DictionaryPage;
+import org.apache.parquet.column.page.PageWriteStore;
+import org.apache.parquet.column.page.PageWriter;
+import org.apache.parquet.column.statistics.Statistics;
+import org.apache.parquet.format.ColumnChunk;
+import org.apache.parquet.format.ColumnMetaData;
+import org.apache.parquet.format.CompressionCodec;
+import org.apache.parquet.format.DataPageHeader;
+import org.apache.parquet.format.DataPageHeaderV2;
+import org.apache.parquet.format.DictionaryPageHeader;
+import org.apache.parquet.format.FileMetaData;
+import org.apache.parquet.format.PageHeader;
+import org.apache.parquet.format.PageType;
+import org.apache.parquet.format.RowGroup;
+import org.apache.parquet.format.SchemaElement;
+import org.apache.parquet.format.Util;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.schema.LogicalTypeAnnotation;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType;
+import org.apache.parquet.schema.Type;
+import org.apache.parquet.schema.Types;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+// Writes result rows as a Parquet file. Each column gets the physical type and annotation
+// of its ClickHouse type, so numbers, dates and times are stored as binary values rather
+// than text, and Nullable columns become optional. Rows are encoded column by column into
+// pages as they arrive; once the encoded pages of a row group pass rowGroupBytes the group
+// is written out, so memory stays bounded by one row group however long the result is.
+// Pages are compressed with the given codec and use dictionary encoding, falling back to
+// plain where a column has too many distinct values.
+public final class ParquetRowWriter implements ResultWriter {
+    public static final long DEFAULT_ROW_GROUP_BYTES = 64L << 20;
+    private static final int PAGE_SIZE = 1 << 20;
+    // Checking the buffered size walks every column, so it is done every this many rows
+    private static final int SIZE_CHECK_ROWS = 1000;
+    // Longer min/max values, typically long strings, are left out of the statistics
+    private static final int MAX_STATISTICS_BYTES = 64;
+
+    private enum Kind {
+        BOOLEAN, INT32, UINT32, INT64, UINT64, FLOAT, DOUBLE, DECIMAL, DATE, TIMESTAMP, UUID, STRING
+    }
+
+    private final OutputStream out;
+    private final CompressionCodec codec;
+    private final ZoneId serverZone;
+    private final long rowGroupBytes;
+    private final ParquetProperties.WriterVersion writerVersion;
+
+    private Column[] columns;
+    private MessageType schema;
+    private List<SchemaElement> schemaElements;
+    private ParquetProperties properties;
+    private ChunkStore chunks;
+    private ColumnWriteStore store;
+    private final List<RowGroup> rowGroups = new ArrayList<>();
+    private long groupRows;
+    private long totalRows;
+    private long position;
+    private long writeNanos;
+
+    private static final class Column {
+        final String type;
+        final Kind kind;
+        final boolean nullable;
+        final ZoneId zone;
+        final int scale;
+        final int fixedLength;
+        final long ticksPerSecond;
+        final PrimitiveType parquetType;
+        ColumnDescriptor descriptor;
+        ColumnWriter writer;
+
+        Column(String name, String clickHouseType, ZoneId serverZone) {
+            this.type = clickHouseType;
+            String base = clickHouseType == null ? "String" : clickHouseType;
+            boolean optional = false;
+            while (true) {
+                if (base.startsWith("LowCardinality(")) {
+                    base = base.substring(15, base.length() - 1);
+                } else if (base.startsWith("Nullable(")) {
+                    base = base.substring(9, base.length() - 1);
+                    optional = true;
+                } else {
+                    break;
+                }
+            }
+            this.nullable = optional;
+            Type.Repetition repetition = optional ? Type.Repetition.OPTIONAL : Type.Repetition.REQUIRED;
+            ZoneId columnZone = serverZone;
+            int columnScale = 0;
+            int length = 0;
+            long perSecond = 1;
+            Kind columnKind;
+            PrimitiveType.PrimitiveTypeName physical;
+            LogicalTypeAnnotation annotation = null;
+            switch (base) {
+                case "Bool":
+                    columnKind = Kind.BOOLEAN;
+                    physical = PrimitiveType.PrimitiveTypeName.BOOLEAN;
+                    break;
+                case "Int8":
+                case "Int16":
+                case "Int32":
+                    columnKind = Kind.INT32;
+                    physical = PrimitiveType.PrimitiveTypeName.INT32;
+                    annotation = LogicalTypeAnnotation.intType(Integer.parseInt(base.substring(3)), true);
+                    break;
+                case "UInt8":
+                case "UInt16":
+                case "UInt32":
+                    columnKind = Kind.UINT32;
+                    physical = PrimitiveType.PrimitiveTypeName.INT32;
+                    annotation = LogicalTypeAnnotation.intType(Integer.parseInt(base.substring(4)), false);
+                    break;
+                case "Int64":
+                    columnKind = Kind.INT64;
+                    physical = PrimitiveType.PrimitiveTypeName.INT64;
+                    break;
+                case "UInt64":
+                    columnKind = Kind.UINT64;
+                    physical = PrimitiveType.PrimitiveTypeName.INT64;
+                    annotation = LogicalTypeAnnotation.intType(64, false);
+                    break;
+                case "Float32":
+                    columnKind = Kind.FLOAT;
+                    physical = PrimitiveType.PrimitiveTypeName.FLOAT;
+                    break;
+                case "Float64":
+                    columnKind = Kind.DOUBLE;
+                    physical = PrimitiveType.PrimitiveTypeName.DOUBLE;
+                    break;
+                case "Date":
+                case "Date32":
+                    columnKind = Kind.DATE;
+                    physical = PrimitiveType.PrimitiveTypeName.INT32;
+                    annotation = LogicalTypeAnnotation.dateType();
+                    break;
+                case "UUID":
+                    columnKind = Kind.UUID;
+                    physical = PrimitiveType.PrimitiveTypeName.FIXED_LEN_BYTE_ARRAY;
+                    length = 16;
+                    annotation = LogicalTypeAnnotation.uuidType();
+                    break;
+                default:
+                    int[] decimal = decimalPrecisionScale(base);
+                    if (decimal != null) {
+                        columnKind = Kind.DECIMAL;
+                        columnScale = decimal[1];
+                        annotation = LogicalTypeAnnotation.decimalType(decimal[1], decimal[0]);
+                        if (decimal[0] <= 9) {
+                            physical = PrimitiveType.PrimitiveTypeName.INT32;
+                        } else if (decimal[0] <= 18) {
+                            physical = PrimitiveType.PrimitiveTypeName.INT64;
+                        } else {
+                            physical = PrimitiveType.PrimitiveTypeName.FIXED_LEN_BYTE_ARRAY;
+                            length = decimal[0] <= 38 ? 16 : 32;
+                        }
+                    } else if (base.equals("DateTime") || base.startsWith("DateTime(")
+                            || base.startsWith("DateTime64(")) {
+                        // DateTime('tz') and DateTime64(P, 'tz') print in their own zone
+                        int quote = base.indexOf('\'');
+                        if (quote > 0) {
+                            columnZone = ZoneId.of(base.substring(quote + 1, base.lastIndexOf('\'')));
+                        }
+                        int digits = 0;
+                        if (base.startsWith("DateTime64(")) {
+                            int end = base.indexOf(',') > 0 ? base.indexOf(',') : base.indexOf(')');
+                            digits = Integer.parseInt(base.substring(11, end).trim());
+                        }
+                        LogicalTypeAnnotation.TimeUnit unit = digits <= 3 ? LogicalTypeAnnotation.TimeUnit.MILLIS
+                                : digits <= 6 ? LogicalTypeAnnotation.TimeUnit.MICROS
+                                : LogicalTypeAnnotation.TimeUnit.NANOS;
+                        perSecond = unit == LogicalTypeAnnotation.TimeUnit.MILLIS ? 1_000
+                                : unit == LogicalTypeAnnotation.TimeUnit.MICROS ? 1_000_000 : 1_000_000_000;
+                        columnKind = Kind.TIMESTAMP;
+                        physical = PrimitiveType.PrimitiveTypeName.INT64;
+                        annotation = LogicalTypeAnnotation.timestampType(true, unit);
+                    } else {
+                        // Strings, enums and anything else are kept in ClickHouse's text form
+                        columnKind = Kind.STRING;
+                        physical = PrimitiveType.PrimitiveTypeName.BINARY;
+                        annotation = LogicalTypeAnnotation.stringType();
+                    }
+                    break;
+            }
+            this.kind = columnKind;
+            this.zone = columnZone;
+            this.scale = columnScale;
+            this.fixedLength = length;
+            this.ticksPerSecond = perSecond;
+            Types.PrimitiveBuilder<PrimitiveType> builder = Types.primitive(physical, repetition);
+            if (length > 0) {
+                builder.length(length);
+            }
+            this.parquetType = builder.as(annotation).named(name);
+        }
+
+        // Values that rarely repeat are not worth a dictionary attempt
+        boolean dictionary() {
+            return kind != Kind.FLOAT && kind != Kind.DOUBLE && kind != Kind.UUID
+                    && !(kind == Kind.TIMESTAMP && ticksPerSecond > 1_000);
+        }
+    }
+
+    public ParquetRowWriter(OutputStream out, Compression compression, ZoneId serverZone) {
+        this(out, ParquetFiles.codecFor(compression), serverZone, DEFAULT_ROW_GROUP_BYTES);
+    }
+
+    public ParquetRowWriter(OutputStream out, CompressionCodec codec, ZoneId serverZone, long rowGroupBytes) {
+        this(out, codec, serverZone, rowGroupBytes, ParquetProperties.WriterVersion.PARQUET_1_0);
+    }
+
+    // V1 pages are read by every Parquet reader; V2 pages are written on request only
+    ParquetRowWriter(OutputStream out, CompressionCodec codec, ZoneId serverZone, long rowGroupBytes,
+                     ParquetProperties.WriterVersion writerVersion) {
+        this.out = out;
+        this.codec = codec;
+        this.serverZone = serverZone;
+        this.rowGroupBytes = rowGroupBytes;
+        this.writerVersion = writerVersion;
+    }
+
+    @Override
+    public void writeHeader(ResultSetMetaData metaData) throws SQLException, IOException {
+        String[] names = new String[metaData.getColumnCount()];
+        String[] types = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = metaData.getColumnName(i + 1);
+            types[i] = metaData.getColumnTypeName(i + 1);
+        }
+        writeHeader(Arrays.asList(names), types);
+    }
+
+    // The schema takes the place of a header; clickHouseTypes may be null for all-String
+    @Override
+    public void writeHeader(List<String> names, String[] clickHouseTypes) throws IOException {
+        Set<String> used = new HashSet<>();
+        columns = new Column[names.size()];
+        Types.MessageTypeBuilder message = Types.buildMessage();
+        ParquetProperties.Builder builder = ParquetProperties.builder()
+                .withWriterVersion(writerVersion)
+                .withPageSize(PAGE_SIZE)
+                .withDictionaryPageSize(PAGE_SIZE)
+                .withDictionaryEncoding(true);
+        for (int i = 0; i < columns.length; i++) {
+            // Joined tables can repeat a column name, which a Parquet schema cannot
+            String name = names.get(i);
+            for (int n = 2; !used.add(name); n++) {
+                name = names.get(i) + "_" + n;
+            }
+            columns[i] = new Column(name, clickHouseTypes == null ? null : clickHouseTypes[i], serverZone);
+            message.addField(columns[i].parquetType);
+            if (!columns[i].dictionary()) {
+                builder.withDictionaryEncoding(name, false);
+            }
+        }
+        schema = message.named("schema");
+        schemaElements = ParquetFiles.schemaElements(schema);
+        properties = builder.build();
+        for (Column column : columns) {
+            column.descriptor = schema.getColumnDescription(new String[] {column.parquetType.getName()});
+        }
+        write(ParquetFiles.MAGIC);
+        startRowGroup();
+    }
+
+    // Every part of a partitioned export is a complete file, so this is the same as a header
+    @Override
+    public void planColumns(ResultSetMetaData metaData) throws SQLException, IOException {
+        writeHeader(metaData);
+    }
+
+    @Override
+    public void writeRow(ResultSet rs) throws SQLException, IOException {
+        for (int i = 0; i < columns.length; i++) {
+            writeValue(columns[i], rs.getString(i + 1));
+        }
+        endRow();
+    }
+
+    @Override
+    public void writeRow(String[] values) throws IOException {
+        for (int i = 0; i < columns.length; i++) {
+            writeValue(columns[i], values[i]);
+        }
+        endRow();
+    }
+
+    // Bytes of completed row groups; the group being encoded is counted once it is written
+    @Override
+    public long getBytesWritten() {
+        return position;
+    }
+
+    @Override
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
+    // Ends the current row group; rows written afterwards start a new one
+    @Override
+    public void flush() throws IOException {
+        if (groupRows > 0) {
+            writeRowGroup();
+            startRowGroup();
+        }
+        long start = System.nanoTime();
+        out.flush();
+        writeNanos += System.nanoTime() - start;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (columns != null) {
+                flush();
+                FileMetaData footer = new FileMetaData(1, schemaElements, totalRows, rowGroups);
+                footer.setCreated_by(ParquetFiles.CREATED_BY);
+                long start = System.nanoTime();
+                position += ParquetFiles.writeFooter(footer, out);
+                writeNanos += System.nanoTime() - start;
+                columns = null;
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private void startRowGroup() {
+        chunks = new ChunkStore();
+        store = writerVersion == ParquetProperties.WriterVersion.PARQUET_1_0
+                ? new ColumnWriteStoreV1(schema, chunks, properties)
+                : new ColumnWriteStoreV2(schema, chunks, properties);
+        for (Column column : columns) {
+            column.writer = store.getColumnWriter(column.descriptor);
+        }
+        groupRows = 0;
+    }
+
+    private void endRow() throws IOException {
+        store.endRecord();
+        groupRows++;
+        totalRows++;
+        if (groupRows % SIZE_CHECK_ROWS == 0 && store.getBufferedSize() >= rowGroupBytes) {
+            writeRowGroup();
+            startRowGroup();
+        }
+    }
+
+    private void writeValue(Column column, String value) throws IOException {
+        ColumnWriter writer = column.writer;
+        if (value == null) {
+            if (!column.nullable) {
+                throw new IOException("NULL in non-Nullable column " + column.parquetType.getName());
+            }
+            writer.writeNull(0, 0);
+            return;
+        }
+        int level = column.nullable ? 1 : 0;
+        try {
+            switch (column.kind) {
+                case BOOLEAN:
+                    writer.write(value.equals("true") || value.equals("1"), 0, level);
+                    break;
+                case INT32:
+                    writer.write(Integer.parseInt(value), 0, level);
+                    break;
+                case UINT32:
+                    writer.write((int) Long.parseLong(value), 0, level);
+                    break;
+                case INT64:
+                    writer.write(Long.parseLong(value), 0, level);
+                    break;
+                case UINT64:
+                    writer.write(Long.parseUnsignedLong(value), 0, level);
+                    break;
+                case FLOAT:
+                    writer.write((float) parseDouble(value), 0, level);
+                    break;
+                case DOUBLE:
+                    writer.write(parseDouble(value), 0, level);
+                    break;
+                case DECIMAL:
+                    BigInteger unscaled = new BigDecimal(value).setScale(column.scale).unscaledValue();
+                    switch (column.parquetType.getPrimitiveTypeName()) {
+                        case INT32:
+                            writer.write(unscaled.intValueExact(), 0, level);
+                            break;
+                        case INT64:
+                            writer.write(unscaled.longValueExact(), 0, level);
+                            break;
+                        default:
+                            writer.write(Binary.fromConstantByteArray(
+                                    twosComplement(unscaled, column.fixedLength)), 0, level);
+                            break;
+                    }
+                    break;
+                case DATE:
+                    writer.write((int) LocalDate.parse(value).toEpochDay(), 0, level);
+                    break;
+                case TIMESTAMP:
+                    writer.write(parseTimestamp(column, value), 0, level);
+                    break;
+                case UUID:
+                    UUID uuid = UUID.fromString(value);
+                    writer.write(Binary.fromConstantByteArray(ByteBuffer.allocate(16)
+                            .putLong(uuid.getMostSignificantBits())
+                            .putLong(uuid.getLeastSignificantBits()).array()), 0, level);
+                    break;
+                default:
+                    writer.write(Binary.fromString(value), 0, level);
+                    break;
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Value '" + value + "' of column " + column.parquetType.getName()
+                    + " is not a valid " + column.type, e);
+        }
+    }
+
+    // ClickHouse prints non-finite floats as nan and inf
+    private static double parseDouble(String value) {
+        switch (value) {
+            case "nan":
+            case "-nan":
+                return Double.NaN;
+            case "inf":
+            case "+inf":
+                return Double.POSITIVE_INFINITY;
+            case "-inf":
+                return Double.NEGATIVE_INFINITY;
+            default:
+                return Double.parseDouble(value);
+        }
+    }
+
+    // yyyy-MM-dd HH:mm:ss[.fraction] in the column's zone, as ticks of the column's unit since the epoch
+    private static long parseTimestamp(Column column, String value) {
+        if (value.length() < 19 || value.charAt(4) != '-' || value.charAt(10) != ' ') {
+            throw new IllegalArgumentException("bad date-time");
+        }
+        LocalDateTime local = LocalDateTime.of(digits(value, 0, 4), digits(value, 5, 7), digits(value, 8, 10),
+                digits(value, 11, 13), digits(value, 14, 16), digits(value, 17, 19));
+        long seconds = local.toEpochSecond(column.zone.getRules().getOffset(local));
+        long fraction = 0;
+        if (value.length() > 20 && value.charAt(19) == '.') {
+            long scale = column.ticksPerSecond;
+            for (int i = 20; i < value.length() && scale > 1; i++) {
+                scale /= 10;
+                fraction += digits(value, i, i + 1) * scale;
+            }
+        }
+        return Math.addExact(Math.multiplyExact(seconds, column.ticksPerSecond), fraction);
+    }
+
+    private static int digits(String value, int start, int end) {
+        int result = 0;
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IllegalArgumentException("not a digit");
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    // Decimal(P, S) and the DecimalN(S) aliases, as {precision, scale}; null for other types
+    private static int[] decimalPrecisionScale(String type) {
+        if (!type.startsWith("Decimal") || !type.endsWith(")")) {
+            return null;
+        }
+        int open = type.indexOf('(');
+        String[] args = type.substring(open + 1, type.length() - 1).split(",");
+        String prefix = type.substring(0, open);
+        switch (prefix) {
+            case "Decimal":
+                return new int[] {Integer.parseInt(args[0].trim()),
+                        args.length > 1 ? Integer.parseInt(args[1].trim()) : 0};
+            case "Decimal32":
+                return new int[] {9, Integer.parseInt(args[0].trim())};
+            case "Decimal64":
+                return new int[] {18, Integer.parseInt(args[0].trim())};
+            case "Decimal128":
+                return new int[] {38, Integer.parseInt(args[0].trim())};
+            case "Decimal256":
+                return new int[] {76, Integer.parseInt(args[0].trim())};
+            default:
+                return null;
+        }
+    }
+
+    // Big-endian two's complement, sign-extended to the column's fixed length
+    private static byte[] twosComplement(BigInteger value, int length) {
+        byte[] bytes = value.toByteArray();
+        if (bytes.length > length) {
+            throw new ArithmeticException("decimal overflow");
+        }
+        byte[] fixed = new byte[length];
+        Arrays.fill(fixed, 0, length - bytes.length, (byte) (value.signum() < 0 ? 0xFF : 0));
+        System.arraycopy(bytes, 0, fixed, length - bytes.length, bytes.length);
+        return fixed;
+    }
+
+    // Appends the row group's column chunks, dictionary page first, and records their offsets
+    private void writeRowGroup() throws IOException {
+        store.flush();
+        store.close();
+        long groupStart = position;
+        long uncompressed = 0;
+        List<ColumnChunk> columnChunks = new ArrayList<>();
+        for (int i = 0; i < columns.length; i++) {
+            Column column = columns[i];
+            ChunkWriter chunk = chunks.writers.get(column.descriptor);
+            long chunkStart = position;
+            if (chunk.dictionary.size() > 0) {
+                write(chunk.dictionary);
+            }
+            long dataStart = position;
+            write(chunk.pages);
+            List<org.apache.parquet.format.Encoding> encodings = new ArrayList<>();
+            for (Encoding encoding : chunk.encodings) {
+                encodings.add(org.apache.parquet.format.Encoding.valueOf(encoding.name()));
+            }
+            ColumnMetaData meta = new ColumnMetaData(schemaElements.get(i + 1).getType(), encodings,
+                    Arrays.asList(column.descriptor.getPath()), codec, chunk.valueCount,
+                    chunk.uncompressedSize, position - chunkStart, dataStart);
+            if (dataStart > chunkStart) {
+                meta.setDictionary_page_offset(chunkStart);
+            }
+            if (chunk.statistics != null) {
+                meta.setStatistics(statistics(chunk.statistics));
+            }
+            ColumnChunk columnChunk = new ColumnChunk(chunkStart);
+            columnChunk.setMeta_data(meta);
+            columnChunks.add(columnChunk);
+            uncompressed += chunk.uncompressedSize;
+        }
+        RowGroup group = new RowGroup(columnChunks, uncompressed, groupRows);
+        group.setFile_offset(groupStart);
+        group.setTotal_compressed_size(position - groupStart);
+        rowGroups.add(group);
+    }
+
+    private static org.apache.parquet.format.Statistics statistics(Statistics<?> statistics) {
+        org.apache.parquet.format.Statistics result = new org.apache.parquet.format.Statistics();
+        result.setNull_count(statistics.getNumNulls());
+        if (statistics.hasNonNullValue()) {
+            byte[] min = statistics.getMinBytes();
+            byte[] max = statistics.getMaxBytes();
+            if (min.length <= MAX_STATISTICS_BYTES && max.length <= MAX_STATISTICS_BYTES) {
+                result.setMin_value(min);
+                result.setMax_value(max);
+            }
+        }
+        return result;
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        long start = System.nanoTime();
+        out.write(bytes);
+        writeNanos += System.nanoTime() - start;
+        position += bytes.length;
+    }
+
+    private void write(ByteArrayOutputStream bytes) throws IOException {
+        long start = System.nanoTime();
+        bytes.writeTo(out);
+        writeNanos += System.nanoTime() - start;
+        position += bytes.size();
+    }
+
+    private final class ChunkStore implements PageWriteStore {
+        final Map<ColumnDescriptor, ChunkWriter> writers = new HashMap<>();
+
+        @Override
+        public PageWriter getPageWriter(ColumnDescriptor descriptor) {
+            return writers.computeIfAbsent(descriptor, d -> new ChunkWriter());
+        }
+    }
+
+    // Collects one column chunk of the row group: compressed pages with their headers, the
+    // dictionary page kept apart since it is written last but must come first in the file
+    private final class ChunkWriter implements PageWriter {
+        final ByteArrayOutputStream pages = new ByteArrayOutputStream();
+        final ByteArrayOutputStream dictionary = new ByteArrayOutputStream();
+        final Set<Encoding> encodings = EnumSet.noneOf(Encoding.class);
+        long valueCount;
+        long uncompressedSize;
+        Statistics<?> statistics;
+
+        @Override
+        @Deprecated
+        public void writePage(BytesInput bytes, int valueCount, Statistics<?> statistics, Encoding rlEncoding,
+                              Encoding dlEncoding, Encoding valuesEncoding) throws IOException {
+            writePage(bytes, valueCount, valueCount, statistics, rlEncoding, dlEncoding, valuesEncoding);
+        }
+
+        @Override
+        public void writePage(BytesInput bytes, int valueCount, int rowCount, Statistics<?> statistics,
+                              Encoding rlEncoding, Encoding dlEncoding, Encoding valuesEncoding) throws IOException {
+            byte[] raw = bytes.toByteArray();
+            byte[] compressed = ParquetFiles.compress(codec, raw);
+            PageHeader header = new PageHeader(PageType.DATA_PAGE, raw.length, compressed.length);
+            header.setData_page_header(new DataPageHeader(valueCount,
+                    org.apache.parquet.format.Encoding.valueOf(valuesEncoding.name()),
+                    org.apache.parquet.format.Encoding.valueOf(dlEncoding.name()),
+                    org.apache.parquet.format.Encoding.valueOf(rlEncoding.name())));
+            int before = pages.size();
+            Util.writePageHeader(header, pages);
+            uncompressedSize += pages.size() - before + raw.length;
+            pages.write(compressed);
+            addPage(valueCount, statistics, rlEncoding, dlEncoding, valuesEncoding);
+        }
+
+        // Only the values of a V2 page are compressed; the RLE levels stay in front of them as they are
+        @Override
+        public void writePageV2(int rowCount, int nullCount, int valueCount, BytesInput repetitionLevels,
+                                BytesInput definitionLevels, Encoding dataEncoding, BytesInput data,
+                                Statistics<?> statistics) throws IOException {
+            byte[] repetition = repetitionLevels.toByteArray();
+            byte[] definition = definitionLevels.toByteArray();
+            byte[] raw = data.toByteArray();
+            byte[] compressed = ParquetFiles.compress(codec, raw);
+            int levels = repetition.length + definition.length;
+            PageHeader header = new PageHeader(PageType.DATA_PAGE_V2, levels + raw.length, levels + compressed.length);
+            header.setData_page_header_v2(new DataPageHeaderV2(valueCount, nullCount, rowCount,
+                    org.apache.parquet.format.Encoding.valueOf(dataEncoding.name()),
+                    definition.length, repetition.length));
+            int before = pages.size();
+            Util.writePageHeader(header, pages);
+            uncompressedSize += pages.size() - before + levels + raw.length;
+            pages.write(repetition);
+            pages.write(definition);
+            pages.write(compressed);
+            addPage(valueCount, statistics, Encoding.RLE, dataEncoding);
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private void addPage(int valueCount, Statistics<?> statistics, Encoding... pageEncodings) {
+            this.valueCount += valueCount;
+            encodings.addAll(Arrays.asList(pageEncodings));
+            if (this.statistics == null) {
+                this.statistics = statistics.copy();
+            } else {
+                ((Statistics) this.statistics).mergeStatistics(statistics);
+            }
+        }
+
+        @Override
+        public void writeDictionaryPage(DictionaryPage page) throws IOException {
+            byte[] raw = page.getBytes().toByteArray();
+            byte[] compressed = ParquetFiles.compress(codec, raw);
+            PageHeader header = new PageHeader(PageType.DICTIONARY_PAGE, raw.length, compressed.length);
+            header.setDictionary_page_header(new DictionaryPageHeader(page.getDictionarySize(),
+                    org.apache.parquet.format.Encoding.valueOf(page.getEncoding().name())));
+            dictionary.reset();
+            Util.writePageHeader(header, dictionary);
+            uncompressedSize += dictionary.size() + raw.length;
+            dictionary.write(compressed);
+            encodings.add(page.getEncoding());
+        }
+
+        @Override
+        public long getMemSize() {
+            return pages.size() + dictionary.size();
+        }
+
+        @Override
+        public long allocatedSize() {
+            return getMemSize();
+        }
+
+        @Override
+        public String memUsageString(String prefix) {
+            return prefix + " " + getMemSize() + " bytes";
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.ingestion.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.List;
+
+// Writes the rows of a JDBC result to an output stream in one export file format
+public interface ResultWriter extends Closeable {
+
+    // Writes the header and fixes the per-column plan from the result metadata
+    void writeHeader(ResultSetMetaData metaData) throws SQLException, IOException;
+
+    void writeHeader(List<String> names, String[] clickHouseTypes) throws IOException;
+
+    // Fixes the per-column plan without a header, for output that continues another part
+    void planColumns(ResultSetMetaData metaData) throws SQLException, IOException;
+
+    void writeRow(ResultSet rs) throws SQLException, IOException;
+
+    void writeRow(String[] values) throws IOException;
+
+    long getBytesWritten();
+
+    // Time spent handing bytes to the underlying stream
+    long getWriteNanos();
+
+    void flush() throws IOException;
+}
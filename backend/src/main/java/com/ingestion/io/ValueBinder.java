@@ -0,0 +1,121 @@
+package com.ingestion.io;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+// Parses a CSV field into the Java value matching its ClickHouse column type and binds it.
+// Empty fields become NULL for Nullable columns; any other unparsable value is an error.
+@FunctionalInterface
+public interface ValueBinder {
+    DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd[ ]['T']HH:mm:ss");
+
+    void bind(PreparedStatement stmt, int index, String value) throws SQLException;
+
+    // Binds a field of the current record; integer binders read it without building a String
+    default void bind(PreparedStatement stmt, int index, CsvRecordSource record, int field) throws SQLException {
+        bind(stmt, index, record.get(field));
+    }
+
+    ValueBinder STRING = PreparedStatement::setString;
+
+    static ValueBinder forType(String clickHouseType) {
+        String unwrapped = clickHouseType.startsWith("LowCardinality(")
+                ? clickHouseType.substring(15, clickHouseType.length() - 1) : clickHouseType;
+        boolean nullable = unwrapped.startsWith("Nullable(");
+        String base = nullable ? unwrapped.substring(9, unwrapped.length() - 1) : unwrapped;
+        if (base.startsWith("Int") || base.startsWith("UInt")) {
+            return new ValueBinder() {
+                @Override
+                public void bind(PreparedStatement stmt, int index, String value) throws SQLException {
+                    if (nullable && value.isEmpty()) {
+                        stmt.setNull(index, Types.BIGINT);
+                        return;
+                    }
+                    try {
+                        stmt.setLong(index, Long.parseLong(value));
+                    } catch (NumberFormatException e) {
+                        throw new SQLException("Value '" + value + "' is not a valid " + clickHouseType);
+                    }
+                }
+
+                @Override
+                public void bind(PreparedStatement stmt, int index, CsvRecordSource record, int field)
+                        throws SQLException {
+                    if (nullable && record.isEmpty(field)) {
+                        stmt.setNull(index, Types.BIGINT);
+                        return;
+                    }
+                    try {
+                        stmt.setLong(index, record.getLong(field));
+                    } catch (NumberFormatException e) {
+                        throw new SQLException("Value '" + record.get(field) + "' is not a valid " + clickHouseType);
+                    }
+                }
+            };
+        }
+        ValueBinder binder;
+        int sqlType;
+        if (base.startsWith("Float")) {
+            binder = (stmt, index, value) -> stmt.setDouble(index, Double.parseDouble(value));
+            sqlType = Types.DOUBLE;
+        } else if (base.equals("Date")) {
+            binder = (stmt, index, value) -> stmt.setObject(index, LocalDate.parse(value));
+            sqlType = Types.DATE;
+        } else if (base.startsWith("DateTime64")) {
+            // Sub-second digits would be lost in a LocalDateTime, so ClickHouse parses the text
+            binder = PreparedStatement::setString;
+            sqlType = Types.TIMESTAMP;
+        } else if (base.startsWith("DateTime")) {
+            binder = (stmt, index, value) -> stmt.setObject(index, LocalDateTime.parse(value, DATE_TIME));
+            sqlType = Types.TIMESTAMP;
+        } else if (base.startsWith("Decimal")) {
+            binder = (stmt, index, value) -> stmt.setBigDecimal(index, new BigDecimal(value));
+            sqlType = Types.DECIMAL;
+        } else if (base.equals("Bool")) {
+            binder = (stmt, index, value) -> stmt.setBoolean(index, value.equals("true") || value.equals("1"));
+            sqlType = Types.BOOLEAN;
+        } else if (nullable) {
+            // Only sources that tell NULL apart from an empty string yield Nullable strings
+            binder = STRING;
+            sqlType = Types.VARCHAR;
+        } else {
+            return STRING;
+        }
+        return new ValueBinder() {
+            @Override
+            public void bind(PreparedStatement stmt, int index, String value) throws SQLException {
+                if (nullable && value.isEmpty()) {
+                    stmt.setNull(index, sqlType);
+                    return;
+                }
+                try {
+                    binder.bind(stmt, index, value);
+                } catch (NumberFormatException | DateTimeParseException e) {
+                    throw new SQLException("Value '" + value + "' is not a valid " + clickHouseType);
+                }
+            }
+
+            // The source decides what is empty, so an empty string need not mean NULL
+            @Override
+            public void bind(PreparedStatement stmt, int index, CsvRecordSource record, int field)
+                    throws SQLException {
+                if (nullable && record.isEmpty(field)) {
+                    stmt.setNull(index, sqlType);
+                    return;
+                }
+                String value = record.get(field);
+                try {
+                    binder.bind(stmt, index, value);
+                } catch (NumberFormatException | DateTimeParseException e) {
+                    throw new SQLException("Value '" + value + "' is not a valid " + clickHouseType);
+                }
+            }
+        };
+    }
+}
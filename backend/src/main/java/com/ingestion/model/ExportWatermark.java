@@ -0,0 +1,41 @@
+package com.ingestion.model;
+
+// High-water mark of an incremental export: the largest watermark column value already
+// written to the output, as ClickHouse printed it. value is null before the first export.
+public class ExportWatermark {
+    private String tableName;
+    private String column;
+    private String outputPath;
+    private String value;
+    private long rows;
+    private long exports;
+    private String lastFile;
+    private long updatedAt;
+
+    public void advanced(String newValue, long exportedRows, String file) {
+        value = newValue;
+        rows += exportedRows;
+        exports++;
+        lastFile = file;
+        updatedAt = System.currentTimeMillis();
+    }
+
+    // Getters and setters
+    public String getTableName() { return tableName; }
+    public void setTableName(String tableName) { this.tableName = tableName; }
+    public String getColumn() { return column; }
+    public void setColumn(String column) { this.column = column; }
+    public String getOutputPath() { return outputPath; }
+    public void setOutputPath(String outputPath) { this.outputPath = outputPath; }
+    public String getValue() { return value; }
+    public void setValue(String value) { this.value = value; }
+    public long getRows() { return rows; }
+    public void setRows(long rows) { this.rows = rows; }
+    public long getExports() { return exports; }
+    public void setExports(long exports) { this.exports = exports; }
+    // File the last export wrote: the output itself when appending, otherwise a delta file
+    public String getLastFile() { return lastFile; }
+    public void setLastFile(String lastFile) { this.lastFile = lastFile; }
+    public long getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(long updatedAt) { this.updatedAt = updatedAt; }
+}
@@ -0,0 +1,35 @@
+package com.ingestion.model;
+
+public class InferredColumn {
+    private String name;
+    private String type;
+    private boolean nullable;
+    private long sampledValues;
+    private long emptyValues;
+    private long distinctEstimate;
+
+    public InferredColumn(String name, String type, boolean nullable, long sampledValues,
+                          long emptyValues, long distinctEstimate) {
+        this.name = name;
+        this.type = type;
+        this.nullable = nullable;
+        this.sampledValues = sampledValues;
+        this.emptyValues = emptyValues;
+        this.distinctEstimate = distinctEstimate;
+    }
+
+    // Getters and setters
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+    // Full ClickHouse type, including any Nullable/LowCardinality wrapper
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+    public boolean isNullable() { return nullable; }
+    public void setNullable(boolean nullable) { this.nullable = nullable; }
+    public long getSampledValues() { return sampledValues; }
+    public void setSampledValues(long sampledValues) { this.sampledValues = sampledValues; }
+    public long getEmptyValues() { return emptyValues; }
+    public void setEmptyValues(long emptyValues) { this.emptyValues = emptyValues; }
+    public long getDistinctEstimate() { return distinctEstimate; }
+    public void setDistinctEstimate(long distinctEstimate) { this.distinctEstimate = distinctEstimate; }
+}
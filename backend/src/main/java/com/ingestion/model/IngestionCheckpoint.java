@@ -0,0 +1,62 @@
+package com.ingestion.model;
+
+import java.util.List;
+
+// Progress of a checkpointed flat-file import, persisted after every committed batch.
+// offset is the file position just past the last committed record, or -1 when the input
+// was read through a decompressing stream and can only be resumed by skipping rows.
+public class IngestionCheckpoint {
+    private String filePath;
+    private String tableName;
+    private List<String> columns;
+    private long fileSize;
+    private long fileModified;
+    private int batchMaxRows;
+    private long batchMaxBytes;
+    private String tokenPrefix;
+    private long rows;
+    private long offset = -1;
+    private long batches;
+    private boolean completed;
+    private long updatedAt;
+
+    // Deterministic per file, table and batch, so a replayed batch is dropped by ClickHouse
+    public String tokenFor(long batch) {
+        return tokenPrefix + "-" + batch;
+    }
+
+    public void committed(long batchRows, long nextOffset) {
+        rows += batchRows;
+        offset = nextOffset;
+        batches++;
+        updatedAt = System.currentTimeMillis();
+    }
+
+    // Getters and setters
+    public String getFilePath() { return filePath; }
+    public void setFilePath(String filePath) { this.filePath = filePath; }
+    public String getTableName() { return tableName; }
+    public void setTableName(String tableName) { this.tableName = tableName; }
+    public List<String> getColumns() { return columns; }
+    public void setColumns(List<String> columns) { this.columns = columns; }
+    public long getFileSize() { return fileSize; }
+    public void setFileSize(long fileSize) { this.fileSize = fileSize; }
+    public long getFileModified() { return fileModified; }
+    public void setFileModified(long fileModified) { this.fileModified = fileModified; }
+    public int getBatchMaxRows() { return batchMaxRows; }
+    public void setBatchMaxRows(int batchMaxRows) { this.batchMaxRows = batchMaxRows; }
+    public long getBatchMaxBytes() { return batchMaxBytes; }
+    public void setBatchMaxBytes(long batchMaxBytes) { this.batchMaxBytes = batchMaxBytes; }
+    public String getTokenPrefix() { return tokenPrefix; }
+    public void setTokenPrefix(String tokenPrefix) { this.tokenPrefix = tokenPrefix; }
+    public long getRows() { return rows; }
+    public void setRows(long rows) { this.rows = rows; }
+    public long getOffset() { return offset; }
+    public void setOffset(long offset) { this.offset = offset; }
+    public long getBatches() { return batches; }
+    public void setBatches(long batches) { this.batches = batches; }
+    public boolean isCompleted() { return completed; }
+    public void setCompleted(boolean completed) { this.completed = completed; }
+    public long getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(long updatedAt) { this.updatedAt = updatedAt; }
+}
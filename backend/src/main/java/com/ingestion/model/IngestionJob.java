@@ -0,0 +1,121 @@
+package com.ingestion.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Live state of one /ingestion/start run. Workers report progress through addRows/addBytes
+// and call checkCancelled() between batches so a cancel request stops the job cooperatively.
+public class IngestionJob {
+    public enum Status { QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED }
+
+    private final String id = UUID.randomUUID().toString();
+    private final String source;
+    private final String tableName;
+    private final String filePath;
+    private final long submittedAt = System.currentTimeMillis();
+    private volatile long startedAt;
+    private volatile long finishedAt;
+    private volatile Status status = Status.QUEUED;
+    private volatile boolean cancelRequested;
+    private volatile long totalBytes = -1;
+    private volatile String result;
+    private volatile String error;
+    private volatile SchemaReport schemaReport;
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final Map<String, AtomicLong> phaseNanos = new ConcurrentHashMap<>();
+
+    public IngestionJob(String source, String tableName, String filePath) {
+        this.source = source;
+        this.tableName = tableName;
+        this.filePath = filePath;
+    }
+
+    public void addRows(long count) { rows.addAndGet(count); }
+    public void addBytes(long count) { bytes.addAndGet(count); }
+    public void addDuplicates(long count) { duplicates.addAndGet(count); }
+    public void addPhaseNanos(String phase, long nanos) {
+        phaseNanos.computeIfAbsent(phase, p -> new AtomicLong()).addAndGet(nanos);
+    }
+
+    public void checkCancelled() {
+        if (cancelRequested) {
+            throw new CancellationException("Ingestion cancelled");
+        }
+    }
+
+    public void markRunning() {
+        startedAt = System.currentTimeMillis();
+        status = Status.RUNNING;
+    }
+
+    // The first terminal status wins, so a cancel racing the job's own finish cannot overwrite it
+    public synchronized void markFinished(Status finalStatus, String result, String error) {
+        if (isFinished()) {
+            return;
+        }
+        this.result = result;
+        this.error = error;
+        finishedAt = System.currentTimeMillis();
+        status = finalStatus;
+    }
+
+    public boolean isFinished() {
+        return status == Status.COMPLETED || status == Status.FAILED || status == Status.CANCELLED;
+    }
+
+    public double getRowsPerSecond() {
+        long elapsed = getElapsedMillis();
+        return elapsed <= 0 ? 0 : rows.get() * 1000.0 / elapsed;
+    }
+
+    // Only known when the input size is known, i.e. for flat-file imports
+    public Long getEtaSeconds() {
+        long done = bytes.get();
+        long elapsed = getElapsedMillis();
+        if (status != Status.RUNNING || totalBytes <= 0 || done <= 0 || elapsed <= 0) {
+            return null;
+        }
+        return Math.max(0, (totalBytes - done) * elapsed / done / 1000);
+    }
+
+    // Phase -> milliseconds; phases run by parallel workers add up their worker time
+    public Map<String, Long> getPhaseMillis() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        phaseNanos.forEach((phase, nanos) -> result.put(phase, nanos.get() / 1_000_000));
+        return result;
+    }
+
+    public long getElapsedMillis() {
+        if (startedAt == 0) {
+            return 0;
+        }
+        return (finishedAt == 0 ? System.currentTimeMillis() : finishedAt) - startedAt;
+    }
+
+    // Getters and setters
+    public String getId() { return id; }
+    public String getSource() { return source; }
+    public String getTableName() { return tableName; }
+    public String getFilePath() { return filePath; }
+    public long getSubmittedAt() { return submittedAt; }
+    public long getStartedAt() { return startedAt; }
+    public long getFinishedAt() { return finishedAt; }
+    public Status getStatus() { return status; }
+    public boolean isCancelRequested() { return cancelRequested; }
+    public void requestCancel() { this.cancelRequested = true; }
+    public long getRows() { return rows.get(); }
+    public long getBytes() { return bytes.get(); }
+    public long getDuplicates() { return duplicates.get(); }
+    public long getTotalBytes() { return totalBytes; }
+    public void setTotalBytes(long totalBytes) { this.totalBytes = totalBytes; }
+    public String getResult() { return result; }
+    public String getError() { return error; }
+    public SchemaReport getSchemaReport() { return schemaReport; }
+    public void setSchemaReport(SchemaReport schemaReport) { this.schemaReport = schemaReport; }
+}
@@ -10,6 +10,31 @@ public class IngestionRequest {
     private String filePath;
     private String jwtToken;
     private List<Map<String, String>> joinConditions;
+    private Integer parallelism;
+    private String format;
+    private String compression;
+    private Boolean inferTypes;
+    // Flat-file import: ClickHouse types by column name that replace the inferred ones
+    private Map<String, String> columnTypes;
+    // Save progress after each batch; resume continues from the saved progress
+    private Boolean checkpoint;
+    private Boolean resume;
+    // Streaming export: let ClickHouse format the result instead of the JDBC writer
+    private Boolean passthrough;
+    // Partitioned export: how to slice the table (auto, partition, sortkey, hash) and whether
+    // to merge the slices into one file or keep them as numbered part files
+    private String partitionBy;
+    private Boolean mergeParts;
+    // Incremental export: only rows past the last exported value of this column, appended to
+    // the output or written to a new delta file
+    private String watermarkColumn;
+    private Boolean appendOutput;
+    // Preview page: rows to skip and rows to return
+    private Long offset;
+    private Integer limit;
+    // Flat-file import: drop records whose values in these columns repeat an earlier record,
+    // and create the table as a ReplacingMergeTree ordered by them
+    private List<String> dedupKeys;
 
     // Getters and setters
     public String getSource() { return source; }
@@ -24,4 +49,34 @@ public class IngestionRequest {
     public void setJwtToken(String jwtToken) { this.jwtToken = jwtToken; }
     public List<Map<String, String>> getJoinConditions() { return joinConditions; }
     public void setJoinConditions(List<Map<String, String>> joinConditions) { this.joinConditions = joinConditions; }
-}
\ No newline at end of file
+    public Integer getParallelism() { return parallelism; }
+    public void setParallelism(Integer parallelism) { this.parallelism = parallelism; }
+    public String getFormat() { return format; }
+    public void setFormat(String format) { this.format = format; }
+    public String getCompression() { return compression; }
+    public void setCompression(String compression) { this.compression = compression; }
+    public Boolean getInferTypes() { return inferTypes; }
+    public void setInferTypes(Boolean inferTypes) { this.inferTypes = inferTypes; }
+    public Map<String, String> getColumnTypes() { return columnTypes; }
+    public void setColumnTypes(Map<String, String> columnTypes) { this.columnTypes = columnTypes; }
+    public Boolean getCheckpoint() { return checkpoint; }
+    public void setCheckpoint(Boolean checkpoint) { this.checkpoint = checkpoint; }
+    public Boolean getResume() { return resume; }
+    public void setResume(Boolean resume) { this.resume = resume; }
+    public Boolean getPassthrough() { return passthrough; }
+    public void setPassthrough(Boolean passthrough) { this.passthrough = passthrough; }
+    public String getPartitionBy() { return partitionBy; }
+    public void setPartitionBy(String partitionBy) { this.partitionBy = partitionBy; }
+    public Boolean getMergeParts() { return mergeParts; }
+    public void setMergeParts(Boolean mergeParts) { this.mergeParts = mergeParts; }
+    public String getWatermarkColumn() { return watermarkColumn; }
+    public void setWatermarkColumn(String watermarkColumn) { this.watermarkColumn = watermarkColumn; }
+    public Boolean getAppendOutput() { return appendOutput; }
+    public void setAppendOutput(Boolean appendOutput) { this.appendOutput = appendOutput; }
+    public Long getOffset() { return offset; }
+    public void setOffset(Long offset) { this.offset = offset; }
+    public Integer getLimit() { return limit; }
+    public void setLimit(Integer limit) { this.limit = limit; }
+    public List<String> getDedupKeys() { return dedupKeys; }
+    public void setDedupKeys(List<String> dedupKeys) { this.dedupKeys = dedupKeys; }
+}
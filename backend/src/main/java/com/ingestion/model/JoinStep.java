@@ -0,0 +1,39 @@
+package com.ingestion.model;
+
+import java.util.List;
+
+// One join of a planned query: the table built into the hash table and what it is expected to cost
+public class JoinStep {
+    private String table;
+    private String joinType;
+    private String condition;
+    private List<String> columns;
+    private long rows;
+    private long buildBytes;
+
+    public JoinStep(String table, String joinType, String condition, List<String> columns, long rows,
+                    long buildBytes) {
+        this.table = table;
+        this.joinType = joinType;
+        this.condition = condition;
+        this.columns = columns;
+        this.rows = rows;
+        this.buildBytes = buildBytes;
+    }
+
+    // Getters and setters
+    public String getTable() { return table; }
+    public void setTable(String table) { this.table = table; }
+    public String getJoinType() { return joinType; }
+    public void setJoinType(String joinType) { this.joinType = joinType; }
+    public String getCondition() { return condition; }
+    public void setCondition(String condition) { this.condition = condition; }
+    // Columns read from the table; fewer than the whole table means it is joined as a subquery
+    public List<String> getColumns() { return columns; }
+    public void setColumns(List<String> columns) { this.columns = columns; }
+    public long getRows() { return rows; }
+    public void setRows(long rows) { this.rows = rows; }
+    // Uncompressed size of those columns, an estimate of the hash table's memory
+    public long getBuildBytes() { return buildBytes; }
+    public void setBuildBytes(long buildBytes) { this.buildBytes = buildBytes; }
+}
@@ -0,0 +1,62 @@
+package com.ingestion.model;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+// Export query chosen by the join planner, returned by /ingestion/explain
+public class QueryPlan {
+    private String select;
+    private String probeTable;
+    private long probeRows;
+    private List<JoinStep> joins;
+    private Map<String, String> settings;
+    private List<String> notes;
+    private List<String> explain;
+
+    public QueryPlan(String select, String probeTable, long probeRows, List<JoinStep> joins,
+                     Map<String, String> settings, List<String> notes) {
+        this.select = select;
+        this.probeTable = probeTable;
+        this.probeRows = probeRows;
+        this.joins = joins;
+        this.settings = settings;
+        this.notes = notes;
+    }
+
+    // Full query text, with the SETTINGS clause after an optional WHERE predicate
+    public String getSql() {
+        return withFilter(null);
+    }
+
+    public String withFilter(String predicate) {
+        StringBuilder sql = new StringBuilder(select);
+        if (predicate != null) {
+            sql.append(" WHERE ").append(predicate);
+        }
+        if (!settings.isEmpty()) {
+            sql.append(" SETTINGS ").append(settings.entrySet().stream()
+                    .map(e -> e.getKey() + " = " + e.getValue())
+                    .collect(Collectors.joining(", ")));
+        }
+        return sql.toString();
+    }
+
+    // Getters and setters
+    public String getSelect() { return select; }
+    public void setSelect(String select) { this.select = select; }
+    // Table in FROM, streamed rather than built into a hash table
+    public String getProbeTable() { return probeTable; }
+    public void setProbeTable(String probeTable) { this.probeTable = probeTable; }
+    public long getProbeRows() { return probeRows; }
+    public void setProbeRows(long probeRows) { this.probeRows = probeRows; }
+    public List<JoinStep> getJoins() { return joins; }
+    public void setJoins(List<JoinStep> joins) { this.joins = joins; }
+    public Map<String, String> getSettings() { return settings; }
+    public void setSettings(Map<String, String> settings) { this.settings = settings; }
+    public List<String> getNotes() { return notes; }
+    public void setNotes(List<String> notes) { this.notes = notes; }
+    // ClickHouse's own EXPLAIN output, filled in by the explain endpoint only
+    public List<String> getExplain() { return explain; }
+    public void setExplain(List<String> explain) { this.explain = explain; }
+}
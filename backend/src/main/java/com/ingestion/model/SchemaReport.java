@@ -0,0 +1,30 @@
+package com.ingestion.model;
+
+import java.util.List;
+
+// What type inference chose for a flat file, returned with the job and by /ingestion/schema/infer
+public class SchemaReport {
+    private long sampledRows;
+    // Whether sampling read every row. If not, a later value may not fit its column's type and
+    // fail the import; columnTypes on the request overrides the types chosen here.
+    private boolean wholeFile;
+    private List<InferredColumn> columns;
+    private List<String> orderBy;
+
+    public SchemaReport(long sampledRows, boolean wholeFile, List<InferredColumn> columns, List<String> orderBy) {
+        this.sampledRows = sampledRows;
+        this.wholeFile = wholeFile;
+        this.columns = columns;
+        this.orderBy = orderBy;
+    }
+
+    // Getters and setters
+    public long getSampledRows() { return sampledRows; }
+    public void setSampledRows(long sampledRows) { this.sampledRows = sampledRows; }
+    public boolean isWholeFile() { return wholeFile; }
+    public void setWholeFile(boolean wholeFile) { this.wholeFile = wholeFile; }
+    public List<InferredColumn> getColumns() { return columns; }
+    public void setColumns(List<InferredColumn> columns) { this.columns = columns; }
+    public List<String> getOrderBy() { return orderBy; }
+    public void setOrderBy(List<String> orderBy) { this.orderBy = orderBy; }
+}
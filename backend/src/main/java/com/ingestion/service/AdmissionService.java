@@ -0,0 +1,291 @@
+package com.ingestion.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Admits ingestion work against a global memory budget and per-source concurrency limits, so
+// a burst of requests queues up instead of exhausting the heap or flooding ClickHouse. Each
+// request reserves an estimate of its buffers before it starts and returns it when it ends.
+// Waiters are served by priority and in arrival order within a priority. One whose source is
+// at its limit lets the waiters behind it pass; one that is waiting for memory holds them
+// back, so a large job is not starved by a steady stream of small ones.
+@Service
+public class AdmissionService {
+    public enum Priority { INTERACTIVE, STREAMING, BULK }
+
+    public static final List<String> SOURCES = Arrays.asList("flatfile", "clickhouse", "preview");
+
+    // Held while the admitted work runs; closing it returns the reservation
+    public final class Permit implements AutoCloseable {
+        private final String source;
+        private final long bytes;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(String source, long bytes) {
+            this.source = source;
+            this.bytes = bytes;
+        }
+
+        public String getSource() { return source; }
+        public long getBytes() { return bytes; }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release(this);
+            }
+        }
+    }
+
+    private static final class Waiter {
+        final String source;
+        final Priority priority;
+        final long bytes;
+        final long sequence;
+        final long enqueuedAt = System.nanoTime();
+        final CompletableFuture<Permit> grant = new CompletableFuture<>();
+        long waited;
+        Permit permit;
+
+        Waiter(String source, Priority priority, long bytes, long sequence) {
+            this.source = source;
+            this.priority = priority;
+            this.bytes = bytes;
+            this.sequence = sequence;
+        }
+    }
+
+    private final long memoryBudget;
+    private final Map<String, Integer> limits = new LinkedHashMap<>();
+    private final TreeSet<Waiter> queue = new TreeSet<>(
+            Comparator.comparing((Waiter w) -> w.priority).thenComparingLong(w -> w.sequence));
+    private final Map<String, Integer> active = new LinkedHashMap<>();
+    private long reserved;
+    private long sequence;
+    private long admitted;
+    private long rejected;
+    private long waitNanos;
+    private long maxWaitNanos;
+
+    @Value("${ingestion.admission.max-queued:100}")
+    private int maxQueued;
+    @Value("${ingestion.admission.max-wait-ms:30000}")
+    private long maxWaitMs;
+
+    @Autowired
+    private IngestionMetrics metrics;
+
+    public AdmissionService(@Value("${ingestion.admission.memory-budget:0}") long memoryBudget,
+                            @Value("${ingestion.admission.flatfile-concurrency:2}") int flatFileConcurrency,
+                            @Value("${ingestion.admission.clickhouse-concurrency:2}") int clickHouseConcurrency,
+                            @Value("${ingestion.admission.preview-concurrency:8}") int previewConcurrency) {
+        // Unset, half the heap goes to job buffers and the rest to everything else
+        this.memoryBudget = memoryBudget > 0 ? memoryBudget : Runtime.getRuntime().maxMemory() / 2;
+        limits.put("flatfile", Math.max(1, flatFileConcurrency));
+        limits.put("clickhouse", Math.max(1, clickHouseConcurrency));
+        limits.put("preview", Math.max(1, previewConcurrency));
+        for (String source : SOURCES) {
+            active.put(source, 0);
+        }
+    }
+
+    // Setters for building the service without a Spring context, as the tests do
+    public void setMetrics(IngestionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void setQueueLimits(int maxQueued, long maxWaitMs) {
+        this.maxQueued = maxQueued;
+        this.maxWaitMs = maxWaitMs;
+    }
+
+    @PostConstruct
+    public void registerMetrics() {
+        metrics.registerAdmission(this);
+    }
+
+    // Blocks for up to ingestion.admission.max-wait-ms. Throws RejectedExecutionException when
+    // the queue is full or the wait times out, so request threads never wait indefinitely.
+    public Permit acquire(String source, Priority priority, long bytes) {
+        CompletableFuture<Permit> grant = request(source, priority, bytes);
+        try {
+            return grant.get(maxWaitMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            if (!withdraw(grant)) {
+                // Admitted just as the wait ran out
+                return grant.join();
+            }
+            reject(source, "timeout");
+            throw new RejectedExecutionException("Timed out after " + maxWaitMs + " ms waiting for capacity");
+        } catch (InterruptedException e) {
+            if (!withdraw(grant)) {
+                grant.join().close();
+            }
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for capacity");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    // Queues the request without blocking. The future completes with the permit, on the thread
+    // that freed the capacity or on the caller's when it is free already. Throws
+    // RejectedExecutionException when the queue is full.
+    public CompletableFuture<Permit> request(String source, Priority priority, long bytes) {
+        if (!limits.containsKey(source)) {
+            throw new IllegalArgumentException("Unknown source: " + source);
+        }
+        Waiter waiter = null;
+        List<Waiter> granted = null;
+        synchronized (this) {
+            if (queue.size() < maxQueued) {
+                // A job larger than the whole budget still runs, alone
+                waiter = new Waiter(source, priority, Math.min(Math.max(bytes, 0), memoryBudget), sequence++);
+                queue.add(waiter);
+                granted = dispatch();
+            }
+        }
+        if (waiter == null) {
+            reject(source, "queue_full");
+            throw new RejectedExecutionException("Admission queue is full");
+        }
+        complete(granted);
+        return waiter.grant;
+    }
+
+    // Takes a request that has not been admitted yet out of the queue. Returns false when it
+    // was admitted already, in which case the caller owns the permit.
+    public boolean withdraw(CompletableFuture<Permit> grant) {
+        List<Waiter> granted;
+        synchronized (this) {
+            Waiter found = null;
+            for (Waiter waiter : queue) {
+                if (waiter.grant == grant) {
+                    found = waiter;
+                    break;
+                }
+            }
+            if (found == null) {
+                return false;
+            }
+            queue.remove(found);
+            found.grant.cancel(false);
+            // It may have been holding back the waiters behind it
+            granted = dispatch();
+        }
+        complete(granted);
+        return true;
+    }
+
+    public synchronized Map<String, Object> getMetrics() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("memoryBudget", memoryBudget);
+        result.put("memoryReserved", reserved);
+        Map<Priority, Integer> queued = new EnumMap<>(Priority.class);
+        for (Priority priority : Priority.values()) {
+            queued.put(priority, 0);
+        }
+        for (Waiter waiter : queue) {
+            queued.merge(waiter.priority, 1, Integer::sum);
+        }
+        result.put("queued", queued);
+        result.put("maxQueued", maxQueued);
+        Map<String, Map<String, Integer>> sources = new LinkedHashMap<>();
+        for (String source : SOURCES) {
+            Map<String, Integer> counts = new LinkedHashMap<>();
+            counts.put("active", active.get(source));
+            counts.put("limit", limits.get(source));
+            sources.put(source, counts);
+        }
+        result.put("sources", sources);
+        result.put("admitted", admitted);
+        result.put("rejected", rejected);
+        result.put("avgWaitMs", admitted == 0 ? 0.0 : waitNanos / 1e6 / admitted);
+        result.put("maxWaitMs", maxWaitNanos / 1e6);
+        return result;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public synchronized long getMemoryReserved() {
+        return reserved;
+    }
+
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    public synchronized int getActive(String source) {
+        return active.getOrDefault(source, 0);
+    }
+
+    private void release(Permit permit) {
+        List<Waiter> granted;
+        synchronized (this) {
+            reserved -= permit.bytes;
+            active.merge(permit.source, -1, Integer::sum);
+            granted = dispatch();
+        }
+        complete(granted);
+    }
+
+    // Admits waiters in queue order while capacity lasts. Called with the lock held; the
+    // grants are completed afterwards so callbacks never run under the lock.
+    private List<Waiter> dispatch() {
+        List<Waiter> granted = new ArrayList<>();
+        Iterator<Waiter> it = queue.iterator();
+        while (it.hasNext()) {
+            Waiter waiter = it.next();
+            if (active.get(waiter.source) >= limits.get(waiter.source)) {
+                continue;
+            }
+            if (reserved + waiter.bytes > memoryBudget) {
+                break;
+            }
+            it.remove();
+            reserved += waiter.bytes;
+            active.merge(waiter.source, 1, Integer::sum);
+            waiter.waited = System.nanoTime() - waiter.enqueuedAt;
+            admitted++;
+            waitNanos += waiter.waited;
+            maxWaitNanos = Math.max(maxWaitNanos, waiter.waited);
+            waiter.permit = new Permit(waiter.source, waiter.bytes);
+            granted.add(waiter);
+        }
+        return granted;
+    }
+
+    private void complete(List<Waiter> granted) {
+        for (Waiter waiter : granted) {
+            metrics.recordAdmissionWait(waiter.source, waiter.priority.name(), waiter.waited);
+            waiter.grant.complete(waiter.permit);
+        }
+    }
+
+    private void reject(String source, String reason) {
+        synchronized (this) {
+            rejected++;
+        }
+        metrics.recordAdmissionRejection(source, reason);
+    }
+}
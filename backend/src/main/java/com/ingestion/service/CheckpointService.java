@@ -0,0 +1,133 @@
+package com.ingestion.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ingestion.model.ExportWatermark;
+import com.ingestion.model.IngestionCheckpoint;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Persists IngestionCheckpoint state as one JSON file per (input file, table) pair, and the
+// ExportWatermark of each (table, column, output) incremental export the same way. Each save
+// is written to a temporary file, forced to disk and atomically renamed over the previous one.
+@Service
+public class CheckpointService {
+    @Value("${ingestion.checkpoint.dir:${ingestion.upload-dir:/app/uploads}/.checkpoints}")
+    private String directory;
+    // Recent insert tokens ClickHouse remembers per table; tables created for checkpointed
+    // imports get this as non_replicated_deduplication_window
+    @Value("${ingestion.checkpoint.dedup-window:1000}")
+    private int dedupWindow;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    public int getDedupWindow() {
+        return dedupWindow;
+    }
+
+    // Returns the saved state for the file and table, or null when there is none
+    public IngestionCheckpoint load(String filePath, String tableName) throws IOException {
+        File state = stateFile(filePath, tableName);
+        if (!state.isFile()) {
+            return null;
+        }
+        return mapper.readValue(state, IngestionCheckpoint.class);
+    }
+
+    // Resumes the saved state when asked to and it still matches the file; otherwise starts fresh
+    public IngestionCheckpoint begin(String filePath, String tableName, List<String> columns, boolean resume)
+            throws IOException {
+        File file = new File(filePath);
+        IngestionCheckpoint checkpoint = resume ? load(filePath, tableName) : null;
+        if (checkpoint != null) {
+            if (checkpoint.getFileSize() != file.length() || checkpoint.getFileModified() != file.lastModified()) {
+                throw new IOException("File changed since the checkpoint was written; start without resume");
+            }
+            if (!checkpoint.getColumns().equals(columns)) {
+                throw new IOException("Columns differ from the checkpointed run " + checkpoint.getColumns());
+            }
+            return checkpoint;
+        }
+        checkpoint = new IngestionCheckpoint();
+        checkpoint.setFilePath(file.getAbsolutePath());
+        checkpoint.setTableName(tableName);
+        checkpoint.setColumns(new ArrayList<>(columns));
+        checkpoint.setFileSize(file.length());
+        checkpoint.setFileModified(file.lastModified());
+        checkpoint.setTokenPrefix(fingerprint(file.getAbsolutePath() + "\n" + file.length() + "\n"
+                + file.lastModified() + "\n" + tableName + "\n" + String.join("\n", columns)));
+        checkpoint.setUpdatedAt(System.currentTimeMillis());
+        return checkpoint;
+    }
+
+    public void save(IngestionCheckpoint checkpoint) throws IOException {
+        write(stateFile(checkpoint.getFilePath(), checkpoint.getTableName()), checkpoint);
+    }
+
+    // Returns the saved watermark, or a new one that exports everything on first use
+    public ExportWatermark loadWatermark(String tableName, String column, String outputPath) throws IOException {
+        File state = watermarkFile(tableName, column, outputPath);
+        if (state.isFile()) {
+            return mapper.readValue(state, ExportWatermark.class);
+        }
+        ExportWatermark watermark = new ExportWatermark();
+        watermark.setTableName(tableName);
+        watermark.setColumn(column);
+        watermark.setOutputPath(new File(outputPath).getAbsolutePath());
+        return watermark;
+    }
+
+    public void saveWatermark(ExportWatermark watermark) throws IOException {
+        write(watermarkFile(watermark.getTableName(), watermark.getColumn(), watermark.getOutputPath()), watermark);
+    }
+
+    private void write(File state, Object value) throws IOException {
+        File dir = state.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create checkpoint directory " + dir);
+        }
+        Path tmp = new File(dir, state.getName() + ".tmp").toPath();
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(mapper.writeValueAsBytes(value)));
+            channel.force(true);
+        }
+        Files.move(tmp, state.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private File stateFile(String filePath, String tableName) {
+        String name = fingerprint(new File(filePath).getAbsolutePath() + "\n" + tableName);
+        return new File(directory, name + ".json");
+    }
+
+    private File watermarkFile(String tableName, String column, String outputPath) {
+        String name = fingerprint("watermark\n" + tableName + "\n" + column + "\n" + new File(outputPath).getAbsolutePath());
+        return new File(directory, "watermark-" + name + ".json");
+    }
+
+    private static String fingerprint(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 12; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
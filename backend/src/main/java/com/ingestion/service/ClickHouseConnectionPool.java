@@ -0,0 +1,288 @@
+package com.ingestion.service;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Keeps one HikariCP pool per credential: the default user and each distinct jwtToken.
+// Connections handed out by borrow() return to their pool when closed.
+@Component
+public class ClickHouseConnectionPool {
+    private static final String DEFAULT_POOL = "default";
+
+    // Also settable as CLICKHOUSE_URL etc., e.g. to point a load test at a stand-in server
+    @Value("${clickhouse.url:jdbc:clickhouse://clickhouse:8123/default}")
+    private String url;
+    @Value("${clickhouse.user:default}")
+    private String user;
+    @Value("${clickhouse.password:}")
+    private String password;
+    @Value("${clickhouse.pool.max-size:10}")
+    private int maxSize;
+    @Value("${clickhouse.pool.min-idle:2}")
+    private int minIdle;
+    @Value("${clickhouse.pool.acquire-timeout-ms:5000}")
+    private long acquireTimeoutMs;
+    @Value("${clickhouse.pool.idle-timeout-ms:60000}")
+    private long idleTimeoutMs;
+    @Value("${clickhouse.pool.max-lifetime-ms:1800000}")
+    private long maxLifetimeMs;
+    @Value("${clickhouse.pool.validation-timeout-ms:2000}")
+    private long validationTimeoutMs;
+    @Value("${clickhouse.pool.max-credential-pools:16}")
+    private int maxCredentialPools;
+    // Socket timeouts for JDBC connections and direct HTTP requests alike; the defaults are the
+    // driver's. The read timeout bounds a silence between packets, not a whole query.
+    @Value("${clickhouse.connect-timeout-ms:10000}")
+    private int connectTimeoutMs;
+    @Value("${clickhouse.socket-timeout-ms:30000}")
+    private int socketTimeoutMs;
+
+    @Autowired
+    private IngestionMetrics metrics;
+
+    private final Map<String, PoolEntry> pools = new ConcurrentHashMap<>();
+
+    public String getUrl() {
+        return url;
+    }
+
+    // Base URL of the ClickHouse HTTP interface behind the JDBC URL, e.g. http://clickhouse:8123
+    public String getHttpUrl() {
+        String address = url.substring("jdbc:clickhouse://".length());
+        int slash = address.indexOf('/');
+        return "http://" + (slash < 0 ? address : address.substring(0, slash));
+    }
+
+    public String getDatabase() {
+        int slash = url.indexOf('/', "jdbc:clickhouse://".length());
+        int query = url.indexOf('?');
+        String database = slash < 0 ? "" : url.substring(slash + 1, query > slash ? query : url.length());
+        return database.isEmpty() ? "default" : database;
+    }
+
+    // Connections each credential pool hands out at most
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public int getConnectTimeoutMs() {
+        return connectTimeoutMs;
+    }
+
+    public int getSocketTimeoutMs() {
+        return socketTimeoutMs;
+    }
+
+    // A jwtToken is sent to ClickHouse as the password, like the pooled JDBC connections do
+    public String passwordFor(String jwtToken) {
+        return jwtToken == null || jwtToken.isEmpty() ? password : jwtToken;
+    }
+
+    public Connection borrow(String jwtToken) throws SQLException {
+        while (true) {
+            PoolEntry entry = poolFor(jwtToken);
+            entry.lastUsed = System.currentTimeMillis();
+            try {
+                return entry.dataSource.getConnection();
+            } catch (SQLException e) {
+                // Evicted between the lookup and the borrow; look the pool up again
+                if (entry.dataSource.isClosed()) {
+                    continue;
+                }
+                throw new SQLException("Cannot connect to ClickHouse at " + url + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    // Pool name -> active, idle, waiting, total, acquire wait and creation figures
+    public Map<String, Map<String, Object>> getMetrics() {
+        Map<String, Map<String, Object>> result = new LinkedHashMap<>();
+        for (PoolEntry entry : pools.values()) {
+            HikariPoolMXBean bean = entry.dataSource.getHikariPoolMXBean();
+            Tracker tracker = entry.tracker;
+            Map<String, Object> metrics = new LinkedHashMap<>();
+            metrics.put("active", bean == null ? 0 : bean.getActiveConnections());
+            metrics.put("idle", bean == null ? 0 : bean.getIdleConnections());
+            metrics.put("total", bean == null ? 0 : bean.getTotalConnections());
+            metrics.put("waiting", bean == null ? 0 : bean.getThreadsAwaitingConnection());
+            metrics.put("maxSize", maxSize);
+            long acquired = tracker.acquired.get();
+            metrics.put("acquired", acquired);
+            metrics.put("avgWaitMs", acquired == 0 ? 0.0 : tracker.acquireNanos.get() / 1e6 / acquired);
+            metrics.put("maxWaitMs", tracker.maxAcquireNanos.get() / 1e6);
+            metrics.put("timeouts", tracker.timeouts.get());
+            // Hikari reports every physical connect attempt, successful or not
+            metrics.put("created", tracker.created.get());
+            double uptimeSeconds = Math.max(1, System.currentTimeMillis() - entry.createdAt) / 1000.0;
+            metrics.put("creationsPerMinute", tracker.created.get() * 60 / uptimeSeconds);
+            metrics.put("avgCreateMs", tracker.created.get() == 0 ? 0.0
+                    : (double) tracker.createMillis.get() / tracker.created.get());
+            result.put(entry.dataSource.getPoolName(), metrics);
+        }
+        return result;
+    }
+
+    @PreDestroy
+    public void close() {
+        pools.values().forEach(entry -> {
+            entry.dataSource.close();
+            metrics.removePool(entry.dataSource.getPoolName());
+        });
+        pools.clear();
+    }
+
+    private PoolEntry poolFor(String jwtToken) {
+        String key = (jwtToken == null || jwtToken.isEmpty()) ? DEFAULT_POOL : "token-" + fingerprint(jwtToken);
+        PoolEntry entry = pools.get(key);
+        if (entry != null) {
+            return entry;
+        }
+        synchronized (pools) {
+            entry = pools.get(key);
+            if (entry == null) {
+                evictIdleCredentialPool();
+                entry = createPool(key, DEFAULT_POOL.equals(key) ? password : jwtToken);
+                pools.put(key, entry);
+            }
+            return entry;
+        }
+    }
+
+    private PoolEntry createPool(String name, String poolPassword) {
+        String poolName = "clickhouse-" + name;
+        Tracker tracker = new Tracker(metrics.connectionAcquireTimer(poolName),
+                metrics.connectionTimeoutCounter(poolName));
+        HikariConfig config = new HikariConfig();
+        config.setPoolName(poolName);
+        config.setDriverClassName("ru.yandex.clickhouse.ClickHouseDriver");
+        config.setJdbcUrl(url);
+        config.setUsername(user);
+        if (poolPassword != null && !poolPassword.isEmpty()) {
+            config.setPassword(poolPassword);
+        }
+        config.setMaximumPoolSize(maxSize);
+        config.setMinimumIdle(Math.min(minIdle, maxSize));
+        config.setConnectionTimeout(acquireTimeoutMs);
+        config.setIdleTimeout(idleTimeoutMs);
+        config.setMaxLifetime(maxLifetimeMs);
+        config.setValidationTimeout(validationTimeoutMs);
+        config.setConnectionTestQuery("SELECT 1");
+        config.addDataSourceProperty("connection_timeout", String.valueOf(connectTimeoutMs));
+        config.addDataSourceProperty("socket_timeout", String.valueOf(socketTimeoutMs));
+        // Start even when ClickHouse is down; borrowers then fail after acquireTimeoutMs
+        config.setInitializationFailTimeout(-1);
+        config.setMetricsTrackerFactory(tracker);
+        return new PoolEntry(new HikariDataSource(config), tracker);
+    }
+
+    // Token pools beyond the cap are closed least-recently-used first, skipping pools with borrowed connections
+    private void evictIdleCredentialPool() {
+        if (pools.size() < maxCredentialPools) {
+            return;
+        }
+        pools.entrySet().stream()
+                .filter(e -> !DEFAULT_POOL.equals(e.getKey()))
+                .filter(e -> {
+                    HikariPoolMXBean bean = e.getValue().dataSource.getHikariPoolMXBean();
+                    return bean == null || bean.getActiveConnections() == 0;
+                })
+                .min((a, b) -> Long.compare(a.getValue().lastUsed, b.getValue().lastUsed))
+                .ifPresent(e -> {
+                    pools.remove(e.getKey());
+                    e.getValue().dataSource.close();
+                    metrics.removePool(e.getValue().dataSource.getPoolName());
+                });
+    }
+
+    private static String fingerprint(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class PoolEntry {
+        final HikariDataSource dataSource;
+        final Tracker tracker;
+        final long createdAt = System.currentTimeMillis();
+        volatile long lastUsed = createdAt;
+
+        PoolEntry(HikariDataSource dataSource, Tracker tracker) {
+            this.dataSource = dataSource;
+            this.tracker = tracker;
+        }
+    }
+
+    // Keeps the totals behind getMetrics() and feeds the same events to Micrometer
+    private static final class Tracker implements MetricsTrackerFactory, IMetricsTracker {
+        final Timer acquireTimer;
+        final Counter timeoutCounter;
+        final AtomicLong acquired = new AtomicLong();
+        final AtomicLong acquireNanos = new AtomicLong();
+        final AtomicLong maxAcquireNanos = new AtomicLong();
+        final AtomicLong timeouts = new AtomicLong();
+        final AtomicLong created = new AtomicLong();
+        final AtomicLong createMillis = new AtomicLong();
+
+        Tracker(Timer acquireTimer, Counter timeoutCounter) {
+            this.acquireTimer = acquireTimer;
+            this.timeoutCounter = timeoutCounter;
+        }
+
+        @Override
+        public IMetricsTracker create(String poolName, PoolStats poolStats) {
+            return this;
+        }
+
+        @Override
+        public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+            acquired.incrementAndGet();
+            acquireNanos.addAndGet(elapsedAcquiredNanos);
+            maxAcquireNanos.accumulateAndGet(elapsedAcquiredNanos, Math::max);
+            acquireTimer.record(elapsedAcquiredNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void recordConnectionCreatedMillis(long connectionCreatedMillis) {
+            created.incrementAndGet();
+            createMillis.addAndGet(connectionCreatedMillis);
+        }
+
+        @Override
+        public void recordConnectionTimeout() {
+            timeouts.incrementAndGet();
+            timeoutCounter.increment();
+        }
+    }
+}
@@ -1,35 +1,110 @@
 package com.ingestion.service;
 
+import com.ingestion.io.AsyncCompressingOutputStream;
+import com.ingestion.io.Compression;
+import com.ingestion.io.DelimitedRowWriter;
+import com.ingestion.io.ExportFormat;
+import com.ingestion.io.ParquetFiles;
+import com.ingestion.io.ParquetRowWriter;
+import com.ingestion.io.ResultWriter;
+import com.ingestion.model.ExportWatermark;
+import com.ingestion.model.IngestionJob;
 import com.ingestion.model.JoinCondition;
+import com.ingestion.model.QueryPlan;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import ru.yandex.clickhouse.ClickHouseConnection;
+
+import javax.annotation.PreDestroy;
 
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 @Service
 public class ClickHouseService {
-    private static final String URL = "jdbc:clickhouse://clickhouse:8123/default";
-    private static final String USER = "default";
-    private static final String PASSWORD = "";
+    private static final int PROGRESS_INTERVAL = 10000;
+    // Row writer buffer plus the compressor's recycled chunks, which grow to the writer's flush size
+    private static final long EXPORT_PART_MEMORY = 8L << 20;
+    public static final List<String> PARTITION_STRATEGIES = Arrays.asList("auto", "partition", "sortkey", "hash");
 
-    public Connection getConnection(String jwtToken) throws SQLException {
-        Properties properties = new Properties();
-        properties.setProperty("user", USER);
-        if (jwtToken != null && !jwtToken.isEmpty()) {
-            properties.setProperty("password", jwtToken);
-        } else if (!PASSWORD.isEmpty()) {
-            properties.setProperty("password", PASSWORD);
-        }
-        try {
-            Connection conn = DriverManager.getConnection(URL, properties);
-            if (conn == null || conn.isClosed()) {
-                throw new SQLException("Failed to establish ClickHouse connection");
+    @Autowired
+    private ClickHouseConnectionPool connectionPool;
+    @Autowired
+    private SchemaCache schemaCache;
+    @Autowired
+    private IngestionMetrics metrics;
+    @Autowired
+    private CheckpointService checkpointService;
+
+    @Value("${ingestion.join.hash-memory-limit:1073741824}")
+    private long hashMemoryLimit;
+    // Rows a preview with joins may read in total, and put into each join's hash table
+    @Value("${ingestion.preview.max-rows-to-read:1000000}")
+    private long previewMaxRowsToRead;
+    // Encoded pages a Parquet export buffers before writing them out as a row group
+    @Value("${ingestion.parquet.row-group-bytes:67108864}")
+    private long parquetRowGroupBytes;
+
+    private final int maxWorkers;
+    // Shared by all partitioned exports; parts of concurrent exports queue for its threads
+    private final ExecutorService exportPool;
+
+    public ClickHouseService(@Value("${ingestion.export.max-workers:0}") int maxWorkers) {
+        this.maxWorkers = maxWorkers > 0 ? maxWorkers : Runtime.getRuntime().availableProcessors();
+        this.exportPool = Executors.newFixedThreadPool(this.maxWorkers, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "export-part-" + count.getAndIncrement());
             }
-            return conn;
-        } catch (SQLException e) {
-            throw new SQLException("Cannot connect to ClickHouse at " + URL + ": " + e.getMessage(), e);
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        exportPool.shutdownNow();
+    }
+
+    // Borrows a pooled connection for the given credential; closing it returns it to the pool
+    public Connection getConnection(String jwtToken) throws SQLException {
+        Connection conn = connectionPool.borrow(jwtToken);
+        if (conn == null || conn.isClosed()) {
+            throw new SQLException("Failed to establish ClickHouse connection");
         }
+        return conn;
+    }
+
+    // Peak heap of an export, reserved with the admission service
+    public long estimateExportMemory(int parallelism) {
+        return estimateExportMemory(parallelism, ExportFormat.CSV);
+    }
+
+    // A Parquet part also holds its current row group
+    public long estimateExportMemory(int parallelism, ExportFormat format) {
+        long part = EXPORT_PART_MEMORY + (format == ExportFormat.PARQUET ? parquetRowGroupBytes : 0);
+        return partCount(parallelism) * part;
+    }
+
+    // Each part holds its own connection, so an export never has more parts than the pool
+    // can serve at once
+    private int partCount(int parallelism) {
+        return Math.min(Math.min(parallelism, maxWorkers), connectionPool.getMaxSize());
+    }
+
+    public Map<String, Map<String, Object>> getPoolMetrics() {
+        return connectionPool.getMetrics();
     }
 
     // public List<String> getTables() throws SQLException {
@@ -58,8 +133,8 @@ public class ClickHouseService {
 
     public Map<String, List<String>> getColumnsForMultipleTables(List<String> tables) throws SQLException {
         Map<String, List<String>> result = new HashMap<>();
-        for (String table : tables) {
-            result.put(table, getColumns(table));
+        for (Map.Entry<String, Map<String, String>> entry : getColumnTypes(tables).entrySet()) {
+            result.put(entry.getKey(), new ArrayList<>(entry.getValue().keySet()));
         }
         return result;
     }
@@ -94,59 +169,703 @@ public class ClickHouseService {
         return query.toString();
     }
     
-    private String sanitize(String identifier) {
+    static String sanitize(String identifier) {
         return identifier.matches("^[a-zA-Z0-9_]+$") ? 
                identifier : 
                "`" + identifier.replace("`", "``") + "`";
     }
 
+    // Plans the export query from table statistics in system.tables and system.parts; see
+    // JoinPlanner. A query without joins is planned without asking ClickHouse.
+    public QueryPlan planQuery(String mainTable, List<String> columns, List<JoinCondition> joinConditions,
+                               String jwtToken) throws SQLException {
+        return planQuery(mainTable, columns, joinConditions, jwtToken, 0);
+    }
+
+    // sampleRows as in JoinPlanner.plan
+    public QueryPlan planQuery(String mainTable, List<String> columns, List<JoinCondition> joinConditions,
+                               String jwtToken, long sampleRows) throws SQLException {
+        Map<String, JoinPlanner.TableStats> stats = new HashMap<>();
+        String spillAlgorithm = "partial_merge";
+        if (!joinConditions.isEmpty()) {
+            List<String> tables = new ArrayList<>(Collections.singletonList(mainTable));
+            for (JoinCondition jc : joinConditions) {
+                if (!tables.contains(jc.getjoinTable())) {
+                    tables.add(jc.getjoinTable());
+                }
+            }
+            Map<String, Map<String, String>> columnTypes = getColumnTypes(tables);
+            String tableList = tables.stream().map(this::quoteLiteral).collect(Collectors.joining(","));
+            Map<String, long[]> sizes = new HashMap<>();
+            Set<String> sampled = new HashSet<>();
+            try (Connection conn = getConnection(jwtToken);
+                 Statement stmt = conn.createStatement()) {
+                if (supportsGraceHash(conn.getMetaData().getDatabaseProductVersion())) {
+                    spillAlgorithm = "grace_hash";
+                }
+                // system.tables covers every engine; active parts give MergeTree's uncompressed size
+                try (ResultSet rs = stmt.executeQuery("SELECT name, total_rows, total_bytes, sampling_key"
+                        + " FROM system.tables WHERE database = currentDatabase() AND name IN (" + tableList + ")")) {
+                    while (rs.next()) {
+                        sizes.put(rs.getString(1), new long[] {rs.getLong(2), rs.getLong(3)});
+                        if (rs.getString(4) != null && !rs.getString(4).isEmpty()) {
+                            sampled.add(rs.getString(1));
+                        }
+                    }
+                }
+                try (ResultSet rs = stmt.executeQuery("SELECT table, sum(rows), sum(data_uncompressed_bytes)"
+                        + " FROM system.parts WHERE database = currentDatabase() AND active AND table IN ("
+                        + tableList + ") GROUP BY table")) {
+                    while (rs.next()) {
+                        sizes.put(rs.getString(1), new long[] {rs.getLong(2), rs.getLong(3)});
+                    }
+                }
+            }
+            for (String table : tables) {
+                long[] size = sizes.getOrDefault(table, new long[2]);
+                Map<String, String> tableColumns = columnTypes.get(table);
+                stats.put(table, new JoinPlanner.TableStats(size[0], size[1],
+                        tableColumns == null ? 0 : tableColumns.size(), sampled.contains(table)));
+            }
+        }
+        return new JoinPlanner(hashMemoryLimit, spillAlgorithm)
+                .plan(mainTable, columns, joinConditions, stats, sampleRows);
+    }
+
+    // grace_hash arrived in ClickHouse 22.12; older servers spill with partial_merge
+    private static boolean supportsGraceHash(String serverVersion) {
+        String[] parts = serverVersion == null ? new String[0] : serverVersion.split("\\.");
+        try {
+            int major = Integer.parseInt(parts[0]);
+            return major > 22 || (major == 22 && Integer.parseInt(parts[1]) >= 12);
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    // A page of the export query's result. Without joins ClickHouse stops reading once the LIMIT
+    // is met. With joins it would build every hash table and join everything first, so reads
+    // and hash tables are capped and the query returns what it has when a cap is hit, and a
+    // large FROM table with a sampling key is sampled down to the cap. Values are read by
+    // column position.
+    public List<Map<String, Object>> previewRows(String mainTable, List<String> columns,
+                                                 List<JoinCondition> joinConditions, long offset, int limit,
+                                                 String jwtToken) throws SQLException {
+        QueryPlan plan = planQuery(mainTable, columns, joinConditions, jwtToken, previewMaxRowsToRead);
+        try (Connection conn = getConnection(jwtToken);
+             Statement stmt = conn.createStatement()) {
+            if (!joinConditions.isEmpty()) {
+                plan.getSettings().put("max_rows_to_read", Long.toString(previewMaxRowsToRead));
+                plan.getSettings().put("read_overflow_mode", "'break'");
+                plan.getSettings().put("max_rows_in_join", Long.toString(previewMaxRowsToRead));
+                plan.getSettings().put("join_overflow_mode", "'break'");
+            }
+            plan.setSelect(plan.getSelect() + " LIMIT " + limit + (offset > 0 ? " OFFSET " + offset : ""));
+            try (ResultSet rs = stmt.executeQuery(plan.getSql())) {
+                List<Map<String, Object>> rows = new ArrayList<>();
+                while (rs.next()) {
+                    Map<String, Object> row = new LinkedHashMap<>();
+                    for (int i = 0; i < columns.size(); i++) {
+                        row.put(columns.get(i), rs.getObject(i + 1));
+                    }
+                    rows.add(row);
+                }
+                return rows;
+            }
+        }
+    }
+
+    // ClickHouse's EXPLAIN of a query, one line per row
+    public List<String> explain(String query, String jwtToken) throws SQLException {
+        try (Connection conn = getConnection(jwtToken);
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("EXPLAIN " + query)) {
+            List<String> lines = new ArrayList<>();
+            while (rs.next()) {
+                lines.add(rs.getString(1));
+            }
+            return lines;
+        }
+    }
+
+    // Called once the query has returned its first result, so that errors before that point
+    // can still be reported normally by the caller
+    @FunctionalInterface
+    public interface ExportTarget {
+        java.io.OutputStream open() throws java.io.IOException;
+    }
+
     public long executeIngestion(String tableName, List<String> columns, String outputPath, 
-                                List<JoinCondition> joinConditions) throws SQLException {
-        String query = buildQuery(tableName, columns, joinConditions);
-        try (Connection conn = getConnection(null);
+                                List<JoinCondition> joinConditions, ExportFormat format,
+                                Compression compression, IngestionJob job) throws SQLException {
+        String query = planQuery(tableName, columns, joinConditions, null).getSql();
+        try {
+            return exportRows(query, null, format, compression, true,
+                    () -> openOutput(outputPath, fileCompression(format, compression)), job);
+        } catch (CancellationException e) {
+            new java.io.File(outputPath).delete();
+            throw e;
+        } catch (java.io.IOException e) {
+            throw new SQLException("Failed to write to output file: " + e.getMessage(), e);
+        }
+    }
+
+    // Exports only rows whose watermark column is past the stored mark. The new mark is taken
+    // with max() before the export and bounds it, so rows arriving meanwhile wait for the next
+    // run; rows with a NULL watermark are never exported. Appending adds the rows to the output,
+    // with a header only when the output is new, and cuts it back to its old length on failure.
+    // Otherwise they go to a new timestamped delta file next to the output. The mark is saved
+    // only once the rows are written.
+    public long executeIncrementalIngestion(String tableName, List<String> columns, String outputPath,
+                                            List<JoinCondition> joinConditions, ExportFormat format,
+                                            Compression compression, ExportWatermark watermark, boolean append,
+                                            String jwtToken, IngestionJob job) throws SQLException {
+        String type = getColumnTypes(tableName).get(watermark.getColumn());
+        if (type == null) {
+            throw new SQLException("Watermark column " + watermark.getColumn() + " not found in " + tableName);
+        }
+        String column = sanitize(tableName) + "." + sanitize(watermark.getColumn());
+        String after = watermark.getValue() == null ? null
+                : column + " > " + valueLiteral(watermark.getValue(), type);
+        String high;
+        try (Connection conn = getConnection(jwtToken);
              Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(query)) {
-            
-            try (java.io.PrintWriter writer = new java.io.PrintWriter(outputPath)) {
-                ResultSetMetaData metaData = rs.getMetaData();
-                int columnCount = metaData.getColumnCount();
-                
-                // Get column names from result set metadata
-                List<String> outputColumns = new ArrayList<>();
-                for (int i = 1; i <= columnCount; i++) {
-                    outputColumns.add(metaData.getColumnName(i));
+             ResultSet rs = stmt.executeQuery("SELECT count(), max(" + column + ") FROM " + sanitize(tableName)
+                     + (after == null ? "" : " WHERE " + after))) {
+            rs.next();
+            if (rs.getLong(1) == 0 || rs.getString(2) == null) {
+                return 0;
+            }
+            high = rs.getString(2);
+        }
+        String predicate = (after == null ? "" : after + " AND ") + column + " <= " + valueLiteral(high, type);
+        String query = planQuery(tableName, columns, joinConditions, jwtToken).withFilter(predicate);
+
+        String target = append ? outputPath : withSuffix(outputPath, ".delta-"
+                + java.time.LocalDateTime.now().format(java.time.format.DateTimeFormatter.ofPattern("yyyyMMdd-HHmmssSSS")));
+        long previousLength = append ? new java.io.File(outputPath).length() : 0;
+        try {
+            long rows = exportRows(query, jwtToken, format, compression, previousLength == 0,
+                    () -> openOutput(target, fileCompression(format, compression), append), job);
+            watermark.advanced(high, rows, target);
+            checkpointService.saveWatermark(watermark);
+            return rows;
+        } catch (java.io.IOException e) {
+            discardOutput(target, append, previousLength);
+            throw new SQLException("Failed to write to output file: " + e.getMessage(), e);
+        } catch (CancellationException | SQLException e) {
+            discardOutput(target, append, previousLength);
+            throw e;
+        }
+    }
+
+    private static void discardOutput(String path, boolean append, long previousLength) {
+        if (!append) {
+            new java.io.File(path).delete();
+            return;
+        }
+        try (java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(
+                java.nio.file.Paths.get(path), java.nio.file.StandardOpenOption.WRITE)) {
+            channel.truncate(previousLength);
+        } catch (java.io.IOException e) {
+            // nothing was appended if the file cannot be opened
+        }
+    }
+
+    // Exports the query in disjoint slices of its FROM table, each on its own pooled connection
+    // and thread. Slices go to numbered part files next to the output; with merge they are then
+    // appended in order to the output, which only the first part carries the header for.
+    // Compressed parts are appended as they are: gzip members and zstd and LZ4 frames may
+    // follow each other in one stream. Parquet parts are complete files, so their row groups
+    // are copied into one file under a combined footer instead. RIGHT and FULL joins are
+    // refused because rows without a FROM-table match would not fall into exactly one slice.
+    public long executePartitionedIngestion(String tableName, List<String> columns, String outputPath,
+                                            List<JoinCondition> joinConditions, ExportFormat format,
+                                            Compression compression, int parallelism, String strategy,
+                                            boolean merge, String jwtToken, IngestionJob job) throws SQLException {
+        for (JoinCondition jc : joinConditions) {
+            String joinType = jc.getjoinType() == null ? "" : jc.getjoinType().toUpperCase(Locale.ROOT);
+            if (joinType.contains("RIGHT") || joinType.contains("FULL")) {
+                throw new SQLException("Partitioned export supports only INNER and LEFT joins");
+            }
+        }
+        QueryPlan plan = planQuery(tableName, columns, joinConditions, jwtToken);
+        List<String> predicates = partitionPredicates(plan.getProbeTable(), strategy, partCount(parallelism),
+                jwtToken);
+        List<String> partPaths = new ArrayList<>();
+        for (int i = 0; i < predicates.size(); i++) {
+            partPaths.add(partPath(outputPath, i));
+        }
+
+        PartTasks parts = new PartTasks();
+        boolean completed = false;
+        try {
+            for (int i = 0; i < predicates.size(); i++) {
+                String partQuery = plan.withFilter(predicates.get(i));
+                String partPath = partPaths.get(i);
+                boolean header = !merge || i == 0;
+                parts.submit(exportPool, LogContext.propagate(() -> exportRows(partQuery, jwtToken, format,
+                        compression, header, () -> openOutput(partPath, fileCompression(format, compression)), job)));
+            }
+            long total = 0;
+            for (Future<Long> future : parts.futures) {
+                total += future.get();
+            }
+            if (merge) {
+                long mergeStart = System.nanoTime();
+                if (format == ExportFormat.PARQUET) {
+                    ParquetFiles.merge(partPaths, outputPath);
+                } else {
+                    concatenate(partPaths, outputPath);
                 }
-                
-                // Write CSV header using actual column names from query result
-                writer.println(String.join(",", outputColumns));
-                
-                long count = 0;
-                while (rs.next()) {
-                    List<String> values = new ArrayList<>();
-                    for (int i = 1; i <= columnCount; i++) {
-                        String value = rs.getString(i);
-                        // Handle null values and escape special characters
-                        if (value == null) {
-                            values.add("");
-                        } else {
-                            // Escape quotes and commas
-                            if (value.contains("\"") || value.contains(",")) {
-                                value = "\"" + value.replace("\"", "\"\"") + "\"";
+                metrics.recordPhase(job, "merge_parts", System.nanoTime() - mergeStart);
+            }
+            completed = true;
+            return total;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Partitioned export interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CancellationException) {
+                throw (CancellationException) cause;
+            }
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            throw new SQLException("Failed to write to output file: " + cause.getMessage(), cause);
+        } catch (java.io.IOException e) {
+            throw new SQLException("Failed to merge part files: " + e.getMessage(), e);
+        } finally {
+            // Interrupted parts kill their queries at the next progress check
+            try {
+                parts.close(TimeUnit.MINUTES.toMillis(1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (merge || !completed) {
+                partPaths.forEach(path -> new java.io.File(path).delete());
+            }
+            if (merge && !completed) {
+                new java.io.File(outputPath).delete();
+            }
+        }
+    }
+
+    // The parts of one export on the shared pool. Closing drops parts still queued, interrupts
+    // running ones and waits for those to exit, so their files can be deleted afterwards.
+    private static final class PartTasks {
+        final List<Future<Long>> futures = new ArrayList<>();
+        private int running;
+        private boolean closed;
+
+        void submit(ExecutorService pool, Callable<Long> part) {
+            futures.add(pool.submit(() -> {
+                synchronized (this) {
+                    if (closed) {
+                        return 0L;
+                    }
+                    running++;
+                }
+                try {
+                    return part.call();
+                } finally {
+                    synchronized (this) {
+                        running--;
+                        notifyAll();
+                    }
+                }
+            }));
+        }
+
+        synchronized void close(long timeoutMillis) throws InterruptedException {
+            closed = true;
+            futures.forEach(future -> future.cancel(true));
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            long remaining;
+            while (running > 0 && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                wait(remaining);
+            }
+        }
+    }
+
+    // Splits a table into at most `parts` disjoint slices, returned as WHERE predicates.
+    // "partition" spreads whole partitions over the slices by row count, "sortkey" cuts the
+    // first sorting-key column at its quantiles, and "hash" buckets rows by cityHash64 of all
+    // columns, which every slice has to scan for. "auto" uses partitions when there are enough
+    // of them and hashes otherwise, as does "sortkey" when the key is not a number or a date,
+    // since quantiles cannot order anything else. The last slice always takes whatever the
+    // others do not.
+    private List<String> partitionPredicates(String tableName, String strategy, int parts, String jwtToken)
+            throws SQLException {
+        String table = sanitize(tableName);
+        if (parts < 2) {
+            return Collections.singletonList("1");
+        }
+        if (strategy == null || strategy.equals("auto") || strategy.equals("partition")) {
+            List<String> predicates = partitionIdPredicates(tableName, parts, jwtToken);
+            if (predicates.size() == parts || (strategy != null && strategy.equals("partition"))) {
+                return predicates;
+            }
+            strategy = "hash";
+        }
+        if (strategy.equals("sortkey")) {
+            List<String> predicates = sortKeyPredicates(tableName, parts, jwtToken);
+            if (predicates != null) {
+                return predicates;
+            }
+            strategy = "hash";
+        }
+        if (!strategy.equals("hash")) {
+            throw new SQLException("Unsupported partition strategy: " + strategy);
+        }
+        String hash = "cityHash64(" + getColumnTypes(tableName).entrySet().stream()
+                .map(column -> hashArgument(table + "." + sanitize(column.getKey()), column.getValue()))
+                .collect(Collectors.joining(", ")) + ") % " + parts;
+        List<String> predicates = new ArrayList<>();
+        for (int i = 0; i < parts; i++) {
+            predicates.add(hash + " = " + i);
+        }
+        return predicates;
+    }
+
+    // cityHash64 is NULL when any argument is, which would leave the row out of every slice,
+    // so a nullable column is hashed as its null flag plus its value as a non-null string
+    private static String hashArgument(String column, String type) {
+        if (!type.startsWith("Nullable(") && !type.startsWith("LowCardinality(Nullable(")) {
+            return column;
+        }
+        return "isNull(" + column + "), ifNull(toString(" + column + "), '')";
+    }
+
+    private List<String> partitionIdPredicates(String tableName, int parts, String jwtToken) throws SQLException {
+        List<List<String>> buckets = new ArrayList<>();
+        long[] bucketRows = new long[parts];
+        for (int i = 0; i < parts; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        // Largest partition first into the emptiest bucket
+        try (Connection conn = getConnection(jwtToken);
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(
+                 "SELECT partition_id, sum(rows) AS part_rows FROM system.parts WHERE database = currentDatabase()"
+                     + " AND table = " + quoteLiteral(tableName) + " AND active"
+                     + " GROUP BY partition_id ORDER BY part_rows DESC, partition_id")) {
+            while (rs.next()) {
+                int emptiest = 0;
+                for (int i = 1; i < parts; i++) {
+                    if (bucketRows[i] < bucketRows[emptiest]) {
+                        emptiest = i;
+                    }
+                }
+                buckets.get(emptiest).add(quoteLiteral(rs.getString(1)));
+                bucketRows[emptiest] += rs.getLong(2);
+            }
+        }
+        buckets.removeIf(List::isEmpty);
+        if (buckets.size() < 2) {
+            return Collections.singletonList("1");
+        }
+        String partitionId = sanitize(tableName) + "._partition_id";
+        List<String> predicates = new ArrayList<>();
+        List<String> assigned = new ArrayList<>();
+        for (int i = 0; i < buckets.size() - 1; i++) {
+            predicates.add(partitionId + " IN (" + String.join(", ", buckets.get(i)) + ")");
+            assigned.addAll(buckets.get(i));
+        }
+        // Partitions created since planning land in the last slice
+        predicates.add(partitionId + " NOT IN (" + String.join(", ", assigned) + ")");
+        return predicates;
+    }
+
+    // Null when the first key column has a type quantiles cannot take
+    private List<String> sortKeyPredicates(String tableName, int parts, String jwtToken) throws SQLException {
+        String sortingKey = null;
+        try (Connection conn = getConnection(jwtToken);
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT sorting_key FROM system.tables WHERE database = currentDatabase()"
+                     + " AND name = " + quoteLiteral(tableName))) {
+            if (rs.next()) {
+                sortingKey = rs.getString(1);
+            }
+        }
+        String keyColumn = sortingKey == null ? "" : sortingKey.split(",")[0].trim();
+        if (!keyColumn.matches("^[a-zA-Z0-9_]+$")) {
+            throw new SQLException("Sorting key of " + tableName + " does not start with a plain column");
+        }
+        String key = sanitize(tableName) + "." + sanitize(keyColumn);
+        String keyType = getColumnTypes(tableName).get(keyColumn);
+        if (keyType == null) {
+            throw new SQLException("Sorting key column " + keyColumn + " not found in " + tableName);
+        }
+        String baseType = keyType.replaceAll("^(LowCardinality\\()?(Nullable\\()?", "");
+        if (!baseType.matches("^(U?Int\\d+|Float\\d+|Decimal|Date|DateTime).*")) {
+            return null;
+        }
+        StringBuilder levels = new StringBuilder();
+        for (int i = 1; i < parts; i++) {
+            levels.append(i > 1 ? ", " : "").append((double) i / parts);
+        }
+        List<String> bounds = new ArrayList<>();
+        try (Connection conn = getConnection(jwtToken);
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT arrayJoin(quantiles(" + levels + ")(" + key + ")) FROM "
+                     + sanitize(tableName))) {
+            while (rs.next()) {
+                bounds.add(valueLiteral(rs.getString(1), keyType));
+            }
+        }
+        // NULL keys are skipped by quantiles and go to the first slice
+        List<String> predicates = new ArrayList<>();
+        for (int i = 0; i <= bounds.size(); i++) {
+            if (i == 0) {
+                predicates.add("(" + key + " < " + bounds.get(0) + " OR " + key + " IS NULL)");
+            } else if (i == bounds.size()) {
+                predicates.add(key + " >= " + bounds.get(i - 1));
+            } else {
+                predicates.add("(" + key + " >= " + bounds.get(i - 1) + " AND " + key + " < " + bounds.get(i) + ")");
+            }
+        }
+        return predicates;
+    }
+
+    // out.csv.gz -> out.part-000.csv.gz
+    private static String partPath(String outputPath, int part) {
+        return withSuffix(outputPath, String.format(".part-%03d", part));
+    }
+
+    // Inserts the suffix before the file's extensions
+    private static String withSuffix(String outputPath, String suffix) {
+        java.io.File output = new java.io.File(outputPath);
+        String name = output.getName();
+        int dot = name.indexOf('.');
+        String stem = dot > 0 ? name.substring(0, dot) : name;
+        String extensions = dot > 0 ? name.substring(dot) : "";
+        return new java.io.File(output.getParentFile(), stem + suffix + extensions).getPath();
+    }
+
+    // A value as ClickHouse printed it, back as a literal for a column of the given type.
+    // Values of numeric columns stay bare, so a fractional quantile still compares with an
+    // integer key; everything else is quoted, even when it looks like a number.
+    private String valueLiteral(String value, String type) {
+        String base = type.replaceAll("^(LowCardinality\\()?(Nullable\\()?", "");
+        boolean numeric = base.matches("^(U?Int\\d+|Float\\d+|Decimal).*");
+        return numeric && value.matches("-?(\\d+(\\.\\d*)?([eE][+-]?\\d+)?|inf|nan)") ? value : quoteLiteral(value);
+    }
+
+    private static void concatenate(List<String> partPaths, String outputPath) throws java.io.IOException {
+        try (java.nio.channels.FileChannel out = java.nio.channels.FileChannel.open(java.nio.file.Paths.get(outputPath),
+                java.nio.file.StandardOpenOption.CREATE, java.nio.file.StandardOpenOption.WRITE,
+                java.nio.file.StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (String partPath : partPaths) {
+                try (java.nio.channels.FileChannel in = java.nio.channels.FileChannel.open(java.nio.file.Paths.get(partPath))) {
+                    long size = in.size();
+                    long position = 0;
+                    while (position < size) {
+                        position += in.transferTo(position, size - position, out);
+                    }
+                }
+            }
+        }
+    }
+
+    // Runs the query over JDBC and writes its rows as CSV, TSV or Parquet to the target. For
+    // Parquet the compression is the page codec. A failed write, e.g. an HTTP client that went
+    // away, kills the query before the result is closed, since closing an unfinished result
+    // would otherwise read it to the end.
+    public long exportRows(String query, String jwtToken, ExportFormat format, Compression compression,
+                           ExportTarget target, IngestionJob job) throws SQLException, java.io.IOException {
+        return exportRows(query, jwtToken, format, compression, true, target, job);
+    }
+
+    public long exportRows(String query, String jwtToken, ExportFormat format, Compression compression,
+                           boolean header, ExportTarget target, IngestionJob job)
+            throws SQLException, java.io.IOException {
+        try (Connection conn = getConnection(jwtToken);
+             Statement stmt = conn.createStatement()) {
+            long queryStart = System.nanoTime();
+            try (ResultSet rs = stmt.executeQuery(query);
+                 ResultWriter writer = openWriter(format, compression, target, conn)) {
+                try {
+                    // Header uses the actual column names from the query result
+                    if (header) {
+                        writer.writeHeader(rs.getMetaData());
+                    } else {
+                        writer.planColumns(rs.getMetaData());
+                    }
+                    metrics.recordPhase(job, "query", System.nanoTime() - queryStart);
+
+                    // Reading and formatting rows is result_read; handing bytes to the output is file_write
+                    long readStart = System.nanoTime();
+                    long count = 0;
+                    long reportedBytes = 0;
+                    while (rs.next()) {
+                        writer.writeRow(rs);
+                        count++;
+                        if (count % PROGRESS_INTERVAL == 0) {
+                            reportedBytes = reportProgress(job, writer, PROGRESS_INTERVAL, reportedBytes);
+                            if (Thread.currentThread().isInterrupted()) {
+                                throw new java.io.IOException("Export interrupted");
                             }
-                            values.add(value);
                         }
                     }
-                    writer.println(String.join(",", values));
-                    count++;
+                    writer.flush();
+                    metrics.recordPhase(job, "file_write", writer.getWriteNanos());
+                    metrics.recordPhase(job, "result_read", System.nanoTime() - readStart - writer.getWriteNanos());
+                    reportProgress(job, writer, count % PROGRESS_INTERVAL, reportedBytes);
+                    return count;
+                } catch (java.io.IOException | CancellationException e) {
+                    cancelQuietly(stmt);
+                    throw e;
                 }
-                return count;
-            } catch (java.io.IOException e) {
-                throw new SQLException("Failed to write to output file: " + e.getMessage(), e);
             }
         }
     }
+
+    // Streams the query result from ClickHouse's HTTP interface to the target byte for byte,
+    // in any format ClickHouse can write. Rows are not counted, only bytes. Closing the
+    // socket early makes ClickHouse cancel the query.
+    public long exportNative(String query, String clickHouseFormat, String jwtToken, ExportTarget target,
+                             IngestionJob job) throws SQLException, java.io.IOException {
+        String params = "database=" + java.net.URLEncoder.encode(connectionPool.getDatabase(), "UTF-8")
+                + "&query_id=" + UUID.randomUUID()
+                + "&cancel_http_readonly_queries_on_client_close=1";
+        java.net.HttpURLConnection http = (java.net.HttpURLConnection)
+                new java.net.URL(connectionPool.getHttpUrl() + "/?" + params).openConnection();
+        try {
+            http.setConnectTimeout(connectionPool.getConnectTimeoutMs());
+            http.setReadTimeout(connectionPool.getSocketTimeoutMs());
+            http.setRequestMethod("POST");
+            http.setDoOutput(true);
+            http.setRequestProperty("X-ClickHouse-User", connectionPool.getUser());
+            String password = connectionPool.passwordFor(jwtToken);
+            if (!password.isEmpty()) {
+                http.setRequestProperty("X-ClickHouse-Key", password);
+            }
+            long queryStart = System.nanoTime();
+            try (java.io.OutputStream body = http.getOutputStream()) {
+                body.write((query + " FORMAT " + clickHouseFormat).getBytes(java.nio.charset.StandardCharsets.UTF_8));
+            }
+            if (http.getResponseCode() != 200) {
+                throw new SQLException("ClickHouse returned HTTP " + http.getResponseCode() + ": " + readError(http));
+            }
+            metrics.recordPhase(job, "query", System.nanoTime() - queryStart);
+
+            long readStart = System.nanoTime();
+            long writeNanos = 0;
+            long reported = 0;
+            long total = 0;
+            byte[] buffer = new byte[1 << 16];
+            try (java.io.InputStream in = http.getInputStream();
+                 java.io.OutputStream out = target.open()) {
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    long writeStart = System.nanoTime();
+                    out.write(buffer, 0, n);
+                    writeNanos += System.nanoTime() - writeStart;
+                    total += n;
+                    if (total - reported >= 1 << 20) {
+                        job.addBytes(total - reported);
+                        metrics.recordBytes(job, total - reported);
+                        reported = total;
+                        job.checkCancelled();
+                    }
+                }
+            }
+            job.addBytes(total - reported);
+            metrics.recordBytes(job, total - reported);
+            metrics.recordPhase(job, "file_write", writeNanos);
+            metrics.recordPhase(job, "result_read", System.nanoTime() - readStart - writeNanos);
+            return 0;
+        } finally {
+            http.disconnect();
+        }
+    }
+
+    private static String readError(java.net.HttpURLConnection http) {
+        try (java.io.InputStream err = http.getErrorStream()) {
+            if (err == null) {
+                return "";
+            }
+            byte[] message = new byte[4096];
+            int length = 0;
+            int n;
+            while (length < message.length && (n = err.read(message, length, message.length - length)) > 0) {
+                length += n;
+            }
+            return new String(message, 0, length, java.nio.charset.StandardCharsets.UTF_8).trim();
+        } catch (java.io.IOException e) {
+            return e.getMessage();
+        }
+    }
+
+    private static void cancelQuietly(Statement stmt) {
+        try {
+            stmt.cancel();
+        } catch (SQLException e) {
+            // the query may already be finished or the connection gone
+        }
+    }
+
+    // Parquet values are parsed from ClickHouse's text form, and DateTime columns without a
+    // zone print in the server's zone
+    private ResultWriter openWriter(ExportFormat format, Compression compression, ExportTarget target,
+                                    Connection conn) throws SQLException, java.io.IOException {
+        if (format != ExportFormat.PARQUET) {
+            return new DelimitedRowWriter(target.open(), format.getWriterFormat());
+        }
+        java.time.ZoneId serverZone = conn.isWrapperFor(ClickHouseConnection.class)
+                ? conn.unwrap(ClickHouseConnection.class).getTimeZone().toZoneId()
+                : java.time.ZoneOffset.UTC;
+        return new ParquetRowWriter(target.open(), ParquetFiles.codecFor(compression), serverZone,
+                parquetRowGroupBytes);
+    }
+
+    // Parquet compresses its pages, so the file itself is written as is
+    private static Compression fileCompression(ExportFormat format, Compression compression) {
+        return format == ExportFormat.PARQUET ? Compression.NONE : compression;
+    }
+
+    // Compressed output is encoded on its own thread so compression overlaps with the JDBC read
+    private java.io.OutputStream openOutput(String outputPath, Compression compression) throws java.io.IOException {
+        return openOutput(outputPath, compression, false);
+    }
+
+    // Appended compressed output starts a new gzip member or zstd/LZ4 frame, which readers
+    // decode as a continuation of the stream
+    private java.io.OutputStream openOutput(String outputPath, Compression compression, boolean append)
+            throws java.io.IOException {
+        java.io.OutputStream file = new java.io.FileOutputStream(outputPath, append);
+        if (compression == Compression.NONE) {
+            return file;
+        }
+        try {
+            return new AsyncCompressingOutputStream(compression.wrapOutput(
+                    new java.io.BufferedOutputStream(file, 1 << 16)), "export-compressor");
+        } catch (java.io.IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    // Adds newly exported rows and bytes to the job, then stops the export if it was cancelled.
+    // Returns the writer's byte count so several writers can report into one job.
+    private long reportProgress(IngestionJob job, ResultWriter writer, long rows, long reportedBytes) {
+        long bytesWritten = writer.getBytesWritten();
+        job.addRows(rows);
+        job.addBytes(bytesWritten - reportedBytes);
+        metrics.recordRows(job, rows);
+        metrics.recordBytes(job, bytesWritten - reportedBytes);
+        job.checkCancelled();
+        return bytesWritten;
+    }
+
     // In ClickHouseService.java
 public List<String> getTables() throws SQLException {
+    List<String> cached = schemaCache.getTables();
+    if (cached != null) {
+        return new ArrayList<>(cached);
+    }
     try (Connection conn = getConnection(null);
          Statement stmt = conn.createStatement();
          ResultSet rs = stmt.executeQuery("SHOW TABLES")) {
@@ -154,21 +873,69 @@ public List<String> getTables() throws SQLException {
         while (rs.next()) {
             tables.add(rs.getString(1));
         }
+        schemaCache.putTables(tables);
         return tables;
     }
 }
 
 public List<String> getColumns(String tableName) throws SQLException {
+    return new ArrayList<>(getColumnTypes(tableName).keySet());
+}
+
+// Column name -> ClickHouse type, in table order
+public Map<String, String> getColumnTypes(String tableName) throws SQLException {
+    return getColumnTypes(Collections.singletonList(tableName)).get(tableName);
+}
+
+// Serves warm tables from the schema cache and loads all cold ones with a single system.columns query
+public Map<String, Map<String, String>> getColumnTypes(List<String> tables) throws SQLException {
+    Map<String, Map<String, String>> result = new LinkedHashMap<>();
+    List<String> missing = new ArrayList<>();
+    for (String table : tables) {
+        Map<String, String> cached = schemaCache.getColumns(table);
+        if (cached != null) {
+            result.put(table, cached);
+        } else if (!missing.contains(table)) {
+            missing.add(table);
+        }
+    }
+    if (missing.isEmpty()) {
+        return result;
+    }
+    Map<String, Map<String, String>> loaded = new HashMap<>();
+    for (String table : missing) {
+        loaded.put(table, new LinkedHashMap<>());
+    }
+    String tableList = missing.stream().map(this::quoteLiteral).collect(Collectors.joining(","));
     try (Connection conn = getConnection(null);
          Statement stmt = conn.createStatement();
          ResultSet rs = stmt.executeQuery(
-             "SELECT name FROM system.columns WHERE table = '" + tableName + "'"
+             "SELECT table, name, type FROM system.columns WHERE database = currentDatabase() AND table IN ("
+                 + tableList + ") ORDER BY table, position"
          )) {
-        List<String> columns = new ArrayList<>();
         while (rs.next()) {
-            columns.add(rs.getString("name"));
+            loaded.get(rs.getString(1)).put(rs.getString(2), rs.getString(3));
         }
-        return columns;
     }
+    for (Map.Entry<String, Map<String, String>> entry : loaded.entrySet()) {
+        schemaCache.putColumns(entry.getKey(), entry.getValue());
+    }
+    for (String table : tables) {
+        result.computeIfAbsent(table, loaded::get);
+    }
+    return result;
+}
+
+// Drops cached metadata after DDL on the table
+public void invalidateTable(String tableName) {
+    schemaCache.invalidate(tableName);
+}
+
+public void invalidateMetadata() {
+    schemaCache.invalidateAll();
+}
+
+private String quoteLiteral(String value) {
+    return "'" + value.replace("\\", "\\\\").replace("'", "\\'") + "'";
 }
 }
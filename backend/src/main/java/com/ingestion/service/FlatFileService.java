@@ -1,77 +1,649 @@
 package com.ingestion.service;
 
+import com.ingestion.io.ColumnarBatch;
+import com.ingestion.io.CommonsCsvRecordSource;
+import com.ingestion.io.Compression;
+import com.ingestion.io.CsvFileSplitter;
+import com.ingestion.io.CsvRecordSource;
+import com.ingestion.io.MappedCsvReader;
+import com.ingestion.io.OffHeapLongSet;
+import com.ingestion.io.ParquetFiles;
+import com.ingestion.io.ParquetRecordSource;
+import com.ingestion.io.ValueBinder;
+import com.ingestion.model.IngestionCheckpoint;
+import com.ingestion.model.IngestionJob;
+import com.ingestion.model.SchemaReport;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
-import org.apache.commons.csv.CSVRecord;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.input.TeeInputStream;
+import org.apache.parquet.format.FileMetaData;
+import org.apache.parquet.format.RowGroup;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import ru.yandex.clickhouse.ClickHouseConnection;
+import ru.yandex.clickhouse.ClickHouseStatement;
+import ru.yandex.clickhouse.ClickHouseStatementImpl;
+import ru.yandex.clickhouse.Writer;
+import ru.yandex.clickhouse.domain.ClickHouseFormat;
 
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
 
 @Service
 public class FlatFileService {
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+    // A pending batch is held as Java strings or column arrays and then encoded for the
+    // request, which takes a few times its size in CSV
+    private static final int BATCH_MEMORY_FACTOR = 4;
+
+    // A batch is flushed as soon as either limit is reached
+    @Value("${ingestion.batch.max-rows:50000}")
+    private int batchMaxRows;
+    @Value("${ingestion.batch.max-bytes:8388608}")
+    private long batchMaxBytes;
+    // Uncompressed files are read with the memory-mapped parser unless this is switched off
+    @Value("${ingestion.csv.fast-parser:true}")
+    private boolean fastParser;
+    // Batches are sent as RowBinary from a columnar buffer when every column type allows it
+    @Value("${ingestion.insert.row-binary:true}")
+    private boolean rowBinary;
+    // Records between the entries of a file's row-offset index, and how many files keep one
+    @Value("${ingestion.preview.index-stride:10000}")
+    private int indexStride;
+    @Value("${ingestion.preview.max-indexed-files:32}")
+    private int maxIndexedFiles;
+    // Off-heap memory for the key hashes of a deduplicating import; past it the set moves to
+    // a memory-mapped file in the spill directory
+    @Value("${ingestion.dedup.max-memory:268435456}")
+    private long dedupMaxMemory;
+    @Value("${ingestion.dedup.spill-dir:${ingestion.upload-dir:/app/uploads}/.dedup}")
+    private String dedupSpillDir;
+
+    // Sparse row-offset index of a file as far as previews have reached into it: offsets[i]
+    // is where the record after the first i * stride records starts
+    private static final class RowIndex {
+        final long length;
+        final long lastModified;
+        final List<Long> offsets = new ArrayList<>();
+        long scannedRecords;
+        long scanOffset;
+        boolean complete;
+
+        RowIndex(File file) {
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+        }
+
+        boolean matches(File file) {
+            return file.length() == length && file.lastModified() == lastModified;
+        }
+    }
+
+    private final Map<String, RowIndex> rowIndexes = new LinkedHashMap<String, RowIndex>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, RowIndex> eldest) {
+            return size() > maxIndexedFiles;
+        }
+    };
+
+    @Autowired
+    private ClickHouseService clickHouseService;
+    @Autowired
+    private IngestionMetrics metrics;
+    @Autowired
+    private CheckpointService checkpointService;
+    @Autowired
+    private ClickHouseConnectionPool connectionPool;
+
+    private final int maxWorkers;
+    private final ExecutorService workerPool;
+
+    public FlatFileService(@Value("${ingestion.parallel.max-workers:0}") int maxWorkers) {
+        this.maxWorkers = maxWorkers > 0 ? maxWorkers : Runtime.getRuntime().availableProcessors();
+        this.workerPool = Executors.newFixedThreadPool(this.maxWorkers);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workerPool.shutdownNow();
+    }
+
+    // Setters for building the service without a Spring context, as the benchmarks do
+    public void setBatchLimits(int maxRows, long maxBytes) {
+        this.batchMaxRows = maxRows;
+        this.batchMaxBytes = maxBytes;
+    }
+
+    public void setFastParser(boolean fastParser) {
+        this.fastParser = fastParser;
+    }
+
+    public void setRowBinary(boolean rowBinary) {
+        this.rowBinary = rowBinary;
+    }
+
+    public void setClickHouseService(ClickHouseService clickHouseService) {
+        this.clickHouseService = clickHouseService;
+    }
+
+    public void setMetrics(IngestionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // Each range holds its own connection for the whole insert, so a file is never split into
+    // more ranges than the pool can serve at once
+    private int rangeCount(int parallelism) {
+        return Math.min(Math.min(parallelism, maxWorkers), connectionPool.getMaxSize());
+    }
+
+    // Peak heap of an import, reserved with the admission service: a pending batch and the
+    // read buffers per worker
+    public long estimateMemory(int parallelism, Compression compression) {
+        int workers = compression == Compression.NONE ? rangeCount(parallelism) : 1;
+        return workers * (BATCH_MEMORY_FACTOR * batchMaxBytes + 2L * READ_BUFFER_SIZE);
+    }
+
+    // A Parquet reader also holds the column chunks of its current row group, which together
+    // are at most the largest row group's compressed size. A deduplicating import adds its key
+    // set, which lives in direct memory and may grow to ingestion.dedup.max-memory.
+    public long estimateMemory(File file, int parallelism, Compression compression, boolean deduplicating)
+            throws IOException {
+        long estimate = estimateMemory(parallelism, compression) + (deduplicating ? dedupMaxMemory : 0);
+        if (compression != Compression.NONE || !ParquetFiles.isParquet(file)) {
+            return estimate;
+        }
+        long largestGroup = 0;
+        for (RowGroup group : ParquetFiles.readFooter(file).getRow_groups()) {
+            largestGroup = Math.max(largestGroup, group.getTotal_compressed_size());
+        }
+        return estimate + rangeCount(parallelism) * largestGroup;
+    }
 
     public List<String> getColumns(String filePath) throws IOException {
+        return getColumns(filePath, Compression.forPath(filePath));
+    }
+
+    public List<String> getColumns(String filePath, Compression compression) throws IOException {
         File file = new File(filePath);
         if (!file.exists()) {
             throw new IOException("File not found: " + filePath);
         }
-        try (CSVParser parser = CSVParser.parse(file, StandardCharsets.UTF_8, 
-                CSVFormat.DEFAULT.withFirstRecordAsHeader())) {
-            List<String> headers = new ArrayList<>(parser.getHeaderNames());
-            if (headers.isEmpty()) {
-                throw new IOException("CSV file has no headers");
-            }
-            // Validate headers
-            for (String header : headers) {
-                if (header == null || header.trim().isEmpty()) {
-                    throw new IOException("CSV contains empty or null headers");
-                }
-            }
+        try (CsvRecordSource records = openRecords(file, compression)) {
+            List<String> headers = new ArrayList<>(records.getHeaderNames());
+            validateHeaders(headers);
             return headers;
         } catch (Exception e) {
             throw new IOException("Failed to parse CSV headers: " + e.getMessage(), e);
         }
     }
 
+    // Opens a flat file as UTF-8 text, decompressing on the fly
+    public Reader openReader(String filePath, Compression compression) throws IOException {
+        FileInputStream in = new FileInputStream(filePath);
+        try {
+            return new BufferedReader(new InputStreamReader(
+                    compression.wrapInput(in), StandardCharsets.UTF_8), READ_BUFFER_SIZE);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    // Opens the file positioned after its header: memory-mapped for plain files, commons-csv
+    // over a decompressing stream otherwise. Parquet files, recognised by their magic bytes,
+    // are read column by column instead. Progress counts raw file bytes either way.
+    public CsvRecordSource openRecords(File file, Compression compression) throws IOException {
+        if (compression == Compression.NONE && ParquetFiles.isParquet(file)) {
+            return ParquetRecordSource.open(file);
+        }
+        if (fastParser && compression == Compression.NONE) {
+            MappedCsvReader reader = MappedCsvReader.open(file);
+            try {
+                reader.readHeader();
+                return reader;
+            } catch (IOException e) {
+                reader.close();
+                throw e;
+            }
+        }
+        CountingInputStream input = new CountingInputStream(new FileInputStream(file));
+        try {
+            Reader reader = new BufferedReader(new InputStreamReader(
+                    compression.wrapInput(input), StandardCharsets.UTF_8), READ_BUFFER_SIZE);
+            return new CommonsCsvRecordSource(CSVFormat.DEFAULT.withFirstRecordAsHeader().parse(reader), input);
+        } catch (IOException | RuntimeException e) {
+            input.close();
+            throw new IOException("Failed to parse CSV headers: " + e.getMessage(), e);
+        }
+    }
+
+    // Returns up to `limit` rows holding only the requested columns, starting after the first
+    // `offset` data records
+    public List<Map<String, String>> previewRows(String filePath, List<String> columns, Compression compression,
+                                                 long offset, int limit) throws IOException {
+        File file = new File(filePath);
+        try (CsvRecordSource records = openRecords(file, compression)) {
+            int[] columnIndexes = resolveColumnIndexes(indexHeaders(records.getHeaderNames()), columns);
+            records.project(columnIndexes);
+            seek(file, compression, records, offset);
+            List<Map<String, String>> rows = new ArrayList<>();
+            while (rows.size() < limit && records.next()) {
+                Map<String, String> row = new LinkedHashMap<>();
+                for (int i = 0; i < columnIndexes.length; i++) {
+                    row.put(columns.get(i), columnIndexes[i] < records.size() ? records.get(columnIndexes[i]) : null);
+                }
+                rows.add(row);
+            }
+            return rows;
+        }
+    }
+
+    // Moves a freshly opened source past `offset` records. Sources that can be repositioned jump
+    // to the nearest indexed record before it and read through at most one stride; the index is
+    // extended on the way the first time a preview reaches that far into the file.
+    private void seek(File file, Compression compression, CsvRecordSource records, long offset) throws IOException {
+        if (offset <= 0) {
+            return;
+        }
+        if (records.resumeOffset() < 0) {
+            records.skip(offset, -1);
+            return;
+        }
+        RowIndex index;
+        synchronized (rowIndexes) {
+            String key = file.getAbsolutePath();
+            index = rowIndexes.get(key);
+            if (index == null || !index.matches(file)) {
+                index = new RowIndex(file);
+                index.scanOffset = records.resumeOffset();
+                index.offsets.add(index.scanOffset);
+                rowIndexes.put(key, index);
+            }
+        }
+        long entry;
+        long entryOffset;
+        synchronized (index) {
+            long target = offset - offset % indexStride;
+            if (index.scannedRecords < target && !index.complete) {
+                extendIndex(file, compression, index, target);
+            }
+            entry = Math.min(offset / indexStride, index.offsets.size() - 1);
+            entryOffset = index.offsets.get((int) entry);
+        }
+        records.skip(entry * indexStride, entryOffset);
+        records.skip(offset - entry * indexStride, -1);
+    }
+
+    private void extendIndex(File file, Compression compression, RowIndex index, long target) throws IOException {
+        try (CsvRecordSource scan = openRecords(file, compression)) {
+            scan.project(new int[] {0});
+            scan.skip(index.scannedRecords, index.scanOffset);
+            while (index.scannedRecords < target) {
+                if (!scan.next()) {
+                    index.complete = true;
+                    break;
+                }
+                index.scannedRecords++;
+                if (index.scannedRecords % indexStride == 0) {
+                    index.offsets.add(scan.resumeOffset());
+                }
+            }
+            index.scanOffset = scan.resumeOffset();
+        }
+    }
+
+    // With a checkpoint, progress is saved after every committed batch and each batch carries
+    // a deterministic insert_deduplication_token, so a resumed run continues after the last
+    // saved batch and a batch that was committed but not yet saved is dropped by ClickHouse.
+    // With dedupKeys, records whose key repeats an earlier record of the file are dropped.
     public long ingestToClickHouse(String filePath, List<String> columns, String tableName, 
-                                   Connection clickHouseConn) throws IOException, SQLException {
+                                   Connection clickHouseConn, Compression compression, SchemaReport schema,
+                                   List<String> dedupKeys, IngestionJob job, IngestionCheckpoint checkpoint)
+            throws IOException, SQLException {
         File file = new File(filePath);
         if (!file.exists()) {
             throw new IOException("File not found: " + filePath);
         }
+        job.setTotalBytes(file.length());
+        if (checkpoint != null && checkpoint.isCompleted()) {
+            return 0;
+        }
 
-        List<List<String>> data = new ArrayList<>();
-        try (CSVParser parser = CSVParser.parse(file, StandardCharsets.UTF_8, 
-                CSVFormat.DEFAULT.withFirstRecordAsHeader())) {
-            for (CSVRecord record : parser) {
-                List<String> row = new ArrayList<>();
-                for (String col : columns) {
-                    try {
-                        row.add(record.get(col));
-                    } catch (IllegalArgumentException e) {
-                        throw new IOException("Column not found in CSV: " + col);
+        try (CsvRecordSource records = openRecords(file, compression)) {
+            return ingestRecords(records, columns, tableName, clickHouseConn, schema, dedupKeys, job, checkpoint);
+        }
+    }
+
+    // Ingests CSV read from a stream, such as an HTTP request body, without staging it on disk.
+    // The stream is read only as fast as batches are inserted, so a slow ClickHouse pushes back
+    // on the sender. When copy is given the raw bytes are written to it as they are read.
+    // Columns default to all header columns; every column is created as String.
+    public long ingestStream(InputStream body, List<String> columns, String tableName, Connection clickHouseConn,
+                             Compression compression, OutputStream copy, IngestionJob job)
+            throws IOException, SQLException {
+        CountingInputStream input = new CountingInputStream(copy == null ? body : new TeeInputStream(body, copy));
+        CSVParser parser;
+        try {
+            Reader reader = new BufferedReader(new InputStreamReader(
+                    compression.wrapInput(input), StandardCharsets.UTF_8), READ_BUFFER_SIZE);
+            parser = CSVFormat.DEFAULT.withFirstRecordAsHeader().parse(reader);
+        } catch (IOException | RuntimeException e) {
+            throw new IOException("Failed to parse CSV headers: " + e.getMessage(), e);
+        }
+        try (CsvRecordSource records = new CommonsCsvRecordSource(parser, input)) {
+            List<String> selected = columns;
+            if (selected == null || selected.isEmpty()) {
+                selected = new ArrayList<>(records.getHeaderNames());
+                validateHeaders(selected);
+            }
+            long count = ingestRecords(records, selected, tableName, clickHouseConn, null, null, job, null);
+            if (copy != null) {
+                // Keep the saved copy complete even if the decoder stopped before the end of the body
+                IOUtils.consume(input);
+            }
+            return count;
+        }
+    }
+
+    // Creates the table and inserts every record of a source positioned after its header,
+    // skipping the records a resumed checkpoint has already committed
+    private long ingestRecords(CsvRecordSource records, List<String> columns, String tableName, Connection conn,
+                               SchemaReport schema, List<String> dedupKeys, IngestionJob job,
+                               IngestionCheckpoint checkpoint)
+            throws IOException, SQLException {
+        Map<String, Integer> headerMap = indexHeaders(records.getHeaderNames());
+        int[] columnIndexes = resolveColumnIndexes(headerMap, columns);
+        records.project(columnIndexes);
+        try (DuplicateFilter filter = openDuplicateFilter(headerMap, columns, dedupKeys)) {
+            if (checkpoint != null && checkpoint.getRows() > 0) {
+                if (filter == null) {
+                    records.skip(checkpoint.getRows(), checkpoint.getOffset());
+                } else {
+                    // The key set is not saved with the checkpoint, so the committed records are
+                    // read again to rebuild it
+                    for (long i = 0; i < checkpoint.getRows() && records.next(); i++) {
+                        filter.remember(records);
                     }
                 }
-                data.add(row);
+                if (!records.next()) {
+                    checkpoint.setCompleted(true);
+                    checkpointService.save(checkpoint);
+                    return 0;
+                }
+            } else if (!records.next()) {
+                throw new IOException("CSV file contains no data rows");
+            }
+
+            createTable(conn, columns, tableName, schema, dedupKeys, job, checkpoint != null);
+            try (RowSink sink = openSink(conn, columns, tableName, schema)) {
+                long count = insertRecords(records, columnIndexes, sink, filter, job, checkpoint);
+                if (checkpoint != null) {
+                    checkpoint.setCompleted(true);
+                    checkpointService.save(checkpoint);
+                }
+                return count;
+            }
+        }
+    }
+
+    // Splits the file into record-aligned byte ranges and ingests each range on the
+    // worker pool over its own connection. The returned count is the sum of all ranges.
+    // Parquet files are split into runs of whole row groups instead, balanced by rows.
+    // Compressed files cannot be split and are ingested sequentially. With dedupKeys the
+    // ranges share one key set, so a duplicate is dropped whichever range it falls in.
+    public long ingestToClickHouseParallel(String filePath, List<String> columns, String tableName,
+                                           String jwtToken, int parallelism, Compression compression,
+                                           SchemaReport schema, List<String> dedupKeys, IngestionJob job)
+            throws IOException, SQLException {
+        File file = new File(filePath);
+        if (!file.exists()) {
+            throw new IOException("File not found: " + filePath);
+        }
+        if (compression != Compression.NONE) {
+            try (Connection conn = clickHouseService.getConnection(jwtToken)) {
+                return ingestToClickHouse(filePath, columns, tableName, conn, compression, schema, dedupKeys,
+                        job, null);
             }
-        } catch (Exception e) {
-            throw new IOException("Failed to parse CSV data: " + e.getMessage(), e);
         }
+        job.setTotalBytes(file.length());
+        List<String> headers = getColumns(filePath, compression);
+        Map<String, Integer> headerMap = indexHeaders(headers);
+        int[] columnIndexes = resolveColumnIndexes(headerMap, columns);
 
-        if (data.isEmpty()) {
-            throw new IOException("CSV file contains no data rows");
+        List<String> labels = new ArrayList<>();
+        List<RangeOpener> openers = new ArrayList<>();
+        if (ParquetFiles.isParquet(file)) {
+            FileMetaData footer = ParquetFiles.readFooter(file);
+            for (int[] slice : rowGroupSlices(footer, rangeCount(parallelism))) {
+                labels.add("Row groups " + slice[0] + "-" + (slice[1] - 1));
+                openers.add(() -> ParquetRecordSource.open(file, footer, slice[0], slice[1]));
+            }
+            if (openers.isEmpty()) {
+                throw new IOException("Parquet file contains no data rows");
+            }
+        } else {
+            CSVFormat rangeFormat = CSVFormat.DEFAULT.withHeader(headers.toArray(new String[0]));
+            for (CsvFileSplitter.Range range : CsvFileSplitter.split(file, rangeCount(parallelism))) {
+                labels.add("Range at byte " + range.getStart());
+                openers.add(() -> openRange(file, range, rangeFormat));
+            }
+            if (openers.isEmpty()) {
+                throw new IOException("CSV file contains no data rows");
+            }
+        }
+        try (Connection conn = clickHouseService.getConnection(jwtToken)) {
+            createTable(conn, columns, tableName, schema, dedupKeys, job, false);
         }
 
-        // Sanitize column names for ClickHouse
-        List<String> sanitizedColumns = columns.stream()
+        List<Future<Long>> futures = new ArrayList<>();
+        long total = 0;
+        // The filter is shared by the workers, so it must outlive them. A cancelled future reports
+        // done while its task may still be running, so each worker holds the read lock while it
+        // works and the inner finally takes the write lock before the filter closes; otherwise a
+        // worker still running hits the closed set and its error hides the one that ended the import
+        ReadWriteLock workersRunning = new ReentrantReadWriteLock();
+        AtomicBoolean stopped = new AtomicBoolean();
+        try (DuplicateFilter filter = openDuplicateFilter(headerMap, columns, dedupKeys)) {
+            try {
+                for (int i = 0; i < openers.size(); i++) {
+                    RangeOpener opener = openers.get(i);
+                    String label = labels.get(i);
+                    futures.add(workerPool.submit(LogContext.propagate(() -> {
+                        workersRunning.readLock().lock();
+                        try {
+                            if (stopped.get()) {
+                                throw new CancellationException("Import stopped");
+                            }
+                            return ingestRange(opener, label, columnIndexes, columns, tableName, schema, filter,
+                                    jwtToken, job);
+                        } finally {
+                            workersRunning.readLock().unlock();
+                        }
+                    })));
+                }
+                for (Future<Long> future : futures) {
+                    total += future.get();
+                }
+                return total;
+            } finally {
+                stopped.set(true);
+                futures.forEach(f -> f.cancel(true));
+                workersRunning.writeLock().lock();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Parallel ingestion interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CancellationException) {
+                throw (CancellationException) cause;
+            }
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            throw new IOException("Parallel ingestion failed: " + cause.getMessage(), cause);
+        }
+    }
+
+    // Opens one slice of a file for a parallel import
+    @FunctionalInterface
+    private interface RangeOpener {
+        CsvRecordSource open() throws IOException;
+    }
+
+    private long ingestRange(RangeOpener opener, String label, int[] columnIndexes, List<String> columns,
+                             String tableName, SchemaReport schema, DuplicateFilter filter, String jwtToken,
+                             IngestionJob job) throws IOException, SQLException {
+        try (CsvRecordSource records = opener.open();
+             Connection conn = clickHouseService.getConnection(jwtToken);
+             RowSink sink = openSink(conn, columns, tableName, schema)) {
+            records.project(columnIndexes);
+            if (!records.next()) {
+                return 0;
+            }
+            return insertRecords(records, columnIndexes, sink, filter, job, null);
+        } catch (IOException e) {
+            throw new IOException(label + ": " + e.getMessage(), e);
+        }
+    }
+
+    // Contiguous runs of row groups with about equal row counts, as [first, end) index pairs
+    private static List<int[]> rowGroupSlices(FileMetaData footer, int parts) {
+        List<RowGroup> groups = footer.getRow_groups();
+        long total = 0;
+        for (RowGroup group : groups) {
+            total += group.getNum_rows();
+        }
+        List<int[]> slices = new ArrayList<>();
+        if (total == 0) {
+            return slices;
+        }
+        int first = 0;
+        long rows = 0;
+        for (int i = 0; i < groups.size(); i++) {
+            rows += groups.get(i).getNum_rows();
+            if (i == groups.size() - 1 || rows * parts >= total * (slices.size() + 1)) {
+                slices.add(new int[] {first, i + 1});
+                first = i + 1;
+            }
+        }
+        return slices;
+    }
+
+    private CsvRecordSource openRange(File file, CsvFileSplitter.Range range, CSVFormat format) throws IOException {
+        if (fastParser) {
+            return new MappedCsvReader(file, range.getStart(), range.getEnd());
+        }
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            CountingInputStream input = new CountingInputStream(new BoundedInputStream(
+                    Channels.newInputStream(channel.position(range.getStart())), range.length()));
+            Reader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), READ_BUFFER_SIZE);
+            return new CommonsCsvRecordSource(format.parse(reader), input);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Without an inferred schema every column is a String and the table has no sort key.
+    // Plain MergeTree tables only honour insert_deduplication_token with a dedup window.
+    // A deduplicating import gets a ReplacingMergeTree sorted by its key, so rows repeated
+    // across imports collapse when parts merge (or at once, for queries using FINAL).
+    private void createTable(Connection conn, List<String> columns, String tableName, SchemaReport schema,
+                             List<String> dedupKeys, IngestionJob job, boolean deduplicate) throws SQLException {
+        Map<String, String> types = schema == null ? Collections.emptyMap() : TypeInferenceService.typesByName(schema);
+        List<String> sanitizedColumns = sanitizeColumns(columns);
+        List<String> definitions = new ArrayList<>();
+        for (int i = 0; i < columns.size(); i++) {
+            definitions.add(sanitizedColumns.get(i) + " " + types.getOrDefault(columns.get(i), "String"));
+        }
+        String engine = "MergeTree()";
+        String orderBy = schema == null || schema.getOrderBy().isEmpty() ? "tuple()"
+                : "(" + String.join(", ", sanitizeColumns(schema.getOrderBy())) + ")";
+        List<String> settings = new ArrayList<>();
+        if (dedupKeys != null && !dedupKeys.isEmpty()) {
+            engine = "ReplacingMergeTree()";
+            orderBy = "(" + String.join(", ", sanitizeColumns(dedupKeys)) + ")";
+            if (dedupKeys.stream().anyMatch(key -> types.getOrDefault(key, "String").contains("Nullable("))) {
+                settings.add("allow_nullable_key = 1");
+            }
+        }
+        if (deduplicate) {
+            settings.add("non_replicated_deduplication_window = " + checkpointService.getDedupWindow());
+        }
+        String createTableSql = String.format("CREATE TABLE IF NOT EXISTS %s (%s) ENGINE = %s ORDER BY %s",
+                tableName, String.join(",", definitions), engine, orderBy);
+        if (!settings.isEmpty()) {
+            createTableSql += " SETTINGS " + String.join(", ", settings);
+        }
+        long start = System.nanoTime();
+        try (PreparedStatement stmt = conn.prepareStatement(createTableSql)) {
+            stmt.execute();
+        } finally {
+            metrics.recordPhase(job, "create_table", System.nanoTime() - start);
+            clickHouseService.invalidateTable(tableName);
+        }
+    }
+
+    private String buildInsertSql(List<String> columns, String tableName) {
+        return String.format("INSERT INTO %s (%s) VALUES (%s)",
+                tableName, String.join(",", sanitizeColumns(columns)),
+                columns.stream().map(c -> "?").collect(Collectors.joining(",")));
+    }
+
+    // The driver appends FORMAT RowBinary itself
+    private String buildRowBinaryInsertSql(List<String> columns, String tableName) {
+        return String.format("INSERT INTO %s (%s)", tableName, String.join(",", sanitizeColumns(columns)));
+    }
+
+    private ValueBinder[] bindersFor(List<String> columns, SchemaReport schema) {
+        Map<String, String> types = schema == null ? Collections.emptyMap() : TypeInferenceService.typesByName(schema);
+        ValueBinder[] binders = new ValueBinder[columns.size()];
+        for (int i = 0; i < binders.length; i++) {
+            String type = types.get(columns.get(i));
+            binders[i] = type == null ? ValueBinder.STRING : ValueBinder.forType(type);
+        }
+        return binders;
+    }
+
+    // Sanitize column names for ClickHouse
+    private List<String> sanitizeColumns(List<String> columns) {
+        return columns.stream()
                 .map(col -> {
                     if (col.matches("^[a-zA-Z0-9_]+$")) {
                         return col;
@@ -80,28 +652,346 @@ public class FlatFileService {
                     }
                 })
                 .collect(Collectors.toList());
+    }
 
-        String createTableSql = String.format("CREATE TABLE IF NOT EXISTS %s (%s) ENGINE = MergeTree() ORDER BY tuple()",
-                tableName, sanitizedColumns.stream()
-                        .map(c -> c + " String")
-                        .collect(Collectors.joining(",")));
-        try (PreparedStatement stmt = clickHouseConn.prepareStatement(createTableSql)) {
-            stmt.execute();
+    // Where insertRecords puts rows until send: JDBC batches on a prepared insert, or a
+    // ColumnarBatch sent as RowBinary
+    private interface RowSink extends AutoCloseable {
+        void add(CsvRecordSource records, int[] columnIndexes) throws SQLException;
+
+        // Sends the pending rows, tagged with the deduplication token when there is one
+        void send(String deduplicationToken) throws SQLException;
+
+        @Override
+        void close() throws SQLException;
+    }
+
+    private static final class JdbcSink implements RowSink {
+        private final PreparedStatement stmt;
+        private final ValueBinder[] binders;
+
+        JdbcSink(PreparedStatement stmt, ValueBinder[] binders) {
+            this.stmt = stmt;
+            this.binders = binders;
         }
 
-        String insertSql = String.format("INSERT INTO %s (%s) VALUES (%s)",
-                tableName, String.join(",", sanitizedColumns),
-                columns.stream().map(c -> "?").collect(Collectors.joining(",")));
-        try (PreparedStatement stmt = clickHouseConn.prepareStatement(insertSql)) {
-            for (List<String> row : data) {
-                for (int i = 0; i < row.size(); i++) {
-                    stmt.setString(i + 1, row.get(i));
-                }
-                stmt.addBatch();
+        @Override
+        public void add(CsvRecordSource records, int[] columnIndexes) throws SQLException {
+            for (int i = 0; i < columnIndexes.length; i++) {
+                binders[i].bind(stmt, i + 1, records, columnIndexes[i]);
+            }
+            stmt.addBatch();
+        }
+
+        @Override
+        public void send(String deduplicationToken) throws SQLException {
+            if (deduplicationToken != null) {
+                setDeduplicationToken(stmt, deduplicationToken);
             }
             stmt.executeBatch();
         }
 
-        return data.size();
+        @Override
+        public void close() throws SQLException {
+            stmt.close();
+        }
+    }
+
+    // Streams the batch through the driver's RowBinary writer, which posts it to ClickHouse's
+    // HTTP interface over the same connection settings as the JDBC batches
+    private static final class RowBinarySink implements RowSink {
+        private final Connection conn;
+        private final String insertSql;
+        private final ColumnarBatch batch;
+
+        RowBinarySink(Connection conn, String insertSql, ColumnarBatch batch) {
+            this.conn = conn;
+            this.insertSql = insertSql;
+            this.batch = batch;
+        }
+
+        @Override
+        public void add(CsvRecordSource records, int[] columnIndexes) throws SQLException {
+            batch.addRow(records, columnIndexes);
+        }
+
+        @Override
+        public void send(String deduplicationToken) throws SQLException {
+            try (Statement stmt = conn.createStatement()) {
+                Writer writer = stmt.unwrap(ClickHouseStatement.class).write();
+                if (deduplicationToken != null) {
+                    writer.option("insert_deduplication_token", deduplicationToken);
+                }
+                writer.send(insertSql, stream -> batch.writeRowBinary(new OutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        stream.writeByte((byte) b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        stream.writeBytes(b, off, len);
+                    }
+                }), ClickHouseFormat.RowBinary);
+            }
+            batch.clear();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    // RowBinary needs the table's exact column types. Tables with a type ColumnarBatch cannot
+    // encode, and connections not made by the ClickHouse driver, get JDBC batches.
+    private RowSink openSink(Connection conn, List<String> columns, String tableName, SchemaReport schema)
+            throws SQLException {
+        if (rowBinary && conn.isWrapperFor(ClickHouseConnection.class)) {
+            Map<String, String> tableTypes = clickHouseService.getColumnTypes(tableName);
+            List<String> types = new ArrayList<>();
+            for (String column : columns) {
+                types.add(tableTypes == null ? null : tableTypes.get(column));
+            }
+            if (!types.contains(null)) {
+                ColumnarBatch batch = ColumnarBatch.forTypes(types,
+                        conn.unwrap(ClickHouseConnection.class).getTimeZone());
+                if (batch != null) {
+                    return new RowBinarySink(conn, buildRowBinaryInsertSql(columns, tableName), batch);
+                }
+            }
+        }
+        return new JdbcSink(conn.prepareStatement(buildInsertSql(columns, tableName)), bindersFor(columns, schema));
+    }
+
+    // Binds records into the prepared insert, starting with the record the source is already
+    // positioned on, and flushes whenever the pending batch reaches batchMaxRows rows or
+    // roughly batchMaxBytes of field data, so heap use is bounded by the batch size rather
+    // than by the file size. Progress is reported to the job and cancellation is checked at
+    // every flush. Time spent in executeBatch is the execute_batch phase; everything else in
+    // the loop (reading, parsing and binding) is parse_bind. A checkpointed run keeps the
+    // batch limits it started with so replayed batches match the originals row for row.
+    // Records the filter reports as duplicates are counted but never bound.
+    private long insertRecords(CsvRecordSource records, int[] columnIndexes, RowSink sink, DuplicateFilter filter,
+                               IngestionJob job, IngestionCheckpoint checkpoint)
+            throws IOException, SQLException {
+        int maxRows = batchMaxRows;
+        long maxBytes = batchMaxBytes;
+        if (checkpoint != null) {
+            if (checkpoint.getBatchMaxRows() == 0) {
+                checkpoint.setBatchMaxRows(batchMaxRows);
+                checkpoint.setBatchMaxBytes(batchMaxBytes);
+            }
+            maxRows = checkpoint.getBatchMaxRows();
+            maxBytes = checkpoint.getBatchMaxBytes();
+        }
+        long total = 0;
+        int batchRows = 0;
+        // Records read for the batch, duplicates included, which is what a resume skips
+        long batchRecords = 0;
+        long batchDuplicates = 0;
+        long batchBytes = 0;
+        long reportedBytes = 0;
+        long loopStart = System.nanoTime();
+        long batchNanos = 0;
+        do {
+            long rowBytes = 0;
+            for (int i = 0; i < columnIndexes.length; i++) {
+                int index = columnIndexes[i];
+                if (index >= records.size()) {
+                    throw new IOException("Row " + records.recordNumber() + " has only "
+                            + records.size() + " values");
+                }
+                rowBytes += records.fieldLength(index) + 1;
+            }
+            batchRecords++;
+            if (filter != null && filter.isDuplicate(records)) {
+                batchDuplicates++;
+                continue;
+            }
+            batchBytes += rowBytes;
+            try {
+                sink.add(records, columnIndexes);
+            } catch (SQLException e) {
+                throw new SQLException("Row " + records.recordNumber() + ": " + e.getMessage(), e);
+            }
+            batchRows++;
+            total++;
+            if (batchRows >= maxRows || batchBytes >= maxBytes) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new IOException("Ingestion interrupted");
+                }
+                job.checkCancelled();
+                batchNanos += executeBatch(sink, job, batchRows, batchRecords, batchBytes, checkpoint, records);
+                job.addBytes(records.bytesConsumed() - reportedBytes);
+                metrics.recordBytes(job, records.bytesConsumed() - reportedBytes);
+                reportedBytes = records.bytesConsumed();
+                addDuplicates(job, batchDuplicates);
+                batchRows = 0;
+                batchRecords = 0;
+                batchDuplicates = 0;
+                batchBytes = 0;
+            }
+        } while (records.next());
+        if (batchRows > 0) {
+            job.checkCancelled();
+            batchNanos += executeBatch(sink, job, batchRows, batchRecords, batchBytes, checkpoint, records);
+        }
+        addDuplicates(job, batchDuplicates);
+        job.addBytes(records.bytesConsumed() - reportedBytes);
+        metrics.recordBytes(job, records.bytesConsumed() - reportedBytes);
+        metrics.recordPhase(job, "execute_batch", batchNanos);
+        metrics.recordPhase(job, "parse_bind", System.nanoTime() - loopStart - batchNanos);
+        return total;
+    }
+
+    // Sends one batch, records it in the checkpoint if any, and returns how long the send took
+    private long executeBatch(RowSink sink, IngestionJob job, int rows, long records, long bytes,
+                              IngestionCheckpoint checkpoint, CsvRecordSource source)
+            throws IOException, SQLException {
+        long start = System.nanoTime();
+        sink.send(checkpoint == null ? null : checkpoint.tokenFor(checkpoint.getBatches()));
+        long elapsed = System.nanoTime() - start;
+        if (checkpoint != null) {
+            checkpoint.committed(records, source.resumeOffset());
+            checkpointService.save(checkpoint);
+        }
+        job.addRows(rows);
+        metrics.recordRows(job, rows);
+        metrics.recordBatch(job, rows, bytes);
+        return elapsed;
+    }
+
+    private void addDuplicates(IngestionJob job, long duplicates) {
+        if (duplicates > 0) {
+            job.addDuplicates(duplicates);
+            metrics.recordDuplicates(job, duplicates);
+        }
+    }
+
+    // Tracks the keys of a deduplicating import as 64-bit hashes of the key fields, so two
+    // different keys are mistaken for duplicates with odds of about n^2 / 2^65 over n records.
+    // Shared by the workers of a parallel import.
+    private static final class DuplicateFilter implements AutoCloseable {
+        private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+        private static final long FNV_PRIME = 0x100000001b3L;
+        // Hashed in place of a length, which is never negative
+        private static final long NULL_MARKER = -1L;
+
+        private final int[] keyIndexes;
+        private final OffHeapLongSet seen;
+        private final ThreadLocal<byte[]> scratch = ThreadLocal.withInitial(() -> new byte[256]);
+
+        DuplicateFilter(int[] keyIndexes, OffHeapLongSet seen) {
+            this.keyIndexes = keyIndexes;
+            this.seen = seen;
+        }
+
+        // Adds the record's key and returns true when it was already present
+        boolean isDuplicate(CsvRecordSource records) throws IOException {
+            long hash = hash(records);
+            synchronized (seen) {
+                return !seen.add(hash);
+            }
+        }
+
+        // Adds the key of a record read again on resume, which may be short of fields
+        void remember(CsvRecordSource records) throws IOException {
+            for (int index : keyIndexes) {
+                if (index >= records.size()) {
+                    return;
+                }
+            }
+            isDuplicate(records);
+        }
+
+        private long hash(CsvRecordSource records) {
+            long hash = FNV_OFFSET;
+            byte[] buffer = scratch.get();
+            for (int index : keyIndexes) {
+                // Parquet reports only NULL as empty, which must not hash like an empty string
+                if (records.isEmpty(index)) {
+                    hash = (hash ^ NULL_MARKER) * FNV_PRIME;
+                    continue;
+                }
+                int maxBytes = 3 * records.fieldLength(index);
+                if (buffer.length < maxBytes) {
+                    buffer = new byte[Math.max(maxBytes, 2 * buffer.length)];
+                    scratch.set(buffer);
+                }
+                int length = records.copyBytes(index, buffer, 0);
+                // Hashing the length first keeps ("ab", "c") apart from ("a", "bc")
+                hash = (hash ^ length) * FNV_PRIME;
+                for (int i = 0; i < length; i++) {
+                    hash = (hash ^ (buffer[i] & 0xff)) * FNV_PRIME;
+                }
+            }
+            return hash;
+        }
+
+        @Override
+        public void close() {
+            synchronized (seen) {
+                seen.close();
+            }
+        }
+    }
+
+    // Returns null when the import does not deduplicate
+    private DuplicateFilter openDuplicateFilter(Map<String, Integer> headerMap, List<String> columns,
+                                                List<String> dedupKeys) throws IOException {
+        if (dedupKeys == null || dedupKeys.isEmpty()) {
+            return null;
+        }
+        for (String key : dedupKeys) {
+            if (!columns.contains(key)) {
+                throw new IOException("Dedup key is not an ingested column: " + key);
+            }
+        }
+        File spillDir = new File(dedupSpillDir);
+        if (!spillDir.isDirectory() && !spillDir.mkdirs()) {
+            throw new IOException("Cannot create dedup spill directory: " + dedupSpillDir);
+        }
+        return new DuplicateFilter(resolveColumnIndexes(headerMap, dedupKeys),
+                new OffHeapLongSet(dedupMaxMemory, spillDir));
+    }
+
+    // The driver has no typed setting for the token, but statement options are sent as
+    // ClickHouse settings on the batch request
+    private static void setDeduplicationToken(PreparedStatement stmt, String token) throws SQLException {
+        if (!stmt.isWrapperFor(ClickHouseStatementImpl.class)) {
+            throw new SQLException("Checkpointed ingestion needs the ClickHouse JDBC driver");
+        }
+        stmt.unwrap(ClickHouseStatementImpl.class).option("insert_deduplication_token", token);
+    }
+
+    private void validateHeaders(List<String> headers) throws IOException {
+        if (headers.isEmpty()) {
+            throw new IOException("CSV file has no headers");
+        }
+        for (String header : headers) {
+            if (header == null || header.trim().isEmpty()) {
+                throw new IOException("CSV contains empty or null headers");
+            }
+        }
+    }
+
+    private Map<String, Integer> indexHeaders(List<String> headers) {
+        Map<String, Integer> headerMap = new HashMap<>();
+        for (int i = 0; i < headers.size(); i++) {
+            headerMap.putIfAbsent(headers.get(i), i);
+        }
+        return headerMap;
+    }
+
+    private int[] resolveColumnIndexes(Map<String, Integer> headerMap, List<String> columns) throws IOException {
+        int[] indexes = new int[columns.size()];
+        for (int i = 0; i < columns.size(); i++) {
+            Integer index = headerMap.get(columns.get(i));
+            if (index == null) {
+                throw new IOException("Column not found in CSV: " + columns.get(i));
+            }
+            indexes[i] = index;
+        }
+        return indexes;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,243 @@
+package com.ingestion.service;
+
+import com.ingestion.model.IngestionJob;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs ingestion jobs on a bounded executor so long imports and exports do not hold
+// request threads. Jobs wait as QUEUED until the admission service has room for them, and
+// only then take an executor thread. Finished jobs are kept for status queries up to the
+// history limit.
+@Service
+public class IngestionJobService {
+    private static final Logger log = LoggerFactory.getLogger(IngestionJobService.class);
+
+    @FunctionalInterface
+    public interface JobTask {
+        // Returns the number of records processed
+        long run(IngestionJob job) throws Exception;
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final int historyLimit;
+    private final Map<String, IngestionJob> jobs = new ConcurrentHashMap<>();
+    private final Map<String, Future<?>> futures = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<AdmissionService.Permit>> admissions = new ConcurrentHashMap<>();
+    private final Map<String, AdmissionService.Permit> permits = new ConcurrentHashMap<>();
+    private final Deque<String> order = new ConcurrentLinkedDeque<>();
+
+    @Autowired
+    private IngestionMetrics metrics;
+    @Autowired
+    private AdmissionService admission;
+    @Autowired
+    private PreviewService previewService;
+
+    public IngestionJobService(@Value("${ingestion.jobs.workers:4}") int workers,
+                               @Value("${ingestion.jobs.queue-capacity:50}") int queueCapacity,
+                               @Value("${ingestion.jobs.history:100}") int historyLimit) {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread thread = new Thread(r, "ingestion-job-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.historyLimit = historyLimit;
+    }
+
+    // Queues the job as bulk work reserving memoryBytes. Throws RejectedExecutionException
+    // when the admission queue is full.
+    public IngestionJob submit(IngestionJob job, long memoryBytes, JobTask task) {
+        jobs.put(job.getId(), job);
+        order.addFirst(job.getId());
+        CompletableFuture<AdmissionService.Permit> grant;
+        try {
+            grant = admission.request(job.getSource(), AdmissionService.Priority.BULK, memoryBytes);
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            order.remove(job.getId());
+            throw e;
+        }
+        admissions.put(job.getId(), grant);
+        grant.thenAccept(permit -> start(job, task, permit));
+        trimHistory();
+        return job;
+    }
+
+    // Runs the job on the calling thread, for work tied to the current request such as
+    // reading its body, while still listing it and accepting cancel requests for it. Waits
+    // for admission first and throws RejectedExecutionException when that times out.
+    public IngestionJob run(IngestionJob job, AdmissionService.Priority priority, long memoryBytes, JobTask task) {
+        jobs.put(job.getId(), job);
+        order.addFirst(job.getId());
+        trimHistory();
+        AdmissionService.Permit permit;
+        try {
+            permit = admission.acquire(job.getSource(), priority, memoryBytes);
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            order.remove(job.getId());
+            throw e;
+        }
+        try (AdmissionService.Permit held = permit) {
+            execute(job, task);
+        }
+        return job;
+    }
+
+    public IngestionJob get(String id) {
+        return jobs.get(id);
+    }
+
+    // Most recent first
+    public List<IngestionJob> list() {
+        List<IngestionJob> result = new ArrayList<>();
+        for (String id : order) {
+            IngestionJob job = jobs.get(id);
+            if (job != null) {
+                result.add(job);
+            }
+        }
+        return result;
+    }
+
+    // Queued jobs are dropped immediately; running jobs stop at their next batch boundary
+    public IngestionJob cancel(String id) {
+        IngestionJob job = jobs.get(id);
+        if (job == null || job.isFinished()) {
+            return job;
+        }
+        job.requestCancel();
+        CompletableFuture<AdmissionService.Permit> grant = admissions.remove(id);
+        if (grant != null && admission.withdraw(grant)) {
+            job.markFinished(IngestionJob.Status.CANCELLED, null, "Cancelled before start");
+            return job;
+        }
+        Future<?> future = futures.get(id);
+        if (job.getStatus() == IngestionJob.Status.QUEUED && future != null && future.cancel(false)) {
+            futures.remove(id);
+            releasePermit(id);
+            job.markFinished(IngestionJob.Status.CANCELLED, null, "Cancelled before start");
+        }
+        return job;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobs.values().forEach(IngestionJob::requestCancel);
+        admissions.values().forEach(admission::withdraw);
+        executor.shutdown();
+    }
+
+    // Called once the job is admitted, possibly on the thread of a job that just finished
+    private void start(IngestionJob job, JobTask task, AdmissionService.Permit permit) {
+        admissions.remove(job.getId());
+        permits.put(job.getId(), permit);
+        try {
+            futures.put(job.getId(), executor.submit(() -> {
+                try {
+                    execute(job, task);
+                } finally {
+                    releasePermit(job.getId());
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            releasePermit(job.getId());
+            job.markFinished(IngestionJob.Status.FAILED, null, "Ingestion queue is full");
+            metrics.recordError(job.getSource(), job.getTableName(), e);
+        }
+    }
+
+    // Every path ends in a terminal status and the cleanup below, including a job whose
+    // cancel request arrived after it was handed to a worker but before it started
+    private void execute(IngestionJob job, JobTask task) {
+        MDC.put("jobId", job.getId());
+        try {
+            if (job.isCancelRequested()) {
+                job.markFinished(IngestionJob.Status.CANCELLED, null, "Cancelled before start");
+                return;
+            }
+            job.markRunning();
+            long recordCount;
+            try {
+                recordCount = task.run(job);
+            } finally {
+                // An import changes its table even when it fails part way, and before the job
+                // reports COMPLETED a client polling it must not get a cached preview
+                if ("flatfile".equals(job.getSource()) && job.getTableName() != null) {
+                    previewService.invalidateTable(job.getTableName());
+                }
+            }
+            job.markFinished(IngestionJob.Status.COMPLETED,
+                    "Ingestion completed. Records processed: " + recordCount
+                            + (job.getDuplicates() > 0 ? ", duplicates dropped: " + job.getDuplicates() : ""), null);
+        } catch (CancellationException e) {
+            job.markFinished(IngestionJob.Status.CANCELLED, null,
+                    "Cancelled after " + job.getRows() + " records");
+        } catch (Exception e) {
+            job.markFinished(IngestionJob.Status.FAILED, null, "Ingestion failed: " + e.getMessage());
+            metrics.recordError(job.getSource(), job.getTableName(), e);
+        } catch (OutOfMemoryError e) {
+            // E.g. a dedup key set that could not get its direct memory; the job's buffers are
+            // released by now, so the service keeps running and only this job fails
+            job.markFinished(IngestionJob.Status.FAILED, null, "Ingestion ran out of memory: " + e.getMessage());
+            metrics.recordError(job.getSource(), job.getTableName(), e);
+        } finally {
+            futures.remove(job.getId());
+            metrics.recordJob(job);
+            logSummary(job);
+            MDC.remove("jobId");
+        }
+    }
+
+    private void releasePermit(String id) {
+        AdmissionService.Permit permit = permits.remove(id);
+        if (permit != null) {
+            permit.close();
+        }
+    }
+
+    private void logSummary(IngestionJob job) {
+        log.info("Job {} {}: source={} table={} rows={} bytes={} duplicates={} elapsedMs={} rowsPerSec={} phasesMs={}{}",
+                job.getId(), job.getStatus(), job.getSource(), job.getTableName(), job.getRows(), job.getBytes(),
+                job.getDuplicates(), job.getElapsedMillis(), Math.round(job.getRowsPerSecond()), job.getPhaseMillis(),
+                job.getError() == null ? "" : " error=" + job.getError());
+    }
+
+    // Evicts the oldest finished jobs once the history limit is exceeded
+    private void trimHistory() {
+        int excess = order.size() - historyLimit;
+        Iterator<String> oldestFirst = order.descendingIterator();
+        while (excess > 0 && oldestFirst.hasNext()) {
+            String id = oldestFirst.next();
+            IngestionJob job = jobs.get(id);
+            if (job == null || job.isFinished()) {
+                oldestFirst.remove();
+                jobs.remove(id);
+                excess--;
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.ingestion.service;
+
+import com.ingestion.model.IngestionJob;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Micrometer meters for ingestion, scraped from /actuator/prometheus. Everything is tagged
+// with the job's source and table; rows and bytes also carry the direction, "in" for
+// flat file -> ClickHouse and "out" for ClickHouse -> flat file. Phase times are also added
+// to the job itself so they appear in its status and summary log line. Table names come
+// from requests, so only listed tables, or without a list the first tables seen, get their
+// own tag value; the rest share "other" to keep the number of series bounded.
+@Component
+public class IngestionMetrics {
+    private static final String OTHER_TABLE = "other";
+
+    private final MeterRegistry registry;
+    private final Set<String> taggedTables = new HashSet<>();
+
+    @Value("${ingestion.metrics.tables:}")
+    private List<String> tableAllowList;
+    @Value("${ingestion.metrics.max-tables:50}")
+    private int maxTables;
+
+    public IngestionMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public void recordPhase(IngestionJob job, String phase, long nanos) {
+        Timer.builder("ingestion.phase")
+                .description("Time spent per ingestion phase")
+                .tag("phase", phase)
+                .tag("source", source(job))
+                .tag("table", table(job))
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        if (job != null) {
+            job.addPhaseNanos(phase, nanos);
+        }
+    }
+
+    public void recordRows(IngestionJob job, long rows) {
+        Counter.builder("ingestion.rows")
+                .tag("direction", direction(job))
+                .tag("source", source(job))
+                .tag("table", table(job))
+                .register(registry)
+                .increment(rows);
+    }
+
+    public void recordBytes(IngestionJob job, long bytes) {
+        Counter.builder("ingestion.bytes")
+                .baseUnit("bytes")
+                .tag("direction", direction(job))
+                .tag("source", source(job))
+                .tag("table", table(job))
+                .register(registry)
+                .increment(bytes);
+    }
+
+    // Records a deduplicating import dropped because their key was already seen
+    public void recordDuplicates(IngestionJob job, long duplicates) {
+        Counter.builder("ingestion.duplicates")
+                .tag("source", source(job))
+                .tag("table", table(job))
+                .register(registry)
+                .increment(duplicates);
+    }
+
+    // One sample per flushed insert batch
+    public void recordBatch(IngestionJob job, long rows, long bytes) {
+        DistributionSummary.builder("ingestion.batch.rows")
+                .tag("source", source(job))
+                .tag("table", table(job))
+                .register(registry)
+                .record(rows);
+        DistributionSummary.builder("ingestion.batch.bytes")
+                .baseUnit("bytes")
+                .tag("source", source(job))
+                .tag("table", table(job))
+                .register(registry)
+                .record(bytes);
+    }
+
+    public void recordError(String source, String table, Throwable error) {
+        Counter.builder("ingestion.errors")
+                .tag("source", source == null ? "unknown" : source)
+                .tag("table", tableTag(table))
+                .tag("exception", error.getClass().getSimpleName())
+                .register(registry)
+                .increment();
+    }
+
+    public void recordJob(IngestionJob job) {
+        Timer.builder("ingestion.job")
+                .description("Duration of finished ingestion jobs")
+                .tag("status", job.getStatus().name())
+                .tag("source", source(job))
+                .tag("table", table(job))
+                .register(registry)
+                .record(job.getElapsedMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public Timer connectionAcquireTimer(String pool) {
+        return Timer.builder("clickhouse.connection.acquire")
+                .description("Time to borrow a pooled ClickHouse connection")
+                .tag("pool", pool)
+                .register(registry);
+    }
+
+    public Counter connectionTimeoutCounter(String pool) {
+        return Counter.builder("clickhouse.connection.timeouts")
+                .tag("pool", pool)
+                .register(registry);
+    }
+
+    // Drops the meters of a closed connection pool
+    public void removePool(String pool) {
+        registry.find("clickhouse.connection.acquire").tag("pool", pool).meters().forEach(registry::remove);
+        registry.find("clickhouse.connection.timeouts").tag("pool", pool).meters().forEach(registry::remove);
+    }
+
+    // Queue depth, reserved memory and running requests per source, read from the admission service
+    public void registerAdmission(AdmissionService admission) {
+        Gauge.builder("ingestion.admission.queued", admission, AdmissionService::getQueued)
+                .description("Requests waiting for admission")
+                .register(registry);
+        Gauge.builder("ingestion.admission.memory.reserved", admission, AdmissionService::getMemoryReserved)
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("ingestion.admission.memory.budget", admission, AdmissionService::getMemoryBudget)
+                .baseUnit("bytes")
+                .register(registry);
+        for (String source : AdmissionService.SOURCES) {
+            Gauge.builder("ingestion.admission.active", admission, a -> a.getActive(source))
+                    .tag("source", source)
+                    .register(registry);
+        }
+    }
+
+    public void recordAdmissionWait(String source, String priority, long nanos) {
+        Timer.builder("ingestion.admission.wait")
+                .description("Time requests waited for admission")
+                .tag("source", source)
+                .tag("priority", priority)
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordAdmissionRejection(String source, String reason) {
+        Counter.builder("ingestion.admission.rejections")
+                .tag("source", source)
+                .tag("reason", reason)
+                .register(registry)
+                .increment();
+    }
+
+    private static String source(IngestionJob job) {
+        return job == null || job.getSource() == null ? "unknown" : job.getSource();
+    }
+
+    private String table(IngestionJob job) {
+        return tableTag(job == null ? null : job.getTableName());
+    }
+
+    private synchronized String tableTag(String table) {
+        if (table == null || table.isEmpty()) {
+            return "none";
+        }
+        if (tableAllowList != null && !tableAllowList.isEmpty()) {
+            return tableAllowList.contains(table) ? table : OTHER_TABLE;
+        }
+        if (taggedTables.contains(table)) {
+            return table;
+        }
+        if (taggedTables.size() < maxTables) {
+            taggedTables.add(table);
+            return table;
+        }
+        return OTHER_TABLE;
+    }
+
+    private static String direction(IngestionJob job) {
+        return job != null && "clickhouse".equals(job.getSource()) ? "out" : "in";
+    }
+}
@@ -0,0 +1,206 @@
+package com.ingestion.service;
+
+import com.ingestion.model.JoinCondition;
+import com.ingestion.model.JoinStep;
+import com.ingestion.model.QueryPlan;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+// Orders the joins of an export query using table statistics. ClickHouse streams the FROM
+// table and builds the right side of every join into an in-memory hash table, so when all
+// joins are INNER the table with the most rows becomes the FROM table and the rest are
+// joined smallest first. Right-hand tables are read through subqueries of just the columns
+// the query uses, and when those add up to more than the memory limit the query switches to
+// a join algorithm that can spill to disk. Outer joins keep the requested order.
+public final class JoinPlanner {
+
+    public static final class TableStats {
+        private final long rows;
+        private final long uncompressedBytes;
+        private final int columnCount;
+        private final boolean samplingKey;
+
+        public TableStats(long rows, long uncompressedBytes, int columnCount) {
+            this(rows, uncompressedBytes, columnCount, false);
+        }
+
+        public TableStats(long rows, long uncompressedBytes, int columnCount, boolean samplingKey) {
+            this.rows = rows;
+            this.uncompressedBytes = uncompressedBytes;
+            this.columnCount = columnCount;
+            this.samplingKey = samplingKey;
+        }
+
+        public long getRows() { return rows; }
+        public long getUncompressedBytes() { return uncompressedBytes; }
+        public int getColumnCount() { return columnCount; }
+        // Whether the table has a SAMPLE BY key, without which SAMPLE is an error
+        public boolean hasSamplingKey() { return samplingKey; }
+    }
+
+    private final long hashMemoryLimit;
+    private final String spillAlgorithm;
+
+    public JoinPlanner(long hashMemoryLimit, String spillAlgorithm) {
+        this.hashMemoryLimit = hashMemoryLimit;
+        this.spillAlgorithm = spillAlgorithm;
+    }
+
+    public QueryPlan plan(String mainTable, List<String> columns, List<JoinCondition> joinConditions,
+                          Map<String, TableStats> stats) {
+        return plan(mainTable, columns, joinConditions, stats, 0);
+    }
+
+    // With sampleRows above 0, a FROM table with more rows and a sampling key is read through
+    // SAMPLE, so about that many of its rows go into the joins
+    public QueryPlan plan(String mainTable, List<String> columns, List<JoinCondition> joinConditions,
+                          Map<String, TableStats> stats, long sampleRows) {
+        // Columns each table has to provide: its selected columns plus its join keys
+        Map<String, Set<String>> needed = new HashMap<>();
+        List<String> selectList = new ArrayList<>();
+        for (String col : columns) {
+            String table = mainTable;
+            String name = col;
+            if (col.contains(".")) {
+                String[] parts = col.split("\\.");
+                table = parts[0];
+                name = parts[1];
+            }
+            needed.computeIfAbsent(table, t -> new LinkedHashSet<>()).add(name);
+            selectList.add(ClickHouseService.sanitize(table) + "." + ClickHouseService.sanitize(name));
+        }
+        for (JoinCondition jc : joinConditions) {
+            needed.computeIfAbsent(jc.getMainTable(), t -> new LinkedHashSet<>()).add(jc.getmaincolumn());
+            needed.computeIfAbsent(jc.getjoinTable(), t -> new LinkedHashSet<>()).add(jc.getjoincolumn());
+        }
+
+        List<String> notes = new ArrayList<>();
+        String probeTable = mainTable;
+        List<JoinStep> steps = new ArrayList<>();
+        if (reorderable(mainTable, joinConditions)) {
+            for (JoinCondition jc : joinConditions) {
+                if (rows(stats, jc.getjoinTable()) > rows(stats, probeTable)) {
+                    probeTable = jc.getjoinTable();
+                }
+            }
+            if (!probeTable.equals(mainTable)) {
+                notes.add("All joins are INNER: " + probeTable + " has the most rows and is read as the FROM table");
+            }
+            // Grow the join tree from the probe table, always adding the smallest connected table
+            Set<String> joined = new HashSet<>(Collections.singleton(probeTable));
+            List<JoinCondition> pending = new ArrayList<>(joinConditions);
+            while (!pending.isEmpty()) {
+                JoinCondition best = null;
+                boolean bestReversed = false;
+                long bestBytes = 0;
+                for (JoinCondition jc : pending) {
+                    boolean reversed = joined.contains(jc.getjoinTable());
+                    String next = reversed ? jc.getMainTable() : jc.getjoinTable();
+                    if (joined.contains(next) || !joined.contains(reversed ? jc.getjoinTable() : jc.getMainTable())) {
+                        continue;
+                    }
+                    long bytes = buildBytes(stats, next, needed.get(next));
+                    if (best == null || bytes < bestBytes) {
+                        best = jc;
+                        bestReversed = reversed;
+                        bestBytes = bytes;
+                    }
+                }
+                pending.remove(best);
+                String next = bestReversed ? best.getMainTable() : best.getjoinTable();
+                String condition = bestReversed
+                        ? qualify(best.getjoinTable(), best.getjoincolumn()) + " = " + qualify(best.getMainTable(), best.getmaincolumn())
+                        : qualify(best.getMainTable(), best.getmaincolumn()) + " = " + qualify(best.getjoinTable(), best.getjoincolumn());
+                joined.add(next);
+                steps.add(step(next, "INNER", condition, needed.get(next), stats));
+            }
+        } else {
+            if (!joinConditions.isEmpty()) {
+                notes.add("Outer joins, or joins not chained from " + mainTable + ", keep the requested order");
+            }
+            for (JoinCondition jc : joinConditions) {
+                steps.add(step(jc.getjoinTable(), jc.getjoinType(),
+                        qualify(jc.getMainTable(), jc.getmaincolumn()) + " = " + qualify(jc.getjoinTable(), jc.getjoincolumn()),
+                        needed.get(jc.getjoinTable()), stats));
+            }
+        }
+
+        StringBuilder select = new StringBuilder("SELECT ")
+                .append(String.join(", ", selectList))
+                .append(" FROM ").append(ClickHouseService.sanitize(probeTable));
+        TableStats probeStats = stats.get(probeTable);
+        if (sampleRows > 0 && probeStats != null && probeStats.hasSamplingKey() && probeStats.getRows() > sampleRows) {
+            select.append(" SAMPLE ").append(sampleRows);
+            notes.add(probeTable + " is sampled down to about " + sampleRows + " rows");
+        }
+        long totalBuildBytes = 0;
+        List<String> narrowed = new ArrayList<>();
+        for (JoinStep step : steps) {
+            String table = ClickHouseService.sanitize(step.getTable());
+            select.append(" ").append(step.getJoinType()).append(" JOIN ");
+            TableStats tableStats = stats.get(step.getTable());
+            if (tableStats != null && tableStats.getColumnCount() > step.getColumns().size()) {
+                select.append("(SELECT ").append(step.getColumns().stream()
+                        .map(ClickHouseService::sanitize).collect(Collectors.joining(", ")))
+                        .append(" FROM ").append(table).append(") AS ").append(table);
+                narrowed.add(step.getTable());
+            } else {
+                select.append(table);
+            }
+            select.append(" ON ").append(step.getCondition());
+            totalBuildBytes += step.getBuildBytes();
+        }
+        if (!narrowed.isEmpty()) {
+            notes.add("Only the needed columns of " + String.join(", ", narrowed) + " go into hash tables");
+        }
+
+        Map<String, String> settings = new LinkedHashMap<>();
+        if (totalBuildBytes > hashMemoryLimit) {
+            settings.put("join_algorithm", "'" + spillAlgorithm + "'");
+            notes.add("Hash tables of about " + (totalBuildBytes >> 20) + " MB exceed the "
+                    + (hashMemoryLimit >> 20) + " MB limit, joining with " + spillAlgorithm);
+        }
+        return new QueryPlan(select.toString(), probeTable, rows(stats, probeTable), steps, settings, notes);
+    }
+
+    // Only a chain of INNER joins, each hanging off a table joined before it, can be reordered freely
+    private static boolean reorderable(String mainTable, List<JoinCondition> joinConditions) {
+        Set<String> tables = new HashSet<>(Collections.singleton(mainTable));
+        for (JoinCondition jc : joinConditions) {
+            String joinType = jc.getjoinType() == null ? "" : jc.getjoinType().trim();
+            if (!joinType.equalsIgnoreCase("INNER") || !tables.contains(jc.getMainTable())
+                    || !tables.add(jc.getjoinTable())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static JoinStep step(String table, String joinType, String condition, Set<String> columns,
+                                 Map<String, TableStats> stats) {
+        return new JoinStep(table, joinType, condition, new ArrayList<>(columns), rows(stats, table),
+                buildBytes(stats, table, columns));
+    }
+
+    private static long rows(Map<String, TableStats> stats, String table) {
+        TableStats tableStats = stats.get(table);
+        return tableStats == null ? 0 : tableStats.getRows();
+    }
+
+    // Share of the table's uncompressed size taken by the columns read, assuming equal widths
+    private static long buildBytes(Map<String, TableStats> stats, String table, Set<String> columns) {
+        TableStats tableStats = stats.get(table);
+        if (tableStats == null) {
+            return 0;
+        }
+        if (tableStats.getColumnCount() <= columns.size()) {
+            return tableStats.getUncompressedBytes();
+        }
+        return tableStats.getUncompressedBytes() / tableStats.getColumnCount() * columns.size();
+    }
+
+    private static String qualify(String table, String column) {
+        return ClickHouseService.sanitize(table) + "." + ClickHouseService.sanitize(column);
+    }
+}
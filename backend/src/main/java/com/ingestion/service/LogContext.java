@@ -0,0 +1,34 @@
+package com.ingestion.service;
+
+import org.slf4j.MDC;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+// Carries the submitting thread's MDC, e.g. the jobId set by IngestionJobService, over to
+// pool threads so their log lines are attributed to the same job
+final class LogContext {
+    private LogContext() {
+    }
+
+    static <T> Callable<T> propagate(Callable<T> task) {
+        Map<String, String> context = MDC.getCopyOfContextMap();
+        return () -> {
+            Map<String, String> previous = MDC.getCopyOfContextMap();
+            set(context);
+            try {
+                return task.call();
+            } finally {
+                set(previous);
+            }
+        };
+    }
+
+    private static void set(Map<String, String> context) {
+        if (context == null) {
+            MDC.clear();
+        } else {
+            MDC.setContextMap(context);
+        }
+    }
+}
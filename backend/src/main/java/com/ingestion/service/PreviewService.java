@@ -0,0 +1,133 @@
+package com.ingestion.service;
+
+import com.ingestion.io.Compression;
+import com.ingestion.model.JoinCondition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+// Serves /ingestion/preview from an LRU cache of recent pages, so clicking between columns
+// and joins that were already shown does not query ClickHouse or parse the file again.
+// Entries expire after the TTL; table entries are also evicted when an import into any of
+// their tables finishes, and flat-file entries are keyed by the file's size and modification
+// time, so a replaced file is never served from the cache.
+@Service
+public class PreviewService {
+
+    private static final class Entry {
+        final List<? extends Map<String, ?>> rows;
+        final Set<String> tables;
+        final long loadedAt;
+
+        Entry(List<? extends Map<String, ?>> rows, Set<String> tables, long loadedAt) {
+            this.rows = rows;
+            this.tables = tables;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private final long ttlMillis;
+    private final Map<List<Object>, Entry> cache;
+    // Bumped by every invalidation, so a page loaded across one is not cached
+    private long generation;
+
+    @Autowired
+    private ClickHouseService clickHouseService;
+    @Autowired
+    private FlatFileService flatFileService;
+
+    public PreviewService(@Value("${ingestion.preview.cache-ttl-ms:30000}") long ttlMillis,
+                          @Value("${ingestion.preview.cache-size:256}") int maxEntries) {
+        this.ttlMillis = ttlMillis;
+        this.cache = new LinkedHashMap<List<Object>, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public List<? extends Map<String, ?>> previewTable(String tableName, List<String> columns,
+                                                       List<JoinCondition> joinConditions, long offset, int limit,
+                                                       String jwtToken) throws SQLException {
+        // Credentials are part of the key: another user may not see the same rows
+        List<Object> key = Arrays.asList("clickhouse", tableName, columns, joinConditions.stream()
+                .map(jc -> jc.getjoinType() + " " + jc.getMainTable() + "." + jc.getmaincolumn() + "="
+                        + jc.getjoinTable() + "." + jc.getjoincolumn())
+                .collect(Collectors.toList()), offset, limit, jwtToken);
+        List<? extends Map<String, ?>> rows = get(key);
+        if (rows == null) {
+            long loadGeneration = generation();
+            rows = clickHouseService.previewRows(tableName, columns, joinConditions, offset, limit, jwtToken);
+            Set<String> tables = new HashSet<>();
+            tables.add(tableName);
+            for (JoinCondition jc : joinConditions) {
+                tables.add(jc.getMainTable());
+                tables.add(jc.getjoinTable());
+            }
+            put(key, rows, tables, loadGeneration);
+        }
+        return rows;
+    }
+
+    public List<? extends Map<String, ?>> previewFile(String filePath, List<String> columns, Compression compression,
+                                                      long offset, int limit) throws IOException {
+        File file = new File(filePath);
+        List<Object> key = Arrays.asList("flatfile", file.getAbsolutePath(), file.length(), file.lastModified(),
+                columns, compression, offset, limit);
+        List<? extends Map<String, ?>> rows = get(key);
+        if (rows == null) {
+            long loadGeneration = generation();
+            rows = flatFileService.previewRows(filePath, columns, compression, offset, limit);
+            put(key, rows, Collections.emptySet(), loadGeneration);
+        }
+        return rows;
+    }
+
+    public synchronized void invalidateAll() {
+        generation++;
+        cache.clear();
+    }
+
+    // Drops every page read from the table, directly or through a join
+    public synchronized void invalidateTable(String tableName) {
+        generation++;
+        cache.values().removeIf(entry -> entry.tables.contains(tableName));
+    }
+
+    private synchronized long generation() {
+        return generation;
+    }
+
+    private synchronized List<? extends Map<String, ?>> get(List<Object> key) {
+        Entry entry = cache.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.loadedAt >= ttlMillis) {
+            cache.remove(key);
+            return null;
+        }
+        return entry.rows;
+    }
+
+    private synchronized void put(List<Object> key, List<? extends Map<String, ?>> rows, Set<String> tables,
+                                  long loadGeneration) {
+        if (loadGeneration != generation) {
+            return;
+        }
+        cache.put(key, new Entry(Collections.unmodifiableList(rows), tables, System.currentTimeMillis()));
+    }
+}
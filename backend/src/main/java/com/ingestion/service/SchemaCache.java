@@ -0,0 +1,83 @@
+package com.ingestion.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// In-process cache of the table list and per-table column types. Entries expire after
+// the TTL, the column map is LRU-bounded, and DDL issued by this service invalidates
+// the affected table explicitly.
+@Component
+public class SchemaCache {
+
+    private static final class Entry<T> {
+        final T value;
+        final long loadedAt;
+
+        Entry(T value, long loadedAt) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private final long ttlMillis;
+    private final Map<String, Entry<Map<String, String>>> columns;
+    private Entry<List<String>> tables;
+
+    public SchemaCache(@Value("${clickhouse.metadata.ttl-ms:60000}") long ttlMillis,
+                       @Value("${clickhouse.metadata.max-tables:1000}") int maxTables) {
+        this.ttlMillis = ttlMillis;
+        this.columns = new LinkedHashMap<String, Entry<Map<String, String>>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry<Map<String, String>>> eldest) {
+                return size() > maxTables;
+            }
+        };
+    }
+
+    // Returns null when the table list is missing or stale
+    public synchronized List<String> getTables() {
+        return isFresh(tables) ? tables.value : null;
+    }
+
+    public synchronized void putTables(List<String> tableNames) {
+        tables = new Entry<>(Collections.unmodifiableList(new ArrayList<>(tableNames)), System.currentTimeMillis());
+    }
+
+    // Column name -> ClickHouse type in table order, or null when missing or stale
+    public synchronized Map<String, String> getColumns(String table) {
+        Entry<Map<String, String>> entry = columns.get(table);
+        if (entry == null) {
+            return null;
+        }
+        if (!isFresh(entry)) {
+            columns.remove(table);
+            return null;
+        }
+        return entry.value;
+    }
+
+    public synchronized void putColumns(String table, Map<String, String> columnTypes) {
+        columns.put(table, new Entry<>(Collections.unmodifiableMap(new LinkedHashMap<>(columnTypes)),
+                System.currentTimeMillis()));
+    }
+
+    public synchronized void invalidate(String table) {
+        columns.remove(table);
+        tables = null;
+    }
+
+    public synchronized void invalidateAll() {
+        columns.clear();
+        tables = null;
+    }
+
+    private boolean isFresh(Entry<?> entry) {
+        return entry != null && System.currentTimeMillis() - entry.loadedAt < ttlMillis;
+    }
+}
@@ -0,0 +1,388 @@
+package com.ingestion.service;
+
+import com.ingestion.io.Compression;
+import com.ingestion.io.ParquetFiles;
+import com.ingestion.io.ParquetRecordSource;
+import com.ingestion.model.InferredColumn;
+import com.ingestion.model.SchemaReport;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+// Samples a flat file (the first rows plus random blocks further in) and picks the
+// narrowest ClickHouse type that fits every sampled value of each column, along with
+// an ORDER BY key built from the lowest-cardinality columns. Parquet files carry their
+// types, so for them only cardinality and nulls are sampled. Unless the sample covered the
+// whole file, a later value may not fit; the report says so and the caller may override types.
+@Service
+public class TypeInferenceService {
+    private static final Pattern INTEGER = Pattern.compile("-?(0|[1-9][0-9]{0,18})");
+    private static final Pattern DECIMAL = Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][-+]?[0-9]+)?");
+    private static final Pattern DATE = Pattern.compile("[0-9]{4}-[0-9]{2}-[0-9]{2}");
+    private static final Pattern DATE_TIME = Pattern.compile("[0-9]{4}-[0-9]{2}-[0-9]{2}[ T][0-9]{2}:[0-9]{2}:[0-9]{2}");
+    // Types a caller may choose for a column: those the import can bind, optionally Nullable
+    // and LowCardinality
+    private static final Pattern OVERRIDE_TYPE = Pattern.compile("(LowCardinality\\()?(Nullable\\()?"
+            + "(String|U?Int(8|16|32|64)|Float(32|64)|Bool|Date|DateTime|DateTime64\\([0-9]\\)"
+            + "|Decimal\\([0-9]{1,2}, ?[0-9]{1,2}\\))\\)?\\)?");
+    // Ranges of ClickHouse Date and DateTime; values outside them stay strings
+    private static final LocalDate MIN_DATE = LocalDate.of(1970, 1, 1);
+    private static final LocalDate MAX_DATE = LocalDate.of(2149, 6, 6);
+    private static final LocalDateTime MAX_DATE_TIME = LocalDateTime.of(2106, 2, 7, 6, 28, 15);
+    // Distinct values tracked per column before it is treated as high-cardinality
+    private static final int DISTINCT_LIMIT = 10000;
+    private static final int MAX_ORDER_BY_COLUMNS = 3;
+
+    @Autowired
+    private FlatFileService flatFileService;
+
+    @Value("${ingestion.inference.sample-rows:1000}")
+    private int sampleRows;
+    @Value("${ingestion.inference.random-blocks:8}")
+    private int randomBlocks;
+    @Value("${ingestion.inference.block-rows:100}")
+    private int blockRows;
+    @Value("${ingestion.inference.low-cardinality-max:1000}")
+    private int lowCardinalityMax;
+
+    // Setters for building the service without a Spring context, as the benchmarks do
+    public void setFlatFileService(FlatFileService flatFileService) {
+        this.flatFileService = flatFileService;
+    }
+
+    public void setSampling(int sampleRows, int randomBlocks, int blockRows, int lowCardinalityMax) {
+        this.sampleRows = sampleRows;
+        this.randomBlocks = randomBlocks;
+        this.blockRows = blockRows;
+        this.lowCardinalityMax = lowCardinalityMax;
+    }
+
+    public SchemaReport infer(String filePath, List<String> columns, Compression compression) throws IOException {
+        if (compression == Compression.NONE && ParquetFiles.isParquet(new File(filePath))) {
+            return inferParquet(new File(filePath), columns);
+        }
+        List<String> headers = flatFileService.getColumns(filePath, compression);
+        List<ColumnStats> stats = new ArrayList<>();
+        int[] indexes = new int[columns.size()];
+        for (int i = 0; i < columns.size(); i++) {
+            indexes[i] = headers.indexOf(columns.get(i));
+            if (indexes[i] < 0) {
+                throw new IOException("Column not found in CSV: " + columns.get(i));
+            }
+            stats.add(new ColumnStats(columns.get(i)));
+        }
+
+        long rows;
+        try (CSVParser parser = CSVFormat.DEFAULT.withFirstRecordAsHeader()
+                .parse(flatFileService.openReader(filePath, compression))) {
+            rows = sample(parser, indexes, stats, sampleRows);
+        } catch (RuntimeException e) {
+            throw new IOException("Failed to sample CSV data: " + e.getMessage(), e);
+        }
+        // Fewer rows than the limit means the first pass hit the end of the file
+        boolean wholeFile = rows < sampleRows;
+        // Random blocks need seeking, so they are only taken from uncompressed files
+        if (compression == Compression.NONE) {
+            rows += sampleRandomBlocks(new File(filePath), headers, indexes, stats);
+        }
+
+        List<InferredColumn> inferred = stats.stream().map(s -> toColumn(s, wholeFile)).collect(Collectors.toList());
+        return new SchemaReport(rows, wholeFile, inferred, chooseOrderBy(inferred));
+    }
+
+    // Each column keeps the type it is read as. It is Nullable when the file declares it
+    // optional and its statistics do not rule out nulls; unlike CSV this includes strings,
+    // since Parquet tells NULL apart from an empty string.
+    private SchemaReport inferParquet(File file, List<String> columns) throws IOException {
+        try (ParquetRecordSource records = ParquetRecordSource.open(file)) {
+            List<String> headers = records.getHeaderNames();
+            int[] indexes = new int[columns.size()];
+            String[] types = new String[columns.size()];
+            List<ColumnStats> stats = new ArrayList<>();
+            for (int i = 0; i < columns.size(); i++) {
+                indexes[i] = headers.indexOf(columns.get(i));
+                if (indexes[i] < 0) {
+                    throw new IOException("Column not found in Parquet file: " + columns.get(i));
+                }
+                types[i] = records.clickHouseType(indexes[i]);
+                stats.add(new ColumnStats(columns.get(i)));
+            }
+            records.project(indexes);
+            long rows = 0;
+            while (rows < sampleRows && records.next()) {
+                for (int i = 0; i < indexes.length; i++) {
+                    ColumnStats s = stats.get(i);
+                    s.values++;
+                    if (records.isEmpty(indexes[i])) {
+                        s.empty++;
+                    } else {
+                        s.addDistinct(records.get(indexes[i]));
+                    }
+                }
+                rows++;
+            }
+
+            List<InferredColumn> inferred = new ArrayList<>();
+            for (int i = 0; i < indexes.length; i++) {
+                ColumnStats s = stats.get(i);
+                long nonEmpty = s.values - s.empty;
+                boolean nullable = records.isOptional(indexes[i])
+                        && (s.empty > 0 || records.nullCount(indexes[i]) != 0);
+                String type = nullable ? "Nullable(" + types[i] + ")" : types[i];
+                if (types[i].equals("String") && nonEmpty > 0 && !s.distinctOverflow
+                        && s.distinct.size() <= lowCardinalityMax && s.distinct.size() * 2 <= nonEmpty) {
+                    type = "LowCardinality(" + type + ")";
+                }
+                long distinct = s.distinctOverflow ? Math.max(DISTINCT_LIMIT, nonEmpty) : s.distinct.size();
+                inferred.add(new InferredColumn(s.name, type, nullable, s.values, s.empty, distinct));
+            }
+            return new SchemaReport(rows, rows < sampleRows, inferred, chooseOrderBy(inferred));
+        }
+    }
+
+    private long sample(CSVParser parser, int[] indexes, List<ColumnStats> stats, int limit) {
+        long rows = 0;
+        for (CSVRecord record : parser) {
+            if (rows >= limit) {
+                break;
+            }
+            if (!record.isConsistent()) {
+                continue;
+            }
+            for (int i = 0; i < indexes.length; i++) {
+                stats.get(i).accept(record.get(indexes[i]));
+            }
+            rows++;
+        }
+        return rows;
+    }
+
+    // Seeks to deterministic pseudo-random offsets, drops the partial record there and samples
+    // the following rows. A seek that lands inside a quoted field can misalign a block; such
+    // blocks mostly yield inconsistent records, which are ignored, or fail to parse.
+    private long sampleRandomBlocks(File file, List<String> headers, int[] indexes, List<ColumnStats> stats)
+            throws IOException {
+        long length = file.length();
+        if (randomBlocks <= 0 || length < 1 << 20) {
+            return 0;
+        }
+        Random random = new Random(length);
+        CSVFormat format = CSVFormat.DEFAULT.withHeader(headers.toArray(new String[0]));
+        long rows = 0;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            for (int block = 0; block < randomBlocks; block++) {
+                raf.seek((long) (random.nextDouble() * length));
+                Reader reader = new BufferedReader(new InputStreamReader(
+                        Channels.newInputStream(raf.getChannel()), StandardCharsets.UTF_8));
+                // Skip the remainder of the record the seek landed in
+                int c;
+                while ((c = reader.read()) != -1 && c != '\n') {
+                    // keep skipping
+                }
+                try {
+                    CSVParser parser = format.parse(reader);
+                    rows += sample(parser, indexes, stats, blockRows);
+                } catch (RuntimeException | IOException e) {
+                    // A misaligned block just does not contribute
+                }
+            }
+        }
+        return rows;
+    }
+
+    private InferredColumn toColumn(ColumnStats s, boolean wholeFile) {
+        long nonEmpty = s.values - s.empty;
+        String base;
+        if (nonEmpty == 0) {
+            base = "String";
+        } else if (s.integer) {
+            base = wholeFile ? integerType(s.min, s.max) : "Int64";
+        } else if (s.decimal) {
+            base = "Float64";
+        } else if (s.date) {
+            base = "Date";
+        } else if (s.dateTime) {
+            base = "DateTime";
+        } else if (!s.distinctOverflow && s.distinct.size() <= lowCardinalityMax
+                && s.distinct.size() * 2 <= nonEmpty) {
+            base = "LowCardinality(String)";
+        } else {
+            base = "String";
+        }
+        // Empty strings are kept as-is for string columns; other types need NULL for them
+        boolean nullable = s.empty > 0 && !base.endsWith("String") && !base.endsWith("String)");
+        String type = nullable ? "Nullable(" + base + ")" : base;
+        long distinct = s.distinctOverflow ? Math.max(DISTINCT_LIMIT, nonEmpty) : s.distinct.size();
+        return new InferredColumn(s.name, type, nullable, s.values, s.empty, distinct);
+    }
+
+    // Narrowest signed type holding every value. Only used when every row was sampled; a
+    // sample says nothing about the magnitude of the rows it skipped, so those get Int64.
+    private static String integerType(long min, long max) {
+        if (min >= Byte.MIN_VALUE && max <= Byte.MAX_VALUE) {
+            return "Int8";
+        }
+        if (min >= Short.MIN_VALUE && max <= Short.MAX_VALUE) {
+            return "Int16";
+        }
+        if (min >= Integer.MIN_VALUE && max <= Integer.MAX_VALUE) {
+            return "Int32";
+        }
+        return "Int64";
+    }
+
+    // The patterns only check the shape; 2023-02-30 and 13:61:00 are rejected here
+    private static boolean isDate(String value) {
+        if (!DATE.matcher(value).matches()) {
+            return false;
+        }
+        try {
+            LocalDate date = LocalDate.parse(value);
+            return !date.isBefore(MIN_DATE) && !date.isAfter(MAX_DATE);
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    private static boolean isDateTime(String value) {
+        if (!DATE_TIME.matcher(value).matches()) {
+            return false;
+        }
+        try {
+            LocalDateTime dateTime = LocalDateTime.parse(value.replace(' ', 'T'));
+            return !dateTime.toLocalDate().isBefore(MIN_DATE) && !dateTime.isAfter(MAX_DATE_TIME);
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    // Low-cardinality, non-nullable columns first, ordered by increasing cardinality;
+    // near-unique columns make poor sort key prefixes and are skipped
+    private List<String> chooseOrderBy(List<InferredColumn> columns) {
+        return columns.stream()
+                .filter(c -> !c.isNullable() && !c.getType().startsWith("Float"))
+                .filter(c -> c.getSampledValues() > 0 && c.getDistinctEstimate() * 2 <= c.getSampledValues())
+                .sorted(Comparator.comparingLong(InferredColumn::getDistinctEstimate))
+                .limit(MAX_ORDER_BY_COLUMNS)
+                .map(InferredColumn::getName)
+                .collect(Collectors.toList());
+    }
+
+    public static boolean isSupportedType(String type) {
+        if (type == null || !OVERRIDE_TYPE.matcher(type).matches()) {
+            return false;
+        }
+        // Both wrappers are optional, but each needs its own closing parenthesis
+        int open = type.length() - type.replace("(", "").length();
+        int close = type.length() - type.replace(")", "").length();
+        return open == close;
+    }
+
+    // Replaces inferred types with the caller's, e.g. String for a column that looked numeric
+    // in the sample. A column made Nullable or Float leaves the sort key, as chooseOrderBy would.
+    public static SchemaReport withTypes(SchemaReport report, Map<String, String> types) {
+        if (types == null || types.isEmpty()) {
+            return report;
+        }
+        List<InferredColumn> columns = new ArrayList<>();
+        for (InferredColumn c : report.getColumns()) {
+            String type = types.get(c.getName());
+            columns.add(type == null ? c : new InferredColumn(c.getName(), type, type.contains("Nullable("),
+                    c.getSampledValues(), c.getEmptyValues(), c.getDistinctEstimate()));
+        }
+        List<String> orderBy = report.getOrderBy().stream()
+                .filter(name -> !types.containsKey(name)
+                        || !types.get(name).contains("Nullable(") && !types.get(name).contains("Float"))
+                .collect(Collectors.toList());
+        return new SchemaReport(report.getSampledRows(), report.isWholeFile(), columns, orderBy);
+    }
+
+    public static Map<String, String> typesByName(SchemaReport report) {
+        return report.getColumns().stream()
+                .collect(Collectors.toMap(InferredColumn::getName, InferredColumn::getType, (a, b) -> a,
+                        java.util.LinkedHashMap::new));
+    }
+
+    private static final class ColumnStats {
+        final String name;
+        long values;
+        long empty;
+        boolean integer = true;
+        boolean decimal = true;
+        boolean date = true;
+        boolean dateTime = true;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        final Set<String> distinct = new HashSet<>();
+        boolean distinctOverflow;
+
+        ColumnStats(String name) {
+            this.name = name;
+        }
+
+        void accept(String value) {
+            values++;
+            if (value.isEmpty()) {
+                empty++;
+                return;
+            }
+            if (integer) {
+                if (INTEGER.matcher(value).matches()) {
+                    try {
+                        long parsed = Long.parseLong(value);
+                        min = Math.min(min, parsed);
+                        max = Math.max(max, parsed);
+                    } catch (NumberFormatException e) {
+                        integer = false;
+                    }
+                } else {
+                    integer = false;
+                }
+            }
+            if (decimal && !integer) {
+                decimal = DECIMAL.matcher(value).matches();
+            }
+            if (date) {
+                date = isDate(value);
+            }
+            if (dateTime) {
+                dateTime = isDateTime(value);
+            }
+            addDistinct(value);
+        }
+
+        void addDistinct(String value) {
+            if (!distinctOverflow) {
+                distinct.add(value);
+                if (distinct.size() > DISTINCT_LIMIT) {
+                    distinct.clear();
+                    distinctOverflow = true;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.ingestion.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// Expected bytes are the RowBinary layouts ClickHouse documents, written out by hand
+class ColumnarBatchTest {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void integersAreLittleEndianAtTheirWidth() throws Exception {
+        assertEquals("ff" + "2c01" + "ffffffff" + "0000000000000080",
+                encode(Arrays.asList("Int8", "Int16", "Int32", "Int64"),
+                        "-1,300,-1,-9223372036854775808"));
+    }
+
+    @Test
+    void unsignedIntegersUseTheirFullRange() throws Exception {
+        assertEquals("ff" + "ffff" + "ffffffff" + "ffffffffffffffff",
+                encode(Arrays.asList("UInt8", "UInt16", "UInt32", "UInt64"),
+                        "255,65535,4294967295,18446744073709551615"));
+    }
+
+    @Test
+    void integersOutsideTheirRangeAreRejected() {
+        assertThrows(SQLException.class, () -> encode(Collections.singletonList("UInt8"), "256"));
+        assertThrows(SQLException.class, () -> encode(Collections.singletonList("UInt8"), "-1"));
+        assertThrows(SQLException.class, () -> encode(Collections.singletonList("Int8"), "128"));
+        assertThrows(SQLException.class, () -> encode(Collections.singletonList("Int32"), "2147483648"));
+        assertThrows(SQLException.class, () -> encode(Collections.singletonList("UInt64"), "-1"));
+        assertThrows(SQLException.class, () -> encode(Collections.singletonList("UInt64"), "18446744073709551616"));
+    }
+
+    @Test
+    void decimalsAreScaledTwosComplementAtThePrecisionWidth() throws Exception {
+        // 12.34 -> 1234 in 4 bytes, -0.01 -> -1, 1 at scale 4 -> 10000 in 8 bytes, -2 in 16 bytes
+        assertEquals("d2040000" + "ffffffff" + "1027000000000000" + "feffffffffffffffffffffffffffffff",
+                encode(Arrays.asList("Decimal(9, 2)", "Decimal(9,2)", "Decimal(18, 4)", "Decimal(38, 0)"),
+                        "12.34,-0.01,1,-2"));
+        assertEquals("0a000000", encode(Collections.singletonList("Decimal(9, 2)"), "0.1"));
+    }
+
+    @Test
+    void decimalsThatDoNotFitAreRejected() {
+        // Too many fraction digits would need rounding; 100.0 needs four digits of precision
+        assertThrows(SQLException.class, () -> encode(Collections.singletonList("Decimal(9, 2)"), "1.234"));
+        assertThrows(SQLException.class, () -> encode(Collections.singletonList("Decimal(3, 1)"), "100.0"));
+    }
+
+    @Test
+    void datesAreDaysAndDateTimesSecondsSinceTheEpoch() throws Exception {
+        assertEquals("0100" + "ffffffff" + "3c000000" + "01",
+                encode(Arrays.asList("Date", "Date32", "DateTime('UTC')", "Bool"),
+                        "1970-01-02,1969-12-31,1970-01-01 00:01:00,true"));
+    }
+
+    @Test
+    void dateTime64CountsTicksAndTruncatesExtraDigits() throws Exception {
+        // 2024-01-02 03:04:05 UTC is 1704164645 s, so 1704164645678 ms
+        assertEquals("2edb20c88c010000" + "2edb20c88c010000" + "60e3160000000000",
+                encode(Arrays.asList("DateTime64(3, 'UTC')", "DateTime64(3, 'UTC')", "DateTime64(6, 'UTC')"),
+                        "2024-01-02 03:04:05.678,2024-01-02T03:04:05.6789,1970-01-01 00:00:01.5"));
+    }
+
+    @Test
+    void uuidIsHighThenLowHalfEachLittleEndian() throws Exception {
+        assertEquals("7766554433221100" + "ffeeddccbbaa9988",
+                encode(Collections.singletonList("UUID"), "00112233-4455-6677-8899-aabbccddeeff"));
+    }
+
+    @Test
+    void floatsAreIeeeLittleEndian() throws Exception {
+        assertEquals("0000c03f" + "00000000000002c0",
+                encode(Arrays.asList("Float32", "Float64"), "1.5,-2.25"));
+    }
+
+    @Test
+    void nullableColumnsPrefixAFlagAndSkipTheValueWhenNull() throws Exception {
+        // Row 1: 5, "ab", "é" in two UTF-8 bytes, "". Row 2: NULL, NULL, "", "" since only
+        // Nullable columns read an empty CSV field as NULL
+        assertEquals("0005000000" + "00026162" + "02c3a9" + "00" + "01" + "01" + "00" + "00",
+                encode(Arrays.asList("Nullable(Int32)", "LowCardinality(Nullable(String))",
+                        "LowCardinality(String)", "String"), "5,ab,é,", ",,,"));
+    }
+
+    @Test
+    void stringsKeepRowOrderAcrossTheDictionaryLimit() throws Exception {
+        String[] lines = new String[5000];
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < lines.length; i++) {
+            // Repeats at first, then more distinct values than the dictionary holds
+            lines[i] = i < 1000 ? "v" + (i % 7) : "v" + i;
+            byte[] value = lines[i].getBytes(StandardCharsets.UTF_8);
+            expected.append(String.format("%02x", value.length)).append(hex(value));
+        }
+        assertEquals(expected.toString(), encode(Collections.singletonList("String"), lines));
+    }
+
+    @Test
+    void clearedBatchIsReusable() throws Exception {
+        ColumnarBatch batch = ColumnarBatch.forTypes(Arrays.asList("String", "Int16"), UTC);
+        add(batch, "a,1", "b,2");
+        batch.clear();
+        add(batch, "c,3");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        batch.writeRowBinary(out);
+        assertEquals(1, batch.getRows());
+        assertEquals("0163" + "0300", hex(out.toByteArray()));
+    }
+
+    @Test
+    void typesWithoutAnEncodingGiveNoBatch() {
+        assertNull(ColumnarBatch.forTypes(Arrays.asList("String", "Array(String)"), UTC));
+        assertNull(ColumnarBatch.forTypes(Collections.singletonList("DateTime64(10)"), UTC));
+    }
+
+    private String encode(List<String> types, String... lines) throws IOException, SQLException {
+        ColumnarBatch batch = ColumnarBatch.forTypes(types, UTC);
+        add(batch, lines);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        batch.writeRowBinary(out);
+        return hex(out.toByteArray());
+    }
+
+    // Adds each line as one record through the memory-mapped parser, as an import does
+    private void add(ColumnarBatch batch, String... lines) throws IOException, SQLException {
+        Path path = Files.createTempFile(dir, "batch", ".csv");
+        Files.write(path, (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+        File file = path.toFile();
+        try (MappedCsvReader reader = new MappedCsvReader(file, 0, file.length())) {
+            while (reader.next()) {
+                int[] fields = new int[reader.size()];
+                for (int i = 0; i < fields.length; i++) {
+                    fields[i] = i;
+                }
+                batch.addRow(reader, fields);
+            }
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
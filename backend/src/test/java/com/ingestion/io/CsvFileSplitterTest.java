@@ -0,0 +1,122 @@
+package com.ingestion.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CsvFileSplitterTest {
+
+    private static final String HEADER = "id,note\n";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void splitPointInsideQuotedNewlinesMovesToNextRecord() throws IOException {
+        // One record whose quoted field holds most of the file and many newlines, so every
+        // even split target lands inside it
+        StringBuilder field = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            field.append("line ").append(i).append(",\"\"x\"\"\n");
+        }
+        String csv = HEADER + "1,a\n2,\"" + field + "\"\n3,b\n4,c\n";
+        File file = write(csv);
+        long quotedStart = csv.indexOf("2,\"");
+        long quotedEnd = csv.indexOf("\n3,b") + 1;
+
+        for (int parts = 1; parts <= 16; parts++) {
+            List<CsvFileSplitter.Range> ranges = CsvFileSplitter.split(file, parts);
+            assertCovers(file, ranges, parts);
+            for (CsvFileSplitter.Range range : ranges) {
+                assertFalse(range.getStart() > quotedStart && range.getStart() < quotedEnd,
+                        parts + " parts: range starts inside the quoted field at " + range.getStart());
+            }
+            assertEquals(expectedRecords(file), readRanges(file, ranges), parts + " parts");
+        }
+    }
+
+    @Test
+    void rangesCoverEveryRecordExactlyOnce() throws IOException {
+        StringBuilder csv = new StringBuilder(HEADER);
+        for (int i = 0; i < 300; i++) {
+            csv.append(i).append(',');
+            if (i % 4 == 0) {
+                csv.append("\"multi\nline\r\nnote ").append(i).append('"');
+            } else if (i % 4 == 1) {
+                csv.append("\"quote \"\"").append(i).append("\"\"\"");
+            } else if (i % 4 == 2) {
+                csv.append("5'").append(i % 12).append('"');
+            } else {
+                csv.append("plain");
+            }
+            csv.append('\n');
+        }
+        File file = write(csv.toString());
+        List<String> expected = expectedRecords(file);
+        assertEquals(300, expected.size());
+
+        for (int parts = 1; parts <= 32; parts++) {
+            List<CsvFileSplitter.Range> ranges = CsvFileSplitter.split(file, parts);
+            assertTrue(ranges.size() <= parts, parts + " parts gave " + ranges.size() + " ranges");
+            assertCovers(file, ranges, parts);
+            assertEquals(expected, readRanges(file, ranges), parts + " parts");
+        }
+    }
+
+    @Test
+    void headerOnlyFileHasNoRanges() throws IOException {
+        assertTrue(CsvFileSplitter.split(write(HEADER), 4).isEmpty());
+    }
+
+    // Ranges must be non-empty, contiguous and span from the end of the header to the end of the file
+    private static void assertCovers(File file, List<CsvFileSplitter.Range> ranges, int parts) {
+        assertFalse(ranges.isEmpty(), parts + " parts");
+        long position = HEADER.length();
+        for (CsvFileSplitter.Range range : ranges) {
+            assertEquals(position, range.getStart(), parts + " parts");
+            assertTrue(range.length() > 0, parts + " parts");
+            position = range.getEnd();
+        }
+        assertEquals(file.length(), position, parts + " parts");
+    }
+
+    private static List<String> expectedRecords(File file) throws IOException {
+        List<String> records = new ArrayList<>();
+        try (MappedCsvReader reader = MappedCsvReader.open(file)) {
+            reader.readHeader();
+            while (reader.next()) {
+                records.add(reader.get(0) + "|" + reader.get(1));
+            }
+        }
+        return records;
+    }
+
+    private static List<String> readRanges(File file, List<CsvFileSplitter.Range> ranges) throws IOException {
+        List<String> records = new ArrayList<>();
+        for (CsvFileSplitter.Range range : ranges) {
+            try (MappedCsvReader reader = new MappedCsvReader(file, range.getStart(), range.getEnd())) {
+                while (reader.next()) {
+                    records.add(reader.get(0) + "|" + reader.get(1));
+                }
+            }
+        }
+        return records;
+    }
+
+    private File write(String content) throws IOException {
+        Path path = Files.createTempFile(dir, "input", ".csv");
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+        return path.toFile();
+    }
+}
@@ -0,0 +1,113 @@
+package com.ingestion.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DelimitedRowWriterTest {
+
+    private static final String[] STRING_TYPES = {"String", "Nullable(String)"};
+
+    @Test
+    void csvQuotesOnlyFieldsThatNeedIt() throws IOException {
+        String out = write(DelimitedRowWriter.Format.CSV, STRING_TYPES,
+                new String[]{"plain", "a,b"},
+                new String[]{"say \"hi\"", "line1\nline2"},
+                new String[]{"cr\r\nlf", "tab\there"},
+                new String[]{"back\\slash", "5'10\""});
+
+        assertEquals("a,b\n"
+                + "plain,\"a,b\"\n"
+                + "\"say \"\"hi\"\"\",\"line1\nline2\"\n"
+                + "\"cr\r\nlf\",tab\there\n"
+                + "back\\slash,\"5'10\"\"\"\n", out);
+    }
+
+    @Test
+    void tsvEscapesControlCharactersAndBackslashes() throws IOException {
+        String out = write(DelimitedRowWriter.Format.TSV, STRING_TYPES,
+                new String[]{"tab\there", "line1\nline2"},
+                new String[]{"cr\rx", "back\\slash"},
+                new String[]{"nul\0bs\bff\f", "quote \"and\", comma"});
+
+        assertEquals("a\tb\n"
+                + "tab\\there\tline1\\nline2\n"
+                + "cr\\rx\tback\\\\slash\n"
+                + "nul\\0bs\\bff\\f\tquote \"and\", comma\n", out);
+    }
+
+    @Test
+    void nullIsEmptyInCsvAndBackslashNInTsv() throws IOException {
+        String[] row = {null, ""};
+
+        assertEquals("a,b\n,\n", write(DelimitedRowWriter.Format.CSV, STRING_TYPES, row));
+        assertEquals("a\tb\n\\N\t\n", write(DelimitedRowWriter.Format.TSV, STRING_TYPES, row));
+    }
+
+    @Test
+    void nonAsciiIsEncodedAsUtf8() throws IOException {
+        // Two-, three- and four-byte sequences, next to characters that force escaping
+        String value = "é€😀,\"ü\"";
+        for (DelimitedRowWriter.Format format : DelimitedRowWriter.Format.values()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DelimitedRowWriter writer = new DelimitedRowWriter(bytes, format)) {
+                writer.writeHeader(Arrays.asList("a", "b"), STRING_TYPES);
+                writer.writeRow(new String[]{value, "ñ"});
+            }
+            String quoted = format == DelimitedRowWriter.Format.CSV
+                    ? "\"é€😀,\"\"ü\"\"\"" : "é€😀,\"ü\"";
+            char delimiter = format == DelimitedRowWriter.Format.CSV ? ',' : '\t';
+            String expected = "a" + delimiter + "b\n" + quoted + delimiter + "ñ\n";
+            assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), bytes.toByteArray(), format.name());
+        }
+    }
+
+    @Test
+    void unpairedSurrogateBecomesQuestionMark() throws IOException {
+        assertEquals("a,b\nx?y,\n",
+                write(DelimitedRowWriter.Format.CSV, STRING_TYPES, new String[]{"x\uD83Dy", ""}));
+    }
+
+    @Test
+    void valuesLongerThanTheBufferAreEscapedAcrossFlushes() throws IOException {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            value.append("\"é\n");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DelimitedRowWriter writer = new DelimitedRowWriter(bytes, DelimitedRowWriter.Format.CSV, 64)) {
+            writer.writeHeader(Arrays.asList("a", "b"), STRING_TYPES);
+            writer.writeRow(new String[]{value.toString(), "x"});
+        }
+
+        String expected = "a,b\n\"" + value.toString().replace("\"", "\"\"") + "\",x\n";
+        assertEquals(expected, new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void plainTypesAreCopiedWithoutQuoting() throws IOException {
+        String out = write(DelimitedRowWriter.Format.CSV, new String[]{"Nullable(Int64)", "DateTime"},
+                new String[]{"-42", "2024-01-02 03:04:05"},
+                new String[]{null, "1970-01-01 00:00:00"});
+
+        assertEquals("a,b\n-42,2024-01-02 03:04:05\n,1970-01-01 00:00:00\n", out);
+    }
+
+    private static String write(DelimitedRowWriter.Format format, String[] types, String[]... rows)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DelimitedRowWriter writer = new DelimitedRowWriter(bytes, format)) {
+            writer.writeHeader(Arrays.asList("a", "b"), types);
+            for (String[] row : rows) {
+                writer.writeRow(row);
+            }
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,129 @@
+package com.ingestion.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MappedCsvReaderTest {
+
+    private static final String BARE_QUOTES = "1,5'10\",bob\n2,6'1\",al\n3,x,y";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void projectedScanMatchesFullParseWithBareQuotes() throws IOException {
+        File file = write(BARE_QUOTES);
+
+        List<List<String>> full = readAll(file, null, Long.MAX_VALUE);
+        List<List<String>> projected = readAll(file, new int[]{0}, Long.MAX_VALUE);
+
+        assertEquals(3, full.size());
+        assertEquals(Arrays.asList("2", "6'1\"", "al"), full.get(1));
+        assertEquals(firstColumn(full), firstColumn(projected));
+    }
+
+    @Test
+    void projectedScanHandlesQuotedNewlinesAndEscapes() throws IOException {
+        File file = write("1,\"a\nb\",c\n2,\"say \"\"hi\"\"\n\",d\n3,e\"f,\"\"\n4,,\"\"\n");
+
+        List<List<String>> full = readAll(file, null, Long.MAX_VALUE);
+        List<List<String>> projected = readAll(file, new int[]{0}, Long.MAX_VALUE);
+
+        assertEquals(4, full.size());
+        assertEquals("say \"hi\"\n", full.get(1).get(1));
+        assertEquals("e\"f", full.get(2).get(1));
+        assertEquals(firstColumn(full), firstColumn(projected));
+    }
+
+    @Test
+    void smallWindowsMatchLargeWindows() throws IOException {
+        File file = write("1,\"x,\"\"y\"\"\",5'10\"\n2,\"multi\nline\",z\n" + BARE_QUOTES + "\n");
+
+        List<List<String>> expected = readAll(file, null, Long.MAX_VALUE);
+        for (long window = 1; window <= 16; window++) {
+            assertEquals(expected, readAll(file, null, window), "window " + window);
+            assertEquals(firstColumn(expected), firstColumn(readAll(file, new int[]{0}, window)),
+                    "projected window " + window);
+        }
+    }
+
+    @Test
+    void splitRangesCoverSameRecordsAsFullParse() throws IOException {
+        StringBuilder csv = new StringBuilder("id,height,name\n");
+        for (int i = 0; i < 200; i++) {
+            if (i % 3 == 0) {
+                csv.append(i).append(",5'").append(i % 12).append("\",bob\n");
+            } else if (i % 3 == 1) {
+                csv.append(i).append(",\"line\none\",\"q\"\"\"\n");
+            } else {
+                csv.append(i).append(",x,y\n");
+            }
+        }
+        File file = write(csv.toString());
+
+        List<String> expected = new ArrayList<>();
+        try (MappedCsvReader reader = MappedCsvReader.open(file)) {
+            reader.readHeader();
+            while (reader.next()) {
+                expected.add(reader.get(0));
+            }
+        }
+        assertEquals(200, expected.size());
+
+        for (int parts = 1; parts <= 8; parts++) {
+            List<String> actual = new ArrayList<>();
+            for (CsvFileSplitter.Range range : CsvFileSplitter.split(file, parts)) {
+                try (MappedCsvReader reader = new MappedCsvReader(file, range.getStart(), range.getEnd())) {
+                    reader.project(new int[]{0});
+                    while (reader.next()) {
+                        actual.add(reader.get(0));
+                    }
+                }
+            }
+            assertEquals(expected, actual, parts + " parts");
+        }
+    }
+
+    private File write(String content) throws IOException {
+        Path path = Files.createTempFile(dir, "input", ".csv");
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+        return path.toFile();
+    }
+
+    private static List<List<String>> readAll(File file, int[] projection, long window) throws IOException {
+        List<List<String>> rows = new ArrayList<>();
+        try (MappedCsvReader reader = new MappedCsvReader(file, 0, file.length(), window)) {
+            if (projection != null) {
+                reader.project(projection);
+            }
+            while (reader.next()) {
+                int width = projection == null ? reader.size() : projection.length;
+                List<String> row = new ArrayList<>(width);
+                for (int i = 0; i < width; i++) {
+                    row.add(reader.get(projection == null ? i : projection[i]));
+                }
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    private static List<String> firstColumn(List<List<String>> rows) {
+        List<String> column = new ArrayList<>(rows.size());
+        for (List<String> row : rows) {
+            column.add(row.get(0));
+        }
+        return column;
+    }
+}
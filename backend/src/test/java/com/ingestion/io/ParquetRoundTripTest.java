@@ -0,0 +1,205 @@
+package com.ingestion.io;
+
+import org.apache.parquet.column.ParquetProperties;
+import org.apache.parquet.format.CompressionCodec;
+import org.apache.parquet.format.FileMetaData;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParquetRoundTripTest {
+
+    private static final List<String> NAMES = Arrays.asList("id", "amount", "ratio", "price", "day", "name", "note");
+    private static final String[] TYPES = {"Int64", "Nullable(Int32)", "Float64", "Decimal(10, 2)", "Date", "String",
+            "Nullable(String)"};
+    private static final CompressionCodec[] CODECS = {CompressionCodec.UNCOMPRESSED, CompressionCodec.SNAPPY,
+            CompressionCodec.GZIP, CompressionCodec.ZSTD, CompressionCodec.LZ4_RAW};
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void typesAndNullsRoundTrip() throws IOException {
+        List<String> names = Arrays.asList("i8", "u64", "f32", "f64", "dec", "date", "flag", "uuid", "s", "ns");
+        String[] types = {"Int8", "UInt64", "Float32", "Float64", "Decimal(18, 4)", "Date", "Bool", "UUID",
+                "LowCardinality(String)", "Nullable(String)"};
+        List<String[]> rows = Arrays.asList(
+                new String[] {"-128", "18446744073709551615", "1.5", "-2.25", "12345.6789", "2024-02-29", "true",
+                        "123e4567-e89b-12d3-a456-426614174000", "", null},
+                new String[] {"127", "0", "nan", "inf", "-0.0001", "1970-01-01", "false",
+                        "00000000-0000-0000-0000-000000000000", "x,\"y\"\nz", ""},
+                new String[] {"0", "42", "-inf", "1.0E-300", "0.0000", "2149-06-06", "true",
+                        "ffffffff-ffff-ffff-ffff-ffffffffffff", "ünïcødé", "plain"});
+
+        for (ParquetProperties.WriterVersion version : ParquetProperties.WriterVersion.values()) {
+            File file = write(CompressionCodec.ZSTD, version, ParquetRowWriter.DEFAULT_ROW_GROUP_BYTES, names, types,
+                    rows);
+            try (ParquetRecordSource records = ParquetRecordSource.open(file)) {
+                assertEquals(names, records.getHeaderNames());
+                assertEquals("String", records.clickHouseType(9));
+                assertTrue(records.isOptional(9));
+                assertFalse(records.isOptional(0));
+            }
+            List<String[]> read = readAll(file);
+            assertEquals(rows.size(), read.size(), version.name());
+            for (int i = 0; i < rows.size(); i++) {
+                assertArrayEquals(rows.get(i), read.get(i), version + " row " + i);
+            }
+        }
+    }
+
+    @Test
+    void nullIsNotAnEmptyString() throws IOException {
+        File file = write(CompressionCodec.UNCOMPRESSED, ParquetProperties.WriterVersion.PARQUET_1_0,
+                ParquetRowWriter.DEFAULT_ROW_GROUP_BYTES, Arrays.asList("s"), new String[] {"Nullable(String)"},
+                Arrays.asList(new String[] {null}, new String[] {""}));
+        try (ParquetRecordSource records = ParquetRecordSource.open(file)) {
+            assertTrue(records.next());
+            assertTrue(records.isEmpty(0));
+            assertTrue(records.next());
+            assertFalse(records.isEmpty(0));
+            assertEquals("", records.get(0));
+        }
+    }
+
+    @Test
+    void everyCodecRoundTrips() throws IOException {
+        List<String[]> rows = rows(0, 5000);
+        for (CompressionCodec codec : CODECS) {
+            for (ParquetProperties.WriterVersion version : ParquetProperties.WriterVersion.values()) {
+                File file = write(codec, version, 1, NAMES, TYPES, rows);
+                FileMetaData footer = ParquetFiles.readFooter(file);
+                assertEquals(5, footer.getRow_groups().size(), codec + " " + version);
+                assertEquals(codec, footer.getRow_groups().get(0).getColumns().get(0).getMeta_data().getCodec());
+                assertRows(rows, readAll(file), codec + " " + version);
+            }
+        }
+    }
+
+    @Test
+    void skipAndRowGroupRangesLandOnTheRightRows() throws IOException {
+        List<String[]> rows = rows(0, 5500);
+        File file = write(CompressionCodec.SNAPPY, ParquetProperties.WriterVersion.PARQUET_1_0, 1, NAMES, TYPES, rows);
+        FileMetaData footer = ParquetFiles.readFooter(file);
+        assertEquals(6, footer.getRow_groups().size());
+
+        for (long skip : new long[] {0, 1, 999, 1000, 2500, 5499, 5500, 6000}) {
+            try (ParquetRecordSource records = ParquetRecordSource.open(file)) {
+                records.project(new int[] {0, 6});
+                records.skip(skip, -1);
+                if (skip >= rows.size()) {
+                    assertFalse(records.next(), "skip " + skip);
+                    continue;
+                }
+                assertTrue(records.next(), "skip " + skip);
+                assertEquals(skip + 1, records.recordNumber());
+                assertEquals(rows.get((int) skip)[0], records.get(0));
+                assertEquals(rows.get((int) skip)[6], records.isEmpty(6) ? null : records.get(6));
+            }
+        }
+
+        try (ParquetRecordSource records = ParquetRecordSource.open(file, footer, 2, 4)) {
+            assertEquals(2000, records.rowCount());
+            List<String[]> read = new ArrayList<>();
+            while (records.next()) {
+                read.add(row(records));
+            }
+            assertRows(rows.subList(2000, 4000), read, "row groups 2-3");
+        }
+    }
+
+    @Test
+    void mergeKeepsPartsInOrder() throws IOException {
+        List<String> paths = new ArrayList<>();
+        List<String[]> expected = new ArrayList<>();
+        for (int part = 0; part < 3; part++) {
+            List<String[]> rows = rows(part * 1500, 1500 + part * 100);
+            expected.addAll(rows);
+            paths.add(write(CODECS[part], ParquetProperties.WriterVersion.PARQUET_1_0, 1, NAMES, TYPES, rows).getPath());
+        }
+        File merged = dir.resolve("merged.parquet").toFile();
+        ParquetFiles.merge(paths, merged.getPath());
+
+        FileMetaData footer = ParquetFiles.readFooter(merged);
+        assertEquals(expected.size(), footer.getNum_rows());
+        assertEquals(6, footer.getRow_groups().size());
+        assertRows(expected, readAll(merged), "merged");
+    }
+
+    @Test
+    void emptyFileHasSchemaButNoRows() throws IOException {
+        File file = write(CompressionCodec.GZIP, ParquetProperties.WriterVersion.PARQUET_1_0,
+                ParquetRowWriter.DEFAULT_ROW_GROUP_BYTES, NAMES, TYPES, new ArrayList<>());
+        try (ParquetRecordSource records = ParquetRecordSource.open(file)) {
+            assertEquals(NAMES, records.getHeaderNames());
+            assertFalse(records.next());
+        }
+    }
+
+    private static List<String[]> rows(int first, int count) {
+        List<String[]> rows = new ArrayList<>();
+        for (int i = first; i < first + count; i++) {
+            rows.add(new String[] {
+                    Long.toString(i * 1_000_003L),
+                    i % 7 == 0 ? null : Integer.toString(i % 1000 - 500),
+                    Double.toString(i / 8.0),
+                    (i / 100) + "." + String.format("%02d", i % 100),
+                    LocalDate.ofEpochDay(i % 40000).toString(),
+                    "name-" + (i % 50),
+                    i % 3 == 0 ? null : i % 3 == 1 ? "" : "note " + i});
+        }
+        return rows;
+    }
+
+    private File write(CompressionCodec codec, ParquetProperties.WriterVersion version, long rowGroupBytes,
+                       List<String> names, String[] types, List<String[]> rows) throws IOException {
+        File file = File.createTempFile("rows", ".parquet", dir.toFile());
+        try (ParquetRowWriter writer = new ParquetRowWriter(new FileOutputStream(file), codec, ZoneOffset.UTC,
+                rowGroupBytes, version)) {
+            writer.writeHeader(names, types);
+            for (String[] row : rows) {
+                writer.writeRow(row);
+            }
+        }
+        return file;
+    }
+
+    private static List<String[]> readAll(File file) throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        try (ParquetRecordSource records = ParquetRecordSource.open(file)) {
+            while (records.next()) {
+                rows.add(row(records));
+            }
+        }
+        return rows;
+    }
+
+    private static String[] row(ParquetRecordSource records) {
+        String[] row = new String[records.size()];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = records.isEmpty(i) ? null : records.get(i);
+        }
+        return row;
+    }
+
+    private static void assertRows(List<String[]> expected, List<String[]> actual, String context) {
+        assertEquals(expected.size(), actual.size(), context);
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i), actual.get(i), context + " row " + i);
+        }
+    }
+}
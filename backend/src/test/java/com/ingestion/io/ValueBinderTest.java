@@ -0,0 +1,71 @@
+package com.ingestion.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ValueBinderTest {
+
+    @Test
+    void valuesAreBoundAsTheirJavaTypes() throws SQLException {
+        assertEquals(Arrays.asList("setLong", 1, -5L), bind("Int32", "-5"));
+        assertEquals(Arrays.asList("setDouble", 1, 1.5), bind("Float32", "1.5"));
+        assertEquals(Arrays.asList("setObject", 1, LocalDate.of(2024, 2, 29)), bind("Date", "2024-02-29"));
+        assertEquals(Arrays.asList("setObject", 1, LocalDateTime.of(2024, 1, 2, 3, 4, 5)),
+                bind("DateTime", "2024-01-02T03:04:05"));
+        assertEquals(Arrays.asList("setBigDecimal", 1, new BigDecimal("12.340")), bind("Decimal(9, 3)", "12.340"));
+        assertEquals(Arrays.asList("setBoolean", 1, true), bind("Bool", "1"));
+        // ClickHouse parses the text, so no sub-second digits are lost
+        assertEquals(Arrays.asList("setString", 1, "2024-01-02 03:04:05.123456"),
+                bind("DateTime64(6)", "2024-01-02 03:04:05.123456"));
+    }
+
+    @Test
+    void emptyValueIsNullOnlyForNullableColumns() throws SQLException {
+        assertEquals(Arrays.asList("setNull", 1, Types.BIGINT), bind("Nullable(Int64)", ""));
+        assertEquals(Arrays.asList("setNull", 1, Types.DATE), bind("LowCardinality(Nullable(Date))", ""));
+        assertEquals(Arrays.asList("setNull", 1, Types.VARCHAR), bind("Nullable(String)", ""));
+        assertEquals(Arrays.asList("setString", 1, ""), bind("String", ""));
+        assertThrows(SQLException.class, () -> bind("Int64", ""));
+    }
+
+    @Test
+    void plainStringsUseTheSharedBinder() {
+        assertSame(ValueBinder.STRING, ValueBinder.forType("String"));
+        assertSame(ValueBinder.STRING, ValueBinder.forType("LowCardinality(String)"));
+    }
+
+    @Test
+    void unparsableValuesNameTheColumnType() {
+        SQLException e = assertThrows(SQLException.class, () -> bind("Nullable(Float64)", "abc"));
+        assertEquals("Value 'abc' is not a valid Nullable(Float64)", e.getMessage());
+        assertThrows(SQLException.class, () -> bind("Date", "2023-02-30"));
+        assertThrows(SQLException.class, () -> bind("Decimal(9, 2)", "1,5"));
+    }
+
+    // Binds the value at index 1 and returns the setter name and its arguments
+    private static List<Object> bind(String type, String value) throws SQLException {
+        List<Object> call = new ArrayList<>();
+        PreparedStatement stmt = (PreparedStatement) Proxy.newProxyInstance(ValueBinderTest.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                    call.add(method.getName());
+                    call.addAll(Arrays.asList(args));
+                    return null;
+                });
+        ValueBinder.forType(type).bind(stmt, 1, value);
+        return call;
+    }
+}
@@ -0,0 +1,177 @@
+package com.ingestion.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdmissionServiceTest {
+
+    private static final long BUDGET = 100;
+
+    @Test
+    void waitersAreAdmittedByPriorityThenArrival() {
+        AdmissionService admission = admission(3);
+        AdmissionService.Permit running = admission.request("flatfile", AdmissionService.Priority.BULK, BUDGET).join();
+
+        List<String> order = new ArrayList<>();
+        List<CompletableFuture<AdmissionService.Permit>> grants = Arrays.asList(
+                track(admission, order, "bulk-1", AdmissionService.Priority.BULK),
+                track(admission, order, "interactive", AdmissionService.Priority.INTERACTIVE),
+                track(admission, order, "bulk-2", AdmissionService.Priority.BULK),
+                track(admission, order, "streaming", AdmissionService.Priority.STREAMING));
+        assertTrue(order.isEmpty());
+        assertEquals(4, admission.getQueued());
+
+        // Each waiter takes the whole budget, so releasing one permit admits exactly one waiter
+        running.close();
+        for (int i = 0; i < grants.size(); i++) {
+            assertEquals(i + 1, order.size());
+            grants.get(indexOf(order.get(i))).join().close();
+        }
+        assertEquals(Arrays.asList("interactive", "streaming", "bulk-1", "bulk-2"), order);
+        assertEquals(0, admission.getMemoryReserved());
+        assertEquals(0, admission.getQueued());
+    }
+
+    @Test
+    void waiterWhoseSourceIsAtItsLimitLetsOthersPass() {
+        AdmissionService admission = admission(1);
+        AdmissionService.Permit flatFile = admission.request("flatfile", AdmissionService.Priority.BULK, 10).join();
+
+        CompletableFuture<AdmissionService.Permit> secondFlatFile =
+                admission.request("flatfile", AdmissionService.Priority.INTERACTIVE, 10);
+        CompletableFuture<AdmissionService.Permit> export =
+                admission.request("clickhouse", AdmissionService.Priority.BULK, 10);
+
+        assertFalse(secondFlatFile.isDone());
+        assertTrue(export.isDone());
+        assertEquals(1, admission.getActive("flatfile"));
+        assertEquals(1, admission.getActive("clickhouse"));
+
+        flatFile.close();
+        assertTrue(secondFlatFile.isDone());
+        assertEquals(1, admission.getActive("flatfile"));
+    }
+
+    @Test
+    void waiterShortOfMemoryHoldsBackSmallerWaitersBehindIt() {
+        AdmissionService admission = admission(3);
+        AdmissionService.Permit running = admission.request("flatfile", AdmissionService.Priority.BULK, 60).join();
+
+        CompletableFuture<AdmissionService.Permit> large =
+                admission.request("clickhouse", AdmissionService.Priority.BULK, 50);
+        CompletableFuture<AdmissionService.Permit> small =
+                admission.request("preview", AdmissionService.Priority.BULK, 10);
+        // 10 bytes would fit, but admitting it ahead could starve the large request
+        assertFalse(large.isDone());
+        assertFalse(small.isDone());
+
+        running.close();
+        assertTrue(large.isDone());
+        assertTrue(small.isDone());
+        assertEquals(60, admission.getMemoryReserved());
+    }
+
+    @Test
+    void releaseAdmitsAsManyWaitersAsFit() {
+        AdmissionService admission = admission(3);
+        AdmissionService.Permit running = admission.request("flatfile", AdmissionService.Priority.BULK, 90).join();
+        CompletableFuture<AdmissionService.Permit> first =
+                admission.request("flatfile", AdmissionService.Priority.BULK, 40);
+        CompletableFuture<AdmissionService.Permit> second =
+                admission.request("clickhouse", AdmissionService.Priority.BULK, 40);
+        CompletableFuture<AdmissionService.Permit> third =
+                admission.request("preview", AdmissionService.Priority.BULK, 40);
+
+        running.close();
+        assertTrue(first.isDone());
+        assertTrue(second.isDone());
+        assertFalse(third.isDone());
+        assertEquals(80, admission.getMemoryReserved());
+
+        // Closing twice returns the reservation once
+        first.join().close();
+        first.join().close();
+        assertTrue(third.isDone());
+        assertEquals(80, admission.getMemoryReserved());
+    }
+
+    @Test
+    void withdrawnWaiterStopsHoldingBackTheQueue() {
+        AdmissionService admission = admission(3);
+        AdmissionService.Permit running = admission.request("flatfile", AdmissionService.Priority.BULK, 60).join();
+        CompletableFuture<AdmissionService.Permit> large =
+                admission.request("clickhouse", AdmissionService.Priority.BULK, 50);
+        CompletableFuture<AdmissionService.Permit> small =
+                admission.request("preview", AdmissionService.Priority.BULK, 10);
+
+        assertTrue(admission.withdraw(large));
+        assertTrue(large.isCancelled());
+        assertTrue(small.isDone());
+        assertEquals(70, admission.getMemoryReserved());
+
+        // An admitted request cannot be withdrawn; its owner closes the permit instead
+        assertFalse(admission.withdraw(small));
+        small.join().close();
+        running.close();
+        assertEquals(0, admission.getMemoryReserved());
+    }
+
+    @Test
+    void requestLargerThanTheBudgetRunsAlone() {
+        AdmissionService admission = admission(3);
+        AdmissionService.Permit huge = admission.request("flatfile", AdmissionService.Priority.BULK, 10 * BUDGET).join();
+        assertEquals(BUDGET, huge.getBytes());
+
+        CompletableFuture<AdmissionService.Permit> next =
+                admission.request("clickhouse", AdmissionService.Priority.INTERACTIVE, 1);
+        assertFalse(next.isDone());
+        huge.close();
+        assertTrue(next.isDone());
+    }
+
+    @Test
+    void fullQueueAndTimedOutWaitAreRejected() {
+        AdmissionService admission = admission(3);
+        admission.setQueueLimits(1, 20);
+        AdmissionService.Permit running = admission.acquire("flatfile", AdmissionService.Priority.BULK, BUDGET);
+
+        assertThrows(RejectedExecutionException.class,
+                () -> admission.acquire("clickhouse", AdmissionService.Priority.BULK, 1));
+        assertEquals(0, admission.getQueued());
+
+        admission.request("clickhouse", AdmissionService.Priority.BULK, 1);
+        assertThrows(RejectedExecutionException.class,
+                () -> admission.request("preview", AdmissionService.Priority.INTERACTIVE, 1));
+        running.close();
+    }
+
+    private static AdmissionService admission(int concurrency) {
+        AdmissionService admission = new AdmissionService(BUDGET, concurrency, concurrency, concurrency);
+        admission.setMetrics(new IngestionMetrics(new SimpleMeterRegistry()));
+        admission.setQueueLimits(100, 1000);
+        return admission;
+    }
+
+    // Requests the whole budget and records the name when the request is admitted
+    private static CompletableFuture<AdmissionService.Permit> track(AdmissionService admission, List<String> order,
+                                                                    String name, AdmissionService.Priority priority) {
+        CompletableFuture<AdmissionService.Permit> grant = admission.request("clickhouse", priority, BUDGET);
+        grant.thenRun(() -> order.add(name));
+        return grant;
+    }
+
+    private static int indexOf(String name) {
+        return Arrays.asList("bulk-1", "interactive", "bulk-2", "streaming").indexOf(name);
+    }
+}
@@ -0,0 +1,51 @@
+package com.ingestion.service;
+
+import com.ingestion.model.JoinCondition;
+import com.ingestion.model.QueryPlan;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class JoinPlannerTest {
+
+    private static final List<String> COLUMNS = Arrays.asList("orders.id", "users.name");
+    private static final List<JoinCondition> JOIN = Collections.singletonList(
+            new JoinCondition("INNER", "users", "id", "orders", "user_id"));
+
+    @Test
+    void sampleFollowsTheFromTableOnly() {
+        // orders has more rows, so it becomes the FROM table even though users was asked for first
+        QueryPlan plan = planner().plan("users", COLUMNS, JOIN, stats(true, true), 1000);
+
+        assertEquals("orders", plan.getProbeTable());
+        assertEquals("SELECT orders.id, users.name FROM orders SAMPLE 1000 INNER JOIN users"
+                + " ON orders.user_id = users.id", plan.getSelect());
+    }
+
+    @Test
+    void noSampleWithoutASamplingKeyOrWhenTheTableIsSmall() {
+        String unsampled = "SELECT orders.id, users.name FROM orders INNER JOIN users ON orders.user_id = users.id";
+
+        assertEquals(unsampled, planner().plan("users", COLUMNS, JOIN, stats(false, true), 1000).getSelect());
+        assertEquals(unsampled, planner().plan("users", COLUMNS, JOIN, stats(true, true), 5_000_000).getSelect());
+        assertEquals(unsampled, planner().plan("users", COLUMNS, JOIN, stats(true, true), 0).getSelect());
+        assertEquals(unsampled, planner().plan("users", COLUMNS, JOIN, stats(true, true)).getSelect());
+    }
+
+    private static JoinPlanner planner() {
+        return new JoinPlanner(1L << 30, "grace_hash");
+    }
+
+    private static Map<String, JoinPlanner.TableStats> stats(boolean ordersSampled, boolean usersSampled) {
+        Map<String, JoinPlanner.TableStats> stats = new HashMap<>();
+        stats.put("orders", new JoinPlanner.TableStats(1_000_000, 1L << 26, 2, ordersSampled));
+        stats.put("users", new JoinPlanner.TableStats(10_000, 1L << 20, 2, usersSampled));
+        return stats;
+    }
+}
@@ -320,7 +320,9 @@ async function startIngestion() {
             const errorText = await response.text();
             throw new Error(`Server error: ${errorText}`);
         }
-        const result = await response.text();
+        const job = await response.json();
+        console.log('Ingestion job submitted:', job);
+        const result = await waitForJob(job.id);
         console.log('Ingestion result:', result);
         document.getElementById('status').textContent = 'Completed';
         document.getElementById('progress').style.width = '100%';
@@ -336,6 +338,29 @@ async function startIngestion() {
     }
 }
 
+async function waitForJob(jobId) {
+    while (true) {
+        const response = await fetch(`${BASE_URL}/jobs/${jobId}`);
+        if (!response.ok) {
+            throw new Error(`Server error: ${await response.text()}`);
+        }
+        const job = await response.json();
+        if (job.status === 'COMPLETED') {
+            return job.result;
+        }
+        if (job.status === 'FAILED' || job.status === 'CANCELLED') {
+            throw new Error(job.error);
+        }
+        const rate = Math.round(job.rowsPerSecond);
+        const eta = job.etaSeconds != null ? `, ETA ${job.etaSeconds}s` : '';
+        document.getElementById('status').textContent = `Ingesting... ${job.rows} rows (${rate} rows/s${eta})`;
+        if (job.totalBytes > 0) {
+            document.getElementById('progress').style.width = `${Math.min(99, 100 * job.bytes / job.totalBytes)}%`;
+        }
+        await new Promise(resolve => setTimeout(resolve, 1000));
+    }
+}
+
 function showResult(message, isError = false) {
     console.log('Showing result:', message);
     const resultDiv = document.getElementById('result');